@@ -0,0 +1,45 @@
+
+package chatty;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The text normalization that is done for every received chat message.
+ *
+ * @author tduva
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HelperBenchmark {
+
+    @Param({
+        "hello everyone Kappa",
+        "this  has   some    duplicate     whitespace and &lt;3 &amp; entities",
+        "Z\u0351\u0351\u0351a\u0362\u0362l\u0334\u0334g\u0335o with combining characters"
+    })
+    public String text;
+
+    @Benchmark
+    public String removeDuplicateWhitespace() {
+        return Helper.removeDuplicateWhitespace(text);
+    }
+
+    @Benchmark
+    public String htmlspecialcharsDecode() {
+        return Helper.htmlspecialchars_decode(text);
+    }
+
+    @Benchmark
+    public String removeCombiningCharacters() {
+        return Helper.removeCombiningCharacters(text);
+    }
+
+}
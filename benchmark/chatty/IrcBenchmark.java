@@ -0,0 +1,98 @@
+
+package chatty;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing and dispatching received lines, with a mix of lines as they are
+ * usually received in a busy channel. Uses {@link Irc#receivedNow(String)}, so
+ * the lines are handled on the benchmark thread instead of being queued for
+ * the stages (which would only measure adding to the queue).
+ *
+ * @author tduva
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IrcBenchmark {
+
+    private static final String[] LINES = new String[]{
+        ":someuser!someuser@someuser.tmi.twitch.tv PRIVMSG #channel :Kappa hello everyone",
+        ":user_123!user_123@user_123.tmi.twitch.tv PRIVMSG #channel :what game is this? http://example.com/abc",
+        ":abc!abc@abc.tmi.twitch.tv PRIVMSG #channel :"+(char)1+"ACTION waves"+(char)1,
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #channel :USERCOLOR someuser #FF0000",
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #channel :EMOTESET someuser [130,793,33]",
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #channel :SPECIALUSER someuser subscriber",
+        ":longer_name_here!longer_name_here@longer_name_here.tmi.twitch.tv PRIVMSG #channel :this is a slightly longer message with a few more words in it PogChamp PogChamp",
+        ":joiner!joiner@joiner.tmi.twitch.tv JOIN #channel",
+        ":parter!parter@parter.tmi.twitch.tv PART #channel",
+        ":jtv MODE #channel +o somemod",
+        ":tmi.twitch.tv 353 me = #channel :a b c d e f g h i j"
+    };
+
+    private CountingIrc irc;
+
+    @Setup
+    public void setup() {
+        irc = new CountingIrc();
+    }
+
+    @Benchmark
+    public int received() {
+        for (String line : LINES) {
+            irc.receivedNow(line);
+        }
+        return irc.count;
+    }
+
+    /**
+     * Doesn't do anything with the received lines except counting them, so
+     * only the parsing is measured.
+     */
+    private static class CountingIrc extends Irc {
+
+        int count;
+
+        @Override
+        public void debug(String line) {
+        }
+
+        @Override
+        void onChannelMessage(String channel, String nick, String from, String text) {
+            count += text.length();
+        }
+
+        @Override
+        void onChannelAction(String channel, String nick, String from, String text) {
+            count += text.length();
+        }
+
+        @Override
+        void onJoin(String channel, String nick, String prefix) {
+            count++;
+        }
+
+        @Override
+        void onPart(String channel, String nick, String prefix, String message) {
+            count++;
+        }
+
+        @Override
+        void onModeChange(String channel, String nick, boolean modeAdded, String mode, String prefix) {
+            count++;
+        }
+
+        @Override
+        void onUserlist(String channel, String[] nicks) {
+            count += nicks.length;
+        }
+    }
+
+}
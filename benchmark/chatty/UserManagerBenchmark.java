@@ -0,0 +1,47 @@
+
+package chatty;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Looking up users, which is done for every received message.
+ *
+ * @author tduva
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UserManagerBenchmark {
+
+    @Param({"100", "10000"})
+    public int users;
+
+    private UserManager userManager;
+    private String[] names;
+    private int index;
+
+    @Setup
+    public void setup() {
+        userManager = new UserManager();
+        names = new String[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = "user"+i;
+            userManager.getUser("#channel", names[i]);
+        }
+    }
+
+    @Benchmark
+    public User getExistingUser() {
+        index = (index + 1) % names.length;
+        return userManager.getUser("#channel", names[index]);
+    }
+
+}
@@ -0,0 +1,66 @@
+
+package chatty.gui;
+
+import chatty.User;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Checking messages against a realistic set of highlight rules, which is done
+ * for every received message (once for highlight, once for ignore).
+ *
+ * @author tduva
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HighlighterBenchmark {
+
+    private static final String[] RULES = new String[]{
+        "w:giveaway", "w:raffle", "streamer", "important", "w:mod",
+        "cs:Chatty", "re:.*(?:buy|cheap) followers.*", "user:somemod",
+        "chan:#channel w:raid", "!chan:#other w:hype", "cat:vip",
+        "color:red w:urgent", "wcs:BAN", "re:^!\\w+", "user:botname w:winner",
+        "w:question", "help", "w:bug", "w:crash", "w:update"
+    };
+
+    private static final String[] MESSAGES = new String[]{
+        "Kappa hello everyone",
+        "what game is this?",
+        "this is a slightly longer message with a few more words in it PogChamp",
+        "is there a giveaway today?",
+        "!uptime",
+        "http://example.com/some/link"
+    };
+
+    private Highlighter highlighter;
+    private User user;
+
+    @Setup
+    public void setup() {
+        highlighter = new Highlighter();
+        highlighter.update(Arrays.asList(RULES));
+        highlighter.setUsername("me");
+        highlighter.setHighlightUsername(true);
+        user = new User("someuser", "#channel");
+    }
+
+    @Benchmark
+    public int check() {
+        int matches = 0;
+        for (String message : MESSAGES) {
+            if (highlighter.check(user, message)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+}
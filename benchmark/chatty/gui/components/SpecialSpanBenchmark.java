@@ -0,0 +1,85 @@
+
+package chatty.gui.components;
+
+import chatty.User;
+import chatty.util.api.Emoticon;
+import chatty.util.api.Emoticons;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finding links and emoticons in a message with
+ * {@link MessageSpecials#find(String, User, Emoticons)}, which is done before
+ * the message is printed, so it doesn't include loading the icons or creating
+ * the styles.
+ *
+ * @author tduva
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SpecialSpanBenchmark {
+
+    @Param({"200", "2000"})
+    public int emoticonCount;
+
+    @Param({
+        "hello everyone",
+        "Kappa PogChamp what game is this? Kappa",
+        "check out http://example.com/some/link and www.twitch.tv FrankerZ"
+    })
+    public String text;
+
+    private Emoticons emoticons;
+    private User user;
+
+    @Setup
+    public void setup() {
+        emoticons = new Emoticons();
+        Set<Emoticon> emotes = new HashSet<>();
+        emotes.add(emote("Kappa", -1, null));
+        emotes.add(emote("PogChamp", -1, null));
+        emotes.add(emote("FrankerZ", -1, null));
+        emotes.add(emote("\\:-?\\)", -1, null));
+        for (int i = 0; i < emoticonCount; i++) {
+            // Global, emoteset and channel emotes
+            if (i % 3 == 0) {
+                emotes.add(emote("global"+i, -1, null));
+            } else if (i % 3 == 1) {
+                emotes.add(emote("sub"+i, i % 20, null));
+            } else {
+                emotes.add(emote("chan"+i, -1, "channel"));
+            }
+        }
+        emoticons.addEmoticons(emotes);
+        user = new User("someuser", "#channel");
+        user.setEmoteSets("[1,2,3]");
+    }
+
+    private static Emoticon emote(String code, int emoteset, String stream) {
+        Emoticon.Builder b = new Emoticon.Builder(Emoticon.Type.TWITCH, code,
+                "http://example.com/emote.png", 28, 28);
+        if (emoteset != -1) {
+            b.setEmoteset(emoteset);
+        }
+        if (stream != null) {
+            b.addStreamRestriction(stream);
+        }
+        return b.build();
+    }
+
+    @Benchmark
+    public int findSpecials() {
+        return MessageSpecials.find(text, user, emoticons).get().size();
+    }
+
+}
@@ -0,0 +1,39 @@
+
+package chatty.util.settings;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading a setting, which is done several times for every received message.
+ *
+ * @author tduva
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SettingsBenchmark {
+
+    private Settings settings;
+
+    @Setup
+    public void setup() {
+        settings = new Settings("benchmark-settings");
+        for (int i = 0; i < 300; i++) {
+            settings.addBoolean("setting"+i, i % 2 == 0);
+        }
+        settings.addBoolean("ignoreJoinsParts", false);
+    }
+
+    @Benchmark
+    public boolean getBoolean() {
+        return settings.getBoolean("ignoreJoinsParts");
+    }
+
+}
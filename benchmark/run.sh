@@ -0,0 +1,32 @@
+#!/bin/sh
+#
+# Builds the benchmarks in this directory and runs them headless with JMH,
+# writing the results as JSON to benchmark/build/results.json.
+#
+# The JMH jars are not included. Put them into benchmark/lib (or point JMH_LIB
+# to a directory containing them): jmh-core, jmh-generator-annprocess,
+# jopt-simple and commons-math3, all available from Maven Central.
+#
+# Usage: benchmark/run.sh [JMH options, e.g. a regex to select benchmarks]
+#
+
+set -e
+cd "$(dirname "$0")/.."
+
+JMH_LIB="${JMH_LIB:-benchmark/lib}"
+OUT=benchmark/build
+
+rm -rf "$OUT"
+mkdir -p "$OUT/classes" "$OUT/generated"
+CP="$(ls lib/*.jar "$JMH_LIB"/*.jar | tr '\n' ':')"
+
+# The main sources use Cp1251, the benchmarks UTF-8
+javac -nowarn -encoding Cp1251 -cp "$CP" -d "$OUT/classes" \
+    $(find src -name '*.java')
+javac -encoding UTF-8 -cp "$CP$OUT/classes" -d "$OUT/classes" \
+    -s "$OUT/generated" \
+    -processor org.openjdk.jmh.generators.BenchmarkProcessor \
+    $(find benchmark -name '*.java')
+
+java -cp "$CP$OUT/classes" org.openjdk.jmh.Main \
+    -f 1 -wi 3 -i 5 -rf json -rff "$OUT/results.json" "$@"
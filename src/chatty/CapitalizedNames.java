@@ -2,6 +2,7 @@
 package chatty;
 
 import chatty.util.DateTime;
+import chatty.util.TimerService;
 import chatty.util.api.TwitchApi;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -19,8 +20,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 /**
@@ -68,8 +67,7 @@ public class CapitalizedNames {
     public CapitalizedNames(TwitchApi api) {
         this.api = api;
         
-        Timer timer = new Timer(true);
-        timer.schedule(new TimerTask() {
+        TimerService.get().schedule(new Runnable() {
 
             @Override
             public void run() {
@@ -1,113 +1,390 @@
-
 package chatty;
 
 import chatty.util.TimedCounter;
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A single connection to a server that can receive and send data.
- * 
+ *
+ * The thread running this only opens the connection, after which the
+ * {@link ConnectionSelector} thread takes over reading and writing, which is
+ * shared by all connections.
+ *
  * @author tduva
  */
 public class Connection implements Runnable {
 
     private static final Logger LOGGER = Logger.getLogger(Connection.class.getName());
-    
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
     private final InetSocketAddress address;
     private final Irc irc;
-    
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+
+    private SocketChannel channel;
+    private volatile ConnectionSelector selector;
+    private volatile SelectionKey key;
     private boolean connected = false;
 
     private int connectionCheckedCount;
-    
+    private long lastCheckedTime;
+
     private static final int ACTIVITY_STATS_INTERVAL = 60*1000;
     private static final int ACTIVITY_STATS_ACCURACY = 5*1000;
     private final TimedCounter activityStats = new TimedCounter(ACTIVITY_STATS_INTERVAL,
             ACTIVITY_STATS_ACCURACY);
-    
+
     private static final int CONNECT_TIMEOUT = 10*1000; // 10 seconds timeout
     private static final int SOCKET_BLOCK_TIMEOUT = 10*1000; // 10 seconds
     private static final int CHECK_CONNECTION_TIMEOUT = 5*60*1000; // 5 minutes
-    
+
+    private static final int READ_BUFFER_SIZE = 16*1024;
+    private static final int WRITE_BUFFER_SIZE = 8*1024;
+    /**
+     * The maximum size a single line may have, any longer line is discarded.
+     */
+    private static final int MAX_LINE_LENGTH = 1024*1024;
+
+    /**
+     * Received data, in write mode, where the data up to the position hasn't
+     * been turned into lines yet. Only accessed by the I/O thread.
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    /**
+     * Where to continue to look for the end of a line in the readBuffer.
+     */
+    private int scanPosition;
+    /**
+     * Reused for decoding complete lines.
+     */
+    private byte[] lineBytes = new byte[READ_BUFFER_SIZE];
+    /**
+     * Whether reading has stopped because received lines can't be handled
+     * fast enough. Only accessed by the I/O thread.
+     */
+    private boolean readingPaused;
+
+    /**
+     * Lines waiting to be written by the I/O thread.
+     */
+    private final Queue<String> outbound = new ConcurrentLinkedQueue<>();
+    /**
+     * Whether the I/O thread has already been asked to flush the outbound
+     * lines, so it's only asked once for several lines sent in a row.
+     */
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    /**
+     * Data still to be sent, in write mode. Only accessed by the I/O thread.
+     */
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final CharsetEncoder encoder = CHARSET.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
     public Connection(Irc irc, InetSocketAddress address) {
         this.irc = irc;
         this.address = address;
     }
-    
+
     public InetSocketAddress getAddress() {
         return address;
     }
-    
+
+    Irc getIrc() {
+        return irc;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
     /**
-     * Thread that opens the connection and receives data from the connection.
+     * Thread that opens the connection and hands it over to the I/O thread.
      */
     @Override
     public void run() {
-        Charset charset = Charset.forName("UTF-8");
         try {
             LOGGER.info("Opening socket to "+address);
-            // Try to connect and open streams
-            socket = new Socket();
-            socket.connect(address, CONNECT_TIMEOUT);
+            // Try to connect and open the channel (connect still blocks, so
+            // the connect timeout can be used)
+            channel = SocketChannel.open();
+            channel.socket().connect(address, CONNECT_TIMEOUT);
             LOGGER.info("Connecting to "
-                    +socket.getRemoteSocketAddress().toString());
-            out = new PrintWriter(
-                    new OutputStreamWriter(socket.getOutputStream(),charset)
-                    );
-            in = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream(),charset)
-                );
-            socket.setSoTimeout(SOCKET_BLOCK_TIMEOUT);
+                    +channel.socket().getRemoteSocketAddress().toString());
+            channel.configureBlocking(false);
+            selector = ConnectionSelector.get();
         } catch (UnknownHostException ex) {
-            irc.disconnected(Irc.ERROR_UNKNOWN_HOST);
+            closeChannel();
+            irc.disconnected(this, Irc.ERROR_UNKNOWN_HOST, "");
             LOGGER.warning(ex.getLocalizedMessage());
             return;
         } catch (SocketTimeoutException ex) {
+            closeChannel();
             LOGGER.warning(ex.getLocalizedMessage());
-            irc.disconnected(Irc.ERROR_SOCKET_TIMEOUT);
+            irc.disconnected(this, Irc.ERROR_SOCKET_TIMEOUT, "");
             return;
         } catch (IOException ex) {
+            closeChannel();
             LOGGER.warning(ex.getLocalizedMessage());
-            irc.disconnected(Irc.ERROR_SOCKET_ERROR,ex.getMessage());
+            irc.disconnected(this, Irc.ERROR_SOCKET_ERROR,ex.getMessage());
             return;
         }
         // At this point the connection succeeded, but not registered with the
         // IRC server (wich is often called "connected" in this context)
-        
+
         connected = true;
-        irc.connected(socket.getInetAddress().toString(),address.getPort());
+        lastCheckedTime = System.currentTimeMillis();
+        irc.connected(this, channel.socket().getInetAddress().toString(),address.getPort());
 
-        while (true) {
-            try {
-                // Read line (blocks, but has a timeout set)
-                String receivedData = in.readLine();
-                if (receivedData == null) {
-                    break;
+        // Any data sent in the meantime stays queued until the channel is
+        // registered
+        selector.register(this);
+    }
+
+    /**
+     * Called by the I/O thread once the channel has been registered.
+     *
+     * @param key The key of the channel
+     */
+    void registered(SelectionKey key) throws IOException {
+        this.key = key;
+        flush();
+    }
+
+    /**
+     * Called by the I/O thread when data can be read. Reads what is available
+     * and turns any complete lines into Strings, while keeping the remainder
+     * of an incomplete line in the buffer.
+     *
+     * @throws IOException
+     */
+    void read() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read == -1) {
+            close();
+            return;
+        }
+        if (read == 0) {
+            return;
+        }
+        lastCheckedTime = System.currentTimeMillis();
+        connectionCheckedCount = 0;
+
+        int end = readBuffer.position();
+        int lineStart = 0;
+        for (int i = scanPosition; i < end; i++) {
+            if (readBuffer.get(i) == '\n') {
+                int lineEnd = i;
+                if (lineEnd > lineStart && readBuffer.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
                 }
-                // Data was received
-                irc.received(receivedData);
-                activity();
-            } catch (SocketTimeoutException ex) {
-                checkConnection();
-            } catch (IOException ex) {
-                LOGGER.info("Error reading from socket: "+ex.getLocalizedMessage());
-                break;
+                receivedLine(lineStart, lineEnd);
+                if (!connected) {
+                    return;
+                }
+                lineStart = i + 1;
             }
         }
 
-        // No longer receiving data, so properly close connection if necessary.
-        close();
+        // Move the start of the incomplete line to the beginning
+        readBuffer.flip();
+        readBuffer.position(lineStart);
+        readBuffer.compact();
+        scanPosition = readBuffer.position();
+
+        if (!readBuffer.hasRemaining()) {
+            growReadBuffer();
+        }
     }
-    
+
+    /**
+     * Makes room for a line that doesn't fit into the read buffer, or
+     * discards it if it is just too long.
+     */
+    private void growReadBuffer() {
+        if (readBuffer.capacity() >= MAX_LINE_LENGTH) {
+            LOGGER.warning("Discarding too long line");
+            readBuffer.clear();
+            scanPosition = 0;
+            return;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(readBuffer.capacity()*2);
+        readBuffer.flip();
+        newBuffer.put(readBuffer);
+        readBuffer = newBuffer;
+    }
+
+    /**
+     * Decodes the given range of the read buffer into a line and gives it to
+     * the Irc object.
+     *
+     * @param start The index of the first byte of the line
+     * @param end The index after the last byte of the line (linebreak already
+     * removed)
+     */
+    private void receivedLine(int start, int end) {
+        int length = end - start;
+        if (lineBytes.length < length) {
+            lineBytes = new byte[readBuffer.capacity()];
+        }
+        for (int i = 0; i < length; i++) {
+            lineBytes[i] = readBuffer.get(start + i);
+        }
+        String line = new String(lineBytes, 0, length, CHARSET);
+        try {
+            irc.received(this, line);
+        } catch (RuntimeException ex) {
+            // Shouldn't stop the I/O thread, which other connections use as well
+            LOGGER.log(Level.SEVERE, "Error handling line: "+line, ex);
+        }
+        activity();
+    }
+
+    /**
+     * Called by the I/O thread to write all lines that have been sent since
+     * the last flush, encoded into the write buffer together, so they can
+     * usually be written in one go.
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        if (key == null) {
+            // Not registered yet, will flush once it is
+            return;
+        }
+        // Reset first, so lines added while draining request another flush
+        flushRequested.set(false);
+        boolean added = false;
+        String line;
+        while ((line = outbound.poll()) != null) {
+            irc.sent(line);
+            encode(line);
+            added = true;
+        }
+        if (added) {
+            activity();
+            write();
+        }
+    }
+
+    /**
+     * Encodes the line into the write buffer, followed by CRLF.
+     *
+     * @param line
+     */
+    private void encode(String line) {
+        CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        while (encoder.encode(chars, writeBuffer, true).isOverflow()) {
+            growWriteBuffer();
+        }
+        while (encoder.flush(writeBuffer).isOverflow()) {
+            growWriteBuffer();
+        }
+        if (writeBuffer.remaining() < 2) {
+            growWriteBuffer();
+        }
+        writeBuffer.put((byte)'\r');
+        writeBuffer.put((byte)'\n');
+    }
+
+    private void growWriteBuffer() {
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(writeBuffer.capacity()*2);
+        writeBuffer.flip();
+        newBuffer.put(writeBuffer);
+        writeBuffer = newBuffer;
+    }
+
+    /**
+     * Called by the I/O thread to stop reading from this connection, until
+     * {@link #resumeReading()} is called. Lines already read are still
+     * handled.
+     *
+     * @return true if reading was stopped, false if it already was
+     */
+    boolean pauseReading() {
+        if (readingPaused) {
+            return false;
+        }
+        readingPaused = true;
+        updateInterestOps();
+        return true;
+    }
+
+    /**
+     * Continue reading from this connection after it has been paused. Can be
+     * called from any thread, the I/O thread takes care of it.
+     */
+    void resumeReading() {
+        ConnectionSelector currentSelector = selector;
+        if (currentSelector != null) {
+            currentSelector.resumeReading(this);
+        }
+    }
+
+    /**
+     * Called by the I/O thread to continue reading.
+     */
+    void readingResumed() {
+        readingPaused = false;
+        updateInterestOps();
+    }
+
+    /**
+     * Sets which operations the I/O thread should wait for, depending on
+     * whether reading is paused and data is waiting to be written.
+     */
+    private void updateInterestOps() {
+        int ops = readingPaused ? 0 : SelectionKey.OP_READ;
+        if (writeBuffer.position() > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Called by the I/O thread when data can be written, or new data was
+     * added. Writes as much of the pending data as possible and waits for
+     * the channel to become writable again if not everything could be
+     * written.
+     *
+     * @throws IOException
+     */
+    void write() throws IOException {
+        writeBuffer.flip();
+        channel.write(writeBuffer);
+        writeBuffer.compact();
+        updateInterestOps();
+    }
+
+    /**
+     * Called by the I/O thread regularly, to check the connection if nothing
+     * was received for some time.
+     *
+     * @param now The current time in milliseconds
+     */
+    void checkIdle(long now) {
+        if (now - lastCheckedTime >= SOCKET_BLOCK_TIMEOUT) {
+            lastCheckedTime = now;
+            checkConnection();
+        }
+    }
+
     /**
      * Notifies the activity tracker that there was activity on the connection.
      */
@@ -115,7 +392,7 @@ public class Connection implements Runnable {
         activityStats.increase();
         connectionCheckedCount = 0;
     }
-    
+
     /**
      * Checks if the server should be pinged. Takes into account the approximate
      * passed time and how active the connection was before it stopped being
@@ -138,35 +415,45 @@ public class Connection implements Runnable {
         // timeout / (1+count/2) = time until ping
         // 300 / (1+x /2)
     }
-    
+
     /**
      * Closes the connection if still connected and cleans up.
      */
     synchronized public void close() {
         if (connected) {
             LOGGER.info("Closing socket.");
+            closeChannel();
+            irc.disconnected(this, Irc.ERROR_CONNECTION_CLOSED, "");
+        }
+        connected = false;
+    }
+
+    /**
+     * Closes the channel, which also cancels it's registration with the
+     * selector.
+     */
+    private void closeChannel() {
+        if (channel != null) {
             try {
-                out.close();
-                in.close();
-                socket.close();
+                channel.close();
             } catch (IOException ex) {
                 LOGGER.warning("Error closing socket: "+ex.getLocalizedMessage());
             }
-            irc.disconnected(Irc.ERROR_CONNECTION_CLOSED);
         }
-        connected = false;
     }
-    
+
     /**
-     * Send a line of data to the server.
-     * 
-     * @param data 
+     * Send a line of data to the server. The line is only queued and this
+     * returns immediately, the I/O thread writes all queued lines together
+     * once it gets to it.
+     *
+     * @param data
      */
-    synchronized public void send(String data) {
-        data = Helper.removeLinebreaks(data);
-        irc.sent(data);
-        out.print(data+"\r\n");
-        out.flush();
-        activity();
+    public void send(String data) {
+        outbound.add(Helper.removeLinebreaks(data));
+        ConnectionSelector currentSelector = selector;
+        if (currentSelector != null && flushRequested.compareAndSet(false, true)) {
+            currentSelector.flush(this);
+        }
     }
 }
@@ -0,0 +1,260 @@
+package chatty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of which channel is joined on which connection, so that joined
+ * channels can be spread over several connections instead of all of them
+ * sharing the main connection.
+ *
+ * The main connection is used for the first channels as well, additional
+ * connections are only opened once it has the maximum number of channels.
+ *
+ * @author tduva
+ */
+public class ConnectionPool {
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    /**
+     * How long to not open any new connection after one failed to register
+     * (in milliseconds).
+     */
+    private static final int FAILURE_DELAY = 30*1000;
+
+    /**
+     * How many channels to join per connection, 0 meaning all channels are
+     * joined on the main connection.
+     */
+    private volatile int channelsPerConnection;
+
+    private Connection main;
+
+    /**
+     * Channels (lowercase, with leading #) and the connection they are joined
+     * on.
+     */
+    private final Map<String, Connection> channels = new HashMap<>();
+
+    /**
+     * The channels for each connection, in the order the connections were
+     * opened.
+     */
+    private final Map<Connection, Set<String>> connections = new LinkedHashMap<>();
+
+    /**
+     * Connections that are registered with the server and can send JOINs.
+     */
+    private final Set<Connection> registered = new HashSet<>();
+
+    private long lastFailure;
+
+    /**
+     * Sets how many channels should be joined per connection. This only
+     * affects channels joined afterwards.
+     *
+     * @param count The number of channels, 0 to join all channels on the main
+     * connection
+     */
+    public void setChannelsPerConnection(int count) {
+        this.channelsPerConnection = Math.max(0, count);
+    }
+
+    public int getChannelsPerConnection() {
+        return channelsPerConnection;
+    }
+
+    /**
+     * Sets the main connection, which is already registered once this is
+     * called. Any previous state is removed.
+     *
+     * @param connection
+     */
+    public synchronized void setMain(Connection connection) {
+        clear();
+        main = connection;
+        connections.put(main, new HashSet<String>());
+        registered.add(main);
+    }
+
+    /**
+     * Assigns the channel to a connection.
+     *
+     * @param channel The channel to join
+     * @return The connection the JOIN should be send on, or {@code null} if
+     * the channel was assigned to a connection that isn't registered yet
+     */
+    public synchronized Connection join(String channel) {
+        Connection current = channels.get(channel);
+        if (current != null) {
+            return registered.contains(current) ? current : null;
+        }
+        Connection connection = findConnection();
+        if (connection == null) {
+            return null;
+        }
+        connections.get(connection).add(channel);
+        channels.put(channel, connection);
+        return registered.contains(connection) ? connection : null;
+    }
+
+    /**
+     * Finds the connection that should be used for a new channel. This will
+     * be the first connection that hasn't reached the maximum number of
+     * channels yet, or otherwise a new connection.
+     *
+     * @return The connection, or {@code null} if no connection is available
+     */
+    private Connection findConnection() {
+        if (main == null) {
+            return null;
+        }
+        int max = channelsPerConnection;
+        if (max <= 0) {
+            return main;
+        }
+        Connection leastChannels = main;
+        for (Map.Entry<Connection, Set<String>> entry : connections.entrySet()) {
+            int count = entry.getValue().size();
+            if (count < max) {
+                return entry.getKey();
+            }
+            if (count < connections.get(leastChannels).size()
+                    && registered.contains(entry.getKey())) {
+                leastChannels = entry.getKey();
+            }
+        }
+        if (System.currentTimeMillis() - lastFailure < FAILURE_DELAY) {
+            // Don't try to open new connections for now, so just add it to
+            // the connection that has the least channels
+            return leastChannels;
+        }
+        Connection connection = new Connection(main.getIrc(), main.getAddress());
+        connections.put(connection, new HashSet<String>());
+        LOGGER.info("Opening additional connection ("+connections.size()+")");
+        new Thread(connection).start();
+        return connection;
+    }
+
+    /**
+     * Removes the channel from the connection it was joined on.
+     *
+     * @param channel
+     * @return The connection the channel was joined on, or {@code null} if
+     * it wasn't assigned to a connection
+     */
+    public synchronized Connection part(String channel) {
+        Connection connection = channels.remove(channel);
+        if (connection != null) {
+            connections.get(connection).remove(channel);
+        }
+        return connection;
+    }
+
+    /**
+     * Gets the connection the given channel is joined on.
+     *
+     * @param channel
+     * @return The connection, or the main connection if the channel isn't
+     * joined on a connection of the pool
+     */
+    public synchronized Connection getConnection(String channel) {
+        Connection connection = channels.get(channel);
+        if (connection == null || !registered.contains(connection)) {
+            return main;
+        }
+        return connection;
+    }
+
+    /**
+     * Checks whether this is an additional connection of the pool.
+     *
+     * @param connection
+     * @return
+     */
+    public synchronized boolean isAdditional(Connection connection) {
+        return connection != main && connections.containsKey(connection);
+    }
+
+    /**
+     * An additional connection has been registered with the server.
+     *
+     * @param connection
+     * @return The channels that should now be joined on this connection
+     */
+    public synchronized List<String> registered(Connection connection) {
+        Set<String> assigned = connections.get(connection);
+        if (assigned == null) {
+            return Collections.emptyList();
+        }
+        registered.add(connection);
+        return new ArrayList<>(assigned);
+    }
+
+    /**
+     * An additional connection has been closed, so remove it from the pool.
+     *
+     * @param connection
+     * @return The channels that were joined on the connection and have to be
+     * joined again, which may be empty
+     */
+    public synchronized Set<String> disconnected(Connection connection) {
+        if (connection == main) {
+            return Collections.emptySet();
+        }
+        Set<String> assigned = connections.remove(connection);
+        if (assigned == null) {
+            return Collections.emptySet();
+        }
+        if (!registered.remove(connection)) {
+            lastFailure = System.currentTimeMillis();
+        }
+        for (String channel : assigned) {
+            channels.remove(channel);
+        }
+        LOGGER.info("Additional connection closed ("+assigned.size()+" channels)");
+        return assigned;
+    }
+
+    /**
+     * Removes all connections and channels, closing all additional
+     * connections. This should be used once the main connection is closed.
+     */
+    public void closeAll() {
+        List<Connection> toClose;
+        synchronized(this) {
+            toClose = new ArrayList<>(connections.keySet());
+            toClose.remove(main);
+            clear();
+        }
+        // Closing outside of lock, since it calls back into Irc
+        for (Connection connection : toClose) {
+            connection.close();
+        }
+    }
+
+    private void clear() {
+        main = null;
+        connections.clear();
+        channels.clear();
+        registered.clear();
+    }
+
+    /**
+     * The number of open connections, including the main connection.
+     *
+     * @return
+     */
+    public synchronized int getConnectionCount() {
+        return connections.size();
+    }
+
+}
@@ -0,0 +1,185 @@
+package chatty;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/**
+ * A single I/O thread that serves all registered connections, reading from
+ * and writing to their channels once they are ready.
+ *
+ * @author tduva
+ */
+public class ConnectionSelector implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionSelector.class.getName());
+
+    /**
+     * How long to block while waiting for channels to become ready, so that
+     * idle connections can be checked regularly (in milliseconds).
+     */
+    private static final int SELECT_TIMEOUT = 1000;
+
+    private static ConnectionSelector instance;
+
+    private final Selector selector;
+    private final Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> pendingFlushes = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> pendingResumes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Gets the shared selector, starting the I/O thread if necessary.
+     *
+     * @return The instance
+     * @throws IOException If the selector could not be opened
+     */
+    public static synchronized ConnectionSelector get() throws IOException {
+        if (instance == null) {
+            instance = new ConnectionSelector();
+            Thread thread = new Thread(instance, "ConnectionSelector");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    private ConnectionSelector() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Adds the connection to be registered on the I/O thread. The channel of
+     * the connection has to be connected and non-blocking.
+     *
+     * @param connection
+     */
+    public void register(Connection connection) {
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Wakes up the I/O thread to write the lines that were sent on the given
+     * connection. All lines sent until the I/O thread gets to it are written
+     * together.
+     *
+     * @param connection
+     */
+    public void flush(Connection connection) {
+        pendingFlushes.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Wakes up the I/O thread to continue reading from the given connection,
+     * after it stopped reading for a while.
+     *
+     * @param connection
+     */
+    public void resumeReading(Connection connection) {
+        pendingResumes.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select(SELECT_TIMEOUT);
+                registerPending();
+                flushPending();
+                resumePending();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+                long now = System.currentTimeMillis();
+                for (SelectionKey key : selector.keys()) {
+                    if (key.isValid()) {
+                        ((Connection)key.attachment()).checkIdle(now);
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.warning("Error selecting: "+ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers all connections that were added since the last select.
+     */
+    private void registerPending() {
+        Connection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                SelectionKey key = connection.getChannel().register(selector,
+                        SelectionKey.OP_READ, connection);
+                connection.registered(key);
+            } catch (IOException ex) {
+                LOGGER.warning("Error registering connection: "+ex.getLocalizedMessage());
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the lines of all connections that requested it.
+     */
+    private void flushPending() {
+        Connection connection;
+        while ((connection = pendingFlushes.poll()) != null) {
+            try {
+                connection.flush();
+            } catch (CancelledKeyException ex) {
+                // Connection was closed in the meantime
+            } catch (IOException ex) {
+                LOGGER.info("Error writing to socket: "+ex.getLocalizedMessage());
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Continues reading from all connections that requested it.
+     */
+    private void resumePending() {
+        Connection connection;
+        while ((connection = pendingResumes.poll()) != null) {
+            try {
+                connection.readingResumed();
+            } catch (CancelledKeyException ex) {
+                // Connection was closed in the meantime
+            }
+        }
+    }
+
+    /**
+     * Performs the operations the channel of the given key is ready for.
+     *
+     * @param key
+     */
+    private void handle(SelectionKey key) {
+        Connection connection = (Connection)key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.write();
+            }
+        } catch (CancelledKeyException ex) {
+            // Connection was closed in the meantime
+        } catch (IOException ex) {
+            LOGGER.info("Error on socket: "+ex.getLocalizedMessage());
+            connection.close();
+        }
+    }
+
+}
@@ -260,10 +260,12 @@ public class Helper {
         return HTMLSPECIALCHARS_ENCODE.replace(s);
     }
     
-    private static final Pattern REMOVE_LINEBREAKS = Pattern.compile("\\r?\\n");
-    
     /**
-     * Removes any linebreaks from the given String.
+     * Replaces any linebreaks in the given String with a space. A CRLF
+     * counts as a single linebreak, a CR or LF on it's own as well.
+     * 
+     * This is done with a simple scan instead of a regex, since it is used
+     * for every line sent to the server.
      * 
      * @param s The String (can be empty or null)
      * @return The modified String or null if the given String was null
@@ -272,7 +274,31 @@ public class Helper {
         if (s == null) {
             return null;
         }
-        return REMOVE_LINEBREAKS.matcher(s).replaceAll(" ");
+        int length = s.length();
+        int i = 0;
+        while (i < length && s.charAt(i) != '\r' && s.charAt(i) != '\n') {
+            i++;
+        }
+        if (i == length) {
+            // No linebreaks, so nothing to change
+            return s;
+        }
+        StringBuilder b = new StringBuilder(length);
+        b.append(s, 0, i);
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == '\r') {
+                if (i + 1 < length && s.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                b.append(' ');
+            } else if (c == '\n') {
+                b.append(' ');
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString();
     }
     
     private static final Pattern UNDERSCORE = Pattern.compile("_");
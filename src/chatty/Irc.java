@@ -1,13 +1,19 @@
 
 package chatty;
 
-import chatty.util.DelayedActionQueue;
-import chatty.util.DelayedActionQueue.DelayedActionListener;
+import chatty.util.PipelineStage;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 /**
  *
@@ -18,18 +24,23 @@ public abstract class Irc {
     private static final Logger LOGGER = Logger.getLogger(Irc.class.getName());
     
     /**
-     * Delay between JOINs (in milliseconds).
+     * The maximum length of a JOIN line, so several channels can be joined
+     * with one line.
      */
-    private static final int JOIN_DELAY = 300;
+    private static final int MAX_JOIN_LENGTH = 500;
     
     private final AddressManager addressManager = new AddressManager();
-    private final DelayedActionQueue<String> joinQueue
-            = DelayedActionQueue.create(new DelayedJoinAction(), JOIN_DELAY);
+    private final JoinScheduler joinScheduler = new JoinScheduler(this);
     
     private String nick;
     private String pass;
     
-    private Connection connection;
+    private volatile Connection connection;
+    
+    /**
+     * Keeps track of the channels and the connections they are joined on.
+     */
+    private final ConnectionPool pool = new ConnectionPool();
     
     private String quitmessage = "Quit";
     
@@ -94,7 +105,51 @@ public abstract class Irc {
     private boolean requestedDisconnect = false;
     
     
-    private static final Pattern SPACE_PATTERN = Pattern.compile(" ");
+    private static final String CTCP_DELIMITER = String.valueOf((char)1);
+    
+    /**
+     * How many received lines can be waiting to be parsed or dispatched before
+     * connections stop reading.
+     */
+    private static final int RECEIVED_QUEUE_SIZE = 5000;
+    
+    /**
+     * Connections that stopped reading because too many received lines are
+     * waiting to be parsed. They continue reading once the parse queue is
+     * down to half it's size.
+     */
+    private final Queue<Connection> pausedConnections = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Parses the lines received by the I/O thread, so reading can continue
+     * while lines are still being handled. The I/O thread always adds lines
+     * without waiting (since it serves all connections), instead the
+     * connection that filled the queue stops reading for a while.
+     */
+    private final PipelineStage<Received> parseStage = new PipelineStage<>(
+            "IRC-Parse", RECEIVED_QUEUE_SIZE, 100, PipelineStage.Overflow.BLOCK,
+            new PipelineStage.Handler<Received>() {
+
+                @Override
+                public void handle(Received item) {
+                    parse(item);
+                }
+            });
+    
+    /**
+     * Calls the methods handling the parsed lines (which look up users and
+     * hand messages on to the GUI). Everything received is handled in order
+     * on this single thread.
+     */
+    private final PipelineStage<Received> dispatchStage = new PipelineStage<>(
+            "IRC-Dispatch", RECEIVED_QUEUE_SIZE, 100, PipelineStage.Overflow.BLOCK,
+            new PipelineStage.Handler<Received>() {
+
+                @Override
+                public void handle(Received item) {
+                    dispatch(item);
+                }
+            });
     
     /**
      * Set a new connection state.
@@ -213,6 +268,27 @@ public abstract class Irc {
     }
     
     
+    /**
+     * Sets how many channels should be joined on each connection, additional
+     * connections being opened as necessary. Only affects channels joined
+     * afterwards.
+     * 
+     * @param count The number of channels per connection, 0 to join all
+     * channels on a single connection
+     */
+    public void setChannelsPerConnection(int count) {
+        pool.setChannelsPerConnection(count);
+    }
+    
+    /**
+     * Gets the number of currently open connections.
+     * 
+     * @return 
+     */
+    public int getConnectionCount() {
+        return pool.getConnectionCount();
+    }
+    
     /**
      * Disconnect if connected.
      */
@@ -241,155 +317,266 @@ public abstract class Irc {
      * @param data The line of data received
      */
     protected void received(String data) {
+        received(connection, data);
+    }
+    
+    /**
+     * Called by the I/O thread for every received line, which is only queued
+     * to be parsed and handled, so the I/O thread can continue reading. This
+     * never waits, but if the queue is full the connection stops reading
+     * until enough lines have been parsed.
+     * 
+     * @param source The connection the line was received on
+     * @param data The line of data received
+     */
+    void received(Connection source, String data) {
         if (data == null) {
             return;
         }
-        raw(data);
-        
-        String prefix = "";
-        String command;
-        String[] parameters = new String[0];
-        String trailing = "";
-        
-        int endOfPrefix = 0;
-        int endOfCommand = 0;
-        
-        // Get prefix if available
-        if (data.startsWith(":")) {
-            endOfPrefix = data.indexOf(" ");
-            if (endOfPrefix == -1) {
-                System.err.println("Parsing error: Couldn't find whitespace after prefix.");
-                return;
+        parseStage.offer(new Received(source, data, null), true);
+        if (source != null && parseStage.getSize() >= RECEIVED_QUEUE_SIZE
+                && source.pauseReading()) {
+            pausedConnections.add(source);
+            // In case the queue was emptied before the connection was added
+            checkPausedConnections();
+        }
+    }
+    
+    /**
+     * Parses and handles the line right away on the current thread, instead
+     * of queueing it to be handled on the stages. For testing, so that the
+     * line has been handled when this returns and exceptions aren't caught by
+     * the stages.
+     * 
+     * @param data The line of data received
+     */
+    void receivedNow(String data) {
+        if (data == null) {
+            return;
+        }
+        Received item = new Received(connection, data, null);
+        if (parseLine(item)) {
+            dispatch(item);
+        }
+    }
+    
+    /**
+     * Parses the received line on the parse stage and hands it on to be
+     * dispatched.
+     * 
+     * @param item 
+     */
+    private void parse(Received item) {
+        if (item.task != null || parseLine(item)) {
+            dispatchStage.offer(item, item.task != null);
+        }
+        checkPausedConnections();
+    }
+    
+    /**
+     * Parses the line of the given item.
+     * 
+     * @param item
+     * @return true if the line could be parsed, false otherwise
+     */
+    private boolean parseLine(Received item) {
+        raw(item.line);
+        IrcMessage message = new IrcMessage();
+        if (!message.parse(item.line)) {
+            System.err.println("Parsing error: Couldn't find whitespace after prefix.");
+            return false;
+        }
+        item.message = message;
+        return true;
+    }
+    
+    /**
+     * Lets the connections that stopped reading continue, if the parse queue
+     * is down to half it's size.
+     */
+    private void checkPausedConnections() {
+        if (!pausedConnections.isEmpty()
+                && parseStage.getSize() <= RECEIVED_QUEUE_SIZE / 2) {
+            Connection paused;
+            while ((paused = pausedConnections.poll()) != null) {
+                paused.resumeReading();
             }
-            prefix = data.substring(1,endOfPrefix);
         }
-        
-        // Find and get trailing if available
-        endOfCommand = data.indexOf(":",endOfPrefix);
-        if (endOfCommand == -1) {
-            // No trailing, so the command takes up the remaining length
-            endOfCommand = data.length();
+    }
+    
+    /**
+     * Handles the parsed line or task on the dispatch stage.
+     * 
+     * @param item 
+     */
+    private void dispatch(Received item) {
+        if (item.task != null) {
+            item.task.run();
+            return;
         }
-        else {
-            trailing = data.substring(endOfCommand+1,data.length());
+        if (isStale(item.source)) {
+            return;
         }
-        
-        // Get commands and parameters
-        String commandAndParameter = data.substring(endOfPrefix,endOfCommand).trim();
-        // Trying precompiled Pattern, but may not change the performance
-        // that much (it's an easy Pattern after all)
-        String[] parts = SPACE_PATTERN.split(commandAndParameter);
-        //String[] parts = commandAndParameter.split(" ");
-        if (parts.length > 1) {
-            // Get parameters if available
-            parameters = new String[parts.length - 1];
-            System.arraycopy(parts, 1, parameters, 0, parts.length - 1);
-        }
-        // First part must be command
-        command = parts[0];
-        
         // An exception shouldn't happen unless the message is malformed (hopefully :P)
         try {
-            receivedCommand(prefix,command,parameters,trailing);
+            receivedCommand(item.source, item.message);
         } catch (NullPointerException ex) {
-            LOGGER.warning("Error parsing irc message: "+data+" ["+ex.getLocalizedMessage()+"]");
+            LOGGER.warning("Error parsing irc message: "+item.line+" ["+ex.getLocalizedMessage()+"]");
         } catch (ArrayIndexOutOfBoundsException ex) {
-            LOGGER.warning("Error parsing irc message: "+data+" ["+ex.getLocalizedMessage()+"]");
+            LOGGER.warning("Error parsing irc message: "+item.line+" ["+ex.getLocalizedMessage()+"]");
         }
     }
     
     /**
-     * Message has already been parsed, so let's check what command it is.
+     * Whether lines received on the given connection should be ignored,
+     * because the connection has already been disconnected from this end
+     * while the lines were still queued.
      * 
-     * @param prefix
-     * @param command
-     * @param parameters
-     * @param trailing 
+     * @param source
+     * @return 
      */
-    private void receivedCommand(String prefix, String command, String[] parameters, String trailing) {
-        String nick = getNickFromPrefix(prefix);
-        
-        parsed(prefix,command,parameters,trailing);
-        
-        if (command.equals("PING")) {
-            sendCommand("PONG",trailing);
+    private boolean isStale(Connection source) {
+        if (source == null) {
+            return false;
+        }
+        if (source == connection) {
+            return state == STATE_OFFLINE;
         }
+        return !pool.isAdditional(source);
+    }
+    
+    /**
+     * Runs the task on the dispatch stage, after all lines received up to
+     * now have been handled.
+     * 
+     * @param task 
+     */
+    private void runInOrder(Runnable task) {
+        parseStage.offer(new Received(null, null, task), true);
+    }
+    
+    /**
+     * Gets the metrics of the stages received lines go through.
+     * 
+     * @return One line for each stage
+     */
+    public String getPipelineStats() {
+        return parseStage.getStats()+"\n"+dispatchStage.getStats();
+    }
+    
+    /**
+     * Message has already been parsed, so let's check what command it is.
+     * Strings are only created for the parts of the message that are
+     * actually used.
+     * 
+     * @param source The connection the message was received on
+     * @param message The parsed message
+     */
+    private void receivedCommand(Connection source, IrcMessage message) {
+        parsed(message);
         
-        if (command.equals("PRIVMSG") && !trailing.isEmpty()) {
-            if (parameters.length == 0) {
-                /**
-                 * For hosting message, which is as follows (no channel/name as
-                 * PRIVMSG target):
-                 * :jtv!jtv@jtv.tmi.twitch.tv PRIVMSG  :tduvatest is now hosting you for 0 viewers. [0]
-                 */
-                onQueryMessage(nick, prefix, trailing);
-            } else if (parameters[0].startsWith("#")) {
-                //System.out.println((int)trailing.charAt(0));
-                //filter.reset(trailing).replaceAll("?");
-                if (trailing.charAt(0) == (char)1) {
-                    if (trailing.startsWith("ACTION", 1)) {
-                        onChannelAction(parameters[0], nick, prefix, trailing.substring(7).trim());
-                    }
+        boolean additional = source != connection && source != null;
+        switch (message.getCommandType()) {
+            case PING:
+                if (additional) {
+                    source.send("PONG :"+message.getTrailing());
+                } else {
+                    sendCommand("PONG", message.getTrailing());
                 }
-                else {
-                    onChannelMessage(parameters[0], nick, prefix, trailing);
+                break;
+            case PRIVMSG:
+                if (!message.isTrailingEmpty()) {
+                    receivedPrivmsg(message);
                 }
-            } else {
-                onQueryMessage(nick, prefix, trailing);
-            }
-        }
-        if (command.equals("NOTICE")) {
-            if (!parameters[0].startsWith("#")) {
-                onNotice(nick, prefix, trailing);
-            }
-        }
-        if (command.equals("JOIN")) {
-            if (trailing.isEmpty() && parameters.length > 0) {
-                onJoin(parameters[0], nick, prefix);
-            } else {
-                onJoin(trailing, nick, prefix);
-            }
-        }
-        else if (command.equals("PART")) {
-            onPart(parameters[0], nick, prefix, trailing);
-        }
-        else if (command.equals("MODE")) {
-            if (parameters.length == 3) {
-                String chan = parameters[0];
-                String mode = parameters[1];
-                String name = parameters[2];
-                
-                if (mode.length() == 2) {
-                    String modeChar = mode.substring(1, 2);
-                    if (mode.startsWith("+")) {
-                        onModeChange(chan,name,true,modeChar, prefix);
-                    }
-                    else if (mode.startsWith("-")) {
-                        onModeChange(chan,name,false,modeChar, prefix);
+                break;
+            case NOTICE:
+                if (!message.parameterStartsWith(0, "#")) {
+                    onNotice(message.getNick(), message.getPrefix(),
+                            message.getTrailing());
+                }
+                break;
+            case JOIN:
+                if (message.isTrailingEmpty() && message.getParameterCount() > 0) {
+                    onJoin(message.getParameter(0), message.getNick(),
+                            message.getPrefix());
+                } else {
+                    onJoin(message.getTrailing(), message.getNick(),
+                            message.getPrefix());
+                }
+                break;
+            case PART:
+                onPart(message.getParameter(0), message.getNick(),
+                        message.getPrefix(), message.getTrailing());
+                break;
+            case MODE:
+                if (message.getParameterCount() == 3) {
+                    String mode = message.getParameter(1);
+                    if (mode.length() == 2) {
+                        String chan = message.getParameter(0);
+                        String name = message.getParameter(2);
+                        String modeChar = mode.substring(1, 2);
+                        if (mode.startsWith("+")) {
+                            onModeChange(chan,name,true,modeChar, message.getPrefix());
+                        }
+                        else if (mode.startsWith("-")) {
+                            onModeChange(chan,name,false,modeChar, message.getPrefix());
+                        }
                     }
-                    
                 }
-            }
-        }
-        // Now the connection is really going.. ;)
-        else if (command.equals("004")) {
-            setState(STATE_REGISTERED);
-            onRegistered();
+                break;
+            // Now the connection is really going.. ;)
+            case RPL_MYINFO:
+                if (additional) {
+                    additionalRegistered(source);
+                } else {
+                    setState(STATE_REGISTERED);
+                    pool.setMain(connection);
+                    onRegistered();
+                }
+                break;
+            // Nick list, usually on channel join
+            case RPL_NAMREPLY:
+                if (message.getParameterCount() == 3
+                        && message.parameterEquals(1, "=")
+                        && message.parameterStartsWith(2, "#")) {
+                    String[] names = message.getTrailing().split(" ");
+                    onUserlist(message.getParameter(2), names);
+                }
+                break;
+            // WHO response not really correct now
+            case RPL_WHOREPLY:
+                break;
         }
-        // Nick list, usually on channel join
-        else if (command.equals("353")) {
-            if (parameters.length == 3 && parameters[1].equals("=") && parameters[2].startsWith("#")) {
-                String[] names = trailing.split(" ");
-                onUserlist(parameters[2],names);
+    }
+    
+    /**
+     * A PRIVMSG with a non-empty trailing was received.
+     * 
+     * @param message The parsed message
+     */
+    private void receivedPrivmsg(IrcMessage message) {
+        if (message.getParameterCount() == 0) {
+            /**
+             * For hosting message, which is as follows (no channel/name as
+             * PRIVMSG target):
+             * :jtv!jtv@jtv.tmi.twitch.tv PRIVMSG  :tduvatest is now hosting you for 0 viewers. [0]
+             */
+            onQueryMessage(message.getNick(), message.getPrefix(),
+                    message.getTrailing());
+        } else if (message.parameterStartsWith(0, "#")) {
+            if (message.trailingStartsWith(CTCP_DELIMITER, 0)) {
+                if (message.trailingStartsWith("ACTION", 1)) {
+                    onChannelAction(message.getParameter(0), message.getNick(),
+                            message.getPrefix(), message.getTrailing(7).trim());
+                }
             }
-            
-        }
-        // WHO response not really correct now
-        else if (command.equals("352")) {
-            String[] parts = trailing.split(" ");
-            if (parts.length > 1) {
-                //onWhoResponse(parts[0],parts[1]);
+            else {
+                onChannelMessage(message.getParameter(0), message.getNick(),
+                        message.getPrefix(), message.getTrailing());
             }
+        } else {
+            onQueryMessage(message.getNick(), message.getPrefix(),
+                    message.getTrailing());
         }
     }
     
@@ -420,13 +607,18 @@ public abstract class Irc {
     }
     
     /**
-     * Joins {@code channel} on a queue, that puts some time between each join.
+     * Adds {@code channel} to the join scheduler, which joins channels in
+     * batches as fast as the join limit allows. This adds # in front if not
+     * there.
      * 
      * @param channel The name of the channel to join
      */
     public void joinChannel(String channel) {
         LOGGER.info("JOINING: " + channel);
-        joinQueue.add(channel);
+        if (!channel.startsWith("#")) {
+            channel = "#" + channel;
+        }
+        joinScheduler.add(channel);
     }
     
     /**
@@ -435,30 +627,69 @@ public abstract class Irc {
      * @param channel 
      */
     public void joinChannelImmediately(String channel) {
-        if (state >= STATE_REGISTERED) {
+        joinChannelsImmediately(Collections.singletonList(channel));
+    }
+    
+    /**
+     * Join several channels, using as few JOIN lines as possible. This adds #
+     * in front if not there.
+     * 
+     * @param channels 
+     */
+    public void joinChannelsImmediately(List<String> channels) {
+        if (state < STATE_REGISTERED) {
+            return;
+        }
+        Map<Connection, List<String>> byConnection = new LinkedHashMap<>();
+        List<String> attempted = new ArrayList<>();
+        for (String channel : channels) {
             if (!channel.startsWith("#")) {
                 channel = "#" + channel;
             }
             // if-condition for testing (to simulate failed joins)
             //if (new Random().nextBoolean()) {
-                send("JOIN " + channel);
+                // If the channel is assigned to a connection that isn't
+                // registered yet, it's joined once it is
+                Connection joinOn = pool.join(channel);
+                if (joinOn != null) {
+                    List<String> list = byConnection.get(joinOn);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        byConnection.put(joinOn, list);
+                    }
+                    list.add(channel);
+                }
             //}
+            attempted.add(channel);
+        }
+        for (Map.Entry<Connection, List<String>> entry : byConnection.entrySet()) {
+            sendJoins(entry.getKey(), entry.getValue());
+        }
+        for (String channel : attempted) {
             onJoinAttempt(channel);
         }
     }
     
     /**
-     * Listener for the join queue, which is called when the next channel can
-     * be joined.
+     * Sends JOINs for the given channels on the given connection, with as
+     * many channels per line as fit.
+     * 
+     * @param target The connection to send on
+     * @param channels The channels to join, with leading #
      */
-    private class DelayedJoinAction implements DelayedActionListener<String> {
-
-        @Override
-        public void actionPerformed(String item) {
-            LOGGER.info("JOIN: "+item+" (delayed)");
-            joinChannelImmediately(item);
+    private void sendJoins(Connection target, List<String> channels) {
+        StringBuilder line = new StringBuilder();
+        for (String channel : channels) {
+            if (line.length() > 0
+                    && line.length() + channel.length() + 1 > MAX_JOIN_LENGTH) {
+                send(target, line.toString());
+                line.setLength(0);
+            }
+            line.append(line.length() == 0 ? "JOIN " : ",").append(channel);
+        }
+        if (line.length() > 0) {
+            send(target, line.toString());
         }
-        
     }
     
     /**
@@ -470,7 +701,8 @@ public abstract class Irc {
         if (!channel.startsWith("#")) {
             channel = "#"+channel;
         }
-        send("PART "+channel);
+        sendToChannel(channel, "PART "+channel);
+        pool.part(channel);
     }
     
     /**
@@ -480,16 +712,49 @@ public abstract class Irc {
      * @param message 
      */
     public void sendMessage(String to,String message) {
-        send("PRIVMSG "+to+" :"+message);
+        sendToChannel(to, "PRIVMSG "+to+" :"+message);
     }
     
     public void sendActionMessage(String to,String message) {
-        send("PRIVMSG "+to+" :"+(char)1+"ACTION "+message+(char)1);
+        sendToChannel(to, "PRIVMSG "+to+" :"+(char)1+"ACTION "+message+(char)1);
     }
     
-    synchronized public void send(String data) {
-        if (state > STATE_OFFLINE) {
-            connection.send(data);
+    /**
+     * Send a line on the main connection. This only queues the line, so it
+     * returns without waiting for it to be written.
+     * 
+     * @param data 
+     */
+    public void send(String data) {
+        Connection current = connection;
+        if (state > STATE_OFFLINE && current != null) {
+            current.send(data);
+        }
+    }
+    
+    /**
+     * Send a line on the connection the given channel is joined on, or the
+     * main connection if it isn't joined on another connection.
+     * 
+     * @param channel The channel
+     * @param data 
+     */
+    public void sendToChannel(String channel, String data) {
+        send(pool.getConnection(channel), data);
+    }
+    
+    /**
+     * Send a line on the given connection.
+     * 
+     * @param target The connection, sent on the main connection if
+     * {@code null}
+     * @param data 
+     */
+    private void send(Connection target, String data) {
+        if (target == null || target == connection) {
+            send(data);
+        } else {
+            target.send(data);
         }
     }
     
@@ -500,15 +765,30 @@ public abstract class Irc {
      * So now work on getting the connection to the IRC Server going by
      * sending credentials and stuff.
      * 
+     * @param source The connection that was established
      * @param ip
      * @param port
      */
-    protected void connected(String ip, int port) {
+    protected void connected(Connection source, String ip, int port) {
+        if (source != connection) {
+            if (pool.isAdditional(source)) {
+                LOGGER.info("Additional connection established, registering..");
+                onConnect(source);
+                if (pass != null) {
+                    source.send("PASS " + pass);
+                }
+                source.send("NICK " + nick);
+            } else {
+                // Connection no longer needed (e.g. disconnected meanwhile)
+                source.close();
+            }
+            return;
+        }
         this.connectedIp = ip;
         this.connectedPort = port;
         this.connectedSince = System.currentTimeMillis();
         setState(Irc.STATE_CONNECTED);
-        onConnect();
+        onConnect(source);
         if (pass != null) {
             send("PASS " + pass);
         }
@@ -516,20 +796,76 @@ public abstract class Irc {
         send("NICK " + nick);
     }
     
+    /**
+     * An additional connection has been registered, so join the channels that
+     * were assigned to it.
+     * 
+     * @param source The connection
+     */
+    private void additionalRegistered(Connection source) {
+        List<String> channels = pool.registered(source);
+        if (!channels.isEmpty()) {
+            LOGGER.info("JOIN: "+channels.size()+" channels (additional connection)");
+            sendJoins(source, channels);
+        }
+    }
+    
     /**
      * Called by the Connection Thread, when the Connection was closed, be
      * it because it was closed by the server, the program itself or because
      * of an error.
      * 
+     * @param source The connection that was closed
+     * @param reason The reason of the disconnect as defined in various
+     * constants in this class
+     * @param reasonMessage An error message or other information about the
+     * disconnect
+     */
+    protected void disconnected(final Connection source, final int reason,
+            final String reasonMessage) {
+        if (!requestedDisconnect || source != connection) {
+            // Lines received before the connection was closed should still be
+            // handled first
+            runInOrder(new Runnable() {
+
+                @Override
+                public void run() {
+                    handleDisconnected(source, reason, reasonMessage);
+                }
+            });
+        } else {
+            handleDisconnected(source, reason, reasonMessage);
+        }
+    }
+    
+    private void handleDisconnected(Connection source, int reason, String reasonMessage) {
+        if (source != connection) {
+            // Additional connection, so only the channels joined on it are
+            // affected
+            Set<String> channels = pool.disconnected(source);
+            if (!channels.isEmpty() && state == STATE_REGISTERED) {
+                onChannelsDisconnected(channels, reason, reasonMessage);
+            }
+            return;
+        }
+        disconnected(reason, reasonMessage);
+    }
+    
+    /**
+     * The main connection was closed, or couldn't be established.
+     * 
      * @param reason The reason of the disconnect as defined in various
      * constants in this class
      * @param reasonMessage An error message or other information about the
      * disconnect
      */
     protected void disconnected(int reason, String reasonMessage) {
+        // Close any additional connections as well
+        pool.closeAll();
+        
         // Clear any potential join queue, so it doesn't carry over to the next
         // connection
-        joinQueue.clear();
+        joinScheduler.clear();
         
         // Retrieve state before changing it, but must be changed before calling
         // onDisconnect() which might check the state when trying to reconnect
@@ -576,6 +912,8 @@ public abstract class Irc {
     
     void onJoinAttempt(String channel) {}
     
+    void onJoinProgress(int joined, int total) {}
+    
     void onJoin(String channel, String nick, String prefix) {}
     
     void onPart(String channel, String nick, String prefix, String message) { }
@@ -588,13 +926,15 @@ public abstract class Irc {
     
     void onConnectionAttempt(String server, int port) { }
     
-    void onConnect() { }
+    void onConnect(Connection connection) { }
     
     void onRegistered() { }
     
     void onDisconnect(int reason, String reasonMessage) { }
     
-    void parsed(String prefix, String command, String[] parameters, String trailing) { }
+    void onChannelsDisconnected(Set<String> channels, int reason, String reasonMessage) { }
+    
+    void parsed(IrcMessage message) { }
     
     void raw(String message) { }
     
@@ -603,4 +943,22 @@ public abstract class Irc {
     void onSystemMessage(String message) { }
     
     void onError(int error) {}
+    
+    /**
+     * A received line, or a task that should be run in order with the
+     * received lines.
+     */
+    private static class Received {
+        
+        private final Connection source;
+        private final String line;
+        private final Runnable task;
+        private IrcMessage message;
+        
+        Received(Connection source, String line, Runnable task) {
+            this.source = source;
+            this.line = line;
+            this.task = task;
+        }
+    }
 }
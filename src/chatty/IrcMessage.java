@@ -0,0 +1,292 @@
+package chatty;
+
+/**
+ * A parsed IRC message, which only stores where the prefix, command,
+ * parameters and trailing are in the received line. The actual Strings are
+ * only created when requested.
+ *
+ * An instance can be reused for parsing several lines, so the values should
+ * not be kept beyond handling the current line.
+ *
+ * @author tduva
+ */
+public class IrcMessage {
+
+    /**
+     * The commands that are handled by the client, which are identified once
+     * while parsing.
+     */
+    public enum Command {
+        PING("PING"), PRIVMSG("PRIVMSG"), NOTICE("NOTICE"), JOIN("JOIN"),
+        PART("PART"), MODE("MODE"), RPL_MYINFO("004"), RPL_NAMREPLY("353"),
+        RPL_WHOREPLY("352"), OTHER(null);
+
+        private final String name;
+
+        Command(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+
+    private static final int DEFAULT_PARAMETERS = 15;
+
+    private String line;
+    private Command command;
+
+    private int prefixStart;
+    private int prefixEnd;
+    private int commandStart;
+    private int commandEnd;
+    private int trailingStart;
+
+    private int parameterCount;
+    private int[] parameterStarts = new int[DEFAULT_PARAMETERS];
+    private int[] parameterEnds = new int[DEFAULT_PARAMETERS];
+
+    /**
+     * Parses the given line, replacing any previously parsed data.
+     *
+     * @param line The received line, without linebreak
+     * @return true if the line could be parsed, false if it is malformed
+     */
+    public boolean parse(String line) {
+        this.line = line;
+        this.parameterCount = 0;
+        this.command = Command.OTHER;
+
+        // Get prefix if available
+        int endOfPrefix = 0;
+        if (line.startsWith(":")) {
+            endOfPrefix = line.indexOf(' ');
+            if (endOfPrefix == -1) {
+                return false;
+            }
+            prefixStart = 1;
+            prefixEnd = endOfPrefix;
+        } else {
+            prefixStart = 0;
+            prefixEnd = 0;
+        }
+
+        // Find trailing if available
+        int endOfCommand = line.indexOf(':', endOfPrefix);
+        if (endOfCommand == -1) {
+            // No trailing, so the command takes up the remaining length
+            endOfCommand = line.length();
+            trailingStart = line.length();
+        } else {
+            trailingStart = endOfCommand + 1;
+        }
+
+        // Trim whitespace around command and parameters
+        int start = endOfPrefix;
+        int end = endOfCommand;
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        // First part must be the command, then the parameters, each
+        // separated by a single space
+        int partStart = start;
+        boolean first = true;
+        for (int i = start; i <= end; i++) {
+            if (i == end || line.charAt(i) == ' ') {
+                if (first) {
+                    commandStart = partStart;
+                    commandEnd = i;
+                    first = false;
+                } else {
+                    addParameter(partStart, i);
+                }
+                partStart = i + 1;
+            }
+        }
+        command = lookupCommand();
+        return true;
+    }
+
+    private void addParameter(int start, int end) {
+        if (parameterCount == parameterStarts.length) {
+            int[] newStarts = new int[parameterCount * 2];
+            int[] newEnds = new int[parameterCount * 2];
+            System.arraycopy(parameterStarts, 0, newStarts, 0, parameterCount);
+            System.arraycopy(parameterEnds, 0, newEnds, 0, parameterCount);
+            parameterStarts = newStarts;
+            parameterEnds = newEnds;
+        }
+        parameterStarts[parameterCount] = start;
+        parameterEnds[parameterCount] = end;
+        parameterCount++;
+    }
+
+    /**
+     * Finds the known command the command in the line is equal to, without
+     * creating a String for it.
+     *
+     * @return The command, {@code Command.OTHER} if not a known command
+     */
+    private Command lookupCommand() {
+        int length = commandEnd - commandStart;
+        for (Command c : COMMANDS) {
+            if (c.name != null && c.name.length() == length
+                    && line.startsWith(c.name, commandStart)) {
+                return c;
+            }
+        }
+        return Command.OTHER;
+    }
+
+    /**
+     * The line that was last parsed.
+     *
+     * @return
+     */
+    public String getLine() {
+        return line;
+    }
+
+    public Command getCommandType() {
+        return command;
+    }
+
+    public String getCommand() {
+        return line.substring(commandStart, commandEnd);
+    }
+
+    /**
+     * The prefix, without the leading colon.
+     *
+     * @return The prefix, or an empty String if there is none
+     */
+    public String getPrefix() {
+        return line.substring(prefixStart, prefixEnd);
+    }
+
+    /**
+     * Extracts the nick from the prefix (like nick!mail@host).
+     *
+     * @return The nick, or the whole prefix if it contains no nick
+     */
+    public String getNick() {
+        int endOfNick = line.indexOf('!', prefixStart);
+        if (endOfNick == -1 || endOfNick > prefixEnd) {
+            return getPrefix();
+        }
+        return line.substring(prefixStart, endOfNick);
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * Gets the parameter with the given index.
+     *
+     * @param index
+     * @return The parameter
+     * @throws ArrayIndexOutOfBoundsException If there is no parameter with
+     * the given index
+     */
+    public String getParameter(int index) {
+        checkParameterIndex(index);
+        return line.substring(parameterStarts[index], parameterEnds[index]);
+    }
+
+    /**
+     * Checks if the parameter with the given index starts with the given
+     * prefix, without creating a String for the parameter.
+     *
+     * @param index
+     * @param prefix
+     * @return
+     * @throws ArrayIndexOutOfBoundsException If there is no parameter with
+     * the given index
+     */
+    public boolean parameterStartsWith(int index, String prefix) {
+        checkParameterIndex(index);
+        return parameterEnds[index] - parameterStarts[index] >= prefix.length()
+                && line.startsWith(prefix, parameterStarts[index]);
+    }
+
+    /**
+     * Checks if the parameter with the given index is equal to the given
+     * String, without creating a String for the parameter.
+     *
+     * @param index
+     * @param value
+     * @return
+     * @throws ArrayIndexOutOfBoundsException If there is no parameter with
+     * the given index
+     */
+    public boolean parameterEquals(int index, String value) {
+        checkParameterIndex(index);
+        return parameterEnds[index] - parameterStarts[index] == value.length()
+                && line.startsWith(value, parameterStarts[index]);
+    }
+
+    private void checkParameterIndex(int index) {
+        if (index < 0 || index >= parameterCount) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    /**
+     * Gets all parameters as an array.
+     *
+     * @return
+     */
+    public String[] getParameters() {
+        String[] result = new String[parameterCount];
+        for (int i = 0; i < parameterCount; i++) {
+            result[i] = getParameter(i);
+        }
+        return result;
+    }
+
+    /**
+     * The trailing, without the leading colon.
+     *
+     * @return The trailing, or an empty String if there is none
+     */
+    public String getTrailing() {
+        return line.substring(trailingStart);
+    }
+
+    public boolean isTrailingEmpty() {
+        return trailingStart == line.length();
+    }
+
+    /**
+     * Checks if the trailing starts with the given prefix at the given
+     * offset.
+     *
+     * @param prefix
+     * @param offset The offset within the trailing
+     * @return
+     */
+    public boolean trailingStartsWith(String prefix, int offset) {
+        return line.startsWith(prefix, trailingStart + offset);
+    }
+
+    /**
+     * Gets the trailing, starting at the given offset.
+     *
+     * @param offset The offset within the trailing
+     * @return
+     * @throws IndexOutOfBoundsException If the offset is larger than the
+     * length of the trailing
+     */
+    public String getTrailing(int offset) {
+        return line.substring(trailingStart + offset);
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}
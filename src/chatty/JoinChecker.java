@@ -1,9 +1,8 @@
 
 package chatty;
 
+import chatty.util.TimerService;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 /**
@@ -25,9 +24,9 @@ public class JoinChecker {
     private final Irc irc;
     
     /**
-     * Map of timers for channels.
+     * Map of scheduled checks for channels.
      */
-    private final HashMap<String, Timer> pendingChecks = new HashMap<>();
+    private final HashMap<String, TimerService.Handle> pendingChecks = new HashMap<>();
     
     public JoinChecker(Irc irc) {
         this.irc = irc;
@@ -39,16 +38,18 @@ public class JoinChecker {
      * @param channel The name of the channel to start the timer for
      */
     public synchronized void joinAttempt(final String channel) {
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
+        TimerService.Handle previous = pendingChecks.put(channel,
+                TimerService.get().schedule(new Runnable() {
 
             @Override
             public void run() {
                 LOGGER.warning("Join may have failed ("+channel+")");
                 irc.joinChannel(channel);
             }
-        }, DELAY);
-        pendingChecks.put(channel, timer);
+        }, DELAY));
+        if (previous != null) {
+            previous.cancel();
+        }
     }
     
     /**
@@ -57,9 +58,9 @@ public class JoinChecker {
      * @param channel Then name of the channel to cancel the timer for
      */
     public synchronized void joined(String channel) {
-        Timer timer = pendingChecks.remove(channel);
-        if (timer != null) {
-            timer.cancel();
+        TimerService.Handle check = pendingChecks.remove(channel);
+        if (check != null) {
+            check.cancel();
         }
     }
 }
@@ -0,0 +1,153 @@
+package chatty;
+
+import chatty.util.TimerService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Collects channels to join and joins them in batches, as many as the join
+ * limit allows in the current time window.
+ *
+ * Channels that are added at about the same time are joined together, so
+ * restoring a lot of channels only takes as long as the limit requires.
+ *
+ * @author tduva
+ */
+public class JoinScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(JoinScheduler.class.getName());
+
+    /**
+     * How many channels may be joined in the time window.
+     */
+    private static final int MAX_JOINS = 50;
+
+    /**
+     * The time window for the join limit (in milliseconds).
+     */
+    private static final int WINDOW = 15*1000;
+
+    /**
+     * How long to wait for more channels to be added, so they can be joined
+     * together (in milliseconds).
+     */
+    private static final int BATCH_DELAY = 100;
+
+    private final Irc irc;
+
+    /**
+     * Channels waiting to be joined, in the order they were added.
+     */
+    private final Set<String> pending = new LinkedHashSet<>();
+
+    /**
+     * When the channels in the current time window were joined, oldest first.
+     */
+    private final ArrayDeque<Long> joinTimes = new ArrayDeque<>();
+
+    private TimerService.Handle scheduled;
+
+    /**
+     * Number of channels in the current progress, which is reset once all
+     * pending channels have been joined.
+     */
+    private int total;
+    private int done;
+
+    public JoinScheduler(Irc irc) {
+        this.irc = irc;
+    }
+
+    /**
+     * Adds a channel to be joined.
+     *
+     * @param channel The channel, with leading #
+     */
+    public synchronized void add(String channel) {
+        if (pending.add(channel)) {
+            total++;
+            schedule(BATCH_DELAY);
+        }
+    }
+
+    /**
+     * Removes all pending channels, for example when the connection was
+     * closed.
+     */
+    public synchronized void clear() {
+        pending.clear();
+        total = 0;
+        done = 0;
+        if (scheduled != null) {
+            scheduled.cancel();
+            scheduled = null;
+        }
+    }
+
+    /**
+     * The number of channels waiting to be joined.
+     *
+     * @return
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void schedule(long delay) {
+        if (scheduled == null) {
+            scheduled = TimerService.get().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    joinPending();
+                }
+            }, delay);
+        }
+    }
+
+    /**
+     * Joins as many of the pending channels as the limit allows and schedules
+     * the rest for when the limit allows it again.
+     */
+    private void joinPending() {
+        List<String> toJoin;
+        int progress;
+        int progressTotal;
+        synchronized(this) {
+            scheduled = null;
+            long now = System.currentTimeMillis();
+            while (!joinTimes.isEmpty() && joinTimes.peekFirst() <= now - WINDOW) {
+                joinTimes.pollFirst();
+            }
+            int allowed = MAX_JOINS - joinTimes.size();
+            toJoin = new ArrayList<>();
+            Iterator<String> it = pending.iterator();
+            while (it.hasNext() && toJoin.size() < allowed) {
+                toJoin.add(it.next());
+                it.remove();
+                joinTimes.addLast(now);
+            }
+            done += toJoin.size();
+            progress = done;
+            progressTotal = total;
+            if (pending.isEmpty()) {
+                total = 0;
+                done = 0;
+            } else {
+                // Continue once the oldest join leaves the window
+                schedule(joinTimes.peekFirst() + WINDOW - now);
+            }
+        }
+        if (!toJoin.isEmpty()) {
+            LOGGER.info("JOIN: "+toJoin.size()+" channels ("+progress+"/"+progressTotal+")");
+            irc.joinChannelsImmediately(toJoin);
+            irc.onJoinProgress(progress, progressTotal);
+        }
+    }
+
+}
@@ -1,26 +1,31 @@
 
 package chatty;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import chatty.util.TimerService;
 
 /**
  *
  * @author tduva
  */
-public class ReconnectionTimer extends Timer {
+public class ReconnectionTimer {
 
-    TimerTask task;
+    private final TimerService.Handle task;
     
     public ReconnectionTimer(final TwitchClient client, final int reason, int seconds) {
-        task = new TimerTask() {
+        task = TimerService.get().schedule(new Runnable() {
 
             @Override
             public void run() {
                 client.reconnect(reason);
             }
-        };
-        this.schedule(task, 1000*seconds);
+        }, 1000*seconds);
+    }
+    
+    /**
+     * Cancels the reconnect, if it didn't already happen.
+     */
+    public void cancel() {
+        task.cancel();
     }
     
 }
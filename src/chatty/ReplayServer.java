@@ -0,0 +1,462 @@
+
+package chatty;
+
+import chatty.gui.PrintListener;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * A local stand-in for the IRC server, which replays a recording (or
+ * generated traffic) to a single client connection, to test how the client
+ * handles a lot of messages.
+ *
+ * It answers just enough for the client to register and join channels, then
+ * sends the lines at the recorded speed (or faster). Once done, it reports the
+ * throughput and how long it took from sending a message until it was printed
+ * in the chat.
+ *
+ * @author tduva
+ */
+public class ReplayServer implements Runnable, PrintListener {
+
+    private static final Logger LOGGER = Logger.getLogger(ReplayServer.class.getName());
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * How long to wait for the client to connect and join (in seconds).
+     */
+    private static final int CONNECT_TIMEOUT = 30;
+
+    /**
+     * How long to wait for messages to be printed after everything was send
+     * (in milliseconds).
+     */
+    private static final int PRINT_TIMEOUT = 15*1000;
+
+    private final ServerSocket serverSocket;
+    private final Recording recording;
+    private final double speed;
+    private final ReplayListener listener;
+
+    private final CountDownLatch joined = new CountDownLatch(1);
+    private final AtomicBoolean ended = new AtomicBoolean();
+    private final IrcMessage message = new IrcMessage();
+
+    private Socket socket;
+    private BufferedWriter out;
+
+    /**
+     * Send times of messages that are expected to be printed, by channel and
+     * nick.
+     */
+    private final Map<String, ArrayDeque<Long>> pendingPrints = new HashMap<>();
+    private int trackedCount;
+    private int printedCount;
+    private int notPrintedCount;
+    private long[] lags = new long[1024];
+    private long lastPrinted;
+
+    /**
+     * Creates a new server on a free local port.
+     *
+     * @param recording The lines to replay
+     * @param speed How much faster than recorded to replay the lines (e.g. 1
+     * or 10), 0 to send them as fast as possible
+     * @param listener Receives info about the replay
+     * @throws IOException If the server socket couldn't be opened
+     */
+    public ReplayServer(Recording recording, double speed, ReplayListener listener) throws IOException {
+        this.recording = recording;
+        this.speed = speed;
+        this.listener = listener;
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Starts waiting for the client on a new thread.
+     */
+    public void start() {
+        new Thread(this, "ReplayServer").start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            serverSocket.setSoTimeout(CONNECT_TIMEOUT*1000);
+            socket = serverSocket.accept();
+            serverSocket.close();
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), CHARSET));
+            Thread reader = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    readClient();
+                }
+            }, "ReplayServerReader");
+            reader.setDaemon(true);
+            reader.start();
+            if (!joined.await(CONNECT_TIMEOUT, TimeUnit.SECONDS)) {
+                listener.replayInfo("Replay: Client didn't join a channel");
+                close();
+                return;
+            }
+            replay();
+            ended();
+        } catch (IOException | InterruptedException ex) {
+            listener.replayInfo("Replay: Error ("+ex+")");
+            close();
+        }
+    }
+
+    /**
+     * Reads lines from the client and answers the ones that are required for
+     * registering and joining.
+     */
+    private void readClient() {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), CHARSET))) {
+            String nick = "replay";
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("NICK ")) {
+                    nick = line.substring(5).trim();
+                    write(":tmi.twitch.tv 001 "+nick+" :Welcome, GLHF!", true);
+                    write(":tmi.twitch.tv 004 "+nick+" :-", true);
+                } else if (line.startsWith("JOIN ")) {
+                    for (String channel : line.substring(5).trim().split(",")) {
+                        write(":"+nick+"!"+nick+"@"+nick+".tmi.twitch.tv JOIN "+channel, false);
+                        write(":"+nick+".tmi.twitch.tv 353 "+nick+" = "+channel+" :"+nick, false);
+                    }
+                    flush();
+                    joined.countDown();
+                } else if (line.startsWith("PING")) {
+                    write(":tmi.twitch.tv PONG tmi.twitch.tv :"+line.substring(4).trim(), true);
+                }
+            }
+        } catch (IOException ex) {
+            // Closed
+        }
+        close();
+    }
+
+    /**
+     * Sends the lines of the recording, keeping the recorded time between
+     * lines (adjusted for the speed).
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void replay() throws IOException, InterruptedException {
+        listener.replayInfo("Replay: Sending "+recording.size()+" lines..");
+        long start = System.nanoTime();
+        int sent = 0;
+        for (int i = 0; i < recording.size(); i++) {
+            if (speed > 0) {
+                long due = (long)(recording.times[i] / speed);
+                long wait = due - (System.nanoTime() - start) / 1000000;
+                if (wait > 0) {
+                    flush();
+                    Thread.sleep(wait);
+                }
+            }
+            String line = recording.lines[i];
+            if (!shouldReplay(line)) {
+                continue;
+            }
+            synchronized(this) {
+                track();
+            }
+            write(line, false);
+            sent++;
+        }
+        flush();
+        long sendTime = System.nanoTime() - start;
+
+        // Wait for all messages to be printed
+        long waitUntil = System.currentTimeMillis() + PRINT_TIMEOUT;
+        while (System.currentTimeMillis() < waitUntil) {
+            synchronized(this) {
+                if (printedCount + notPrintedCount >= trackedCount) {
+                    break;
+                }
+            }
+            Thread.sleep(100);
+        }
+        listener.replayInfo(makeReport(sent, start, sendTime));
+    }
+
+    /**
+     * Lines that would interfere with the replay (like registration) are not
+     * send.
+     *
+     * @param line
+     * @return
+     */
+    private boolean shouldReplay(String line) {
+        if (!message.parse(line)) {
+            return false;
+        }
+        String command = message.getCommand();
+        return message.getCommandType() != IrcMessage.Command.PING
+                && message.getCommandType() != IrcMessage.Command.RPL_MYINFO
+                && !command.equals("001");
+    }
+
+    /**
+     * Remembers when the currently parsed line was send, if it's a message
+     * that should be printed in the chat.
+     */
+    private void track() {
+        if (message.getCommandType() != IrcMessage.Command.PRIVMSG
+                || message.getParameterCount() == 0
+                || !message.parameterStartsWith(0, "#")) {
+            return;
+        }
+        String nick = message.getNick().toLowerCase(Locale.ENGLISH);
+        if (nick.equals("jtv") || nick.equals("twitchnotify")) {
+            return;
+        }
+        String key = message.getParameter(0)+" "+nick;
+        ArrayDeque<Long> times = pendingPrints.get(key);
+        if (times == null) {
+            times = new ArrayDeque<>();
+            pendingPrints.put(key, times);
+        }
+        times.add(System.nanoTime());
+        trackedCount++;
+    }
+
+    /**
+     * A message was printed in the chat. This should be called from the
+     * chat output once the line of the message was added.
+     *
+     * @param channel The channel the message was printed in
+     * @param nick The nick of the user that send the message
+     */
+    @Override
+    public synchronized void messagePrinted(String channel, String nick) {
+        ArrayDeque<Long> times = pendingPrints.get(channel+" "+nick.toLowerCase(Locale.ENGLISH));
+        if (times == null || times.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (printedCount == lags.length) {
+            lags = Arrays.copyOf(lags, lags.length * 2);
+        }
+        lags[printedCount++] = now - times.poll();
+        lastPrinted = now;
+    }
+
+    /**
+     * A message won't be printed in the chat on it's own (e.g. ignored or
+     * skipped), so it isn't waited for and doesn't count for the lag.
+     *
+     * @param channel The channel the message was received in
+     * @param nick The nick of the user that send the message
+     */
+    @Override
+    public synchronized void messageNotPrinted(String channel, String nick) {
+        ArrayDeque<Long> times = pendingPrints.get(channel+" "+nick.toLowerCase(Locale.ENGLISH));
+        if (times == null || times.isEmpty()) {
+            return;
+        }
+        times.poll();
+        notPrintedCount++;
+    }
+
+    private synchronized String makeReport(int sent, long start, long sendTime) {
+        StringBuilder b = new StringBuilder("Replay: Sent ");
+        b.append(sent).append(" lines in ");
+        b.append(String.format(Locale.ENGLISH, "%.1fs (%.0f lines/s)",
+                sendTime / 1e9, sent / (sendTime / 1e9)));
+        b.append(", printed ").append(printedCount).append("/").append(trackedCount).append(" messages");
+        if (notPrintedCount > 0) {
+            b.append(" (").append(notPrintedCount).append(" not printed on their own)");
+        }
+        if (printedCount > 0) {
+            long[] sorted = Arrays.copyOf(lags, printedCount);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long lag : sorted) {
+                total += lag;
+            }
+            b.append(String.format(Locale.ENGLISH,
+                    " (%.0f messages/s), lag avg %dms, 95%% %dms, max %dms",
+                    printedCount / ((lastPrinted - start) / 1e9),
+                    total / printedCount / 1000000,
+                    sorted[(int)(printedCount * 0.95)] / 1000000,
+                    sorted[printedCount - 1] / 1000000));
+        }
+        return b.toString();
+    }
+
+    private void write(String line, boolean flush) throws IOException {
+        synchronized(out) {
+            out.write(line);
+            out.write("\r\n");
+            if (flush) {
+                out.flush();
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        synchronized(out) {
+            out.flush();
+        }
+    }
+
+    private void close() {
+        try {
+            serverSocket.close();
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.warning("Error closing replay server: "+ex);
+        }
+        ended();
+    }
+
+    /**
+     * Informs the listener once that the replay is over, either because it
+     * was finished and reported or because the connection was closed.
+     */
+    private void ended() {
+        if (ended.compareAndSet(false, true)) {
+            listener.replayEnded(this);
+        }
+    }
+
+    /**
+     * The lines to replay, with the time (in milliseconds) they should be
+     * send relative to the start.
+     */
+    public static class Recording {
+
+        private final long[] times;
+        private final String[] lines;
+        private final Set<String> channels;
+
+        private Recording(List<Long> times, List<String> lines, Set<String> channels) {
+            this.times = new long[times.size()];
+            for (int i = 0; i < this.times.length; i++) {
+                this.times[i] = times.get(i);
+            }
+            this.lines = lines.toArray(new String[lines.size()]);
+            this.channels = channels;
+        }
+
+        /**
+         * Loads a recording made with {@link TrafficRecorder}.
+         *
+         * @param file
+         * @return
+         * @throws IOException If the file couldn't be read
+         */
+        public static Recording load(Path file) throws IOException {
+            List<Long> times = new ArrayList<>();
+            List<String> lines = new ArrayList<>();
+            Set<String> channels = new LinkedHashSet<>();
+            IrcMessage message = new IrcMessage();
+            for (String line : Files.readAllLines(file, CHARSET)) {
+                int split = line.indexOf(' ');
+                if (split == -1) {
+                    continue;
+                }
+                try {
+                    times.add(Long.parseLong(line.substring(0, split)));
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                String ircLine = line.substring(split + 1);
+                lines.add(ircLine);
+                if (message.parse(ircLine)
+                        && message.getCommandType() == IrcMessage.Command.PRIVMSG
+                        && message.getParameterCount() > 0
+                        && message.parameterStartsWith(0, "#")) {
+                    channels.add(message.getParameter(0));
+                }
+            }
+            return new Recording(times, lines, channels);
+        }
+
+        /**
+         * Generates chat messages from random users in a single channel.
+         *
+         * @param channel The channel, with leading #
+         * @param count How many messages to generate
+         * @param perSecond How many messages per second at normal speed
+         * @return
+         */
+        public static Recording synthetic(String channel, int count, int perSecond) {
+            String[] texts = new String[]{
+                "Kappa", "PogChamp PogChamp PogChamp", "hello everyone",
+                "what game is this?", "http://example.com/some/link",
+                "this is a slightly longer message with Kappa and FrankerZ in it",
+                "@someone yes", "LUL", "gg", "BibleThump"
+            };
+            Random random = new Random(1);
+            List<Long> times = new ArrayList<>(count);
+            List<String> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String nick = "user"+random.nextInt(2000);
+                times.add((long)i * 1000 / Math.max(1, perSecond));
+                lines.add(":"+nick+"!"+nick+"@"+nick+".tmi.twitch.tv PRIVMSG "
+                        +channel+" :"+texts[random.nextInt(texts.length)]);
+            }
+            Set<String> channels = new LinkedHashSet<>();
+            channels.add(channel);
+            return new Recording(times, lines, channels);
+        }
+
+        public Set<String> getChannels() {
+            return channels;
+        }
+
+        public int size() {
+            return lines.length;
+        }
+    }
+
+    public interface ReplayListener {
+        public void replayInfo(String info);
+
+        /**
+         * The replay is over, so the server doesn't need to be informed
+         * about printed messages anymore.
+         *
+         * @param source The server that ended
+         */
+        public void replayEnded(ReplayServer source);
+    }
+
+}
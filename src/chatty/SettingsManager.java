@@ -77,6 +77,7 @@ public class SettingsManager {
         settings.addString("port", "", false);
         
         settings.addBoolean("tc3", false);
+        settings.addLong("channelsPerConnection", 0);
         
         settings.addString("channel", "");
         settings.addString("username", "");
@@ -107,10 +108,15 @@ public class SettingsManager {
         settings.addBoolean("debugLogIrc", false);
         settings.addBoolean("showBanMessages", false);
         settings.addBoolean("combineBanMessages", true);
+        settings.addBoolean("combineRepeated", false);
+        settings.addLong("combineRepeatedTime", 30);
+        settings.addBoolean("combineRepeatedLog", true);
+        settings.addBoolean("loadShedding", true);
         settings.addBoolean("deleteMessages", false);
         settings.addString("deletedMessagesMode", "keepShortened");
         settings.addLong("deletedMessagesMaxLength", 50);
         settings.addLong("bufferSize", 250);
+        settings.addBoolean("chatView", false);
         settings.addBoolean("twitchnotifyAsInfo", true);
         settings.addBoolean("printStreamStatus", true);
         settings.addBoolean("removeCombiningCharacters", false);
@@ -186,6 +192,8 @@ public class SettingsManager {
         settings.addString("liveStreamsSorting", "recent");
         settings.addLong("historyRange", 0);
         settings.addString("spamProtection", "18/30");
+        settings.addString("spamProtectionMod", "90/30");
+        settings.addString("messageOverflow", "collapse");
 
         settings.addString("currentVersion", "");
         
@@ -1,73 +1,335 @@
 
 package chatty;
 
-import chatty.util.TimedCounter;
+import chatty.util.TimerService;
+import chatty.util.TokenBucket;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
 
 /**
- * Tracks when lines where send to the server to prevent spam.
- * 
+ * Limits how many lines are send to the server to prevent spam (which could
+ * get the user globally banned).
+ *
+ * There is a separate limit for channels the user is moderator in, since
+ * Twitch allows more messages there. All messages count towards the
+ * moderator limit, so that mixed sending stays within it as well.
+ *
+ * Messages that exceed the limit are queued and send once the limit allows
+ * it again, ordered by priority, so that moderation commands go ahead of
+ * normal chat messages.
+ *
  * @author tduva
  */
 public class SpamProtection {
-    
-    private final TimedCounter counter = new TimedCounter(30*1000, 0);
-    
-    private boolean enabled = false;
-    private int lines;
+
+    private static final Logger LOGGER = Logger.getLogger(SpamProtection.class.getName());
+
+    /**
+     * The priority of a message, which determines the order in which queued
+     * messages are send.
+     */
+    public enum Priority {
+        /**
+         * Moderation commands like timeouts and bans.
+         */
+        HIGH,
+        /**
+         * Normal chat messages and other commands.
+         */
+        NORMAL,
+        /**
+         * Messages that are not directly requested by the user, like
+         * requesting the list of mods.
+         */
+        LOW
+    }
+
+    /**
+     * What happened to a message that was given to the spam protection.
+     */
+    public enum Result {
+        SENT, QUEUED, REJECTED
+    }
+
+    /**
+     * A message that is send through the spam protection.
+     */
+    public interface Message {
+
+        /**
+         * Actually sends the message, which may be called from another thread
+         * if the message was queued.
+         */
+        public void send();
+
+        /**
+         * The message was removed from the queue without being send.
+         */
+        public void dropped();
+    }
+
+    /**
+     * How many messages can be queued in total.
+     */
+    private static final int MAX_QUEUE_SIZE = 60;
+
+    /**
+     * The minimum delay before the queue is checked again (in milliseconds).
+     */
+    private static final int MIN_DELAY = 50;
+
+    private final TokenBucket normal = new TokenBucket(0, 0);
+    private final TokenBucket mod = new TokenBucket(0, 0);
+
+    private final Priority[] priorities = Priority.values();
+
+    /**
+     * The queued messages, one queue for each priority.
+     */
+    private final ArrayDeque<Entry>[] lanes;
+
+    /**
+     * The number of queued messages in all lanes.
+     */
+    private int queueSize;
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SpamProtection() {
+        lanes = new ArrayDeque[priorities.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
 
     /**
-     * Changes the lines per seconds. If either lines or seconds is 0, then the
-     * spam protection is disabled altogether.
-     * 
+     * Changes the lines per seconds for channels the user is not moderator
+     * in. If either lines or seconds is 0, then this limit is disabled.
+     *
      * @param lines
-     * @param seconds 
+     * @param seconds
      */
-    public synchronized void setLinesPerSeconds(int lines, int seconds) {
-        enabled = lines > 0 && seconds > 0;
-        this.lines = lines;
-        counter.setInterval(seconds*1000);
+    public void setLinesPerSeconds(int lines, int seconds) {
+        normal.setRate(lines, seconds);
     }
-    
+
     /**
      * Sets the lines per seconds as a String in the format "lines/seconds".
      * Invalid values are just ignored.
-     * 
-     * @param linesPerSeconds 
+     *
+     * @param linesPerSeconds
      */
     public void setLinesPerSeconds(String linesPerSeconds) {
+        setLinesPerSeconds(normal, linesPerSeconds);
+    }
+
+    /**
+     * Sets the lines per seconds for channels the user is moderator in, as a
+     * String in the format "lines/seconds". Invalid values are just ignored.
+     *
+     * @param linesPerSeconds
+     */
+    public void setModLinesPerSeconds(String linesPerSeconds) {
+        setLinesPerSeconds(mod, linesPerSeconds);
+    }
+
+    private static void setLinesPerSeconds(TokenBucket bucket, String linesPerSeconds) {
         String split[] = linesPerSeconds.split("/");
         if (split.length == 2) {
             try {
-                Integer lines = Integer.parseInt(split[0]);
-                Integer seconds = Integer.parseInt(split[1]);
-                setLinesPerSeconds(lines, seconds);
+                int lines = Integer.parseInt(split[0].trim());
+                int seconds = Integer.parseInt(split[1].trim());
+                bucket.setRate(lines, seconds);
             } catch (NumberFormatException ex) {
                 // Do nothing
             }
         }
     }
-    
-    public boolean check() {
-        return getAllowance() > 0;
+
+    /**
+     * Sends the message right away if the limit allows it and no message of
+     * the same or higher priority is waiting, otherwise queues it.
+     *
+     * @param message The message to send
+     * @param priority The priority of the message
+     * @param isMod Whether the user is moderator in the channel the message
+     * is send to
+     * @return Whether the message was send, queued or rejected because the
+     * queue is full
+     */
+    public Result send(Message message, Priority priority, boolean isMod) {
+        Entry dropped = null;
+        Result result;
+        synchronized(lanes) {
+            if (isEmptyUpTo(priority) && acquire(isMod)) {
+                result = Result.SENT;
+            } else if (queueSize < MAX_QUEUE_SIZE) {
+                add(new Entry(message, isMod), priority);
+                result = Result.QUEUED;
+            } else {
+                // Make room by dropping a message with lower priority
+                dropped = removeLowerThan(priority);
+                if (dropped != null) {
+                    add(new Entry(message, isMod), priority);
+                    result = Result.QUEUED;
+                } else {
+                    result = Result.REJECTED;
+                }
+            }
+        }
+        if (dropped != null) {
+            dropped.message.dropped();
+        }
+        if (result == Result.SENT) {
+            message.send();
+        } else if (result == Result.QUEUED) {
+            scheduleDrain();
+        }
+        return result;
+    }
+
+    /**
+     * Tries to take a token for a message. Messages to channels the user is
+     * not moderator in need a token of both limits, messages in moderated
+     * channels only of the moderator limit (but still use up the normal limit
+     * if possible).
+     *
+     * @param isMod
+     * @return true if the message can be send
+     */
+    private boolean acquire(boolean isMod) {
+        if (isMod) {
+            if (mod.tryAcquire()) {
+                normal.tryAcquire();
+                return true;
+            }
+            return false;
+        }
+        return normal.getAvailable() > 0 && mod.getAvailable() > 0
+                && normal.tryAcquire() && mod.tryAcquire();
+    }
+
+    private boolean isEmptyUpTo(Priority priority) {
+        for (int i = 0; i <= priority.ordinal(); i++) {
+            if (!lanes[i].isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(Entry entry, Priority priority) {
+        lanes[priority.ordinal()].add(entry);
+        queueSize++;
+    }
+
+    private Entry removeLowerThan(Priority priority) {
+        for (int i = lanes.length - 1; i > priority.ordinal(); i--) {
+            Entry entry = lanes[i].pollLast();
+            if (entry != null) {
+                queueSize--;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the next queued message, if the limit allows it to be send.
+     *
+     * @return The message, or null if none can be send right now
+     */
+    private Entry next() {
+        synchronized(lanes) {
+            for (ArrayDeque<Entry> lane : lanes) {
+                Entry entry = lane.peek();
+                if (entry != null) {
+                    if (!acquire(entry.isMod)) {
+                        return null;
+                    }
+                    queueSize--;
+                    return lane.poll();
+                }
+            }
+            return null;
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            long delay = Math.max(MIN_DELAY,
+                    Math.max(normal.getDelay(), mod.getDelay()));
+            TimerService.get().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    drainScheduled.set(false);
+                    drain();
+                }
+            }, delay);
+        }
+    }
+
+    /**
+     * Sends queued messages as far as the limit allows and schedules the next
+     * check if there are still messages left.
+     */
+    private void drain() {
+        Entry entry;
+        while ((entry = next()) != null) {
+            try {
+                entry.message.send();
+            } catch (Exception ex) {
+                LOGGER.warning("Error sending queued message: "+ex);
+            }
+        }
+        if (getQueueSize() > 0) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Removes all queued messages, for example when disconnecting.
+     */
+    public void clearQueue() {
+        synchronized(lanes) {
+            for (ArrayDeque<Entry> lane : lanes) {
+                lane.clear();
+            }
+            queueSize = 0;
+        }
     }
-    
-    public synchronized int getAllowance() {
-        if (!enabled) {
-            return 1;
+
+    public int getQueueSize() {
+        synchronized(lanes) {
+            return queueSize;
         }
-        return lines - counter.getCount(true);
     }
-    
-    public synchronized void increase() {
-        counter.increase();
+
+    /**
+     * How many messages can currently be send without being queued.
+     *
+     * @param isMod Whether to get the allowance for a moderated channel
+     * @return
+     */
+    public int getAllowance(boolean isMod) {
+        if (isMod) {
+            return mod.getAvailable();
+        }
+        return Math.min(normal.getAvailable(), mod.getAvailable());
     }
-    
-    public synchronized boolean tryMessage() {
-        if (check()) {
-            increase();
-            return true;
+
+    private static class Entry {
+
+        private final Message message;
+        private final boolean isMod;
+
+        Entry(Message message, boolean isMod) {
+            this.message = message;
+            this.isMod = isMod;
         }
-        return false;
     }
-    
+
 }
@@ -0,0 +1,94 @@
+
+package chatty;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Records received IRC lines with the time they were received, so they can be
+ * replayed later using {@link ReplayServer}.
+ *
+ * Each line in the file is the time in milliseconds since the start of the
+ * recording, a space, and then the received line.
+ *
+ * @author tduva
+ */
+public class TrafficRecorder {
+
+    private static final Logger LOGGER = Logger.getLogger(TrafficRecorder.class.getName());
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private volatile BufferedWriter writer;
+    private Path file;
+    private long start;
+    private int count;
+
+    /**
+     * Starts recording to the given file, which is overwritten if it already
+     * exists. Any previous recording is stopped.
+     *
+     * @param file
+     * @throws IOException If the file couldn't be opened
+     */
+    public synchronized void start(Path file) throws IOException {
+        stop();
+        writer = Files.newBufferedWriter(file, CHARSET);
+        this.file = file;
+        start = System.currentTimeMillis();
+        count = 0;
+        LOGGER.info("Started recording to "+file);
+    }
+
+    /**
+     * Stops recording and closes the file.
+     *
+     * @return Info about the finished recording, or null if nothing was
+     * being recorded
+     */
+    public synchronized String stop() {
+        if (writer == null) {
+            return null;
+        }
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            LOGGER.warning("Error closing recording: "+ex);
+        }
+        writer = null;
+        String result = "Recorded "+count+" lines in "
+                +((System.currentTimeMillis() - start) / 1000)+"s to "+file;
+        LOGGER.info(result);
+        return result;
+    }
+
+    public boolean isRecording() {
+        return writer != null;
+    }
+
+    /**
+     * Records the given line, if currently recording.
+     *
+     * @param line The received line
+     */
+    public synchronized void record(String line) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(Long.toString(System.currentTimeMillis() - start));
+            writer.write(' ');
+            writer.write(line);
+            writer.newLine();
+            count++;
+        } catch (IOException ex) {
+            LOGGER.warning("Error recording, stopping: "+ex);
+            stop();
+        }
+    }
+
+}
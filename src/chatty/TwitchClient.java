@@ -31,6 +31,9 @@ import chatty.util.settings.Settings;
 import chatty.util.settings.SettingsListener;
 import chatty.util.srl.SpeedrunsLive;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.Map.Entry;
 import java.util.*;
 import java.util.logging.Logger;
@@ -135,6 +138,13 @@ public class TwitchClient extends Irc {
 	private final Vector<String> servers = new Vector<>();
 	private final JoinChecker joinChecker = new JoinChecker(this);
 
+	private volatile String joinProgress;
+
+	/**
+	 * Records received lines for testing, if enabled.
+	 */
+	private final TrafficRecorder trafficRecorder = new TrafficRecorder();
+
 	private List<String> cachedDebugMessages = new ArrayList<>();
 	private List<String> cachedWarningMessages = new ArrayList<>();
 
@@ -238,6 +248,7 @@ public class TwitchClient extends Irc {
 
 		spamProtection = new SpamProtection();
 		spamProtection.setLinesPerSeconds(settings.getString("spamProtection"));
+		spamProtection.setModLinesPerSeconds(settings.getString("spamProtectionMod"));
 
 		users.setCapitalizedNames(settings.getBoolean("capitalizedNames"));
 		users.setUsercolorManager(usercolorManager);
@@ -397,11 +408,11 @@ public class TwitchClient extends Irc {
 	}
 
 	@Override
-	void onConnect() {
+	void onConnect(Connection connection) {
 		if (settings.getBoolean("tc3")) {
-			send("TWITCHCLIENT 3");
+			connection.send("TWITCHCLIENT 3");
 		} else {
-			send("TWITCHCLIENT");
+			connection.send("TWITCHCLIENT");
 		}
 	}
 
@@ -469,6 +480,8 @@ public class TwitchClient extends Irc {
 	@Override
 	void onDisconnect(int reason, String reasonMessage) {
 		joinedChannels.clear();
+		joinProgress = null;
+		spamProtection.clearQueue();
 		users.clear();
 		twitchCommands.clearModsAlreadyRequested(null);
 		g.printLineAll("Disconnected"+Helper.makeDisconnectReason(reason,reasonMessage));
@@ -500,6 +513,27 @@ public class TwitchClient extends Irc {
 		}
 	}
 
+	/**
+	 * When an additional connection was closed, only the channels joined on it
+	 * are affected, so remove those and join them again (which may put them on
+	 * other connections).
+	 * 
+	 * @param channels The channels that were joined on the connection
+	 * @param reason
+	 * @param reasonMessage 
+	 */
+	@Override
+	void onChannelsDisconnected(Set<String> channels, int reason, String reasonMessage) {
+		for (String channel : channels) {
+			joinedChannels.remove(channel);
+			users.clear(channel);
+			twitchCommands.clearModsAlreadyRequested(channel);
+			g.clearUsers(channel);
+			g.printLine(channel, "Disconnected"+Helper.makeDisconnectReason(reason, reasonMessage));
+		}
+		joinChannels(channels);
+	}
+
 	/**
 	 * Gets the reconnection delay based on the number of attempts.
 	 * 
@@ -541,6 +575,23 @@ public class TwitchClient extends Irc {
 		openChannels.add(channel);
 	}
 
+	@Override
+	void onJoinProgress(int joined, int total) {
+		joinProgress = joined < total ? joined+"/"+total : null;
+		g.updateState();
+	}
+
+	/**
+	 * The progress of joining several channels, while more channels are
+	 * waiting to be joined.
+	 * 
+	 * @return The progress as "joined/total", or null if no channels are
+	 * waiting to be joined
+	 */
+	public String getJoinProgress() {
+		return joinProgress;
+	}
+
 	@Override
 	void onJoin(String channel, String nick, String prefix) {
 		if (nick.equalsIgnoreCase(this.username)) {
@@ -903,8 +954,16 @@ public class TwitchClient extends Irc {
 	@Override
 	void onUserlist(String channel, String[] nicknames) {
 		if (!settings.getBoolean("ignoreJoinsParts")) {
+			// Add all users of this reply at once instead of one by one
+			List<User> joined = new ArrayList<>();
 			for (String nick : nicknames) {
-				userJoined(channel, nick);
+				User user = users.getUser(channel, nick);
+				if (setOnline(user)) {
+					joined.add(user);
+				}
+			}
+			if (!joined.isEmpty()) {
+				g.addUsers(channel, joined);
 			}
 		}
 	}
@@ -930,17 +989,30 @@ public class TwitchClient extends Irc {
 	}
 
 	public User userJoined(User user) {
-		if (!user.isOnline()) {
-			String channel = user.getChannel();
-			if (Helper.toLowerCase(channel).substring(1).equals(user.nick)) {
-				user.setBroadcaster(true);
-			}
-			user.setOnline(true);
-			g.addUser(channel, user);
+		if (setOnline(user)) {
+			g.addUser(user.getChannel(), user);
 		}
 		return user;
 	}
 
+	/**
+	 * Sets a user as online, without adding it to the userlist.
+	 * 
+	 * @param user The User
+	 * @return true if the user wasn't online before, false otherwise
+	 */
+	private boolean setOnline(User user) {
+		if (user.isOnline()) {
+			return false;
+		}
+		String channel = user.getChannel();
+		if (Helper.toLowerCase(channel).substring(1).equals(user.nick)) {
+			user.setBroadcaster(true);
+		}
+		user.setOnline(true);
+		return true;
+	}
+
 	/**
 	 * Sets a user as offline, removing the user from the userlist, the user
 	 * won't be deleted though, for possible further reference
@@ -1151,6 +1223,7 @@ public class TwitchClient extends Irc {
 			serverCycle = 0;
 		}
 		server = servers.get(serverCycle);
+		setChannelsPerConnection((int)settings.getLong("channelsPerConnection"));
 		connect(server,serverPorts,username,password);
 
 	}
@@ -1175,6 +1248,9 @@ public class TwitchClient extends Irc {
 
 	@Override
 	public void raw(String text) {
+		if (trafficRecorder.isRecording()) {
+			trafficRecorder.record(text);
+		}
 		if (settings.getBoolean("debugLogIrc")) {
 			g.printDebugIrc("<< "+text);
 		}
@@ -1207,78 +1283,142 @@ public class TwitchClient extends Irc {
 
 	/**
 	 * Send a spam protected command to a channel, with the given echo message
-	 * that will be displayed to the user.
+	 * that will be displayed to the user once the command is actually send.
 	 * 
 	 * @param channel The channel to send the message to
 	 * @param message The message to send (e.g. a moderation command)
 	 * @param echo The message to display to the user
 	 */
-	public void sendCommandMessage(String channel, String message, String echo) {
-		if (sendSpamProtectedMessage(channel, message)) {
-			g.printLine(channel, echo);
-		} else {
-			g.printLine("# Command not sent to prevent ban: "+message);
-		}
+	public void sendCommandMessage(final String channel, final String message,
+			final String echo) {
+		SpamProtection.Result result = sendSpamProtected(channel, message,
+				getPriority(message), new Runnable() {
+
+			@Override
+			public void run() {
+				g.printLine(channel, echo);
+			}
+		});
+		printSpamProtectionResult(result, "Command", message);
 	}
 
 	/**
-	 * Tries to send a spam protected message, which will either be send or not,
-	 * depending on the status of the spam protection.
+	 * Tries to send a spam protected message, which will either be send right
+	 * away or queued, depending on the status of the spam protection.
 	 * 
 	 * @param channel The channel to send the message to
 	 * @param message The message to send
-	 * @return true if the message was send, false otherwise
+	 * @return true if the message was send or queued, false otherwise
 	 */
 	public boolean sendSpamProtectedMessage(String channel, String message) {
-		if (!spamProtection.check()) {
-			//g.printLine("# Message/command not send to prevent you from being banned.");
-			return false;
-		} else {
-			spamProtection.increase();
-			// This is used to associate a received modlist with a request and
-			// thus with a channel (if there is no channel context due to TC1)
-			if (message.equals(".mods")) {
-				users.modsListRequested(channel);
-			}
-			super.sendMessage(channel, message);
-			return true;
-		}
+		return sendSpamProtected(channel, message, getPriority(message), null)
+				!= SpamProtection.Result.REJECTED;
 	}
 
 	/**
-	 * Sends a spam protected action message, which is either send with the
-	 * normal output or not send with a warning (if the spam protection doesn't
-	 * allow it).
+	 * Sends a message through the spam protection.
 	 * 
 	 * @param channel The channel to send the message to
-	 * @param message The message
+	 * @param message The message to send
+	 * @param priority The priority, in case the message has to be queued
+	 * @param echo Run once the message was actually send, may be null
+	 * @return What happened to the message
 	 */
-	@Override
-	public void sendActionMessage(String channel, String message) {
-		if (onChannel(channel, true)) {
-			if (sendSpamProtectedActionMessage(channel, message)) {
-				g.printMessage(channel, userJoined(channel, username), message, true);
-			} else {
-				g.printLine("# Action Message not sent to prevent ban: " + message);
+	private SpamProtection.Result sendSpamProtected(final String channel,
+			final String message, SpamProtection.Priority priority,
+			final Runnable echo) {
+		SpamProtection.Result result = spamProtection.send(new SpamProtection.Message() {
+
+			@Override
+			public void send() {
+				// This is used to associate a received modlist with a request and
+				// thus with a channel (if there is no channel context due to TC1)
+				if (message.equals(".mods")) {
+					users.modsListRequested(channel);
+				}
+				TwitchClient.super.sendMessage(channel, message);
+				if (echo != null) {
+					echo.run();
+				}
+				g.updateState();
+			}
+
+			@Override
+			public void dropped() {
+				g.printLine("# Message dropped from queue to prevent ban: "+message);
 			}
+		}, priority, isModerator(channel));
+		if (result == SpamProtection.Result.QUEUED) {
+			g.updateState();
 		}
+		return result;
 	}
 
 	/**
-	 * Sends a spam protected action message, which may or may not be send,
-	 * depending on the status of the spam protection.
+	 * Determines the priority of a message, so that moderation commands can be
+	 * send before normal messages and requesting the mods list is send last.
+	 * 
+	 * @param message
+	 * @return 
+	 */
+	private static SpamProtection.Priority getPriority(String message) {
+		if (message.startsWith(".timeout ") || message.startsWith(".ban ")
+				|| message.startsWith(".unban ") || message.equals(".clear")) {
+			return SpamProtection.Priority.HIGH;
+		}
+		if (message.equals(".mods")) {
+			return SpamProtection.Priority.LOW;
+		}
+		return SpamProtection.Priority.NORMAL;
+	}
+
+	/**
+	 * Checks whether the local user is moderator or broadcaster in the given
+	 * channel, which allows sending more messages.
+	 * 
+	 * @param channel
+	 * @return 
+	 */
+	private boolean isModerator(String channel) {
+		User user = users.getUserIfExists(channel, username);
+		return user != null && (user.isModerator() || user.isBroadcaster());
+	}
+
+	private void printSpamProtectionResult(SpamProtection.Result result,
+			String type, String message) {
+		if (result == SpamProtection.Result.QUEUED) {
+			g.printLine("# "+type+" queued to prevent ban: "+message);
+		} else if (result == SpamProtection.Result.REJECTED) {
+			g.printLine("# "+type+" not sent to prevent ban: "+message);
+		}
+	}
+
+	/**
+	 * Sends a spam protected action message, which is either send with the
+	 * normal output, queued or not send with a warning (if the spam
+	 * protection doesn't allow it).
 	 * 
 	 * @param channel The channel to send the message to
 	 * @param message The message
-	 * @return true if the message was send, false otherwise
 	 */
-	public boolean sendSpamProtectedActionMessage(String channel, String message) {
-		if (!spamProtection.check()) {
-			return false;
-		} else {
-			spamProtection.increase();
-			super.sendActionMessage(channel, message);
-			return true;
+	@Override
+	public void sendActionMessage(final String channel, final String message) {
+		if (onChannel(channel, true)) {
+			SpamProtection.Result result = spamProtection.send(new SpamProtection.Message() {
+
+				@Override
+				public void send() {
+					TwitchClient.super.sendActionMessage(channel, message);
+					g.printMessage(channel, userJoined(channel, username), message, true);
+					g.updateState();
+				}
+
+				@Override
+				public void dropped() {
+					g.printLine("# Action Message dropped from queue to prevent ban: "+message);
+				}
+			}, SpamProtection.Priority.NORMAL, isModerator(channel));
+			printSpamProtectionResult(result, "Action Message", message);
 		}
 	}
 
@@ -1390,11 +1530,17 @@ public class TwitchClient extends Irc {
 		}
 		else {
 			if (onChannel(channel)) {
-				if (sendSpamProtectedMessage(channel, text)) {
-					g.printMessage(channel,userJoined(channel,username),text,false);
-				} else {
-					g.printLine("# Message not sent to prevent ban: "+text);
-				}
+				final String ch = channel;
+				final String message = text;
+				SpamProtection.Result result = sendSpamProtected(channel, text,
+						getPriority(text), new Runnable() {
+
+					@Override
+					public void run() {
+						g.printMessage(ch, userJoined(ch, username), message, false);
+					}
+				});
+				printSpamProtectionResult(result, "Message", text);
 			}
 			else {
 				g.printLine("Not in a channel");
@@ -1486,6 +1632,15 @@ public class TwitchClient extends Irc {
 		else if (command.equals("connection")) {
 			g.printLine(getConnectionInfo());
 		}
+		else if (command.equals("spamprotection")) {
+			g.printLine(getSpamProtectionInfo(channel));
+		}
+		else if (command.equals("pipeline")) {
+			for (String line : getPipelineStats().split("\n")) {
+				g.printLine(line);
+			}
+			g.printLine(g.getPrintStats());
+		}
 		else if (command.equals("join")) {
 			commandJoinChannel(parameter);
 		}
@@ -1715,6 +1870,10 @@ public class TwitchClient extends Irc {
 			g.removeChannel(parameter);
 		} else if (command.equals("testtimer")) {
 			new Thread(new TestTimer(this, new Integer(parameter))).start();
+		} else if (command.equals("record")) {
+			commandRecord(parameter);
+		} else if (command.equals("replay")) {
+			commandReplay(parameter);
 		} //        else if (command.equals("usertest")) {
 		//            System.out.println(users.getChannelsAndUsersByUserName(parameter));
 		//        }
@@ -1742,8 +1901,6 @@ public class TwitchClient extends Irc {
 		} else if (command.equals("tsoffline")) {
 			testStreamInfo.setOffline();
 			g.addStreamInfo(testStreamInfo);
-		} else if (command.equals("testspam")) {
-			g.printLine("test" + spamProtection.getAllowance() + spamProtection.tryMessage());
 		} else if (command.equals("tsv")) {
 			testStreamInfo.set("Title", "Game", Integer.parseInt(parameter), -1);
 		} else if (command.equals("tsvs")) {
@@ -1814,6 +1971,93 @@ public class TwitchClient extends Irc {
 		}
 	}
 
+	/**
+	 * Starts or stops recording received lines.
+	 * 
+	 * @param parameter "start [file]" or "stop"
+	 */
+	private void commandRecord(String parameter) {
+		if (parameter != null && parameter.startsWith("start")) {
+			String file = parameter.substring(5).trim();
+			if (file.isEmpty()) {
+				file = Chatty.getUserDataDirectory()+"recording.txt";
+			}
+			try {
+				trafficRecorder.start(Paths.get(file));
+				g.printLine("Recording received lines to "+file);
+			} catch (IOException | InvalidPathException ex) {
+				g.printLine("Couldn't start recording: "+ex);
+			}
+		} else if (parameter != null && parameter.equals("stop")) {
+			String result = trafficRecorder.stop();
+			g.printLine(result == null ? "Not recording" : result);
+		} else {
+			g.printLine("Usage: /record start [file] or /record stop");
+		}
+	}
+
+	/**
+	 * Starts a local server that replays a recording or generated messages
+	 * and connects to it.
+	 * 
+	 * @param parameter "<file|synthetic> [speed|max] [count] [perSecond]"
+	 */
+	private void commandReplay(String parameter) {
+		if (parameter == null) {
+			g.printLine("Usage: /replay <file|synthetic> [speed|max] [count] [perSecond]");
+			return;
+		}
+		if (!isOffline()) {
+			g.printLine("Can't replay: Disconnect first");
+			return;
+		}
+		String[] split = parameter.split(" ");
+		try {
+			double speed = 1;
+			if (split.length > 1) {
+				speed = split[1].equals("max") ? 0 : Double.parseDouble(split[1]);
+			}
+			ReplayServer.Recording recording;
+			if (split[0].equals("synthetic")) {
+				int count = split.length > 2 ? Integer.parseInt(split[2]) : 10000;
+				int perSecond = split.length > 3 ? Integer.parseInt(split[3]) : 100;
+				recording = ReplayServer.Recording.synthetic("#replay", count, perSecond);
+			} else {
+				recording = ReplayServer.Recording.load(Paths.get(split[0]));
+			}
+			if (recording.getChannels().isEmpty()) {
+				g.printLine("Can't replay: No channel messages found");
+				return;
+			}
+			ReplayServer server = new ReplayServer(recording, speed, new ReplayServer.ReplayListener() {
+
+				@Override
+				public void replayInfo(String info) {
+					g.printLine(info);
+				}
+
+				@Override
+				public void replayEnded(ReplayServer source) {
+					g.removePrintListener(source);
+				}
+			});
+			g.setPrintListener(server);
+			server.start();
+			autojoin = recording.getChannels().toArray(new String[0]);
+			if (username == null || username.isEmpty()) {
+				username = settings.getString("username").isEmpty()
+						? "replaytest" : settings.getString("username");
+			}
+			g.printLine("Replaying "+recording.size()+" lines in "
+					+recording.getChannels()+" on port "+server.getPort());
+			connect("127.0.0.1", String.valueOf(server.getPort()), username, "replay");
+		} catch (NumberFormatException ex) {
+			g.printLine("Invalid number: "+ex.getLocalizedMessage());
+		} catch (IOException | InvalidPathException ex) {
+			g.printLine("Can't replay: "+ex);
+		}
+	}
+
 	private void commandServer(String parameter) {
 		if (parameter == null) {
 			g.printLine("Usage: /server <address>[:port]");
@@ -2352,6 +2596,34 @@ public class TwitchClient extends Irc {
 		spamProtection.setLinesPerSeconds(value);
 	}
 
+	public void setModLinesPerSeconds(String value) {
+		spamProtection.setModLinesPerSeconds(value);
+	}
+
+	/**
+	 * The number of messages waiting to be send because of the spam
+	 * protection.
+	 * 
+	 * @return 
+	 */
+	public int getSpamProtectionQueueSize() {
+		return spamProtection.getQueueSize();
+	}
+
+	/**
+	 * Info about the current state of the spam protection for the given
+	 * channel.
+	 * 
+	 * @param channel
+	 * @return 
+	 */
+	public String getSpamProtectionInfo(String channel) {
+		boolean mod = channel != null && isModerator(channel);
+		return "Spam protection: "+spamProtection.getAllowance(mod)
+				+" messages available"+(mod ? " (moderator)" : "")
+				+", "+spamProtection.getQueueSize()+" queued";
+	}
+
 	private void version5Info() {
 		long count = settings.getLong("v0.5");
 		if (!settings.getString("token").isEmpty()
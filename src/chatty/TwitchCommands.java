@@ -3,13 +3,12 @@ package chatty;
 
 import chatty.gui.MainGui;
 import chatty.util.DateTime;
+import chatty.util.TimerService;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 /**
@@ -305,8 +304,7 @@ public class TwitchCommands {
      * Starts the timer which requests the /mods list for joined channels.
      */
     public void startAutoRequestMods() {
-        Timer timer = new Timer(true);
-        timer.schedule(new TimerTask() {
+        TimerService.get().schedule(new Runnable() {
 
             @Override
             public void run() {
@@ -1,8 +1,8 @@
 
 package chatty;
 
-import java.util.Map.Entry;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -35,6 +35,14 @@ import java.util.logging.Logger;
  * specific, so that status can just be set for every user with the same
  * name.</p>
  * 
+ * <p>
+ * <strong>Thread-safety:</strong> The users are stored in concurrent maps for
+ * each channel, as well as in an index by name, so getting existing users
+ * (e.g. for every message) or all users with a name (e.g. for bans or color
+ * changes) doesn't lock and doesn't have to go through all channels. Adding
+ * users and changing the cached values is done while holding the lock of this
+ * object, so new users always get the values that were cached before.</p>
+ * 
  * @author tduva
  */
 public class UserManager {
@@ -62,13 +70,23 @@ public class UserManager {
     
     private final Set<UserManagerListener> listeners = new HashSet<>();
     
-    private final HashMap<String, HashMap<String, User>> users = new HashMap<>();
+    /**
+     * The users by channel and name.
+     */
+    private final Map<String, Map<String, User>> users = new ConcurrentHashMap<>();
+    
+    /**
+     * The users by name and channel, containing the same users as
+     * {@link #users}.
+     */
+    private final Map<String, Map<String, User>> usersByName = new ConcurrentHashMap<>();
+    
     private final HashMap<String, String> cachedEmoteSets = new HashMap<>();
     private final HashMap<String, String> cachedColors = new HashMap<>();
     private final HashSet<String> cachedTurbo = new HashSet<>();
     private final HashSet<String> cachedAdmin = new HashSet<>();
     private final HashSet<String> cachedStaff = new HashSet<>();
-    private final HashMap<String, Long> cachedSubscriber = new HashMap<>();
+    private final Map<String, Long> cachedSubscriber = new ConcurrentHashMap<>();
     private final HashMap<String, Long> modsListRequested = new HashMap<>();
     private final HashMap<String, Long> channelJoined = new HashMap<>();
     private boolean capitalizedNames = false;
@@ -135,35 +153,29 @@ public class UserManager {
      * Gets a Map of all User objects in the given channel.
      * 
      * @param channel
-     * @return 
+     * @return An unmodifiable view of the users by name
      */
-    public synchronized HashMap<String, User> getUsersByChannel(String channel) {
-        HashMap<String, User> result = users.get(channel);
+    public Map<String, User> getUsersByChannel(String channel) {
+        Map<String, User> result = users.get(channel);
         if (result == null) {
-            result = new HashMap<>();
-            users.put(channel, result);
+            return Collections.emptyMap();
         }
-        return result;
+        return Collections.unmodifiableMap(result);
     }
 
     /**
-     * Searches all channels for the given username and returns a List of all
-     * the associated User objects.
+     * Returns a List of the User objects with the given username in all
+     * channels.
      * 
      * @param name The username to search for
      * @return The List of User-objects.
      */
-    public synchronized List<User> getUsersByName(String name) {
-        List<User> result = new ArrayList<>();
-        Iterator<HashMap<String, User>> it = users.values().iterator();
-        while (it.hasNext()) {
-            HashMap<String, User> channelUsers = it.next();
-            User user = channelUsers.get(name.toLowerCase());
-            if (user != null) {
-                result.add(user);
-            }
+    public List<User> getUsersByName(String name) {
+        Map<String, User> channels = usersByName.get(name.toLowerCase());
+        if (channels == null) {
+            return new ArrayList<>();
         }
-        return result;
+        return new ArrayList<>(channels.values());
     }
 
     /**
@@ -174,8 +186,12 @@ public class UserManager {
      * @param name
      * @return The {@code User} object or null if none exists
      */
-    public synchronized User getUserIfExists(String channel, String name) {
-        return getUsersByChannel(channel).get(name);
+    public User getUserIfExists(String channel, String name) {
+        Map<String, User> channelUsers = users.get(channel);
+        if (channelUsers == null) {
+            return null;
+        }
+        return channelUsers.get(name);
     }
     
     /**
@@ -187,11 +203,29 @@ public class UserManager {
      * @return The matching User object
      * @see User
      */
-    public synchronized User getUser(String channel, String name) {
+    public User getUser(String channel, String name) {
         // Not sure if this makes sense
         if (name == null || name.isEmpty()) {
             return errorUser;
         }
+        User user = getUserIfExists(channel, name.toLowerCase(Locale.ENGLISH));
+        if (user == null) {
+            return createUser(channel, name);
+        }
+        if (capitalizedNamesManager != null) {
+            capitalizedNamesManager.activity(user.nick);
+        }
+        return user;
+    }
+    
+    /**
+     * Creates a new User object, unless it was created in the meantime.
+     * 
+     * @param channel
+     * @param name The name of the user (not necessarily lowercase)
+     * @return The new or existing User object
+     */
+    private synchronized User createUser(String channel, String name) {
         String displayName = name;
         name = name.toLowerCase(Locale.ENGLISH);
         User user = getUserIfExists(channel, name);
@@ -225,11 +259,19 @@ public class UserManager {
             if (cachedTurbo.contains(name)) {
                 user.setTurbo(true);
             }
-            // Put User into the map for the channel
-            getUsersByChannel(channel).put(name, user);
-        } else if (capitalizedNamesManager != null) {
-            //System.out.println(name);
-            capitalizedNamesManager.activity(name);
+            // Put User into the map for the channel and the index
+            Map<String, User> channelUsers = users.get(channel);
+            if (channelUsers == null) {
+                channelUsers = new ConcurrentHashMap<>();
+                users.put(channel, channelUsers);
+            }
+            channelUsers.put(name, user);
+            Map<String, User> channels = usersByName.get(name);
+            if (channels == null) {
+                channels = new ConcurrentHashMap<>();
+                usersByName.put(name, channels);
+            }
+            channels.put(channel, user);
         }
         return user;
     }
@@ -241,37 +283,37 @@ public class UserManager {
      * @param name The username to be searched for
      * @return A Map with channel->User association
      */
-    public synchronized HashMap<String,User> getChannelsAndUsersByUserName(String name) {
-        String lowercaseName = name.toLowerCase(Locale.ENGLISH);
-        HashMap<String,User> result = new HashMap<>();
-        
-        Iterator<Entry<String, HashMap<String, User>>> it = users.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, HashMap<String, User>> channel = it.next();
-            
-            String channelName = channel.getKey();
-            HashMap<String,User> channelUsers = channel.getValue();
-            
-            User user = channelUsers.get(lowercaseName);
-            if (user != null) {
-                result.put(channelName,user);
-            }
+    public HashMap<String,User> getChannelsAndUsersByUserName(String name) {
+        Map<String, User> channels = usersByName.get(name.toLowerCase(Locale.ENGLISH));
+        if (channels == null) {
+            return new HashMap<>();
         }
-        return result;
+        return new HashMap<>(channels);
     }
     
     public synchronized void clear() {
         users.clear();
+        usersByName.clear();
     }
     
     public synchronized void clear(String channel) {
-        getUsersByChannel(channel).clear();
+        Map<String, User> channelUsers = users.remove(channel);
+        if (channelUsers == null) {
+            return;
+        }
+        for (String name : channelUsers.keySet()) {
+            Map<String, User> channels = usersByName.get(name);
+            if (channels != null) {
+                channels.remove(channel);
+                if (channels.isEmpty()) {
+                    usersByName.remove(name);
+                }
+            }
+        }
     }
     
-    public synchronized void setAllOffline() {
-        Iterator<HashMap<String,User>> it = users.values().iterator();
-        while (it.hasNext()) {
-            HashMap<String,User> channel = it.next();
+    public void setAllOffline() {
+        for (Map<String, User> channel : users.values()) {
             for (User user : channel.values()) {
                 user.setOnline(false);
             }
@@ -392,10 +434,17 @@ public class UserManager {
      * 
      * @param user 
      */
-    protected synchronized void channelMessage(User user) {
+    protected void channelMessage(User user) {
+        // Checked without locking first, since this is called for every message
         if (cachedSubscriber.isEmpty()) {
             return;
         }
+        synchronized(this) {
+            channelMessageSubscriber(user);
+        }
+    }
+    
+    private void channelMessageSubscriber(User user) {
         Long cachedSubscriberTime = cachedSubscriber.remove(user.nick);
         if (cachedSubscriberTime != null) {
             long passedTime = System.currentTimeMillis() - cachedSubscriberTime;
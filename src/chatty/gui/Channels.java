@@ -583,6 +583,23 @@ public class Channels {
         }
     }
     
+    /**
+     * The channels in the main window (not in popouts).
+     * 
+     * @return The {@code List} of {@code Channel} objects
+     */
+    public List<Channel> getTabChannels() {
+        List<Channel> result = getChannels();
+        result.removeAll(dialogs.keySet());
+        return result;
+    }
+    
+    public void switchToChannel(Channel channel) {
+        if (!dialogs.containsKey(channel)) {
+            tabs.setSelectedComponent(channel);
+        }
+    }
+    
     public void switchToChannel(String channel) {
         if (isChannel(channel)) {
             tabs.setSelectedComponent(get(channel));
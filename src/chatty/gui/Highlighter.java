@@ -3,21 +3,44 @@ package chatty.gui;
 
 import chatty.Helper;
 import chatty.User;
+import chatty.util.AhoCorasick;
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 /**
  * Checks if a given String matches the saved highlight items.
  * 
+ * <p>
+ * Matching a message against the items with {@link #findMatch(User, String)}
+ * is thread-safe, so it can be done before the message is printed. Whether
+ * the message is actually highlighted depends on the previous messages as
+ * well (if highlightNextMessages is enabled), so
+ * {@link #check(User, Match)} should be called for every message in order.
+ * </p>
+ * 
+ * <p>
+ * Since there can be many items, they are not simply tried one after another.
+ * The text terms of the items (without regex) are searched for all at once
+ * (see {@link Items}), the regex items are combined into one pattern where
+ * possible, and the other requirements of an item (user, channel, category)
+ * are only checked for items whose text matched. The result is the same as
+ * trying the items in order: the first matching item is used.
+ * </p>
+ * 
  * @author tduva
  */
 public class Highlighter {
@@ -26,13 +49,29 @@ public class Highlighter {
     
     private static final int LAST_HIGHLIGHTED_TIMEOUT = 10*1000;
     
-    private final Map<String, Long> lastHighlighted = new HashMap<>();
-    private final List<HighlightItem> items = new ArrayList<>();
-    private Pattern usernamePattern;
+    /**
+     * Every this many messages, each item is checked on it's own to measure
+     * how long it takes (normally they are checked all at once).
+     */
+    private static final int PROFILE_EVERY = 50;
+    
+    private final AtomicInteger messageCount = new AtomicInteger();
+    
+    /**
+     * Users that were recently highlighted, the oldest first.
+     */
+    private final LinkedHashMap<String, Long> lastHighlighted = new LinkedHashMap<>();
+    private volatile Items items = new Items(Collections.<HighlightItem>emptyList());
+    private volatile Pattern usernamePattern;
+    
+    /**
+     * The username in lowercase, if it can be searched for without regex.
+     */
+    private volatile String username;
     private Color lastMatchColor;
     
     // Settings
-    private boolean highlightUsername;
+    private volatile boolean highlightUsername;
     private boolean highlightNextMessages;
     
     /**
@@ -41,12 +80,36 @@ public class Highlighter {
      * @param newItems 
      */
     public void update(List<String> newItems) {
-        items.clear();
+        // Keep the stats of items that didn't change
+        Map<String, RuleStats> stats = new HashMap<>();
+        for (HighlightItem item : items.items) {
+            stats.put(item.stats.item, item.stats);
+        }
+        List<HighlightItem> result = new ArrayList<>();
         for (String item : newItems) {
             if (item != null && !item.isEmpty()) {
-                items.add(new HighlightItem(item));
+                RuleStats itemStats = stats.get(item);
+                if (itemStats == null) {
+                    itemStats = new RuleStats(item);
+                    stats.put(item, itemStats);
+                }
+                result.add(new HighlightItem(item, itemStats));
             }
         }
+        items = new Items(result);
+    }
+    
+    /**
+     * Gets the stats of the current items.
+     * 
+     * @return The stats, in the order of the items
+     */
+    public List<RuleStats> getStats() {
+        List<RuleStats> result = new ArrayList<>();
+        for (HighlightItem item : items.items) {
+            result.add(item.stats);
+        }
+        return result;
     }
     
     /**
@@ -57,8 +120,10 @@ public class Highlighter {
     public void setUsername(String username) {
         if (username == null) {
             usernamePattern = null;
+            this.username = null;
         }
         else {
+            this.username = isLiteral(username) ? toLowerCaseAscii(username) : null;
             // Create pattern to match username on word boundaries
             try {
                 usernamePattern = Pattern.compile("(?i).*\\b"+username+"\\b.*");
@@ -83,7 +148,24 @@ public class Highlighter {
     }
     
     public boolean check(User fromUser, String text) {
-        if (checkMatch(fromUser, text)) {
+        return check(fromUser, findMatch(fromUser, text));
+    }
+    
+    /**
+     * Checks whether the message should be highlighted, based on the result
+     * of {@link #findMatch(User, String)} for the message.
+     * 
+     * @param fromUser The user who send the message
+     * @param match The result of matching the message against the items
+     * @return true if the message should be highlighted, false otherwise
+     */
+    public boolean check(User fromUser, Match match) {
+        lastMatchColor = match.color;
+        if (match.item != null) {
+            match.item.hit(match.text);
+        }
+        if (match.matched
+                || (highlightNextMessages && hasRecentMatch(fromUser.nick))) {
             addMatch(fromUser.getNick());
             return true;
         }
@@ -101,42 +183,45 @@ public class Highlighter {
     }
     
     /**
-     * Checks whether the given message consisting of username and text should
-     * be highlighted.
+     * Checks whether the given message consisting of username and text
+     * matches the own name or any of the items. This doesn't check for recent
+     * matches from the same user and is thread-safe.
      * 
-     * @param userName The name of the user who send the message
+     * @param user The user who send the message
      * @param text The text of the message
-     * @return true if the message should be highlighted, false otherwise
+     * @return The result, never null
      */
-    private boolean checkMatch(User user, String text) {
-        
-        lastMatchColor = null;
-        
-        String lowercaseText = text.toLowerCase();
-        String lowercaseUserName = user.nick;
+    public Match findMatch(User user, String text) {
         
         // Try to match own name first (if enabled)
-        if (highlightUsername && usernamePattern != null &&
-                usernamePattern.matcher(text).matches()) {
-            return true;
+        if (highlightUsername && matchesUsername(text)) {
+            return Match.MATCHED;
         }
         
         // Then try to match against the items
-        for (HighlightItem item : items) {
-            if (item.matches(user, lowercaseUserName, text, lowercaseText)) {
-                lastMatchColor = item.getColor();
-                return true;
-            }
+        Items items = this.items;
+        if (messageCount.incrementAndGet() % PROFILE_EVERY == 0) {
+            items.profile(user, text);
         }
-        
-        // Then see if there is a recent match
-        if (highlightNextMessages && hasRecentMatch(user.nick)) {
-            return true;
+        HighlightItem item = items.findFirst(user, text);
+        if (item != null) {
+            return new Match(item.getColor(), item.stats, text);
         }
-        return false;
+        return Match.NONE;
+    }
+    
+    private boolean matchesUsername(String text) {
+        String username = this.username;
+        if (username != null) {
+            return findWord(toLowerCaseAscii(text), username, text);
+        }
+        Pattern usernamePattern = this.usernamePattern;
+        return usernamePattern != null && usernamePattern.matcher(text).matches();
     }
     
     private void addMatch(String fromUsername) {
+        // Remove first, so it's added at the end again
+        lastHighlighted.remove(fromUsername);
         lastHighlighted.put(fromUsername, System.currentTimeMillis());
     }
     
@@ -145,15 +230,585 @@ public class Highlighter {
         return lastHighlighted.containsKey(fromUsername);
     }
     
+    /**
+     * Removes the expired recent matches, which are all at the start, since
+     * the matches are ordered by time.
+     */
     private void clearRecentMatches() {
         Iterator<Map.Entry<String, Long>> it = lastHighlighted.entrySet().iterator();
+        long now = System.currentTimeMillis();
         while (it.hasNext()) {
-            if (System.currentTimeMillis() - it.next().getValue() > LAST_HIGHLIGHTED_TIMEOUT) {
+            if (now - it.next().getValue() > LAST_HIGHLIGHTED_TIMEOUT) {
                 it.remove();
+            } else {
+                break;
+            }
+        }
+    }
+    
+    /*
+     * ###################
+     * # Matching helpers
+     * ###################
+     */
+    
+    private static final Pattern BOUNDARY = Pattern.compile("\\b");
+    private static final Pattern LINE_TERMINATOR = Pattern.compile("[\\n\\r\\u0085\\u2028\\u2029]");
+    
+    /**
+     * Characters that make a term a regex, so it can't be searched for as
+     * text.
+     */
+    private static final Pattern REGEX_CHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+    
+    /**
+     * Patterns containing these can't be combined with other patterns
+     * (backreferences, comments, quoting), since they may depend on the group
+     * numbers or affect the rest of the combined pattern.
+     */
+    private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\[0-9kQE]|#");
+    
+    private static boolean isLiteral(String term) {
+        return !REGEX_CHARACTERS.matcher(term).find();
+    }
+    
+    /**
+     * Makes only ASCII characters lowercase, which is how a case-insensitive
+     * regex (without UNICODE_CASE) compares characters.
+     * 
+     * @param text
+     * @return 
+     */
+    private static String toLowerCaseAscii(String text) {
+        char[] chars = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = text.toCharArray();
+                }
+                chars[i] = (char)(c + ('a' - 'A'));
+            }
+        }
+        return chars == null ? text : new String(chars);
+    }
+    
+    /**
+     * Whether there is a word boundary (as in the regex \b) at the given
+     * index of the text.
+     * 
+     * @param text
+     * @param index
+     * @return 
+     */
+    private static boolean isBoundary(String text, int index) {
+        Matcher m = BOUNDARY.matcher(text);
+        m.region(index, text.length());
+        m.useTransparentBounds(true);
+        m.useAnchoringBounds(false);
+        return m.lookingAt();
+    }
+    
+    /**
+     * Whether the given occurence of a term is a whole word, like a regex
+     * ".*\bterm\b.*" would match it (which also doesn't allow line
+     * terminators anywhere in the text).
+     * 
+     * @param text
+     * @param start
+     * @param end
+     * @return 
+     */
+    private static boolean isWord(String text, int start, int end) {
+        return isBoundary(text, start) && isBoundary(text, end)
+                && !LINE_TERMINATOR.matcher(text).find();
+    }
+    
+    /**
+     * Searches for the term as a whole word.
+     * 
+     * @param searchText The text to search in (may be changed to lowercase)
+     * @param term The term to search for
+     * @param text The original text, to check the word boundaries
+     * @return true if the term was found as a whole word
+     */
+    private static boolean findWord(String searchText, String term, String text) {
+        int index = searchText.indexOf(term);
+        while (index != -1) {
+            if (isWord(text, index, index + term.length())) {
+                return true;
+            }
+            index = searchText.indexOf(term, index + 1);
+        }
+        return false;
+    }
+    
+    /**
+     * The current items, prepared for matching them all at once.
+     * Immutable, so it can be used from several threads.
+     */
+    static class Items {
+        
+        private final List<HighlightItem> items;
+        
+        /**
+         * The text terms, each searched for in a different form of the text:
+         * as received (cs: and wcs:), lowercase (no prefix) and ASCII
+         * lowercase (w:, like a case-insensitive regex).
+         */
+        private final Terms caseSensitive;
+        private final Terms lowercase;
+        private final Terms lowercaseAscii;
+        
+        /**
+         * Items that match as regex, all patterns combined into one where
+         * possible (each in it's own group, in the order of the items), and
+         * the rest checked separately.
+         */
+        private final Pattern combined;
+        private final int[] combinedItems;
+        private final int[] combinedGroups;
+        private final int[] separateItems;
+        
+        /**
+         * Items without a text term, that only depend on the user, channel
+         * or category. Items that require a user are only checked for that
+         * user.
+         */
+        private final Map<String, int[]> noTextByUser;
+        private final int[] noText;
+        
+        Items(List<HighlightItem> items) {
+            this.items = Collections.unmodifiableList(new ArrayList<>(items));
+            
+            Terms.Builder caseSensitiveTerms = new Terms.Builder();
+            Terms.Builder lowercaseTerms = new Terms.Builder();
+            Terms.Builder lowercaseAsciiTerms = new Terms.Builder();
+            List<Integer> regexItems = new ArrayList<>();
+            List<Integer> noTextItems = new ArrayList<>();
+            Map<String, List<Integer>> noTextByUserItems = new HashMap<>();
+            
+            for (int i = 0; i < items.size(); i++) {
+                HighlightItem item = items.get(i);
+                if (item.word != null) {
+                    if (item.wordCaseSensitive) {
+                        caseSensitiveTerms.add(item.word, i);
+                    } else {
+                        lowercaseAsciiTerms.add(toLowerCaseAscii(item.word), i);
+                    }
+                } else if (item.pattern != null) {
+                    regexItems.add(i);
+                } else if (item.caseSensitive != null) {
+                    caseSensitiveTerms.add(item.caseSensitive, i);
+                } else if (item.caseInsensitive != null && !item.caseInsensitive.isEmpty()) {
+                    lowercaseTerms.add(item.caseInsensitive, i);
+                } else if (item.caseInsensitive != null || item.hasRequirements()) {
+                    // Empty text matches every message as well
+                    if (item.username != null) {
+                        List<Integer> forUser = noTextByUserItems.get(item.username);
+                        if (forUser == null) {
+                            forUser = new ArrayList<>();
+                            noTextByUserItems.put(item.username, forUser);
+                        }
+                        forUser.add(i);
+                    } else {
+                        noTextItems.add(i);
+                    }
+                }
+                // Items without anything to match never match
+            }
+            caseSensitive = caseSensitiveTerms.build();
+            lowercase = lowercaseTerms.build();
+            lowercaseAscii = lowercaseAsciiTerms.build();
+            noText = toArray(noTextItems);
+            noTextByUser = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : noTextByUserItems.entrySet()) {
+                noTextByUser.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            
+            // Combine regex
+            List<Integer> combinable = new ArrayList<>();
+            List<Integer> separate = new ArrayList<>();
+            for (int i : regexItems) {
+                if (NOT_COMBINABLE.matcher(items.get(i).pattern.pattern()).find()) {
+                    separate.add(i);
+                } else {
+                    combinable.add(i);
+                }
+            }
+            Pattern combinedPattern = null;
+            int[] groups = new int[combinable.size()];
+            if (combinable.size() > 1) {
+                StringBuilder b = new StringBuilder();
+                int group = 1;
+                for (int j = 0; j < combinable.size(); j++) {
+                    Pattern pattern = items.get(combinable.get(j)).pattern;
+                    if (j > 0) {
+                        b.append("|");
+                    }
+                    b.append("(").append(pattern.pattern()).append(")");
+                    groups[j] = group;
+                    group += 1 + pattern.matcher("").groupCount();
+                }
+                try {
+                    combinedPattern = Pattern.compile(b.toString());
+                } catch (PatternSyntaxException ex) {
+                    LOGGER.warning("Could not combine highlight regex: " + ex.getLocalizedMessage());
+                }
+            }
+            if (combinedPattern == null) {
+                separate.addAll(combinable);
+                Collections.sort(separate);
+                combinable.clear();
+                groups = new int[0];
+            }
+            combined = combinedPattern;
+            combinedItems = toArray(combinable);
+            combinedGroups = groups;
+            separateItems = toArray(separate);
+        }
+        
+        /**
+         * Finds the first item that matches the message.
+         * 
+         * @param user The user who send the message
+         * @param text The text of the message
+         * @return The first matching item, or null if none matches
+         */
+        public HighlightItem findFirst(User user, String text) {
+            Search search = new Search(user, text);
+            
+            caseSensitive.find(text, search);
+            if (!lowercase.isEmpty()) {
+                lowercase.find(text.toLowerCase(), search);
+            }
+            if (!lowercaseAscii.isEmpty()) {
+                lowercaseAscii.find(toLowerCaseAscii(text), search);
+            }
+            
+            findRegex(search);
+            
+            int[] forUser = noTextByUser.get(user.nick);
+            if (forUser != null) {
+                search.checkInOrder(forUser);
+            }
+            search.checkInOrder(noText);
+            
+            return search.best < items.size() ? items.get(search.best) : null;
+        }
+        
+        /**
+         * Checks each item on it's own and adds the time it took to the stats
+         * of the item.
+         * 
+         * @param user The user who send the message
+         * @param text The text of the message
+         */
+        public void profile(User user, String text) {
+            String lowercaseText = text.toLowerCase();
+            for (HighlightItem item : items) {
+                long start = System.nanoTime();
+                item.matches(user, user.nick, text, lowercaseText);
+                item.stats.checked(System.nanoTime() - start);
+            }
+        }
+        
+        private void findRegex(Search search) {
+            search.checkInOrder(separateItems);
+            if (combined == null || combinedItems[0] >= search.best) {
+                return;
+            }
+            Matcher m = combined.matcher(search.text);
+            if (!m.matches()) {
+                return;
+            }
+            // The first item (in order) that matches the whole text
+            int first = 0;
+            while (m.start(combinedGroups[first]) == -1) {
+                first++;
+            }
+            if (search.check(combinedItems[first])) {
+                return;
+            }
+            // That item didn't meet the other requirements, so check the
+            // following ones separately
+            for (int j = first + 1; j < combinedItems.length && combinedItems[j] < search.best; j++) {
+                if (items.get(combinedItems[j]).pattern.matcher(search.text).matches()
+                        && search.check(combinedItems[j])) {
+                    return;
+                }
+            }
+        }
+        
+        private static int[] toArray(List<Integer> list) {
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = list.get(i);
+            }
+            return result;
+        }
+        
+        /**
+         * The state of matching a single message, which keeps track of the
+         * first item found so far, so only items before it have to be
+         * checked.
+         */
+        private class Search implements AhoCorasick.Hits {
+            
+            private final User user;
+            private final String lowercaseUsername;
+            private final String text;
+            
+            /**
+             * The index of the first matching item so far.
+             */
+            private int best = Integer.MAX_VALUE;
+            
+            /**
+             * The terms currently searched for (for the hits).
+             */
+            private Terms terms;
+            
+            Search(User user, String text) {
+                this.user = user;
+                this.lowercaseUsername = user.nick;
+                this.text = text;
+            }
+            
+            /**
+             * Checks the other requirements of an item that matched the text
+             * and sets it as result if it comes before the current result.
+             * 
+             * @param index The index of the item
+             * @return true if the item was set as result
+             */
+            boolean check(int index) {
+                if (index < best && items.get(index).matchesRequirements(user, lowercaseUsername)) {
+                    best = index;
+                    return true;
+                }
+                return false;
+            }
+            
+            /**
+             * Checks the items (without text term or with a regex) in order,
+             * until one matches or the current result is reached.
+             * 
+             * @param indices The indices of the items
+             */
+            void checkInOrder(int[] indices) {
+                for (int index : indices) {
+                    if (index >= best) {
+                        return;
+                    }
+                    HighlightItem item = items.get(index);
+                    if ((item.pattern == null || item.pattern.matcher(text).matches())
+                            && check(index)) {
+                        return;
+                    }
+                }
+            }
+            
+            @Override
+            public boolean hit(int id, int start, int end) {
+                int index = terms.items[id];
+                if (index < best) {
+                    HighlightItem item = items.get(index);
+                    if (item.word == null || isWord(text, start, end)) {
+                        check(index);
+                    }
+                }
+                return true;
+            }
+        }
+        
+        /**
+         * Text terms of several items, which are all searched for at once.
+         */
+        private static class Terms {
+            
+            private final AhoCorasick automaton;
+            
+            /**
+             * The index of the item for each term.
+             */
+            private final int[] items;
+            
+            Terms(List<String> terms, int[] items) {
+                this.automaton = terms.isEmpty() ? null : new AhoCorasick(terms);
+                this.items = items;
+            }
+            
+            boolean isEmpty() {
+                return automaton == null;
+            }
+            
+            /**
+             * Finds the terms in the text.
+             * 
+             * @param searchText The text to search in
+             * @param search 
+             */
+            void find(String searchText, Search search) {
+                if (automaton != null) {
+                    search.terms = this;
+                    automaton.find(searchText, search);
+                }
+            }
+            
+            static class Builder {
+                
+                private final List<String> terms = new ArrayList<>();
+                private final List<Integer> items = new ArrayList<>();
+                
+                void add(String term, int item) {
+                    terms.add(term);
+                    items.add(item);
+                }
+                
+                Terms build() {
+                    return new Terms(terms, toArray(items));
+                }
             }
         }
     }
     
+    /**
+     * The result of matching a message against the highlight items.
+     */
+    public static class Match {
+        
+        public static final Match NONE = new Match(false, null, null, null);
+        public static final Match MATCHED = new Match(true, null, null, null);
+        
+        /**
+         * Whether the message matched the own name or an item.
+         */
+        public final boolean matched;
+        
+        /**
+         * The color of the matched item, or null if none was specified.
+         */
+        public final Color color;
+        
+        /**
+         * The stats of the matched item (if an item matched), which only
+         * counts the match once the message is actually checked (see
+         * {@link Highlighter#check(User, Match)}).
+         */
+        private final RuleStats item;
+        private final String text;
+        
+        private Match(Color color, RuleStats item, String text) {
+            this(true, color, item, text);
+        }
+        
+        private Match(boolean matched, Color color, RuleStats item,
+                String text) {
+            this.matched = matched;
+            this.color = color;
+            this.item = item;
+            this.text = text;
+        }
+    }
+    
+    /**
+     * How often an item matched and how long it takes to check it. The time
+     * is only measured for some messages (see {@link #PROFILE_EVERY}), by
+     * checking the item on it's own.
+     * 
+     * Thread-safe, since messages are matched on several threads.
+     */
+    public static class RuleStats {
+        
+        /**
+         * Items taking longer than this on average (in nanoseconds) should
+         * probably be changed or removed.
+         */
+        public static final long SLOW_AVERAGE = 50*1000;
+        
+        /**
+         * The item as entered in the settings.
+         */
+        public final String item;
+        
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong checks = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        private volatile String lastMatch;
+        
+        RuleStats(String item) {
+            this.item = item;
+        }
+        
+        void hit(String text) {
+            hits.incrementAndGet();
+            lastMatch = text;
+        }
+        
+        void checked(long time) {
+            checks.incrementAndGet();
+            totalTime.addAndGet(time);
+            long max = maxTime.get();
+            while (time > max && !maxTime.compareAndSet(max, time)) {
+                max = maxTime.get();
+            }
+        }
+        
+        /**
+         * How many of the checked messages this item matched (as the first
+         * matching item).
+         * 
+         * @return 
+         */
+        public long getHits() {
+            return hits.get();
+        }
+        
+        /**
+         * How many times the time was measured.
+         * 
+         * @return 
+         */
+        public long getChecks() {
+            return checks.get();
+        }
+        
+        /**
+         * The average time it took to check this item.
+         * 
+         * @return The time in nanoseconds, 0 if it wasn't measured yet
+         */
+        public long getAverageTime() {
+            long checks = this.checks.get();
+            return checks == 0 ? 0 : totalTime.get() / checks;
+        }
+        
+        /**
+         * The longest time it took to check this item.
+         * 
+         * @return The time in nanoseconds
+         */
+        public long getMaxTime() {
+            return maxTime.get();
+        }
+        
+        public boolean isSlow() {
+            return getAverageTime() > SLOW_AVERAGE;
+        }
+        
+        /**
+         * The text of the last message this item matched.
+         * 
+         * @return The text, or null if it didn't match anything yet
+         */
+        public String getLastMatch() {
+            return lastMatch;
+        }
+        
+    }
+    
     /**
      * A single item that itself parses the item String and prepares it for
      * matching. The item can be asked whether it matches a message.
@@ -176,14 +831,27 @@ public class Highlighter {
         
         private String username;
         private Pattern pattern;
+        
+        /**
+         * The term of a w: or wcs: item, if it isn't a regex (so it can be
+         * searched for as text, checking the word boundaries).
+         */
+        private String word;
+        private boolean wordCaseSensitive;
         private String caseSensitive;
         private String caseInsensitive;
         private String category;
         private final Set<String> notChannels = new HashSet<>();
         private final Set<String> channels = new HashSet<>();
         private Color color;
+        private final RuleStats stats;
         
         HighlightItem(String item) {
+            this(item, new RuleStats(item));
+        }
+        
+        HighlightItem(String item, RuleStats stats) {
+            this.stats = stats;
             prepare(item);
         }
         
@@ -199,8 +867,10 @@ public class Highlighter {
                 compilePattern(item.substring(3));
             } else if (item.startsWith("w:") && item.length() > 2) {
                 compilePattern("(?i).*\\b"+item.substring(2)+"\\b.*");
+                setWord(item.substring(2), false);
             } else if (item.startsWith("wcs:") && item.length() > 4) {
                 compilePattern(".*\\b"+item.substring(4)+"\\b.*");
+                setWord(item.substring(4), true);
             } else if (item.startsWith("cs:") && item.length() > 3) {
                 caseSensitive = item.substring(3);
             } else if (item.startsWith("cat:")) {
@@ -261,6 +931,13 @@ public class Highlighter {
             }
         }
         
+        private void setWord(String term, boolean caseSensitive) {
+            if (pattern != null && isLiteral(term)) {
+                word = term;
+                wordCaseSensitive = caseSensitive;
+            }
+        }
+        
         /**
          * Compiles a pattern (regex) and sets it as pattern.
          * 
@@ -277,6 +954,10 @@ public class Highlighter {
         /**
          * Check whether a message matches this item.
          * 
+         * The items are usually not checked one by one with this, but all
+         * at once with {@link Items}, which gives the same result as
+         * checking them in order with this.
+         * 
          * @param lowercaseUsername The username in lowercase
          * @param text The text as received
          * @param lowercaseText The text in lowercase (minor optimization, so
@@ -284,22 +965,7 @@ public class Highlighter {
          * @return true if it matches, false otherwise
          */
         public boolean matches(User user, String lowercaseUsername, String text, String lowercaseText) {
-            if (username != null && !username.equals(lowercaseUsername)) {
-                // When a username is defined, but doesn't match, stop right
-                // here, because it can't meet all the requirements anymore.
-                return false;
-            }
-            if (category != null && !user.hasCategory(category)) {
-                // When a category is defined, but doesn't match, stop right
-                // here, because it can't meet all the requirements anymore.
-                return false;
-            }
-            if (!channels.isEmpty() && !channels.contains(user.getChannel())) {
-                // When a channel is defined, but doesn't match, stop right
-                // here, because it can't meet all the requirements anymore.
-                return false;
-            }
-            if (!notChannels.isEmpty() && notChannels.contains(user.getChannel())) {
+            if (!matchesRequirements(user, lowercaseUsername)) {
                 return false;
             }
             if (pattern != null && pattern.matcher(text).matches()) {
@@ -311,7 +977,7 @@ public class Highlighter {
             if (caseInsensitive != null && lowercaseText.contains(caseInsensitive)) {
                 return true;
             }
-            if ((username != null || category != null || !channels.isEmpty() || !notChannels.isEmpty())
+            if (hasRequirements()
                     && pattern == null && caseSensitive == null
                     && caseInsensitive == null) {
                 // If username matched (right at the beginning), and no other
@@ -321,6 +987,46 @@ public class Highlighter {
             return false;
         }
         
+        /**
+         * Whether this item has any requirements besides the text.
+         * 
+         * @return 
+         */
+        boolean hasRequirements() {
+            return username != null || category != null || !channels.isEmpty()
+                    || !notChannels.isEmpty();
+        }
+        
+        /**
+         * Check whether a message meets the requirements of this item
+         * besides the text (user, category, channel).
+         * 
+         * @param user The user who send the message
+         * @param lowercaseUsername The username in lowercase
+         * @return true if all requirements are met
+         */
+        boolean matchesRequirements(User user, String lowercaseUsername) {
+            if (username != null && !username.equals(lowercaseUsername)) {
+                // When a username is defined, but doesn't match, stop right
+                // here, because it can't meet all the requirements anymore.
+                return false;
+            }
+            if (category != null && !user.hasCategory(category)) {
+                // When a category is defined, but doesn't match, stop right
+                // here, because it can't meet all the requirements anymore.
+                return false;
+            }
+            if (!channels.isEmpty() && !channels.contains(user.getChannel())) {
+                // When a channel is defined, but doesn't match, stop right
+                // here, because it can't meet all the requirements anymore.
+                return false;
+            }
+            if (!notChannels.isEmpty() && notChannels.contains(user.getChannel())) {
+                return false;
+            }
+            return true;
+        }
+        
         /**
          * Get the color defined for this entry, if any.
          * 
@@ -0,0 +1,198 @@
+package chatty.gui;
+
+import chatty.util.TimedCounter;
+
+/**
+ * Decides how much work to do for printing messages, depending on how far
+ * behind printing is and how many messages are received, so that the chat
+ * stays current (with less details) instead of falling further and further
+ * behind when more messages are received than can be printed.
+ *
+ * <p>
+ * There are several levels, each doing less work than the previous one (and
+ * including the reductions of the previous ones):
+ * </p>
+ * <ol>
+ * <li>Emoticons are shown as text instead of images</li>
+ * <li>Usericons are not shown</li>
+ * <li>Joins and parts are not shown, only counted</li>
+ * <li>Only some regular messages are shown, the others are counted</li>
+ * </ol>
+ *
+ * <p>
+ * The level goes up one step at a time when messages wait too long to be
+ * printed. It goes down one step at a time when messages have been printed
+ * quickly for a while and fewer messages are received than when the level
+ * went up (otherwise the lower level would just be too slow again).
+ * </p>
+ *
+ * <p>
+ * {@link #check(long)} should only be called from the EDT, the other methods
+ * can be called from any thread.
+ * </p>
+ *
+ * @author tduva
+ */
+public class LoadShedding {
+
+    public static final int NONE = 0;
+    public static final int NO_EMOTES = 1;
+    public static final int NO_USERICONS = 2;
+    public static final int NO_JOINS_PARTS = 3;
+    public static final int SAMPLE_MESSAGES = 4;
+
+    /**
+     * How often {@link #check(long)} should be called, in milliseconds.
+     */
+    public static final int CHECK_INTERVAL = 1000;
+
+    /**
+     * If messages wait longer than this (in milliseconds) to be printed, the
+     * level goes up.
+     */
+    private static final long HIGH_LAG = 2000;
+
+    /**
+     * Messages have to wait less than this (in milliseconds) to be printed for
+     * the level to go down.
+     */
+    private static final long LOW_LAG = 300;
+
+    /**
+     * How many checks in a row the lag has to be low for the level to go
+     * down.
+     */
+    private static final int STEP_DOWN_CHECKS = 10;
+
+    /**
+     * How much lower than when the level went up the message rate has to be
+     * for the level to go down.
+     */
+    private static final double STEP_DOWN_RATE_FACTOR = 0.7;
+
+    /**
+     * Below this message rate the level can always go down.
+     */
+    private static final int LOW_RATE = 10;
+
+    /**
+     * How many regular messages per second to still print when only some
+     * messages are printed.
+     */
+    private static final int SAMPLE_RATE = 20;
+
+    private static final int RATE_INTERVAL = 5000;
+
+    /**
+     * The received messages, for calculating the message rate.
+     */
+    private final TimedCounter received = new TimedCounter(RATE_INTERVAL, 0);
+
+    /**
+     * The message rate when each level was entered.
+     */
+    private final int[] stepUpRates = new int[SAMPLE_MESSAGES + 1];
+
+    private volatile boolean enabled = true;
+    private volatile int level;
+    private int lowLagChecks;
+    private int sampleCount;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            level = NONE;
+        }
+    }
+
+    /**
+     * Should be called for every received message.
+     */
+    public void messageReceived() {
+        received.increase();
+    }
+
+    /**
+     * The number of messages received per second, over the last few seconds.
+     *
+     * @return
+     */
+    public int getRate() {
+        return received.getCount(true) * 1000 / RATE_INTERVAL;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean showEmotes() {
+        return level < NO_EMOTES;
+    }
+
+    public boolean showUsericons() {
+        return level < NO_USERICONS;
+    }
+
+    public boolean showJoinsParts() {
+        return level < NO_JOINS_PARTS;
+    }
+
+    /**
+     * Checks if the current regular message should be printed, which may not
+     * be the case if only some messages are printed. Should only be called
+     * for messages that may be skipped (so not for highlighted, own, mod or
+     * broadcaster messages), the same as for the messages that are skipped
+     * when too many are waiting to be printed.
+     *
+     * @return true if the message should be printed, false if it should be
+     * skipped
+     */
+    public synchronized boolean keepMessage() {
+        if (level < SAMPLE_MESSAGES) {
+            return true;
+        }
+        int every = Math.max(1, getRate() / SAMPLE_RATE);
+        sampleCount++;
+        if (sampleCount >= every) {
+            sampleCount = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adjusts the level, should be called regularly (see
+     * {@link #CHECK_INTERVAL}).
+     *
+     * @param lag How long the oldest message waiting to be printed has been
+     * waiting, in milliseconds
+     * @return true if the level changed
+     */
+    public boolean check(long lag) {
+        if (!enabled) {
+            return false;
+        }
+        int rate = getRate();
+        if (lag > HIGH_LAG) {
+            lowLagChecks = 0;
+            if (level < SAMPLE_MESSAGES) {
+                level++;
+                stepUpRates[level] = rate;
+                return true;
+            }
+        } else if (lag < LOW_LAG) {
+            lowLagChecks++;
+            if (level > NONE && lowLagChecks >= STEP_DOWN_CHECKS
+                    && (rate < stepUpRates[level] * STEP_DOWN_RATE_FACTOR
+                        || rate < LOW_RATE)) {
+                lowLagChecks = 0;
+                level--;
+                return true;
+            }
+        } else {
+            lowLagChecks = 0;
+        }
+        return false;
+    }
+
+}
@@ -48,6 +48,8 @@ import chatty.gui.components.settings.SettingsDialog;
 import chatty.gui.notifications.NotificationActionListener;
 import chatty.gui.notifications.NotificationManager;
 import chatty.util.ActivityTracker;
+import chatty.util.PipelineStage;
+import chatty.util.SearchIndex;
 import chatty.util.Sound;
 import chatty.util.api.FollowerInfo;
 import chatty.util.settings.Setting;
@@ -57,6 +59,10 @@ import chatty.util.settings.SettingsListener;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -69,6 +75,7 @@ import javax.swing.JMenu;
 import javax.swing.JOptionPane;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
 import javax.swing.UnsupportedLookAndFeelException;
@@ -85,6 +92,8 @@ import javax.swing.plaf.FontUIResource;
  */
 public class MainGui extends JFrame implements Runnable { 
     
+    private static final Logger LOGGER = Logger.getLogger(MainGui.class.getName());
+    
     public static final Color COLOR_NEW_MESSAGE = new Color(200,0,0);
     public static final Color COLOR_NEW_HIGHLIGHTED_MESSAGE = new Color(255,80,0);
     
@@ -143,9 +152,129 @@ public class MainGui extends JFrame implements Runnable {
     // Remember state
     private boolean showedChannelsWarningThisSession = false;
     
+    /**
+     * How many messages can be waiting to be printed before the overflow
+     * policy is applied.
+     */
+    private static final int PRINT_QUEUE_SIZE = 2000;
+    
+    /**
+     * How many messages are printed at most in one frame.
+     */
+    private static final int PRINT_BATCH_SIZE = 200;
+    
+    /**
+     * The minimum time between printing messages (in milliseconds), so they
+     * are printed at most about 50 times per second.
+     */
+    private static final int PRINT_FRAME_TIME = 20;
+    
+    /**
+     * When messages were last printed.
+     */
+    private volatile long lastPrintTime;
+    
+    /**
+     * Finds links, emoticons and highlights in messages on worker threads,
+     * before they are printed.
+     */
+    private final MessagePreparer messagePreparer = new MessagePreparer(
+            highlighter, ignoreChecker, emoticons, PRINT_QUEUE_SIZE);
+    
+    /**
+     * Recognizes repeated messages when they are received, so links and
+     * emoticons don't have to be found in messages that will probably be
+     * combined with the message they repeat.
+     */
+    private final RepeatedMessages repeatedMessages = new RepeatedMessages();
+    
+    /**
+     * Reduces what is printed when printing falls behind.
+     */
+    public final LoadShedding loadShedding = new LoadShedding();
+    
+    /**
+     * The number of messages not printed because of the load, by channel,
+     * which is regulary printed into the channel and reset.
+     */
+    private final Map<String, Integer> skippedMessages = new HashMap<>();
+    
+    /**
+     * Messages the print stage dropped, which still have to be logged and
+     * counted on the EDT.
+     */
+    private final Queue<PrintItem> droppedMessages = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * The number of joins/parts not printed because of the load, by channel,
+     * which is printed once they are shown again.
+     */
+    private final Map<String, Integer> hiddenJoinsParts = new HashMap<>();
+    
+    private volatile PrintListener printListener;
+    
+    /**
+     * Changes to the userlists that haven't been done yet, in the order they
+     * were made, so several joins or parts in a row can be done at once.
+     */
+    private final Queue<UserlistChange> userlistChanges = new ConcurrentLinkedQueue<>();
+    
+    private final AtomicBoolean userlistChangesScheduled = new AtomicBoolean();
+    
+    /**
+     * The last stage of the message pipeline, which filters (ignore and
+     * highlight) and prints messages and other output on the EDT.
+     * 
+     * Messages received in the meantime are printed together at most once
+     * per frame, and each channel only inserts the text printed during the
+     * frame into it's document once it's done.
+     */
+    private final PipelineStage<PrintItem> printStage = new PipelineStage<PrintItem>(
+            "Print", PRINT_QUEUE_SIZE, PRINT_BATCH_SIZE,
+            PipelineStage.Overflow.COLLAPSE, new PipelineStage.Handler<PrintItem>() {
+
+                @Override
+                public void handle(PrintItem item) {
+                    printItem(item);
+                }
+            }) {
+
+        @Override
+        protected void execute(final Runnable task) {
+            final Runnable frame = new Runnable() {
+
+                @Override
+                public void run() {
+                    lastPrintTime = System.currentTimeMillis();
+                    task.run();
+                }
+            };
+            long delay = lastPrintTime + PRINT_FRAME_TIME - System.currentTimeMillis();
+            if (delay > 0) {
+                Timer timer = new Timer((int)delay, new ActionListener() {
+
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        frame.run();
+                    }
+                });
+                timer.setRepeats(false);
+                timer.start();
+            } else {
+                SwingUtilities.invokeLater(frame);
+            }
+        }
+
+        @Override
+        protected boolean isConsumerThread() {
+            return SwingUtilities.isEventDispatchThread();
+        }
+    };
+    
     
     public MainGui(TwitchClient client) {
         this.client = client;
+        printStage.setCollapser(new PrintCollapser());
         SwingUtilities.invokeLater(this);
     }
     
@@ -224,6 +353,15 @@ public class MainGui extends JFrame implements Runnable {
         subscribersDialog = new FollowersDialog(FollowersDialog.Type.SUBSCRIBERS,
                 this, client.api, contextMenuListener);
         
+        Timer loadTimer = new Timer(LoadShedding.CHECK_INTERVAL, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                checkLoad();
+            }
+        });
+        loadTimer.start();
+        
         // Tray/Notifications
         trayIcon = new TrayIconManager(createImage("app_16.png"));
         trayIcon.addActionListener(new TrayMenuListener());
@@ -418,6 +556,9 @@ public class MainGui extends JFrame implements Runnable {
         
         loadCommercialDelaySettings();
         UrlOpener.setPrompt(client.settings.getBoolean("urlPrompt"));
+        printStage.setOverflow(client.settings.getString("messageOverflow"));
+        updateRepeatedMessages();
+        loadShedding.setEnabled(client.settings.getBoolean("loadShedding"));
         channels.setTabOrder(client.settings.getString("tabOrder"));
         
         favoritesDialog.setSorting((int)client.settings.getLong("favoritesSorting"));
@@ -459,6 +600,27 @@ public class MainGui extends JFrame implements Runnable {
         ignoreChecker.update(Helper.getStringList(client.settings.getList("ignore")));
     }
     
+    /**
+     * Gets the stats of the current highlight or ignore items.
+     * 
+     * @param type Either "highlight" or "ignore"
+     * @return The stats, in the order of the items
+     */
+    public List<Highlighter.RuleStats> getRuleStats(String type) {
+        if (type.equals("ignore")) {
+            return ignoreChecker.getStats();
+        }
+        return highlighter.getStats();
+    }
+    
+    private void updateRepeatedMessages() {
+        if (client.settings.getBoolean("combineRepeated")) {
+            repeatedMessages.setTime(client.settings.getLong("combineRepeatedTime"));
+        } else {
+            repeatedMessages.setTime(0);
+        }
+    }
+    
     private void updateCustomContextMenuEntries() {
         ContextMenuHelper.channelCustomCommands = client.settings.getString("channelContextMenu");
         ContextMenuHelper.userCustomCommands = client.settings.getString("userContextMenu");
@@ -1758,66 +1920,364 @@ public class MainGui extends JFrame implements Runnable {
      * # Messages #
      */
     
-    public void printMessage(final String channel, final User user,
-            final String text, final boolean action) {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                client.chatLog.message(channel, user, text);
-                Channel chan = channels.getChannel(channel);
-                
-                boolean isOwnMessage = isOwnUsername(user.getNick());
-                boolean ignored = checkHighlight(user, text, ignoreChecker, "ignore", isOwnMessage);
-                boolean highlighted = checkHighlight(user, text, highlighter, "highlight", isOwnMessage);
-                
-                // Do stuff if highlighted, without printing message
-                if (highlighted) {
-                    highlightedMessages.addMessage(channel, user, text, action);
-                    playHighlightSound(channel);
-                    showHighlightNotification(channel, user, text);
-                    channels.setChannelHighlighted(chan);
-                } else if (!ignored) {
-                    messageSound(channel);
-                    channels.setChannelNewMessage(chan);
-                }
-                
-                // Do stuff if ignored, without printing message
-                if (ignored) {
-                    ignoredMessages.addMessage(channel, user, text, action);
-                    ignoredMessagesHelper.ignoredMessage(channel);
-                }
-                long ignoreMode = client.settings.getLong("ignoreMode");
-                
-                // Print or don't print depending on ignore
-                if (ignored && (ignoreMode <= IgnoredMessages.MODE_COUNT || 
-                        !showIgnoredInfo())) {
-                    // Don't print message
-                    if (isOwnMessage) {
-                        printLine(channel, "Own message ignored.");
-                    }
-                } else {
-                    // Print message, but determine how exactly
-                    MessageType specialType = MessageType.REGULAR;
-                    if (highlighted) {
-                        specialType = MessageType.HIGHLIGHTED;
-                    } else if (ignored && ignoreMode == IgnoredMessages.MODE_COMPACT) {
-                        specialType = MessageType.IGNORED_COMPACT;
-                    }
-                    chan.printMessage(user, text, action, specialType, highlighter.getLastMatchColor());
+    public void printMessage(String channel, User user, String text,
+            boolean action) {
+        loadShedding.messageReceived();
+        boolean isOwnMessage = isOwnUsername(user.getNick());
+        String repeatKey = null;
+        boolean repeated = false;
+        if (repeatedMessages.isEnabled() && !isOwnMessage) {
+            repeatKey = RepeatedMessages.normalize(text);
+            repeated = repeatedMessages.check(channel, repeatKey);
+        }
+        boolean important = isOwnMessage || user.isModerator()
+                || user.isBroadcaster();
+        printStage.offer(new PrintItem(channel, user, text, action, repeatKey,
+                important, messagePreparer.prepare(user, text, !repeated)));
+    }
+    
+    /**
+     * Gets the metrics of the print stage of the message pipeline.
+     * 
+     * @return 
+     */
+    public String getPrintStats() {
+        return printStage.getStats();
+    }
+    
+    /**
+     * Queues output to be run in order with the messages that are waiting to
+     * be printed.
+     * 
+     * @param task 
+     */
+    private void printInOrder(Runnable task) {
+        printStage.offer(new PrintItem(task));
+    }
+    
+    /**
+     * Prints an item of the print stage, should only be called from the EDT.
+     * 
+     * @param item 
+     */
+    private void printItem(PrintItem item) {
+        handleDroppedMessages();
+        if (item.task != null) {
+            item.task.run();
+        } else if (item.skipped != null) {
+            for (PrintItem skipped : item.skipped) {
+                skipMessage(skipped);
+            }
+            channels.getChannel(item.channel).printLine("["+item.skipped.size()
+                    +" messages skipped, too many messages]");
+        } else {
+            printMessageNow(item.channel, item.user, item.text, item.action,
+                    item.repeatKey, item.important,
+                    messagePreparer.get(item.prepared, item.user, item.text));
+        }
+    }
+    
+    /**
+     * Logs and counts the messages the print stage dropped since this was
+     * last called. Should only be called from the EDT.
+     */
+    private void handleDroppedMessages() {
+        PrintItem item;
+        while ((item = droppedMessages.poll()) != null) {
+            skipMessage(item);
+            increaseCount(skippedMessages, item.channel);
+        }
+    }
+    
+    /**
+     * Does what has to be done for every message, for a message that is not
+     * printed because of the load. The caller has to count it for the info
+     * about how many messages were skipped.
+     * 
+     * @param item 
+     */
+    private void skipMessage(PrintItem item) {
+        client.chatLog.message(item.channel, item.user, item.text);
+        item.user.addMessage(item.text);
+        updateUserInfoDialog(item.user);
+        messageNotPrinted(item.channel, item.user);
+    }
+    
+    /**
+     * Whether a message may be skipped because of the load. This is the same
+     * for all ways messages are skipped: Own messages, messages from
+     * moderators or the broadcaster and highlighted messages are always
+     * printed.
+     * 
+     * @param important Whether the message is an own message or from a
+     * moderator or the broadcaster (see {@link PrintItem#important})
+     * @param highlighted Whether the message is or may be highlighted
+     * @return true if the message may be skipped
+     */
+    private static boolean maySkip(boolean important, boolean highlighted) {
+        return !important && !highlighted;
+    }
+    
+    private void printMessageNow(String channel, User user, String text,
+            boolean action, String repeatKey, boolean important,
+            PreparedMessage prepared) {
+        boolean combined = false;
+        Channel chan = channels.getChannel(channel);
+        
+        boolean isOwnMessage = isOwnUsername(user.getNick());
+        boolean ignored = checkHighlight(user, prepared.ignore, ignoreChecker, "ignore", isOwnMessage);
+        boolean highlighted = checkHighlight(user, prepared.highlight, highlighter, "highlight", isOwnMessage);
+        
+        // Do stuff if highlighted, without printing message
+        if (highlighted) {
+            highlightedMessages.addMessage(channel, user, text, action);
+            playHighlightSound(channel);
+            showHighlightNotification(channel, user, text);
+            channels.setChannelHighlighted(chan);
+        } else if (!ignored) {
+            messageSound(channel);
+            channels.setChannelNewMessage(chan);
+        }
+        
+        // Do stuff if ignored, without printing message
+        if (ignored) {
+            ignoredMessages.addMessage(channel, user, text, action);
+            ignoredMessagesHelper.ignoredMessage(channel);
+        }
+        long ignoreMode = client.settings.getLong("ignoreMode");
+        
+        // Print or don't print depending on ignore
+        if (ignored && (ignoreMode <= IgnoredMessages.MODE_COUNT || 
+                !showIgnoredInfo())) {
+            // Don't print message
+            if (isOwnMessage) {
+                printLine(channel, "Own message ignored.");
+            }
+            messageNotPrinted(channel, user);
+        } else {
+            // Print message, but determine how exactly
+            MessageType specialType = MessageType.REGULAR;
+            if (highlighted) {
+                specialType = MessageType.HIGHLIGHTED;
+            } else if (ignored && ignoreMode == IgnoredMessages.MODE_COMPACT) {
+                specialType = MessageType.IGNORED_COMPACT;
+            }
+            if (specialType != MessageType.REGULAR) {
+                // Only combine regular messages
+                repeatKey = null;
+            }
+            if (repeatKey != null && chan.printRepeatedMessage(user, repeatKey)) {
+                combined = true;
+                messageNotPrinted(channel, user);
+            } else if (specialType == MessageType.REGULAR
+                    && maySkip(important, highlighted)
+                    && !loadShedding.keepMessage()) {
+                increaseCount(skippedMessages, channel);
+                messageNotPrinted(channel, user);
+            } else {
+                chan.printMessage(user, text, action, specialType,
+                        highlighter.getLastMatchColor(), prepared.specials,
+                        repeatKey);
+                if (specialType == MessageType.IGNORED_COMPACT) {
+                    messageNotPrinted(channel, user);
                 }
-                
-                // Stuff independent of highlight/ignore
-                user.addMessage(text);
-                updateUserInfoDialog(user);
             }
-        });
+        }
+        
+        if (!combined || client.settings.getBoolean("combineRepeatedLog")) {
+            client.chatLog.message(channel, user, text);
+        }
+        
+        // Stuff independent of highlight/ignore
+        user.addMessage(text);
+        updateUserInfoDialog(user);
+    }
+    
+    /**
+     * Sets the listener that gets informed about what happened to received
+     * messages, for example to measure how long it takes to print them.
+     * 
+     * @param listener The listener, or null to remove it
+     */
+    public synchronized void setPrintListener(PrintListener listener) {
+        this.printListener = listener;
+    }
+    
+    /**
+     * Removes the given listener, if it is still the current one.
+     * 
+     * @param listener The listener to remove
+     */
+    public synchronized void removePrintListener(PrintListener listener) {
+        if (printListener == listener) {
+            printListener = null;
+        }
+    }
+    
+    /**
+     * Called by the channel once the line of a message was added to the
+     * chat.
+     * 
+     * @param channel
+     * @param user 
+     */
+    public void messagePrinted(String channel, User user) {
+        PrintListener listener = printListener;
+        if (listener != null) {
+            listener.messagePrinted(channel, user.getNick());
+        }
+    }
+    
+    private void messageNotPrinted(String channel, User user) {
+        PrintListener listener = printListener;
+        if (listener != null) {
+            listener.messageNotPrinted(channel, user.getNick());
+        }
+    }
+    
+    /**
+     * A message or other output waiting to be printed.
+     */
+    private static class PrintItem {
+        
+        private final Runnable task;
+        private final String channel;
+        private final User user;
+        private final String text;
+        private final boolean action;
+        
+        /**
+         * The normalized text of the message, if repeated messages should be
+         * combined.
+         */
+        private final String repeatKey;
+        
+        /**
+         * Whether this is an own message or from a moderator or the
+         * broadcaster, decided when it was received.
+         */
+        private final boolean important;
+        
+        /**
+         * The result of preparing the message, if this is a message.
+         */
+        private final Future<PreparedMessage> prepared;
+        
+        /**
+         * The messages this item replaces, if it is a marker for skipped
+         * messages.
+         */
+        private final List<PrintItem> skipped;
+        
+        PrintItem(Runnable task) {
+            this(task, null, null, null, false, null, false, null, null);
+        }
+        
+        PrintItem(String channel, User user, String text, boolean action,
+                String repeatKey, boolean important,
+                Future<PreparedMessage> prepared) {
+            this(null, channel, user, text, action, repeatKey, important,
+                    prepared, null);
+        }
+        
+        PrintItem(String channel, List<PrintItem> skipped) {
+            this(null, channel, null, null, false, null, false, null, skipped);
+        }
+        
+        private PrintItem(Runnable task, String channel, User user,
+                String text, boolean action, String repeatKey,
+                boolean important, Future<PreparedMessage> prepared,
+                List<PrintItem> skipped) {
+            this.task = task;
+            this.channel = channel;
+            this.user = user;
+            this.text = text;
+            this.action = action;
+            this.repeatKey = repeatKey;
+            this.important = important;
+            this.prepared = prepared;
+            this.skipped = skipped;
+        }
+        
+        /**
+         * Whether the message may be highlighted, which is assumed as long
+         * as it hasn't been matched against the highlight items yet.
+         * 
+         * @return 
+         */
+        private boolean mayBeHighlighted() {
+            if (!prepared.isDone()) {
+                return true;
+            }
+            try {
+                return prepared.get().highlight.matched;
+            } catch (InterruptedException | ExecutionException ex) {
+                return true;
+            }
+        }
+        
+        /**
+         * Adds the messages this item consists of to the given list.
+         * 
+         * @param result 
+         */
+        private void addMessagesTo(List<PrintItem> result) {
+            if (skipped != null) {
+                result.addAll(skipped);
+            } else {
+                result.add(this);
+            }
+        }
     }
     
-    private boolean checkHighlight(User user, String text, Highlighter hl, String setting, boolean isOwnMessage) {
+    /**
+     * Lets messages be dropped when too many are waiting to be printed (only
+     * those that {@link #maySkip(boolean, boolean)} allows), and combines
+     * dropped messages in the same channel into a single marker.
+     * 
+     * The dropped messages are kept, so they can still be logged.
+     */
+    private class PrintCollapser implements PipelineStage.Collapser<PrintItem> {
+
+        @Override
+        public boolean isDroppable(PrintItem item) {
+            if (item.task != null) {
+                return false;
+            }
+            if (item.skipped != null) {
+                return true;
+            }
+            return maySkip(item.important, item.mayBeHighlighted());
+        }
+
+        @Override
+        public PrintItem collapse(PrintItem older, PrintItem newer) {
+            if (!older.channel.equals(newer.channel)) {
+                return null;
+            }
+            // The older item is removed, so it's list can be reused
+            List<PrintItem> skipped = older.skipped;
+            if (skipped == null) {
+                skipped = new ArrayList<>();
+                skipped.add(older);
+            }
+            newer.addMessagesTo(skipped);
+            return new PrintItem(older.channel, skipped);
+        }
+
+        @Override
+        public void dropped(PrintItem item) {
+            List<PrintItem> messages = new ArrayList<>();
+            item.addMessagesTo(messages);
+            droppedMessages.addAll(messages);
+        }
+    }
+    
+    private boolean checkHighlight(User user, Highlighter.Match match, Highlighter hl, String setting, boolean isOwnMessage) {
         if (client.settings.getBoolean(setting + "Enabled")) {
             if (client.settings.getBoolean(setting + "OwnText") ||
                     !isOwnMessage) {
-                return hl.check(user, text);
+                return hl.check(user, match);
             }
         }
         return false;
@@ -1843,7 +2303,7 @@ public class MainGui extends JFrame implements Runnable {
     }
     
     public void userBanned(final String channel, final User user) {
-        SwingUtilities.invokeLater(new Runnable() {
+        printInOrder(new Runnable() {
 
             @Override
             public void run() {
@@ -1896,7 +2356,7 @@ public class MainGui extends JFrame implements Runnable {
     }
     
     public void printLine(final String line) {
-        SwingUtilities.invokeLater(new Runnable() {
+        printInOrder(new Runnable() {
             @Override
             public void run() {
                 Channel panel = channels.getLastActiveChannel();
@@ -1909,7 +2369,7 @@ public class MainGui extends JFrame implements Runnable {
     }
     
     public void printSystem(final String line) {
-        SwingUtilities.invokeLater(new Runnable() {
+        printInOrder(new Runnable() {
             @Override
             public void run() {
                 Channel panel = channels.getActiveChannel();
@@ -1922,7 +2382,7 @@ public class MainGui extends JFrame implements Runnable {
     }
 
     public void printLine(final String channel, final String line) {
-        SwingUtilities.invokeLater(new Runnable() {
+        printInOrder(new Runnable() {
             @Override
             public void run() {
                 if (channel == null) {
@@ -1936,7 +2396,7 @@ public class MainGui extends JFrame implements Runnable {
     }
     
     public void printLineAll(final String line) {
-        SwingUtilities.invokeLater(new Runnable() {
+        printInOrder(new Runnable() {
             @Override
             public void run() {
                 //client.chatLog.info(null, line);
@@ -1964,28 +2424,94 @@ public class MainGui extends JFrame implements Runnable {
      * @param user The User object of who was the target of this event (mod/..).
      */
     public void printCompact(final String channel, final String type, final User user) {
-        SwingUtilities.invokeLater(new Runnable() {
+        printInOrder(new Runnable() {
             @Override
             public void run() {
+                if (!loadShedding.showJoinsParts()
+                        && (type.equals("JOIN") || type.equals("PART"))) {
+                    increaseCount(hiddenJoinsParts, channel);
+                    return;
+                }
                 channels.getChannel(channel).printCompact(type, user);
             }
         });
     }
     
+    private static void increaseCount(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+    
+    /**
+     * Adjusts what is printed to the current load and outputs how many
+     * messages and joins/parts were not printed because of it. Called
+     * regulary on the EDT.
+     */
+    private void checkLoad() {
+        handleDroppedMessages();
+        int oldLevel = loadShedding.getLevel();
+        if (loadShedding.check(printStage.getOldestWaitTime())) {
+            int level = loadShedding.getLevel();
+            LOGGER.info("Load level changed from "+oldLevel+" to "+level
+                    +" ("+loadShedding.getRate()+" messages/s)");
+            if (oldLevel == LoadShedding.NONE) {
+                printLine("Too many messages, showing less details until "
+                        + "the load goes down.");
+            } else if (level == LoadShedding.NONE) {
+                printLine("Showing all details again.");
+            }
+        }
+        for (Map.Entry<String, Integer> entry : skippedMessages.entrySet()) {
+            if (channels.isChannel(entry.getKey())) {
+                channels.getChannel(entry.getKey()).printLine("["+entry.getValue()
+                        +" messages skipped, high load]");
+            }
+        }
+        skippedMessages.clear();
+        if (loadShedding.showJoinsParts()) {
+            for (Map.Entry<String, Integer> entry : hiddenJoinsParts.entrySet()) {
+                if (channels.isChannel(entry.getKey())) {
+                    channels.getChannel(entry.getKey()).printLine("["+entry.getValue()
+                            +" joins/parts not shown, high load]");
+                }
+            }
+            hiddenJoinsParts.clear();
+        }
+    }
+    
     /**
-     * Perform search in the currently selected channel. Should only be called
-     * from the EDT.
+     * Searches the channel of the given window.
      * 
-     * @param window
-     * @param searchText 
-     * @return  
+     * @param window The window to search in
+     * @param query What to search for
+     * @param older true to search for older lines, false for newer lines
+     * @param allChannels If nothing more is found, continue in the other
+     * channels of the main window (only if the window is the main window)
+     * @return true if something was found
      */
-    public boolean search(final Window window, final String searchText) {
+    public boolean search(final Window window, SearchIndex.Query query,
+            boolean older, boolean allChannels) {
         Channel chan = channels.getChannelFromWindow(window);
         if (chan == null) {
             return false;
         }
-        return chan.search(searchText);
+        if (chan.search(query, older)) {
+            return true;
+        }
+        if (!allChannels || window != this) {
+            return false;
+        }
+        List<Channel> tabChannels = channels.getTabChannels();
+        int index = tabChannels.indexOf(chan);
+        for (int i = 1; i < tabChannels.size(); i++) {
+            Channel other = tabChannels.get((index + i) % tabChannels.size());
+            other.resetSearch();
+            if (other.search(query, older)) {
+                channels.switchToChannel(other);
+                return true;
+            }
+        }
+        return false;
     }
     
     public void resetSearch(final Window window) {
@@ -2059,17 +2585,20 @@ public class MainGui extends JFrame implements Runnable {
      * @param channel
      * @param user 
      */
-    public void addUser(final String channel, final User user) {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                Channel c = channels.getChannel(channel);
-                c.addUser(user);
-                if (channels.getActiveChannel() == c) {
-                    state.update();
-                }
-            }
-        });
+    public void addUser(String channel, User user) {
+        changeUserlist(new UserlistChange(UserlistChange.ADD, channel,
+                Collections.singletonList(user)));
+    }
+    
+    /**
+     * Adds several users to a channel at once, adding them to the userlist
+     * with only one sort and update.
+     * 
+     * @param channel
+     * @param users 
+     */
+    public void addUsers(String channel, List<User> users) {
+        changeUserlist(new UserlistChange(UserlistChange.ADD, channel, users));
     }
     
     /**
@@ -2078,17 +2607,9 @@ public class MainGui extends JFrame implements Runnable {
      * @param channel
      * @param user 
      */
-    public void removeUser(final String channel, final User user) {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                Channel c = channels.getChannel(channel);
-                c.removeUser(user);
-                if (channels.getActiveChannel() == c) {
-                    state.update();
-                }
-            }
-        });
+    public void removeUser(String channel, User user) {
+        changeUserlist(new UserlistChange(UserlistChange.REMOVE, channel,
+                Collections.singletonList(user)));
     }
     
     /**
@@ -2097,14 +2618,9 @@ public class MainGui extends JFrame implements Runnable {
      * @param channel
      * @param user 
      */
-    public void updateUser(final String channel, final User user) {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                channels.getChannel(channel).updateUser(user);
-                state.update();
-            }
-        });
+    public void updateUser(String channel, User user) {
+        changeUserlist(new UserlistChange(UserlistChange.UPDATE, channel,
+                Collections.singletonList(user)));
     }
     
     /**
@@ -2123,14 +2639,121 @@ public class MainGui extends JFrame implements Runnable {
      * Clears the userlist on all channels.
      */
     public void clearUsers() {
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                for (Channel channel : channels.channels()) {
-                    channel.clearUsers();
+        changeUserlist(new UserlistChange(UserlistChange.CLEAR, null, null));
+    }
+    
+    /**
+     * Clears the userlist on the given channel, if it exists.
+     * 
+     * @param channel 
+     */
+    public void clearUsers(String channel) {
+        changeUserlist(new UserlistChange(UserlistChange.CLEAR, channel, null));
+    }
+    
+    /**
+     * Queues a change to the userlists, which is done on the EDT together
+     * with the other changes made in the meantime.
+     * 
+     * @param change 
+     */
+    private void changeUserlist(UserlistChange change) {
+        userlistChanges.add(change);
+        if (userlistChangesScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    userlistChangesScheduled.set(false);
+                    doUserlistChanges();
+                }
+            });
+        }
+    }
+    
+    /**
+     * Does the queued changes to the userlists in order. Joins or parts in a
+     * row in the same channel are each added or removed at once, so the
+     * userlist is only sorted and updated once for them.
+     */
+    private void doUserlistChanges() {
+        boolean activeChanged = false;
+        UserlistChange change = userlistChanges.poll();
+        while (change != null) {
+            UserlistChange next = userlistChanges.poll();
+            if (change.type == UserlistChange.CLEAR) {
+                if (change.channel == null) {
+                    for (Channel channel : channels.channels()) {
+                        channel.clearUsers();
+                    }
+                } else {
+                    Channel c = channels.get(change.channel);
+                    if (c != null) {
+                        c.clearUsers();
+                    }
                 }
+                change = next;
+                continue;
             }
-        });
+            Channel c = channels.getChannel(change.channel);
+            if (change.type == UserlistChange.UPDATE) {
+                for (User user : change.users) {
+                    c.updateUser(user);
+                }
+                activeChanged = true;
+            } else {
+                List<User> users = new ArrayList<>(change.users);
+                while (next != null && next.type == change.type
+                        && next.channel.equals(change.channel)) {
+                    users.addAll(next.users);
+                    next = userlistChanges.poll();
+                }
+                if (users.size() == 1) {
+                    // Faster for a single user, since it doesn't resort
+                    if (change.type == UserlistChange.ADD) {
+                        c.addUser(users.get(0));
+                    } else {
+                        c.removeUser(users.get(0));
+                    }
+                } else if (change.type == UserlistChange.ADD) {
+                    c.addUsers(users);
+                } else {
+                    c.removeUsers(users);
+                }
+                if (channels.getActiveChannel() == c) {
+                    activeChanged = true;
+                }
+            }
+            change = next;
+        }
+        if (activeChanged) {
+            state.update();
+        }
+    }
+    
+    /**
+     * A change to the userlist of a channel.
+     */
+    private static class UserlistChange {
+        
+        private static final int ADD = 0;
+        private static final int REMOVE = 1;
+        private static final int UPDATE = 2;
+        private static final int CLEAR = 3;
+        
+        private final int type;
+        
+        /**
+         * The channel, or null to clear all channels.
+         */
+        private final String channel;
+        private final Collection<User> users;
+        
+        UserlistChange(int type, String channel, Collection<User> users) {
+            this.type = type;
+            this.channel = channel;
+            this.users = users;
+        }
     }
     
     public void reconnect() {
@@ -2310,7 +2933,10 @@ public class MainGui extends JFrame implements Runnable {
             } else if (state == Irc.STATE_CONNECTED) {
                 stateText = "...";
             } else if (state == Irc.STATE_REGISTERED) {
-                if (channelName.isEmpty()) {
+                String joinProgress = client.getJoinProgress();
+                if (joinProgress != null) {
+                    stateText = "  : " + joinProgress;
+                } else if (channelName.isEmpty()) {
                     stateText = "";
                 }
             } else if (state == Irc.STATE_OFFLINE) {
@@ -2341,6 +2967,12 @@ public class MainGui extends JFrame implements Runnable {
                 }
             }
 
+            // Messages waiting because of the spam protection
+            int queued = client.getSpamProtectionQueueSize();
+            if (queued > 0) {
+                title += " - : " + queued;
+            }
+
             title += " - ChattyRus";
             return title;
         }
@@ -2921,9 +3553,22 @@ public class MainGui extends JFrame implements Runnable {
             if (setting.equals("spamProtection")) {
                 client.setLinesPerSeconds((String)value);
             }
+            if (setting.equals("spamProtectionMod")) {
+                client.setModLinesPerSeconds((String)value);
+            }
             if (setting.equals("urlPrompt")) {
                 UrlOpener.setPrompt((Boolean)value);
             }
+            if (setting.equals("messageOverflow")) {
+                printStage.setOverflow((String)value);
+            }
+            if (setting.equals("combineRepeated")
+                    || setting.equals("combineRepeatedTime")) {
+                updateRepeatedMessages();
+            }
+            if (setting.equals("loadShedding")) {
+                loadShedding.setEnabled((Boolean)value);
+            }
             if (setting.equals("abUniqueCats")) {
                 client.addressbook.setSomewhatUniqueCategories((String)value);
             }
@@ -0,0 +1,134 @@
+
+package chatty.gui;
+
+import chatty.User;
+import chatty.gui.components.MessageSpecials;
+import chatty.util.api.Emoticons;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prepares messages on a pool of worker threads, so finding links, emoticons
+ * and highlights can be done for several messages in parallel, and the EDT
+ * only has to print the result.
+ * 
+ * <p>
+ * When too many messages are waiting to be prepared, the thread that adds a
+ * message prepares it itself, which slows down receiving more messages.
+ * </p>
+ * 
+ * @author tduva
+ */
+public class MessagePreparer {
+    
+    private static final Logger LOGGER = Logger.getLogger(MessagePreparer.class.getName());
+    
+    /**
+     * How many threads to use, leaving one core for the EDT and the other
+     * threads.
+     */
+    private static final int THREADS = Math.max(1, Math.min(4,
+            Runtime.getRuntime().availableProcessors() - 1));
+    
+    private final Highlighter highlighter;
+    private final Highlighter ignoreChecker;
+    private final Emoticons emoticons;
+    
+    private final ThreadPoolExecutor executor;
+    
+    /**
+     * Creates a new preparer.
+     * 
+     * @param highlighter The Highlighter to find highlight matches with
+     * @param ignoreChecker The Highlighter to find ignore matches with
+     * @param emoticons The emoticons to look for
+     * @param queueSize How many messages can wait to be prepared
+     */
+    public MessagePreparer(Highlighter highlighter, Highlighter ignoreChecker,
+            Emoticons emoticons, int queueSize) {
+        this.highlighter = highlighter;
+        this.ignoreChecker = ignoreChecker;
+        this.emoticons = emoticons;
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "MessagePrepare-"+count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    
+    /**
+     * Starts preparing the given message.
+     * 
+     * @param user The user who sent the message
+     * @param text The text of the message
+     * @return The Future to get the result from
+     */
+    public Future<PreparedMessage> prepare(User user, String text) {
+        return prepare(user, text, true);
+    }
+    
+    /**
+     * Starts preparing the given message, optionally without looking for
+     * links and emoticons (e.g. if the message probably won't be printed on
+     * it's own anyway). They are then found when the message is printed.
+     * 
+     * @param user The user who sent the message
+     * @param text The text of the message
+     * @param findSpecials Whether to find links and emoticons
+     * @return The Future to get the result from
+     */
+    public Future<PreparedMessage> prepare(final User user, final String text,
+            final boolean findSpecials) {
+        return executor.submit(new Callable<PreparedMessage>() {
+
+            @Override
+            public PreparedMessage call() {
+                return prepareNow(user, text, findSpecials);
+            }
+        });
+    }
+    
+    /**
+     * Gets the result of preparing a message, waiting for it to be done if
+     * necessary. If preparing failed, it is prepared again in the current
+     * thread.
+     * 
+     * @param prepared The Future returned by {@link #prepare(User, String)}
+     * @param user The user who sent the message
+     * @param text The text of the message
+     * @return The prepared message
+     */
+    public PreparedMessage get(Future<PreparedMessage> prepared, User user,
+            String text) {
+        try {
+            return prepared.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            LOGGER.log(Level.WARNING, "Error preparing message", ex);
+            return prepareNow(user, text, true);
+        }
+    }
+    
+    private PreparedMessage prepareNow(User user, String text,
+            boolean findSpecials) {
+        return new PreparedMessage(
+                findSpecials ? MessageSpecials.find(text, user, emoticons) : null,
+                highlighter.findMatch(user, text),
+                ignoreChecker.findMatch(user, text));
+    }
+    
+}
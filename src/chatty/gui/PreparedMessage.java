@@ -0,0 +1,37 @@
+
+package chatty.gui;
+
+import chatty.gui.components.MessageSpecials;
+
+/**
+ * The result of the work on a message that can be done before it is printed,
+ * like finding links, emoticons and highlight/ignore matches.
+ * 
+ * @author tduva
+ */
+public class PreparedMessage {
+    
+    /**
+     * The links and emoticons in the message, or null if they haven't been
+     * looked for.
+     */
+    public final MessageSpecials specials;
+    
+    /**
+     * The result of matching the message against the highlight items.
+     */
+    public final Highlighter.Match highlight;
+    
+    /**
+     * The result of matching the message against the ignore items.
+     */
+    public final Highlighter.Match ignore;
+    
+    public PreparedMessage(MessageSpecials specials, Highlighter.Match highlight,
+            Highlighter.Match ignore) {
+        this.specials = specials;
+        this.highlight = highlight;
+        this.ignore = ignore;
+    }
+    
+}
@@ -0,0 +1,29 @@
+package chatty.gui;
+
+/**
+ * Gets informed about what happens to received chat messages in the GUI, for
+ * example to measure how long it takes for messages to be printed.
+ *
+ * @author tduva
+ */
+public interface PrintListener {
+
+    /**
+     * A message was added to the chat as a line of it's own. Called from the
+     * EDT.
+     *
+     * @param channel The channel the message was printed in
+     * @param nick The nick of the user that send the message
+     */
+    public void messagePrinted(String channel, String nick);
+
+    /**
+     * A message won't get a line of it's own in the chat (e.g. because it was
+     * ignored, combined with another message or skipped because of the load).
+     * Called from the EDT.
+     *
+     * @param channel The channel the message was received in
+     * @param nick The nick of the user that send the message
+     */
+    public void messageNotPrinted(String channel, String nick);
+}
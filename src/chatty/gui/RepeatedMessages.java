@@ -0,0 +1,108 @@
+package chatty.gui;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers the recent messages of each channel, so a message repeating a
+ * recent message (e.g. copypasta during a raid) can be recognized when it is
+ * received, before doing any work on it.
+ *
+ * <p>
+ * Messages are compared after normalizing them (see
+ * {@link #normalize(String)}). A message counts as repeated if the same text
+ * was received in the same channel within the set time of the last time it
+ * was received, so a message that keeps getting repeated stays recognized.
+ * </p>
+ *
+ * <p>
+ * This is thread-safe.
+ * </p>
+ *
+ * @author tduva
+ */
+public class RepeatedMessages {
+
+    /**
+     * How many different messages to remember per channel at most.
+     */
+    private static final int MAX_PER_CHANNEL = 500;
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * The recent messages by channel, with the time they were last received,
+     * the least recently received first.
+     */
+    private final Map<String, LinkedHashMap<String, Long>> channels = new HashMap<>();
+
+    private long time;
+
+    /**
+     * Sets the time within which messages are recognized as repeated.
+     *
+     * @param seconds The time in seconds, 0 to disable
+     */
+    public synchronized void setTime(long seconds) {
+        time = seconds * 1000;
+        if (time <= 0) {
+            channels.clear();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return time > 0;
+    }
+
+    /**
+     * Creates the key for the given message text, which is the same for
+     * messages that only differ in case or whitespace.
+     *
+     * @param text The text of the message
+     * @return The normalized text
+     */
+    public static String normalize(String text) {
+        return WHITESPACE.matcher(text.trim()).replaceAll(" ").toLowerCase();
+    }
+
+    /**
+     * Adds a received message and checks whether it repeats a recent one.
+     *
+     * @param channel The channel the message was received in
+     * @param key The normalized text of the message
+     * @return true if the same text was received recently, false otherwise
+     * (or if disabled)
+     */
+    public synchronized boolean check(String channel, String key) {
+        if (time <= 0) {
+            return false;
+        }
+        LinkedHashMap<String, Long> recent = channels.get(channel);
+        if (recent == null) {
+            recent = new LinkedHashMap<>();
+            channels.put(channel, recent);
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Long> it = recent.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next() > time) {
+                it.remove();
+            } else {
+                break;
+            }
+        }
+        // Remove first, so it is added as the most recent one
+        boolean repeated = recent.remove(key) != null;
+        recent.put(key, now);
+        if (recent.size() > MAX_PER_CHANNEL) {
+            it = recent.values().iterator();
+            it.next();
+            it.remove();
+        }
+        return repeated;
+    }
+
+}
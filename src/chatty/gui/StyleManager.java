@@ -29,7 +29,8 @@ public class StyleManager implements StyleServer {
             "timestamp","highlightColor","showBanMessages","autoScroll",
             "deletedMessagesMode", "deletedMessagesMaxLength","searchResultColor",
             "lineSpacing", "bufferSize", "actionColored","combineBanMessages",
-            "timestampTimezone", "autoScrollTimeout"
+            "timestampTimezone", "autoScrollTimeout", "chatView",
+            "combineRepeated", "combineRepeatedTime"
             ));
     
     private MutableAttributeSet baseStyle;
@@ -103,7 +104,10 @@ public class StyleManager implements StyleServer {
         other.addAttribute(Setting.AUTO_SCROLL_TIME, settings.getLong("autoScrollTimeout"));
         other.addAttribute(Setting.ACTION_COLORED, settings.getBoolean("actionColored"));
         other.addAttribute(Setting.BUFFER_SIZE, settings.getLong("bufferSize"));
+        other.addAttribute(Setting.CHAT_VIEW, settings.getBoolean("chatView"));
         other.addAttribute(Setting.COMBINE_BAN_MESSAGES, settings.getBoolean("combineBanMessages"));
+        other.addAttribute(Setting.COMBINE_REPEATED_TIME, settings.getBoolean("combineRepeated")
+                ? settings.getLong("combineRepeatedTime") : 0);
         // Deleted Messages Settings
         String deletedMessagesMode = settings.getString("deletedMessagesMode");
         long deletedMessagesModeNumeric = 0;
@@ -1,19 +1,44 @@
-
 package chatty.gui;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
 import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
 
 /**
  * The data model behind the userlist, sorts items.
- * 
+ *
+ * <p>
+ * Which items are in the list is stored separately (by identity), so checking
+ * whether an item is in the list doesn't have to go through the list. The
+ * position of an item is found by binary search, and only if the item changed
+ * in a way that affects sorting (and thus isn't where it is expected) by going
+ * through the list.
+ * </p>
+ *
+ * <p>
+ * Several items can be added or removed at once, which sorts the list only
+ * once and informs the listeners with as few events as possible, instead of
+ * one event per item (e.g. for the names list when joining a large channel).
+ * </p>
+ *
  * @author tduva
  */
 public class UserlistModel<T extends Comparable> extends AbstractListModel {
 
     ArrayList<T> data = new ArrayList<>();
 
+    /**
+     * The items in the list, by identity.
+     */
+    private final Set<T> contained = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+
+    private boolean sortScheduled;
+
     public ArrayList<T> getData() {
         return (ArrayList) data.clone();
     }
@@ -29,20 +54,76 @@ public class UserlistModel<T extends Comparable> extends AbstractListModel {
     }
 
     public void add(T item) {
+        if (!contained.add(item)) {
+            return;
+        }
         int insertionPoint = findInsertionPoint(item);
         data.add(insertionPoint, item);
         super.fireIntervalAdded(this, insertionPoint, insertionPoint);
     }
 
+    /**
+     * Adds all the given items that aren't already in the list, sorting the
+     * list once.
+     *
+     * @param items The items to add
+     */
+    @SuppressWarnings("unchecked") // T is a raw Comparable (like User)
+    public void addAll(Collection<T> items) {
+        int oldSize = data.size();
+        for (T item : items) {
+            if (contained.add(item)) {
+                data.add(item);
+            }
+        }
+        if (data.size() == oldSize) {
+            return;
+        }
+        Collections.sort(data);
+        super.fireIntervalAdded(this, oldSize, data.size() - 1);
+        if (oldSize > 0) {
+            // The added items are sorted in between the old ones
+            super.fireContentsChanged(this, 0, oldSize - 1);
+        }
+    }
+
     public void remove(T item) {
-        int index = data.indexOf(item);
-        if (index == -1) {
+        if (!contained.remove(item)) {
             return;
         }
+        int index = indexOf(item);
         data.remove(index);
         super.fireIntervalRemoved(this, index, index);
     }
 
+    /**
+     * Removes all the given items from the list.
+     *
+     * @param items The items to remove
+     */
+    public void removeAll(Collection<T> items) {
+        Set<T> removed = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+        for (T item : items) {
+            if (contained.remove(item)) {
+                removed.add(item);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        int oldSize = data.size();
+        Iterator<T> it = data.iterator();
+        while (it.hasNext()) {
+            if (removed.contains(it.next())) {
+                it.remove();
+            }
+        }
+        super.fireIntervalRemoved(this, data.size(), oldSize - 1);
+        if (!data.isEmpty()) {
+            super.fireContentsChanged(this, 0, data.size() - 1);
+        }
+    }
+
     private int findInsertionPoint(T item) {
         int insertionPoint = Collections.binarySearch(data, item, null);
         if (insertionPoint < 0) {
@@ -51,23 +132,79 @@ public class UserlistModel<T extends Comparable> extends AbstractListModel {
         return insertionPoint;
     }
 
+    /**
+     * Finds the index of the given item, which has to be in the list.
+     *
+     * @param item
+     * @return The index
+     */
+    @SuppressWarnings("unchecked") // T is a raw Comparable (like User)
+    private int indexOf(T item) {
+        int index = Collections.binarySearch(data, item, null);
+        if (index >= 0) {
+            // Other items may compare as equal, so check around it
+            for (int i = index; i >= 0 && data.get(i).compareTo(item) == 0; i--) {
+                if (data.get(i) == item) {
+                    return i;
+                }
+            }
+            for (int i = index + 1; i < data.size() && data.get(i).compareTo(item) == 0; i++) {
+                if (data.get(i) == item) {
+                    return i;
+                }
+            }
+        }
+        // Item changed after it was sorted in, so it could be anywhere
+        for (int i = 0; i < data.size(); i++) {
+            if (data.get(i) == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public void updated(T item) {
-        int index = data.indexOf(item);
-        if (index == -1) {
+        if (!contained.contains(item)) {
             return;
         }
+        int index = indexOf(item);
         super.fireContentsChanged(this, index, index);
     }
 
     public void clear() {
         if (!data.isEmpty()) {
-            super.fireIntervalRemoved(this, 0, data.size() - 1);
+            int size = data.size();
             data.clear();
+            contained.clear();
+            super.fireIntervalRemoved(this, 0, size - 1);
         }
     }
-    
+
     public void sort() {
+        sortScheduled = false;
+        if (data.isEmpty()) {
+            return;
+        }
         Collections.sort(data);
         super.fireContentsChanged(this, 0, data.size() - 1);
     }
+
+    /**
+     * Sorts the list once the current event is done, so several requests to
+     * sort in a row only sort once. Should only be called on the EDT.
+     */
+    public void sortLater() {
+        if (!sortScheduled) {
+            sortScheduled = true;
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (sortScheduled) {
+                        sort();
+                    }
+                }
+            });
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package chatty.gui.components;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+
+/**
+ * Shares immutable attribute sets for the text in the chat, so that text with
+ * the same attributes (like all messages of a user, or every occurence of an
+ * emote) uses the same object instead of a copy for every message.
+ *
+ * <p>
+ * This uses the attribute set cache of the {@code StyleContext}, which only
+ * holds weak references, so sets that aren't used anywhere anymore can still
+ * be garbage collected. It is also used as the attribute context of the chat
+ * documents, so the elements in the document use the shared sets as well.
+ * </p>
+ *
+ * <p>
+ * Since text with the same attributes may be combined, attributes that
+ * contain an icon should not be combined with the text before, or several
+ * icons in a row would only show up once (see {@link #isIcon(AttributeSet)}).
+ * </p>
+ *
+ * @author tduva
+ */
+public class AttributePool extends StyleContext {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximum number of attributes of a set that is shared. Larger sets
+     * are still copied, but the chat styles have less attributes than this.
+     */
+    private static final int MAX_SHARED_ATTRIBUTES = 32;
+
+    private static final AttributePool DEFAULT = new AttributePool();
+
+    /**
+     * The pool used for all chat text.
+     *
+     * @return
+     */
+    public static AttributePool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the shared immutable set with the same attributes as the given
+     * one. If the given set is already a shared set, it is returned as it is.
+     *
+     * @param attributes The attributes
+     * @return The shared set
+     */
+    public AttributeSet intern(AttributeSet attributes) {
+        return addAttributes(SimpleAttributeSet.EMPTY, attributes);
+    }
+
+    @Override
+    protected int getCompressionThreshold() {
+        return MAX_SHARED_ATTRIBUTES;
+    }
+
+    /**
+     * Whether the given attributes contain an icon, so text with these
+     * attributes shouldn't be combined with text before it.
+     *
+     * @param attributes
+     * @return
+     */
+    public static boolean isIcon(AttributeSet attributes) {
+        return attributes.isDefined(StyleConstants.IconAttribute);
+    }
+
+}
@@ -9,18 +9,21 @@ import chatty.gui.MainGui;
 import chatty.User;
 import chatty.gui.components.ChannelTextPane.MessageType;
 import chatty.gui.components.menus.ContextMenuListener;
+import chatty.util.SearchIndex;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import javax.swing.AbstractAction;
 import javax.swing.InputMap;
+import javax.swing.JComponent;
 import javax.swing.JPanel;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
@@ -45,12 +48,13 @@ public class Channel extends JPanel implements CompletionServer {
     private final UserList users;
     private final JSplitPane mainPane;
     private final JScrollPane userlist;
-    private final JScrollPane west;
+    private final JComponent west;
+    private final JScrollPane westScrollPane;
     private final StyleServer styleManager;
     
     private String name;
 
-    public Channel(String name, int type, MainGui main, StyleManager styleManager,
+    public Channel(String name, int type, final MainGui main, StyleManager styleManager,
             ContextMenuListener contextMenuListener, final int userlistSize) {
         this.setLayout(new BorderLayout());
         this.styleManager = styleManager;
@@ -60,37 +64,35 @@ public class Channel extends JPanel implements CompletionServer {
         // Text Pane
         text = new ChannelTextPane(main,styleManager);
         text.setContextMenuListener(contextMenuListener);
-        
-        /**
-         * Setting the preferred size to 0, so the text pane doesn't influence
-         * the size of the userlist. Setting it back later so it doesn't flicker
-         * when being scrolled up (and possibly other issues). This is an ugly
-         * hack, but I don't know enough about this to find a proper solution.
-         */
-        text.setPreferredSize(new Dimension(0, 0));
-        Timer t = new Timer(5000, new ActionListener() {
+        text.setMessageListener(new ChannelTextPane.MessageListener() {
 
             @Override
-            public void actionPerformed(ActionEvent e) {
-                text.setPreferredSize(null);
+            public void messageInserted(User user) {
+                main.messagePrinted(getName(), user);
             }
         });
-        t.setRepeats(false);
-        t.start();
         
-        west = new JScrollPane(text);
-        text.setScrollPane(west);
-        //System.out.println(west.getVerticalScrollBarPolicy());
-        //System.out.println(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
-        west.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        JScrollBar westScrollBar;
+        ChatView chatView = text.initChatView();
+        if (chatView != null) {
+            // Virtualized view, which brings its own scrollbar
+            west = new JPanel(new BorderLayout());
+            west.add(chatView, BorderLayout.CENTER);
+            west.add(chatView.getScrollBar(), BorderLayout.EAST);
+            westScrollPane = null;
+            westScrollBar = chatView.getScrollBar();
+        } else {
+            westScrollPane = createScrollPane();
+            west = westScrollPane;
+            westScrollBar = westScrollPane.getVerticalScrollBar();
+        }
         
         // PageUp/Down hotkeys / Scrolling
         InputMap westScrollInputMap = west.getInputMap(WHEN_IN_FOCUSED_WINDOW);
         westScrollInputMap.put(KeyStroke.getKeyStroke("PAGE_UP"), "pageUp");
-        west.getActionMap().put("pageUp", new ScrollAction("pageUp", west.getVerticalScrollBar()));
+        west.getActionMap().put("pageUp", new ScrollAction("pageUp", westScrollBar));
         westScrollInputMap.put(KeyStroke.getKeyStroke("PAGE_DOWN"), "pageDown");
-        west.getActionMap().put("pageDown", new ScrollAction("pageDown", west.getVerticalScrollBar()));
-        west.getVerticalScrollBar().setUnitIncrement(40);
+        west.getActionMap().put("pageDown", new ScrollAction("pageDown", westScrollBar));
 
         
         // User list
@@ -120,8 +122,36 @@ public class Channel extends JPanel implements CompletionServer {
         setStyles();
     }
     
+    private JScrollPane createScrollPane() {
+        /**
+         * Setting the preferred size to 0, so the text pane doesn't influence
+         * the size of the userlist. Setting it back later so it doesn't flicker
+         * when being scrolled up (and possibly other issues). This is an ugly
+         * hack, but I don't know enough about this to find a proper solution.
+         */
+        text.setPreferredSize(new Dimension(0, 0));
+        Timer t = new Timer(5000, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                text.setPreferredSize(null);
+            }
+        });
+        t.setRepeats(false);
+        t.start();
+        
+        JScrollPane scrollPane = new JScrollPane(text);
+        text.setScrollPane(scrollPane);
+        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        scrollPane.getVerticalScrollBar().setUnitIncrement(40);
+        return scrollPane;
+    }
+    
     public void setScrollbarAlways(boolean always) {
-        west.setVerticalScrollBarPolicy(always ? 
+        if (westScrollPane == null) {
+            return;
+        }
+        westScrollPane.setVerticalScrollBarPolicy(always ? 
                 JScrollPane.VERTICAL_SCROLLBAR_ALWAYS : JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
     }
     
@@ -154,10 +184,18 @@ public class Channel extends JPanel implements CompletionServer {
         users.addUser(user);
     }
     
+    public void addUsers(Collection<User> users) {
+        this.users.addUsers(users);
+    }
+    
     public void removeUser(User user) {
         users.removeUser(user);
     }
     
+    public void removeUsers(Collection<User> users) {
+        this.users.removeUsers(users);
+    }
+    
     public void updateUser(User user) {
         users.updateUser(user);
     }
@@ -218,8 +256,8 @@ public class Channel extends JPanel implements CompletionServer {
     
     // Messages
     
-    public boolean search(String searchText) {
-        return text.search(searchText);
+    public boolean search(SearchIndex.Query query, boolean older) {
+        return text.search(query, older);
     }
     
     public void resetSearch() {
@@ -239,8 +277,14 @@ public class Channel extends JPanel implements CompletionServer {
     }
     
     public void printMessage(User user, String message, boolean action,
-            MessageType specialType, Color color) {
-        text.printMessage(user, message, action, specialType, color);
+            MessageType specialType, Color color, MessageSpecials specials,
+            String repeatKey) {
+        text.printMessage(user, message, action, specialType, color, specials,
+                repeatKey);
+    }
+    
+    public boolean printRepeatedMessage(User user, String repeatKey) {
+        return text.printRepeatedMessage(user, repeatKey);
     }
     
     
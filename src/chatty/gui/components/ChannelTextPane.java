@@ -19,10 +19,13 @@ import chatty.gui.components.menus.EmoteContextMenu;
 import chatty.gui.components.menus.UrlContextMenu;
 import chatty.gui.components.menus.UserContextMenu;
 import chatty.util.DateTime;
+import chatty.util.SearchIndex;
 import chatty.util.api.Emoticon;
 import chatty.util.api.Emoticon.EmoticonUser;
 import chatty.util.api.StreamInfo;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
 import java.awt.event.ComponentAdapter;
@@ -31,17 +34,11 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
-import java.util.Map.Entry;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.swing.*;
-import javax.swing.event.DocumentEvent;
 import javax.swing.text.*;
 import javax.swing.text.html.HTML;
 
@@ -83,6 +80,17 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
     
     private static final int MAX_BAN_MESSAGE_COMBINE_TIME = 10*1000;
     
+    /**
+     * How many names of users who repeated a message to show.
+     */
+    private static final int MAX_REPEAT_NAMES = 3;
+    
+    /**
+     * How long to wait after an emote finished loading before updating the
+     * lines it is in (in milliseconds).
+     */
+    private static final int ICON_REFRESH_DELAY = 20;
+    
     /**
      * Min and max buffer size to restrict the setting range
      */
@@ -90,15 +98,10 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
     private static final int BUFFER_SIZE_MAX = 10000;
     
     /**
-     * The regex String for finding URLs in messages.
+     * Max buffer size when using the ChatView, which doesn't get slower with
+     * more lines.
      */
-    private static final String urlRegex =
-        "(?i)\\b(?:(?:(?:https?)://|www\\.)|(?:[A-Z0-9.]+\\.(tv|com|org|net)))[-A-Z0-9+&@#/%=~_|$?!:,.()]*[A-Z0-9+&@#/%=~_|$)]";
-    /**
-     * The Matcher to use for finding URLs in messages.
-     */
-    private static final Matcher urlMatcher =
-            Pattern.compile(urlRegex).matcher("");
+    private static final int CHAT_VIEW_BUFFER_SIZE_MAX = 100000;
     
     public MainGui main;
 
@@ -107,7 +110,7 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
     
     public enum Attribute {
         BAN_MESSAGE, BAN_MESSAGE_COUNT, TIMESTAMP, USER, USER_MESSAGE,
-        URL_DELETED, DELETED_LINE, EMOTICON
+        URL_DELETED, DELETED_LINE, EMOTICON, REPEAT_COUNT
     }
     
     public enum MessageType {
@@ -119,10 +122,107 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      */
     private boolean newlineRequired = false;
     
+    /**
+     * Whether inserting the printed text into the document has already been
+     * scheduled.
+     */
+    private boolean insertScheduled = false;
+    
+    /**
+     * The number of lines that have been started since the printed text was
+     * last inserted into the document.
+     */
+    private int pendingLines = 0;
+    
+    private final Runnable insertPendingTask = new Runnable() {
+
+        @Override
+        public void run() {
+            insertPending();
+        }
+    };
+    
+    /**
+     * The lines of chat messages in the document by the user they are from,
+     * oldest first, so the lines of a user can be found without going through
+     * the whole document.
+     */
+    private final Map<User, ArrayDeque<Element>> userLines = new HashMap<>();
+    
+    /**
+     * The most recent ban message line in the document for each user.
+     */
+    private final Map<User, Element> banMessageLines = new HashMap<>();
+    
+    /**
+     * Recent messages that repeated messages can be combined with, by the
+     * normalized text, the least recently printed or repeated first.
+     */
+    private final Map<String, Repeat> repeats = new LinkedHashMap<>();
+    
+    /**
+     * Messages that have been combined with repeated messages and are
+     * probably still in the chat, oldest first.
+     */
+    private final ArrayDeque<Repeat> combinedRepeats = new ArrayDeque<>();
+    
+    /**
+     * The combined messages by the users who repeated them, so their repeats
+     * can be removed when they are banned.
+     */
+    private final Map<User, java.util.List<Repeat>> repeatsByUser = new HashMap<>();
+    
+    /**
+     * If not null, the chat is shown in this instead of the document of this
+     * text pane.
+     */
+    private ChatView chatView;
+    
+    /**
+     * The users of the messages printed since the printed text was last
+     * inserted, for informing the listener once they are actually added.
+     */
+    private final java.util.List<User> pendingMessages = new ArrayList<>();
+    
+    private MessageListener messageListener;
+    
+    /**
+     * The lines of the document for searching. The id of a line is the id
+     * of the first line plus it's position in the document.
+     */
+    private final SearchIndex searchIndex = new SearchIndex();
+    
+    /**
+     * The id of the first line in the document.
+     */
+    private long firstLineId;
+    
+    /**
+     * The id of the line with the last search result, or -1.
+     */
+    private long lastSearchId = -1;
+    
+    /**
+     * The positions in the document of emotes that are still loading.
+     */
+    private final Map<Emoticon, java.util.List<Position>> loadingEmotes = new HashMap<>();
+    
+    /**
+     * Emotes that finished loading, but whose lines haven't been updated yet.
+     */
+    private final Set<Emoticon> loadedEmotes = new HashSet<>();
+    
+    /**
+     * Waits a moment after an emote finished loading, so the lines of emotes
+     * that finish loading at about the same time are updated together.
+     */
+    private final javax.swing.Timer iconRefreshTimer;
+    
     public enum Setting {
         TIMESTAMP_ENABLED, EMOTICONS_ENABLED, AUTO_SCROLL, USERICONS_ENABLED, 
         SHOW_BANMESSAGES, COMBINE_BAN_MESSAGES, DELETE_MESSAGES,
-        DELETED_MESSAGES_MODE, ACTION_COLORED, BUFFER_SIZE, AUTO_SCROLL_TIME
+        DELETED_MESSAGES_MODE, ACTION_COLORED, BUFFER_SIZE, AUTO_SCROLL_TIME,
+        CHAT_VIEW, COMBINE_REPEATED_TIME
     }
     
     private static final long DELETED_MESSAGES_KEEP = 0;
@@ -145,6 +245,14 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         DefaultCaret caret = (DefaultCaret)getCaret();
         caret.setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
         styles.setStyles();
+        iconRefreshTimer = new javax.swing.Timer(ICON_REFRESH_DELAY, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refreshLoadedIcons();
+            }
+        });
+        iconRefreshTimer.setRepeats(false);
     }
     
     public void setContextMenuListener(ContextMenuListener listener) {
@@ -155,14 +263,156 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         linkController.setMouseClickedListener(listener);
     }
     
+    public void setMessageListener(MessageListener listener) {
+        this.messageListener = listener;
+    }
+    
+    /**
+     * Gets informed when the line of a chat message was added.
+     */
+    public interface MessageListener {
+        public void messageInserted(User user);
+    }
+    
+    /**
+     * Shows the chat in a {@link ChatView} instead of this text pane, if
+     * enabled in the settings. This has to be called before anything is
+     * printed, and the returned ChatView has to be added instead of this.
+     * 
+     * @return The ChatView, or null if it's not enabled
+     */
+    public ChatView initChatView() {
+        if (!styles.chatView()) {
+            return null;
+        }
+        chatView = new ChatView(styles.bufferSize());
+        chatView.addMouseListener(linkController);
+        chatView.addMouseMotionListener(linkController);
+        scrollManager.setChatView(chatView);
+        styles.setChatViewStyles();
+        return chatView;
+    }
+    
     /**
      * Can be called when an icon finished loading, so it is displayed correctly.
      * 
-     * This seems pretty ineffecient, because it refreshes the whole document.
+     * Only the lines that contain the emote are updated, for all emotes that
+     * finished loading within a short time at once.
+     * 
+     * @param emote The emote whose icon finished loading
      */
     @Override
-    public void iconLoaded() {
-        ((MyDocument)doc).refresh();
+    public void iconLoaded(Emoticon emote) {
+        if (chatView != null) {
+            chatView.invalidateLayouts(emote);
+            return;
+        }
+        if (loadingEmotes.containsKey(emote)) {
+            loadedEmotes.add(emote);
+            if (!iconRefreshTimer.isRunning()) {
+                iconRefreshTimer.start();
+            }
+        }
+    }
+    
+    /**
+     * Updates the lines containing emotes that finished loading since the
+     * last update.
+     */
+    private void refreshLoadedIcons() {
+        Element root = doc.getDefaultRootElement();
+        TreeSet<Integer> lines = new TreeSet<>();
+        for (Emoticon emote : loadedEmotes) {
+            java.util.List<Position> positions = loadingEmotes.remove(emote);
+            if (positions == null) {
+                continue;
+            }
+            for (Position position : positions) {
+                if (isEmoteAt(emote, position)) {
+                    lines.add(root.getElementIndex(position.getOffset()));
+                }
+            }
+        }
+        loadedEmotes.clear();
+        
+        // Update adjacent lines together
+        int first = -1;
+        int last = -1;
+        for (int line : lines) {
+            if (first != -1 && line != last + 1) {
+                refreshLines(first, last);
+                first = -1;
+            }
+            if (first == -1) {
+                first = line;
+            }
+            last = line;
+        }
+        if (first != -1) {
+            refreshLines(first, last);
+        }
+    }
+    
+    private void refreshLines(int first, int last) {
+        Element root = doc.getDefaultRootElement();
+        int start = root.getElement(first).getStartOffset();
+        int end = root.getElement(last).getEndOffset();
+        ((MyDocument)doc).refresh(start, end - start);
+    }
+    
+    private boolean isEmoteAt(Emoticon emote, Position position) {
+        Element element = doc.getCharacterElement(position.getOffset());
+        return element.getAttributes().getAttribute(Attribute.EMOTICON) == emote;
+    }
+    
+    /**
+     * Remembers where emotes that are still loading are in the given lines,
+     * so they can be updated once they are loaded.
+     * 
+     * @param from The number of the first line
+     * @param to The number of the last line
+     */
+    private void addLoadingEmotes(int from, int to) {
+        Element root = doc.getDefaultRootElement();
+        for (int i = from; i <= to; i++) {
+            Element line = root.getElement(i);
+            for (int j = 0; j < line.getElementCount(); j++) {
+                Element element = line.getElement(j);
+                Emoticon emote = (Emoticon)element.getAttributes().getAttribute(Attribute.EMOTICON);
+                if (emote != null && emote.isLoading()) {
+                    java.util.List<Position> positions = loadingEmotes.get(emote);
+                    if (positions == null) {
+                        positions = new ArrayList<>();
+                        loadingEmotes.put(emote, positions);
+                    }
+                    try {
+                        positions.add(doc.createPosition(element.getStartOffset()));
+                    } catch (BadLocationException ex) {
+                        LOGGER.warning("Bad location");
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Removes the positions of loading emotes that are not in the document
+     * anymore.
+     */
+    private void removeOldLoadingEmotes() {
+        Iterator<Map.Entry<Emoticon, java.util.List<Position>>> it = loadingEmotes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Emoticon, java.util.List<Position>> entry = it.next();
+            Iterator<Position> positions = entry.getValue().iterator();
+            while (positions.hasNext()) {
+                if (!isEmoteAt(entry.getKey(), positions.next())) {
+                    positions.remove();
+                }
+            }
+            if (entry.getValue().isEmpty()) {
+                it.remove();
+            }
+        }
     }
  
     /**
@@ -177,6 +427,47 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      */
     public void printMessage(final User user, final String text, boolean action,
             MessageType specialType, Color color) {
+        printMessage(user, text, action, specialType, color, null);
+    }
+    
+    /**
+     * Output a message, with the links and emoticons already found.
+     * 
+     * @param user
+     * @param text
+     * @param action
+     * @param specialType
+     * @param color
+     * @param specials The links and emoticons in the text, or null to find
+     * them now
+     */
+    public void printMessage(final User user, final String text, boolean action,
+            MessageType specialType, Color color, MessageSpecials specials) {
+        printMessage(user, text, action, specialType, color, specials, null);
+    }
+    
+    /**
+     * Output a message, which repeated messages can be combined with.
+     * 
+     * @param user
+     * @param text
+     * @param action
+     * @param specialType
+     * @param color
+     * @param specials The links and emoticons in the text, or null to find
+     * them now
+     * @param repeatKey The normalized text of the message, for combining
+     * repeated messages with this one (see
+     * {@link #printRepeatedMessage(User, String)}), can be null
+     */
+    public void printMessage(final User user, final String text, boolean action,
+            MessageType specialType, Color color, MessageSpecials specials,
+            String repeatKey) {
+        if (repeatKey != null && styles.combineRepeatedTime() > 0) {
+            removeOldRepeats();
+            repeats.remove(repeatKey);
+            repeats.put(repeatKey, new Repeat(user, text));
+        }
 
         boolean ignored = specialType == MessageType.IGNORED_COMPACT;
         if (ignored) {
@@ -188,7 +479,7 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         
         closeCompactMode();
 
-        MutableAttributeSet style;
+        AttributeSet style;
         if (highlighted) {
             style = styles.highlight(color);
         } else {
@@ -201,8 +492,327 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         if (!highlighted && action && styles.actionColored()) {
             style = styles.standard(user.getColor());
         }
-        printSpecials(text, user, style);
+        if (specials != null) {
+            printSpecials(text, specials, style);
+        } else {
+            printSpecials(text, user, style);
+        }
         printNewline();
+        if (messageListener != null) {
+            pendingMessages.add(user);
+        }
+    }
+    
+    /**
+     * Combines a repeated message with the recently printed message with the
+     * same (normalized) text, by adding how often it was repeated and by whom
+     * to the line of that message. This only works if the message is still
+     * in the chat and it's user didn't write another message since.
+     * 
+     * @param user The user who repeated the message
+     * @param repeatKey The normalized text of the message
+     * @return true if the message was combined, false if it should be
+     * printed normally
+     */
+    public boolean printRepeatedMessage(User user, String repeatKey) {
+        Repeat repeat = repeats.get(repeatKey);
+        if (repeat == null || System.currentTimeMillis() - repeat.time
+                > styles.combineRepeatedTime() * 1000L) {
+            return false;
+        }
+        insertPending();
+        if (chatView != null) {
+            long id = chatView.getLastLine(repeat.user);
+            if (id == -1) {
+                return false;
+            }
+            ChatLine line = chatView.getLine(id);
+            if (line.deleted || !line.getText().contains(repeat.text)) {
+                return false;
+            }
+            repeat.add(user);
+            repeat.id = id;
+            chatView.replaceLine(id, line.setRepeatCount(repeat.getInfo(),
+                    styles.repeatCount(repeat.count)));
+        } else {
+            ArrayDeque<Element> lines = userLines.get(repeat.user);
+            if (lines == null || lines.isEmpty()) {
+                return false;
+            }
+            Element line = lines.peekLast();
+            if (!isLineInDocument(line) || isLineDeleted(line)
+                    || !getText(line).contains(repeat.text)) {
+                return false;
+            }
+            repeat.add(user);
+            if (repeat.position == null) {
+                try {
+                    repeat.position = doc.createPosition(line.getStartOffset());
+                } catch (BadLocationException ex) {
+                    LOGGER.warning("Bad location");
+                }
+            }
+            setRepeatCount(line, repeat);
+        }
+        addRepeater(repeat, user);
+        repeats.remove(repeatKey);
+        repeats.put(repeatKey, repeat);
+        scrollDownIfNecessary();
+        return true;
+    }
+    
+    /**
+     * Remembers that the given user repeated the given message, so it can be
+     * removed from the line again if the user is banned.
+     * 
+     * @param repeat
+     * @param user 
+     */
+    private void addRepeater(Repeat repeat, User user) {
+        removeOldCombinedRepeats();
+        if (repeat.count == 2) {
+            combinedRepeats.add(repeat);
+        }
+        if (user != repeat.user && repeat.getCount(user) == 1) {
+            java.util.List<Repeat> userRepeats = repeatsByUser.get(user);
+            if (userRepeats == null) {
+                userRepeats = new ArrayList<>();
+                repeatsByUser.put(user, userRepeats);
+            }
+            userRepeats.add(repeat);
+        }
+    }
+    
+    /**
+     * Forgets about the combined messages whose lines aren't in the chat
+     * anymore. Lines are removed from the top, so only the oldest have to be
+     * checked.
+     */
+    private void removeOldCombinedRepeats() {
+        while (!combinedRepeats.isEmpty()
+                && !isRepeatInChat(combinedRepeats.peekFirst())) {
+            Repeat repeat = combinedRepeats.pollFirst();
+            for (User user : repeat.getUsers()) {
+                java.util.List<Repeat> userRepeats = repeatsByUser.get(user);
+                if (userRepeats != null) {
+                    userRepeats.remove(repeat);
+                    if (userRepeats.isEmpty()) {
+                        repeatsByUser.remove(user);
+                    }
+                }
+            }
+        }
+    }
+    
+    private boolean isRepeatInChat(Repeat repeat) {
+        if (chatView != null) {
+            return chatView.getLine(repeat.id) != null;
+        }
+        return getRepeatLine(repeat) != null;
+    }
+    
+    /**
+     * Gets the line of a combined message in the document.
+     * 
+     * @param repeat
+     * @return The line, or null if it isn't in the document anymore
+     */
+    private Element getRepeatLine(Repeat repeat) {
+        if (repeat.position == null) {
+            return null;
+        }
+        Element root = doc.getDefaultRootElement();
+        Element line = root.getElement(root.getElementIndex(repeat.position.getOffset()));
+        // The position moves to another line if the line is removed
+        if (getUserFromLine(line) != repeat.user
+                || !getText(line).contains(repeat.text)) {
+            return null;
+        }
+        return line;
+    }
+    
+    /**
+     * Removes the repeats of a banned user from the lines they were combined
+     * with, so the count and names only include users that weren't banned.
+     * 
+     * @param user 
+     */
+    private void removeRepeats(User user) {
+        java.util.List<Repeat> userRepeats = repeatsByUser.remove(user);
+        if (userRepeats == null) {
+            return;
+        }
+        for (Repeat repeat : userRepeats) {
+            if (!repeat.remove(user) || !isRepeatInChat(repeat)) {
+                continue;
+            }
+            if (chatView != null) {
+                ChatLine line = chatView.getLine(repeat.id);
+                if (!line.deleted) {
+                    chatView.replaceLine(repeat.id, line.setRepeatCount(
+                            repeat.getInfo(), styles.repeatCount(repeat.count)));
+                }
+            } else {
+                Element line = getRepeatLine(repeat);
+                if (!isLineDeleted(line)) {
+                    setRepeatCount(line, repeat);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Adds or replaces the info about how often the message in the given line
+     * was repeated. Works the same as adding the count to a ban message (see
+     * {@link #increasePreviousBanMessage(Element)}).
+     * 
+     * @param line
+     * @param repeat 
+     */
+    private void setRepeatCount(Element line, Repeat repeat) {
+        try {
+            Element countElement = getElementContainingAttributeKey(line,
+                    Attribute.REPEAT_COUNT);
+            if (countElement.getAttributes().isDefined(Attribute.REPEAT_COUNT)) {
+                doc.remove(countElement.getStartOffset(),
+                        countElement.getEndOffset() - countElement.getStartOffset());
+            }
+            int start = countElement.getEndOffset();
+            if (getText(countElement).contains("\n")) {
+                start--;
+            }
+            String info = repeat.getInfo();
+            if (!info.isEmpty()) {
+                doc.insertString(start, info, styles.repeatCount(repeat.count));
+            }
+            updateSearchIndex(line);
+        } catch (BadLocationException ex) {
+            LOGGER.warning("Bad location");
+        }
+    }
+    
+    /**
+     * Removes the messages that repeated messages can't be combined with
+     * anymore.
+     */
+    private void removeOldRepeats() {
+        long maxTime = styles.combineRepeatedTime() * 1000L;
+        Iterator<Repeat> it = repeats.values().iterator();
+        while (it.hasNext()) {
+            if (System.currentTimeMillis() - it.next().time > maxTime) {
+                it.remove();
+            } else {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * A printed message that repeated messages can be combined with.
+     */
+    static class Repeat {
+        
+        private final User user;
+        private final String text;
+        
+        /**
+         * How often each other user repeated the message, in the order they
+         * first repeated it.
+         */
+        private final Map<User, Integer> users = new LinkedHashMap<>();
+        private int count = 1;
+        private long time = System.currentTimeMillis();
+        
+        /**
+         * The start of the line of the message in the document or the id of
+         * the line in the ChatView, once the message has been repeated.
+         */
+        private Position position;
+        private long id = -1;
+        
+        Repeat(User user, String text) {
+            this.user = user;
+            this.text = text;
+        }
+        
+        void add(User user) {
+            count++;
+            time = System.currentTimeMillis();
+            if (user != this.user) {
+                users.put(user, getCount(user) + 1);
+            }
+        }
+        
+        /**
+         * Removes all repeats of the given user.
+         * 
+         * @param user
+         * @return true if the user had repeated the message
+         */
+        boolean remove(User user) {
+            Integer userCount = users.remove(user);
+            if (userCount == null) {
+                return false;
+            }
+            count -= userCount;
+            return true;
+        }
+        
+        /**
+         * How often the given user repeated the message.
+         * 
+         * @param user
+         * @return 
+         */
+        int getCount(User user) {
+            Integer userCount = users.get(user);
+            return userCount == null ? 0 : userCount;
+        }
+        
+        int getCount() {
+            return count;
+        }
+        
+        java.util.Set<User> getUsers() {
+            return users.keySet();
+        }
+        
+        /**
+         * Creates the text added to the line, e.g. " \u00D75 (abc, def and 2
+         * others)".
+         * 
+         * @return The text, empty if the message isn't repeated (anymore)
+         */
+        String getInfo() {
+            if (count <= 1) {
+                return "";
+            }
+            StringBuilder b = new StringBuilder(" \u00D7");
+            b.append(count);
+            if (!users.isEmpty()) {
+                b.append(" (");
+                int added = 0;
+                for (User repeater : users.keySet()) {
+                    if (added == MAX_REPEAT_NAMES) {
+                        break;
+                    }
+                    if (added > 0) {
+                        b.append(", ");
+                    }
+                    b.append(repeater.getDisplayNick());
+                    added++;
+                }
+                int others = users.size() - added;
+                if (others > 0) {
+                    b.append(" and ").append(others).append(" other");
+                    if (others > 1) {
+                        b.append("s");
+                    }
+                }
+                b.append(")");
+            }
+            return b.toString();
+        }
     }
     
     private long getTimeAgo(Element element) {
@@ -285,6 +895,7 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
             }
             doc.insertString(start, " (" + count + ")",
                     styles.banMessageCount(count));
+            updateSearchIndex(line);
         } catch (BadLocationException ex) {
             LOGGER.warning("Bad location");
         }
@@ -309,28 +920,55 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      * @return 
      */
     private Element findPreviousBanMessage(User user) {
-        Element root = doc.getDefaultRootElement();
-        for (int i=root.getElementCount()-1;i>=0;i--) {
-            Element line = root.getElement(i);
-            if (isLineFromUser(line, user)) {
-                // Stop immediately a message from that user is found first
-                return null;
-            }
-            // By convention, the first element of the ban message must contain
-            // the info that it is a ban message and of which user (and a
-            // timestamp)
-            Element firstElement = line.getElement(0);
-            if (firstElement != null) {
-                AttributeSet attr = firstElement.getAttributes();
-                if (attr.containsAttribute(Attribute.BAN_MESSAGE, user)
-                        && getTimeAgo(firstElement) < MAX_BAN_MESSAGE_COMBINE_TIME) {
-                    return line;
-                }
-            }
+        Element line = banMessageLines.get(user);
+        if (line == null || !isLineInDocument(line)) {
+            return null;
+        }
+        // Only if no message from that user was posted after the ban message
+        ArrayDeque<Element> lines = userLines.get(user);
+        if (lines != null && !lines.isEmpty()
+                && lines.peekLast().getStartOffset() > line.getStartOffset()) {
+            return null;
+        }
+        if (getTimeAgo(line.getElement(0)) < MAX_BAN_MESSAGE_COMBINE_TIME) {
+            return line;
         }
         return null;
     }
 
+    /**
+     * Finds the most recent ban message for the user in the ChatView, if it
+     * is within the time threshold for combining ban messages and if no
+     * message from that user was posted in the meantime.
+     * 
+     * @param user
+     * @return The id of the line, or -1 if none was found
+     */
+    private long findPreviousBanMessageId(User user) {
+        long id = chatView.getBanMessage(user);
+        if (id == -1 || chatView.getLastLine(user) > id) {
+            return -1;
+        }
+        if (System.currentTimeMillis() - chatView.getLine(id).time < MAX_BAN_MESSAGE_COMBINE_TIME) {
+            return id;
+        }
+        return -1;
+    }
+    
+    /**
+     * Adds or increases the number behind the given ban message in the
+     * ChatView.
+     * 
+     * @param id 
+     */
+    private void increasePreviousBanMessage(long id) {
+        ChatLine line = chatView.getLine(id);
+        int count = line.getBanMessageCount() + 1;
+        chatView.replaceLine(id, line.setBanMessageCount(count,
+                styles.banMessageCount(count)));
+        scrollDownIfNecessary();
+    }
+
     /**
      * Called when a user is banned or timed out and outputs a message as well
      * as deletes the lines of the user.
@@ -338,13 +976,22 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      * @param user 
      */
     public void userBanned(User user) {
+        insertPending();
+        removeRepeats(user);
         if (styles.showBanMessages()) {
             Element prevMessage = null;
+            long prevMessageId = -1;
             if (styles.combineBanMessages()) {
-                prevMessage = findPreviousBanMessage(user);
+                if (chatView != null) {
+                    prevMessageId = findPreviousBanMessageId(user);
+                } else {
+                    prevMessage = findPreviousBanMessage(user);
+                }
             }
             if (prevMessage != null) {
                 increasePreviousBanMessage(prevMessage);
+            } else if (prevMessageId != -1) {
+                increasePreviousBanMessage(prevMessageId);
             } else {
                 closeCompactMode();
                 print(getTimePrefix(), styles.banMessage(user));
@@ -353,64 +1000,188 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
                 printNewline();
             }
         }
-        ArrayList<Integer> lines = getLinesFromUser(user);
-        Iterator<Integer> it = lines.iterator();
         /**
          * values > 0 mean strike through, shorten message
          * value == 0 means strike through
          * value < 0 means delete message
          */
         boolean delete = styles.deletedMessagesMode() < DELETED_MESSAGES_KEEP;
-        while (it.hasNext()) {
+        if (chatView != null) {
+            for (long id : chatView.getLines(user)) {
+                ChatLine line = chatView.getLine(id);
+                if (line.deleted) {
+                    continue;
+                }
+                ChatLine changed;
+                if (delete) {
+                    changed = line.deleteMessage("<message deleted>", styles.info());
+                } else {
+                    changed = line.strikeThrough(styles.deleted(),
+                            styles.deletedMessagesMode(), styles.info());
+                }
+                if (changed != null) {
+                    chatView.replaceLine(id, changed);
+                }
+            }
+            return;
+        }
+        java.util.List<int[]> strikeThrough = new ArrayList<>();
+        java.util.List<Element> deletedLines = new ArrayList<>();
+        for (Element line : getLinesFromUser(user)) {
+            if (isLineDeleted(line)) {
+                continue;
+            }
             if (delete) {
-                deleteMessage(it.next());
+                if (deleteMessage(line)) {
+                    deletedLines.add(line);
+                }
             } else {
-                deleteLine(it.next(), styles.deletedMessagesMode());
+                int[] range = deleteLine(line, styles.deletedMessagesMode());
+                if (range != null) {
+                    strikeThrough.add(range);
+                    deletedLines.add(line);
+                }
+            }
+        }
+        // Change the style of all lines at once
+        ((MyDocument)doc).setAttributes(strikeThrough, styles.deleted(),
+                deletedLines, styles.deletedLine());
+        for (Element line : deletedLines) {
+            updateSearchIndex(line);
+        }
+    }
+    
+    /**
+     * Gets all lines by the given user that are still in the document.
+     * 
+     * @param user
+     * @return 
+     */
+    private java.util.List<Element> getLinesFromUser(User user) {
+        java.util.List<Element> result = new ArrayList<>();
+        ArrayDeque<Element> lines = userLines.get(user);
+        if (lines != null) {
+            for (Element line : lines) {
+                if (isLineInDocument(line)) {
+                    result.add(line);
+                }
             }
         }
+        return result;
+    }
+    
+    /**
+     * Gets the User the given line is associated with, if it is a chat
+     * message.
+     * 
+     * @param line
+     * @return The User, or null if no User object was found, so it's probably
+     * not a chat message
+     */
+    private User getUserFromLine(Element line) {
+        for (int j = 0; j < 10; j++) {
+            User elementUser = getUserFromElement(line.getElement(j));
+            // Stop if any User object was found
+            if (elementUser != null) {
+                return elementUser;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Gets the User of the ban message in the given line.
+     * 
+     * @param line
+     * @return The User, or null if the line is not a ban message
+     */
+    private User getUserFromBanMessage(Element line) {
+        // By convention, the first element of the ban message must contain
+        // the info that it is a ban message and of which user (and a
+        // timestamp)
+        Element firstElement = line.getElement(0);
+        if (firstElement != null) {
+            return (User)firstElement.getAttributes().getAttribute(Attribute.BAN_MESSAGE);
+        }
+        return null;
+    }
+    
+    /**
+     * Checks if the given line is still part of the document.
+     * 
+     * @param line
+     * @return 
+     */
+    private boolean isLineInDocument(Element line) {
+        Element root = doc.getDefaultRootElement();
+        return root.getElement(root.getElementIndex(line.getStartOffset())) == line;
     }
     
     /**
-     * Searches the Document for all lines by the given user.
+     * Adds the given lines to the index, if they are chat messages or ban
+     * messages. Lines that are already in the index are ignored.
      * 
-     * @param nick
-     * @return 
+     * @param from The number of the first line to add
+     * @param to The number of the last line to add
      */
-    private ArrayList<Integer> getLinesFromUser(User user) {
+    private void addLinesToIndex(int from, int to) {
         Element root = doc.getDefaultRootElement();
-        ArrayList<Integer> result = new ArrayList<>();
-        for (int i=0;i<root.getElementCount();i++) {
+        for (int i = from; i <= to; i++) {
             Element line = root.getElement(i);
-            if (isLineFromUser(line, user)) {
-                result.add(i);
+            User user = getUserFromLine(line);
+            if (user != null) {
+                ArrayDeque<Element> lines = userLines.get(user);
+                if (lines == null) {
+                    lines = new ArrayDeque<>();
+                    userLines.put(user, lines);
+                }
+                if (lines.peekLast() != line) {
+                    lines.add(line);
+                }
+            }
+            User bannedUser = getUserFromBanMessage(line);
+            if (bannedUser != null) {
+                banMessageLines.put(bannedUser, line);
             }
         }
-        return result;
     }
     
     /**
-     * Checks if the given element is a line that is associated with the given
-     * User.
+     * Removes the given line from the index, or replaces it with another
+     * element (when the document replaced the element of the same line).
      * 
-     * @param line
-     * @param user
-     * @return 
+     * @param line The line to remove
+     * @param replacement The element to replace the line with, or null to
+     * just remove it
      */
-    private boolean isLineFromUser(Element line, User user) {
-        for (int j = 0; j < 10; j++) {
-            Element element = line.getElement(j);
-            User elementUser = getUserFromElement(element);
-            // If the User object matches, we're done
-            if (elementUser == user) {
-                return true;
+    private void removeLineFromIndex(Element line, Element replacement) {
+        Element current = replacement != null ? replacement : line;
+        User user = getUserFromLine(current);
+        if (user != null) {
+            ArrayDeque<Element> lines = userLines.get(user);
+            if (lines != null) {
+                // Lines are removed from the top, so it's usually the first
+                if (lines.peekFirst() == line) {
+                    lines.pollFirst();
+                    if (replacement != null) {
+                        lines.addFirst(replacement);
+                    }
+                } else {
+                    lines.removeFirstOccurrence(line);
+                }
+                if (lines.isEmpty()) {
+                    userLines.remove(user);
+                }
             }
-            // Stop if any User object was found
-            if (elementUser != null) {
-                return false;
+        }
+        User bannedUser = getUserFromBanMessage(current);
+        if (bannedUser != null && banMessageLines.get(bannedUser) == line) {
+            if (replacement != null) {
+                banMessageLines.put(bannedUser, replacement);
+            } else {
+                banMessageLines.remove(bannedUser);
             }
         }
-        // No User object was found, so it's probably not a chat message
-        return false;
     }
     
     /**
@@ -435,25 +1206,20 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      * removed because a user was banned/timed out. Optionally shortens the
      * message to maxLength.
      * 
-     * @param line The number of the line in the document
+     * The strike through itself isn't applied here, so it can be applied to
+     * all lines of a user at once.
+     * 
+     * @param elementToRemove The line in the document
      * @param maxLength The maximum number of characters to shorten the message
      *  to. If maxLength <= 0 then it is not shortened.
+     * @return The start offset and length of the part to strike through, or
+     * null if the line is not a chat message
      */
-    private void deleteLine(int line, int maxLength) {
-        Element elementToRemove = doc.getDefaultRootElement().getElement(line);
-        if (elementToRemove == null) {
-            LOGGER.warning("Line "+line+" is unexpected null.");
-            return;
-        }
-        if (isLineDeleted(elementToRemove)) {
-            //System.out.println(line+"already deleted");
-            return;
-        }
-        
+    private int[] deleteLine(Element elementToRemove, int maxLength) {
         // Determine the offsets of the whole line and the message part
         int[] offsets = getMessageOffsets(elementToRemove);
         if (offsets.length != 2) {
-            return;
+            return null;
         }
         int startOffset = elementToRemove.getStartOffset();
         int endOffset = elementToRemove.getEndOffset();
@@ -474,27 +1240,17 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
                 LOGGER.warning("Bad location");
             }
         }
-        doc.setCharacterAttributes(startOffset, length, styles.deleted(), false);
-        setLineDeleted(startOffset);
-        //styles.deleted().
+        return new int[]{startOffset, length};
     }
     
     /**
      * Deletes the message of the given line by replacing it with
      * <message deleted>.
      * 
-     * @param line The number of the line in the document
+     * @param elementToRemove The line in the document
+     * @return true if the message was deleted
      */
-    private void deleteMessage(int line) {
-        Element elementToRemove = doc.getDefaultRootElement().getElement(line);
-        if (elementToRemove == null) {
-            LOGGER.warning("Line "+line+" is unexpected null.");
-            return;
-        }
-        if (isLineDeleted(elementToRemove)) {
-            //System.out.println(line+"already deleted");
-            return;
-        }
+    private boolean deleteMessage(Element elementToRemove) {
         int[] messageOffsets = getMessageOffsets(elementToRemove);
         if (messageOffsets.length == 2) {
             int startOffset = messageOffsets[0];
@@ -503,11 +1259,12 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
                 // -1 to length to not delete newline character (I think :D)
                 doc.remove(startOffset, endOffset - startOffset - 1);
                 doc.insertString(startOffset, "<message deleted>", styles.info());
-                setLineDeleted(startOffset);
+                return true;
             } catch (BadLocationException ex) {
                 LOGGER.warning("Bad location: "+startOffset+"-"+endOffset+" "+ex.getLocalizedMessage());
             }
         }
+        return false;
     }
     
     /**
@@ -521,16 +1278,6 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         return line.getAttributes().containsAttribute(Attribute.DELETED_LINE, true);
     }
     
-    /**
-     * Adds a attribute to the paragraph at offset to prevent trying to delete
-     * it again. 
-    * 
-     * @param offset 
-     */
-    private void setLineDeleted(int offset) {
-        doc.setParagraphAttributes(offset, 1, styles.deletedLine(), false);
-    }
-    
     private int[] getMessageOffsets(Element line) {
         int count = line.getElementCount();
         int start = 0;
@@ -548,80 +1295,37 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         return new int[0];
     }
     
-    private Element lastSearchPos = null;
-    
-    private boolean doesLineExist(Object line) {
-        int count = doc.getDefaultRootElement().getElementCount();
-        for (int i=0;i<count;i++) {
-            if (doc.getDefaultRootElement().getElement(i) == line) {
-                return true;
-            }
-        }
-        return false;
-    }
-    
     /**
-     * Perform search in the chat buffer. Starts searching for the given text
-     * backwards from the last found position.
+     * Perform search in the chat buffer, starting from the last found
+     * position. If nothing more is found, the next search starts from the
+     * beginning again.
      * 
-     * @param searchText 
+     * @param query What to search for
+     * @param older true to search for older lines, false to search for newer
+     * lines
+     * @return true if a line was found
      */
-    public boolean search(String searchText) {
-        if (searchText == null || searchText.isEmpty()) {
+    public boolean search(SearchIndex.Query query, boolean older) {
+        if (query.isEmpty()) {
             return false;
         }
-        clearSearchResult();
-        int count = doc.getDefaultRootElement().getElementCount();
-        if (lastSearchPos != null && !doesLineExist(lastSearchPos)) {
-            //System.out.println(lastSearchPos+"doesnt exist");
-            lastSearchPos = null;
-        }
-        // Determine if search should start immediately.
-        boolean startSearch = lastSearchPos == null;
-        searchText = Helper.toLowerCase(searchText);
-        // Loop through all lines
-        for (int i=count-1;i>=0;i--) {
-            //System.out.println(i+"/"+count);
-            Element element = doc.getDefaultRootElement().getElement(i);
-            if (element == lastSearchPos) {
-                // If this lines contained the last result, start searching
-                // on next line
-                startSearch = true;
-                if (i == 0) {
-                    lastSearchPos = null;
-                }
-                continue;
-            }
-            if (!startSearch) {
-                continue;
-            }
-            int startOffset = element.getStartOffset();
-            int endOffset = element.getEndOffset() - 1;
-            int length = endOffset - startOffset;
-            try {
-                String text = doc.getText(startOffset, length);
-                if (Helper.toLowerCase(text).contains(searchText)) {
-                    //this.setCaretPosition(startOffset);
-                    //this.moveCaretPosition(endOffset);
-                    doc.setCharacterAttributes(startOffset, length, styles.searchResult(), false);
-                    scrollManager.scrollToOffset(startOffset);
-                    //System.out.println(text);
-//                    if (i == 0) {
-//                        lastSearchPos = null;
-//                    } else {
-                        lastSearchPos = element;
-//                    }
-                    break;
-                }
-            } catch (BadLocationException ex) {
-                LOGGER.warning("Bad location");
-            }
-            lastSearchPos = null;
+        insertPending();
+        long found;
+        if (chatView != null) {
+            found = chatView.search(query, lastSearchId, older);
+        } else {
+            found = searchIndex.find(query, lastSearchId, older);
         }
-        if (lastSearchPos == null) {
+        setSearchResult(found);
+        if (found == -1) {
             scrollManager.scrollDown();
             return false;
         }
+        if (chatView != null) {
+            chatView.scrollTo(found);
+        } else {
+            scrollManager.scrollToOffset(getLine(found).getStartOffset());
+        }
         return true;
     }
     
@@ -630,15 +1334,83 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      * beginning next time.
      */
     public void resetSearch() {
-        clearSearchResult();
-        lastSearchPos = null;
+        insertPending();
+        setSearchResult(-1);
     }
     
     /**
-     * Removes any prior style changes used to highlight a search result.
+     * Highlights the given line as search result, removing the highlight
+     * from the previous result.
+     * 
+     * @param id The id of the line, or -1 to not highlight any line
+     */
+    private void setSearchResult(long id) {
+        if (chatView != null) {
+            chatView.setSearchResult(id);
+        } else {
+            Element previous = getLine(lastSearchId);
+            if (previous != null) {
+                setLineAttributes(previous, styles.clearSearchResult());
+            }
+            Element line = getLine(id);
+            if (line != null) {
+                setLineAttributes(line, styles.searchResult());
+            }
+        }
+        lastSearchId = id;
+    }
+    
+    private void setLineAttributes(Element line, AttributeSet attributes) {
+        int start = line.getStartOffset();
+        int length = line.getEndOffset() - 1 - start;
+        doc.setCharacterAttributes(start, length, attributes, false);
+    }
+    
+    /**
+     * Gets the line of the document with the given id.
+     * 
+     * @param id
+     * @return The line, or null if no line with this id is in the document
+     */
+    private Element getLine(long id) {
+        Element root = doc.getDefaultRootElement();
+        if (id < firstLineId || id >= firstLineId + root.getElementCount()) {
+            return null;
+        }
+        return root.getElement((int)(id - firstLineId));
+    }
+    
+    /**
+     * Adds the given lines to the search index, or updates them if they are
+     * already in it.
+     * 
+     * @param from The number of the first line
+     * @param to The number of the last line
+     */
+    private void addLinesToSearchIndex(int from, int to) {
+        Element root = doc.getDefaultRootElement();
+        for (int i = from; i <= to; i++) {
+            updateSearchIndex(root.getElement(i));
+        }
+    }
+    
+    /**
+     * Updates the text of the given line in the search index.
+     * 
+     * @param line 
      */
-    private void clearSearchResult() {
-        doc.setCharacterAttributes(0, doc.getLength(), styles.clearSearchResult(), false);
+    private void updateSearchIndex(Element line) {
+        Element root = doc.getDefaultRootElement();
+        int index = root.getElementIndex(line.getStartOffset());
+        int start = line.getStartOffset();
+        int length = Math.max(0, line.getEndOffset() - 1 - start);
+        try {
+            User user = getUserFromLine(line);
+            searchIndex.put(firstLineId + index, doc.getText(start, length),
+                    user != null ? user.nick : null);
+        } catch (BadLocationException ex) {
+            LOGGER.warning("Bad location");
+        }
     }
 
     /**
@@ -649,7 +1421,8 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      */
     public void printUser(User user, boolean action, boolean ignore) {
         String userName = user.toString();
-        if (styles.showUsericons() && !ignore) {
+        if (styles.showUsericons() && main.loadShedding.showUsericons()
+                && !ignore) {
             printUserIcons(user);
             userName = user.getDisplayNick();
         }
@@ -739,8 +1512,8 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         }
         
         // Output addon usericons (if there are any)
-        java.util.List<MutableAttributeSet> addonIcons = styles.getAddonIconStyles(user);
-        for (MutableAttributeSet style : addonIcons) {
+        java.util.List<AttributeSet> addonIcons = styles.getAddonIconStyles(user);
+        for (AttributeSet style : addonIcons) {
             print("*", style);
         }
     }
@@ -749,11 +1522,16 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      * Removes some chat lines from the top, depending on the current
      * scroll position.
      */
-    private void clearSomeChat() {
+    private void clearSomeChat(int newLines) {
         int count = doc.getDefaultRootElement().getElementCount();
         int max = styles.bufferSize();
-        if (count > max || ( count > max*0.75 && scrollManager.isScrollpositionAtTheEnd() )) {
-            removeFirstLines(2);
+        if (count + newLines > max || ( count > max*0.75 && scrollManager.isScrollpositionAtTheEnd() )) {
+            // Two lines for every new one, but at least as many as necessary
+            // to stay within the buffer size
+            int amount = Math.min(count - 1, Math.max(newLines*2, count + newLines - max));
+            if (amount > 0) {
+                removeLines(amount);
+            }
         }
         //if (doc.getDefaultRootElement().getElementCount() > 500) {
         //    removeFirstLine();
@@ -766,21 +1544,57 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
      * @param amount 
      */
     public void removeFirstLines(int amount) {
+        insertPending();
+        if (chatView != null) {
+            return;
+        }
         if (amount < 1) {
             amount = 1;
         }
-        Element firstToRemove = doc.getDefaultRootElement().getElement(0);
-        Element lastToRemove = doc.getDefaultRootElement().getElement(amount - 1);
+        removeLines(amount);
+    }
+    
+    private void removeLines(int amount) {
+        Element root = doc.getDefaultRootElement();
+        Element firstToRemove = root.getElement(0);
+        Element lastToRemove = root.getElement(amount - 1);
         int startOffset = firstToRemove.getStartOffset();
         int endOffset = lastToRemove.getEndOffset();
+        for (int i = 0; i < amount; i++) {
+            removeLineFromIndex(root.getElement(i), null);
+        }
+        firstLineId += amount;
+        searchIndex.removeUpTo(firstLineId - 1);
+        Element next = root.getElement(amount);
         try {
             doc.remove(startOffset,endOffset);
         } catch (BadLocationException ex) {
             Logger.getLogger(ChannelTextPane.class.getName()).log(Level.SEVERE, null, ex);
         }
+        // The line that is now first may have been replaced by a new element
+        Element first = root.getElement(0);
+        if (next != null && first != next) {
+            removeLineFromIndex(next, first);
+        }
+        removeOldLoadingEmotes();
    }
     
     public void clearAll() {
+        insertPending();
+        lastSearchId = -1;
+        repeats.clear();
+        combinedRepeats.clear();
+        repeatsByUser.clear();
+        if (chatView != null) {
+            chatView.clear();
+            return;
+        }
+        userLines.clear();
+        banMessageLines.clear();
+        firstLineId += doc.getDefaultRootElement().getElementCount();
+        searchIndex.clear();
+        loadingEmotes.clear();
+        loadedEmotes.clear();
         try {
             doc.remove(0, doc.getLength());
         } catch (BadLocationException ex) {
@@ -889,164 +1703,51 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
     /**
      * Print special stuff in the text like links and emoticons differently.
      * 
-     * First a map of all special stuff that can be found in the text is built,
-     * in a way that stuff doesn't overlap with previously found stuff.
-     * 
-     * Then all the special stuff in this map is printed accordingly, while
-     * printing the stuff inbetween with regular style.
-     * 
      * @param text 
      * @param user 
      * @param style 
      */
-    protected void printSpecials(String text, User user, MutableAttributeSet style) {
-        // Where stuff was found
-        TreeMap<Integer,Integer> ranges = new TreeMap<>();
-        // The style of the stuff (basicially metadata)
-        HashMap<Integer,MutableAttributeSet> rangesStyle = new HashMap<>();
-        
-        findLinks(text, ranges, rangesStyle);
-        
-        if (styles.showEmoticons()) {
-            findEmoticons(text, user, ranges, rangesStyle);
-        }
-        
-        // Actually print everything
+    protected void printSpecials(String text, User user, AttributeSet style) {
+        printSpecials(text, MessageSpecials.find(text, user,
+                styles.showEmoticons() ? main.emoticons : null), style);
+    }
+    
+    /**
+     * Print special stuff in the text like links and emoticons differently,
+     * while printing the stuff inbetween with regular style.
+     * 
+     * @param text
+     * @param specials The links and emoticons that were found in the text
+     * @param style 
+     */
+    protected void printSpecials(String text, MessageSpecials specials,
+            AttributeSet style) {
         int lastPrintedPos = 0;
-        Iterator<Entry<Integer, Integer>> rangesIt = ranges.entrySet().iterator();
-        while (rangesIt.hasNext()) {
-            Entry<Integer, Integer> range = rangesIt.next();
-            int start = range.getKey();
-            int end = range.getValue();
-            if (start > lastPrintedPos) {
+        for (MessageSpecials.Special special : specials.get()) {
+            AttributeSet specialStyle;
+            if (special.url != null) {
+                specialStyle = styles.url(special.url);
+            } else if (styles.showEmoticons() && main.loadShedding.showEmotes()
+                    && special.emoticon.getIcon(this) != null) {
+                // The same style for every occurence, text with an icon is
+                // never combined with the text before, so several of the same
+                // emote in a row are still shown separately
+                specialStyle = styles.emoticon(special.emoticon);
+            } else {
+                continue;
+            }
+            if (special.start > lastPrintedPos) {
                 // If there is anything between the special stuff, print that
                 // first as regular text
-                print(text.substring(lastPrintedPos, start), style);
+                print(text.substring(lastPrintedPos, special.start), style);
             }
-            print(text.substring(start, end + 1),rangesStyle.get(start));
-            lastPrintedPos = end + 1;
+            print(text.substring(special.start, special.end), specialStyle);
+            lastPrintedPos = special.end;
         }
         // If anything is left, print that as well as regular text
         if (lastPrintedPos < text.length()) {
             print(text.substring(lastPrintedPos), style);
         }
-        
-    }
-    
-    private void findLinks(String text, Map<Integer, Integer> ranges,
-            Map<Integer, MutableAttributeSet> rangesStyle) {
-        // Find links
-        urlMatcher.reset(text);
-        while (urlMatcher.find()) {
-            int start = urlMatcher.start();
-            int end = urlMatcher.end() - 1;
-            if (!inRanges(start, ranges) && !inRanges(end,ranges)) {
-                String foundUrl = urlMatcher.group();
-                if (checkUrl(foundUrl)) {
-                    ranges.put(start, end);
-                    rangesStyle.put(start, styles.url(foundUrl));
-                }
-            }
-        }
-    }
-    
-    
-    private void findEmoticons(String text, User user, Map<Integer, Integer> ranges,
-            Map<Integer, MutableAttributeSet> rangesStyle) {
-        
-        // Emoteset based
-        for (Integer set : user.getEmoteSet()) {
-            HashSet<Emoticon> emoticons = main.emoticons.getEmoticons(set);
-            findEmoticons(emoticons, text, ranges, rangesStyle);
-        }
-        
-        // Global emotes
-        HashSet<Emoticon> emoticons = main.emoticons.getEmoticons();
-        findEmoticons(emoticons, text, ranges, rangesStyle);
-        
-//        HashSet<Emoticon> otherEmoticons = main.emoticons.getEmoticons(null);
-//        findEmoticons(otherEmoticons, text, ranges, rangesStyle);
-        
-        // Channel based (may also have a emoteset restriction)
-        HashSet<Emoticon> channelEmotes = main.emoticons.getEmoticons(user.getStream());
-        findEmoticons(user, channelEmotes, text, ranges, rangesStyle);
-        
-//        StreamInfo streamInfo = main.getStreamInfo(user.getStream());
-//        System.out.println(streamInfo);
-    }
-    
-    private void findEmoticons(HashSet<Emoticon> emoticons, String text,
-            Map<Integer, Integer> ranges, Map<Integer, MutableAttributeSet> rangesStyle) {
-        findEmoticons(null, emoticons, text, ranges, rangesStyle);
-    }
-    
-    private void findEmoticons(User user, HashSet<Emoticon> emoticons, String text,
-            Map<Integer, Integer> ranges, Map<Integer, MutableAttributeSet> rangesStyle) {
-        // Find emoticons
-        Iterator<Emoticon> it = emoticons.iterator();
-        while (it.hasNext()) {
-            // Check the text for every single emoticon
-            Emoticon emoticon = it.next();
-            if (!emoticon.matchesUser(user)) {
-                continue;
-            }
-            if (main.emoticons.isEmoteIgnored(emoticon)) {
-                continue;
-            }
-            Matcher m = emoticon.getMatcher(text);
-            while (m.find()) {
-                // As long as this emoticon is still found in the text, add
-                // it's position (if it doesn't overlap with something already
-                // found) and move on
-                int start = m.start();
-                int end = m.end() - 1;
-                if (!inRanges(start, ranges) && !inRanges(end, ranges)) {
-                    if (emoticon.getIcon(this) != null) {
-                        ranges.put(start, end);
-                        MutableAttributeSet attr = styles.emoticon(emoticon);
-                        // Add an extra attribute, making this Style unique
-                        // (else only one icon will be output if two of the same
-                        // follow in a row)
-                        attr.addAttribute("start", start);
-                        rangesStyle.put(start,attr);
-                    }
-                }
-            }
-        }
-    }
-    
-    /**
-     * Checks if the given integer is within the range of any of the key=value
-     * pairs of the Map (inclusive).
-     * 
-     * @param i
-     * @param ranges
-     * @return 
-     */
-    private boolean inRanges(int i, Map<Integer,Integer> ranges) {
-        Iterator<Entry<Integer, Integer>> rangesIt = ranges.entrySet().iterator();
-        while (rangesIt.hasNext()) {
-            Entry<Integer, Integer> range = rangesIt.next();
-            if (i >= range.getKey() && i <= range.getValue()) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Checks if the Url can be later used as a URI.
-     * 
-     * @param uriToCheck
-     * @return 
-     */
-    private boolean checkUrl(String uriToCheck) {
-        try {
-            new URI(uriToCheck);
-        } catch (URISyntaxException ex) {
-            return false;
-        }
-        return true;
     }
     
     /**
@@ -1058,32 +1759,93 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
     }
 
     /**
-     * Prints the given text in the given style. Runs the function that actually
-     * adds the text in the Event Dispatch Thread.
+     * Prints the given text in the given style. Should only be called from the
+     * Event Dispatch Thread.
+     * 
+     * The text is only collected at first and inserted into the document
+     * together with everything else printed in the meantime once the current
+     * event is done, so several messages printed in a row only change the
+     * document and scroll once.
      * 
      * @param text
      * @param style 
      */
     public void print(final String text,final AttributeSet style) {
-        try {
-            String newline = "";
+        if (chatView != null) {
+            if (newlineRequired) {
+                chatView.addPendingLinebreak();
+                newlineRequired = false;
+            }
+            chatView.addPendingText(text, style);
+        } else {
+            MyDocument document = (MyDocument)doc;
             if (newlineRequired) {
-                newline = "\n";
+                document.addPendingLinebreak(style, styles.paragraph());
                 newlineRequired = false;
-                clearSomeChat();
+                pendingLines++;
             }
-            doc.insertString(doc.getLength(), newline+text, style);
+            document.addPendingText(text, style);
+        }
+        if (!insertScheduled) {
+            insertScheduled = true;
+            SwingUtilities.invokeLater(insertPendingTask);
+        }
+    }
+    
+    /**
+     * Inserts all printed text that hasn't been inserted yet into the
+     * document. This should be called before anything that accesses the
+     * document, so it's up-to-date.
+     */
+    protected void insertPending() {
+        insertScheduled = false;
+        if (chatView != null) {
+            if (chatView.hasPending()) {
+                chatView.insertPending();
+                scrollDownIfNecessary();
+                messagesInserted();
+            }
+            return;
+        }
+        MyDocument document = (MyDocument)doc;
+        if (!document.hasPending()) {
+            return;
+        }
+        clearSomeChat(pendingLines);
+        pendingLines = 0;
+        Element root = doc.getDefaultRootElement();
+        // The last line may be continued by the inserted text
+        int firstChanged = root.getElementCount() - 1;
+        try {
             // TODO: check how this works
             doc.setParagraphAttributes(doc.getLength(), 1, styles.paragraph(), true);
-            scrollDownIfNecessary();
+            document.insertPending();
+            doc.setParagraphAttributes(doc.getLength(), 1, styles.paragraph(), true);
         } catch (BadLocationException e) {
             System.err.println("BadLocationException");
         }
+        addLinesToIndex(Math.max(0, firstChanged), root.getElementCount() - 1);
+        addLinesToSearchIndex(Math.max(0, firstChanged), root.getElementCount() - 1);
+        addLoadingEmotes(Math.max(0, firstChanged), root.getElementCount() - 1);
+        scrollDownIfNecessary();
+        messagesInserted();
+    }
+    
+    /**
+     * Informs the listener about the messages that were just inserted.
+     */
+    private void messagesInserted() {
+        if (messageListener != null) {
+            for (User user : pendingMessages) {
+                messageListener.messageInserted(user);
+            }
+        }
+        pendingMessages.clear();
     }
 
     private void scrollDownIfNecessary() {
         if ((scrollManager.isScrollpositionAtTheEnd() || scrollManager.scrolledUpTimeout())
-                && lastSearchPos == null) {
+                && lastSearchId == -1) {
             //if (false) {
             scrollManager.scrollDown();
             SwingUtilities.invokeLater(new Runnable() {
@@ -1120,6 +1882,7 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
     }
     
     public void refreshStyles() {
+        insertPending();
         styles.refresh();
     }
 
@@ -1164,11 +1927,22 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         private int width;
         private int height;
         
+        private ChatView chatView;
+        
         public void setScrollPane(JScrollPane pane) {
             this.scrollpane = pane;
             addListeners();
         }
         
+        /**
+         * Use the ChatView instead of the scrollpane.
+         * 
+         * @param chatView 
+         */
+        public void setChatView(ChatView chatView) {
+            this.chatView = chatView;
+        }
+        
         private void addListeners() {
             
             // Listener to detect when the scrollpane was reduced in size, so
@@ -1209,6 +1983,9 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
          * @return true if scroll position is at the end, false otherwise
          */
         private boolean isScrollpositionAtTheEnd() {
+            if (chatView != null) {
+                return chatView.isAtEnd();
+            }
             JScrollBar vbar = scrollpane.getVerticalScrollBar();
             return vbar.getMaximum() - 20 <= vbar.getValue() + vbar.getVisibleAmount();
         }
@@ -1232,6 +2009,9 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
 //                //System.out.println("changed");
 //                lastScrollPosition = current;
 //            }
+            if (chatView != null) {
+                lastChanged = chatView.getLastScrollChange();
+            }
             long timePassed = System.currentTimeMillis() - lastChanged;
             //System.out.println(timePassed);
             if (timePassed > 1000 * styles.autoScrollTimeout()) {
@@ -1245,6 +2025,10 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
          * Scrolls to the very end of the document.
          */
         private void scrollDown() {
+            if (chatView != null) {
+                chatView.scrollToEnd();
+                return;
+            }
             try {
                 int endPosition = doc.getLength();
                 Rectangle bottom = modelToView(endPosition);
@@ -1320,7 +2104,18 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
          * Icons that have been modified for use and saved into a style. Should
          * only be done once per icon.
          */
-        private final HashMap<ImageIcon, MutableAttributeSet> savedIcons = new HashMap<>();
+        private final HashMap<ImageIcon, AttributeSet> savedIcons = new HashMap<>();
+        
+        /**
+         * Shares the created styles, so they aren't copied for every message.
+         */
+        private final AttributePool pool = AttributePool.getDefault();
+        
+        /**
+         * The styles for emotes, so the same style can be used for every
+         * occurence of an emote.
+         */
+        private final HashMap<Emoticon, AttributeSet> emoteStyles = new HashMap<>();
         
         /**
          * Creates a new ImageIcon based on the given ImageIcon that has a small
@@ -1349,6 +2144,7 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
          */
         public boolean setStyles() {
             changedStyles.clear();
+            emoteStyles.clear();
             boolean somethingChanged = false;
             for (String styleName : baseStyles) {
                 if (loadStyle(styleName)) {
@@ -1391,9 +2187,24 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
             // Load other stuff from the StyleServer
             setSettings();
             
+            if (chatView != null) {
+                setChatViewStyles();
+            }
+            
             return somethingChanged;
         }
         
+        /**
+         * Sets the styles that the ChatView doesn't get from the text
+         * attributes.
+         */
+        public void setChatViewStyles() {
+            chatView.setBackground(getBackground());
+            chatView.setLineSpacing(StyleConstants.getLineSpacing(paragraph()));
+            chatView.setSearchResultColor(styleServer.getColor("searchResult"));
+            chatView.setCapacity(bufferSize());
+        }
+        
         /**
          * Loads some settings from the StyleServer.
          */
@@ -1407,8 +2218,10 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
             addSetting(Setting.ACTION_COLORED, false);
             addSetting(Setting.COMBINE_BAN_MESSAGES, true);
             addNumericSetting(Setting.DELETED_MESSAGES_MODE, 30, -1, 9999999);
-            addNumericSetting(Setting.BUFFER_SIZE, 250, BUFFER_SIZE_MIN, BUFFER_SIZE_MAX);
+            addSetting(Setting.CHAT_VIEW, false);
+            addNumericSetting(Setting.BUFFER_SIZE, 250, BUFFER_SIZE_MIN, CHAT_VIEW_BUFFER_SIZE_MAX);
             addNumericSetting(Setting.AUTO_SCROLL_TIME, 30, 5, 1234);
+            addNumericSetting(Setting.COMBINE_REPEATED_TIME, 0, 0, 3600);
             timestampFormat = styleServer.getTimestampFormat();
         }
         
@@ -1478,6 +2291,26 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
             }
 
             LOGGER.info("Update styles (only types "+changedStyles+")");
+            if (chatView != null) {
+                chatView.changeAttributes(new ChatLine.AttributeChanger() {
+
+                    @Override
+                    public AttributeSet change(AttributeSet attributes) {
+                        String type = (String)attributes.getAttribute(TYPE);
+                        if (type == null) {
+                            type = "base";
+                        }
+                        if (!changedStyles.contains(type) || type.equals("paragraph")) {
+                            return null;
+                        }
+                        SimpleAttributeSet changed = new SimpleAttributeSet(attributes);
+                        changed.addAttributes(styles.get(type));
+                        return changed;
+                    }
+                });
+                chatView.scrollToEnd();
+                return;
+            }
             Element root = doc.getDefaultRootElement();
             for (int i = 0; i < root.getElementCount(); i++) {
                 Element line = root.getElement(i);
@@ -1524,11 +2357,11 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
             return styles.get("special");
         }
         
-        public MutableAttributeSet standard(Color color) {
+        public AttributeSet standard(Color color) {
             if (color != null) {
                 SimpleAttributeSet specialColor = new SimpleAttributeSet(standard());
                 StyleConstants.setForeground(specialColor, color);
-                return specialColor;
+                return pool.intern(specialColor);
             }
             return standard();
         }
@@ -1550,6 +2383,12 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
             return style;
         }
         
+        public MutableAttributeSet repeatCount(int count) {
+            MutableAttributeSet style = new SimpleAttributeSet(info());
+            style.addAttribute(Attribute.REPEAT_COUNT, count);
+            return style;
+        }
+        
         public MutableAttributeSet nick() {
             return styles.get("nick");
         }
@@ -1566,11 +2405,11 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
             return styles.get("paragrahp");
         }
         
-        public MutableAttributeSet highlight(Color color) {
+        public AttributeSet highlight(Color color) {
             if (color != null) {
                 SimpleAttributeSet specialColor = new SimpleAttributeSet(highlight());
                 StyleConstants.setForeground(specialColor, color);
-                return specialColor;
+                return pool.intern(specialColor);
             }
             return highlight();
         }
@@ -1591,10 +2430,15 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
          * Makes a style for the given User, containing the User-object itself
          * and the user-color. Changes the color to hopefully improve readability.
          * 
+         * The returned style is shared, so all messages of the user with the
+         * same color use the same style.
+         * 
          * @param user The User-object to base this style on
+         * @param style The style to base this on, or null to use the nick
+         * style with the user color
          * @return 
          */
-        public MutableAttributeSet nick(User user, MutableAttributeSet style) {
+        public AttributeSet nick(User user, AttributeSet style) {
             SimpleAttributeSet userStyle;
             if (style == null) {
                 userStyle = new SimpleAttributeSet(nick());
@@ -1610,23 +2454,23 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
                 userStyle = new SimpleAttributeSet(style);
             }
             userStyle.addAttribute(Attribute.USER, user);
-            return userStyle;
+            return pool.intern(userStyle);
         }
         
         public MutableAttributeSet subscriberIcon() {
             return styles.get("subscriber");
         }
         
-        public java.util.List<MutableAttributeSet> getAddonIconStyles(User user) {
+        public java.util.List<AttributeSet> getAddonIconStyles(User user) {
             java.util.List<ImageIcon> icons = user.getAddonIcons();
-            java.util.List<MutableAttributeSet> iconStyles = new ArrayList<>();
+            java.util.List<AttributeSet> iconStyles = new ArrayList<>();
             for (ImageIcon icon : icons) {
                 iconStyles.add(makeIconStyle(icon));
             }
             return iconStyles;
         }
         
-        public MutableAttributeSet getIconStyle(User user, int type) {
+        public AttributeSet getIconStyle(User user, int type) {
             return makeIconStyle(user.getIcon(type));
         }
         
@@ -1639,14 +2483,15 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
          * @param icon
          * @return The created style (or read from the cache)
          */
-        public MutableAttributeSet makeIconStyle(ImageIcon icon) {
-            MutableAttributeSet style = savedIcons.get(icon);
+        public AttributeSet makeIconStyle(ImageIcon icon) {
+            AttributeSet style = savedIcons.get(icon);
             if (style == null) {
                 //System.out.println("Creating icon style: "+icon);
-                style = new SimpleAttributeSet(nick());
+                SimpleAttributeSet iconStyle = new SimpleAttributeSet(nick());
                 if (icon != null) {
-                    StyleConstants.setIcon(style, addSpaceToIcon(icon));
+                    StyleConstants.setIcon(iconStyle, addSpaceToIcon(icon));
                 }
+                style = pool.intern(iconStyle);
                 savedIcons.put(icon, style);
             }
             return style;
@@ -1672,6 +2517,16 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
             return settings.get(Setting.COMBINE_BAN_MESSAGES);
         }
         
+        /**
+         * The time in seconds within which repeated messages are combined, 0
+         * if they aren't combined.
+         * 
+         * @return 
+         */
+        public int combineRepeatedTime() {
+            return numericSettings.get(Setting.COMBINE_REPEATED_TIME);
+        }
+        
         public boolean autoScroll() {
             return settings.get(Setting.AUTO_SCROLL);
         }
@@ -1698,28 +2553,34 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
          * @param url
          * @return 
          */
-        public MutableAttributeSet url(String url) {
+        public AttributeSet url(String url) {
             SimpleAttributeSet urlStyle = new SimpleAttributeSet(standard());
             StyleConstants.setUnderline(urlStyle, true);
             urlStyle.addAttribute(HTML.Attribute.HREF, url);
-            return urlStyle;
+            return pool.intern(urlStyle);
         }
         
         /**
-         * Make a style with the given icon.
+         * Make a style with the icon of the given emote. The same style is
+         * returned for every occurence of the emote.
          * 
-         * @param icon
+         * @param emoticon
          * @return 
          */
-        public MutableAttributeSet emoticon(Emoticon emoticon) {
-            // Does this need any other attributes e.g. standard?
-            SimpleAttributeSet emoteStyle = new SimpleAttributeSet();
-            StyleConstants.setIcon(emoteStyle, emoticon.getIcon(ChannelTextPane.this));
-            emoteStyle.addAttribute(Attribute.EMOTICON, emoticon);
+        public AttributeSet emoticon(Emoticon emoticon) {
+            AttributeSet style = emoteStyles.get(emoticon);
+            if (style == null || StyleConstants.getIcon(style) != emoticon.getIcon(ChannelTextPane.this)) {
+                // Does this need any other attributes e.g. standard?
+                SimpleAttributeSet emoteStyle = new SimpleAttributeSet();
+                StyleConstants.setIcon(emoteStyle, emoticon.getIcon(ChannelTextPane.this));
+                emoteStyle.addAttribute(Attribute.EMOTICON, emoticon);
+                style = pool.intern(emoteStyle);
+                emoteStyles.put(emoticon, style);
+            }
             if (!emoticon.hasStreamSet()) {
                 emoticon.setStream(main.emoticons.getStreamFromEmoteset(emoticon.emoteSet));
             }
-            return emoteStyle;
+            return style;
         }
         
         public SimpleDateFormat timestampFormat() {
@@ -1727,39 +2588,21 @@ public class ChannelTextPane extends JTextPane implements LinkListener, Emoticon
         }
         
         public int bufferSize() {
-            return (int)numericSettings.get(Setting.BUFFER_SIZE);
+            int bufferSize = numericSettings.get(Setting.BUFFER_SIZE);
+            if (chatView == null) {
+                return Math.min(bufferSize, BUFFER_SIZE_MAX);
+            }
+            return bufferSize;
+        }
+        
+        public boolean chatView() {
+            return settings.get(Setting.CHAT_VIEW);
         }
     }
     
     
 }
 
-/**
- * Adds a way to refresh the (whole) document.
- * 
- * This is currently used to display Icons after they are fully loaded, although
- * there should be a better way to do this.
- * 
- * @author tduva
- */
-class MyDocument extends DefaultStyledDocument {
-    
-    public void refresh() {
-        refresh(0, getLength());
-    }
-    
-    public void refresh(int offset, int len) {
-        DefaultDocumentEvent changes = new DefaultDocumentEvent(offset,len, DocumentEvent.EventType.CHANGE);
-        Element root = getDefaultRootElement();
-        Element[] removed = new Element[0];
-        Element[] added = new Element[0];
-        changes.addEdit(new ElementEdit(root, 0, removed, added));
-        changes.end();
-        fireChangedUpdate(changes);
-    }
-
-}
-
 /**
  * Replaces some Views by custom ones to change display behaviour.
  * 
@@ -2097,7 +2940,7 @@ class LinkController extends MouseAdapter implements MouseMotionListener {
     @Override
     public void mouseMoved(MouseEvent e) {
         
-        JTextPane text = (JTextPane)e.getSource();
+        JComponent text = (JComponent)e.getSource();
         
         String url = getUrl(e);
         if ((url != null && !isUrlDeleted(e)) || getUser(e) != null) {
@@ -2164,6 +3007,9 @@ class LinkController extends MouseAdapter implements MouseMotionListener {
      *          pointing at an element
      */
     private AttributeSet getAttributes(MouseEvent e) {
+        if (e.getSource() instanceof ChatView) {
+            return ((ChatView)e.getSource()).getAttributesAt(e.getPoint());
+        }
         JTextPane text = (JTextPane)e.getSource();
         Point mouseLocation = new Point(e.getX(), e.getY());
         int pos = text.viewToModel(mouseLocation);
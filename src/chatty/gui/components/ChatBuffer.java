@@ -0,0 +1,285 @@
+
+package chatty.gui.components;
+
+import chatty.User;
+import chatty.util.SearchIndex;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores a fixed maximum number of lines in a ring buffer, removing the
+ * oldest line when a new one is added and the buffer is full.
+ *
+ * <p>
+ * Each line gets an id, which increases with every added line and stays the
+ * same when the line is replaced, so the lines can be referred to while old
+ * lines are removed. The lines are also indexed by the user they are from and
+ * for searching.
+ * </p>
+ *
+ * <p>
+ * This is not thread-safe, so it should only be used from the EDT.
+ * </p>
+ *
+ * @author tduva
+ */
+public class ChatBuffer {
+
+    private ChatLine[] lines;
+
+    /**
+     * The position of the oldest line in the array.
+     */
+    private int head;
+
+    private int count;
+
+    /**
+     * The id of the oldest line.
+     */
+    private long firstId;
+
+    /**
+     * The ids of the lines of each user, oldest first.
+     */
+    private final Map<User, ArrayDeque<Long>> userLines = new HashMap<>();
+
+    /**
+     * The id of the most recent ban message line for each user.
+     */
+    private final Map<User, Long> banMessages = new HashMap<>();
+
+    private final SearchIndex searchIndex = new SearchIndex();
+
+    public ChatBuffer(int capacity) {
+        lines = new ChatLine[Math.max(1, capacity)];
+    }
+
+    public int getCapacity() {
+        return lines.length;
+    }
+
+    /**
+     * Changes the maximum number of lines, removing the oldest lines if there
+     * are too many.
+     *
+     * @param capacity
+     */
+    public void setCapacity(int capacity) {
+        capacity = Math.max(1, capacity);
+        if (capacity == lines.length) {
+            return;
+        }
+        while (count > capacity) {
+            removeFirst();
+        }
+        ChatLine[] changed = new ChatLine[capacity];
+        for (int i = 0; i < count; i++) {
+            changed[i] = lines[(head + i) % lines.length];
+        }
+        lines = changed;
+        head = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * The id of the oldest line.
+     *
+     * @return
+     */
+    public long getFirstId() {
+        return firstId;
+    }
+
+    /**
+     * The id of the newest line, or one less than the first id if the buffer
+     * is empty.
+     *
+     * @return
+     */
+    public long getLastId() {
+        return firstId + count - 1;
+    }
+
+    public boolean contains(long id) {
+        return id >= firstId && id < firstId + count;
+    }
+
+    /**
+     * Gets the line with the given id.
+     *
+     * @param id
+     * @return The line, or null if no line with that id is in the buffer
+     */
+    public ChatLine get(long id) {
+        if (!contains(id)) {
+            return null;
+        }
+        return lines[index(id)];
+    }
+
+    private int index(long id) {
+        return (int)((head + (id - firstId)) % lines.length);
+    }
+
+    /**
+     * Adds a line, removing the oldest line if the buffer is full.
+     *
+     * @param line
+     * @return The id of the added line
+     */
+    public long add(ChatLine line) {
+        if (count == lines.length) {
+            removeFirst();
+        }
+        count++;
+        long id = getLastId();
+        lines[index(id)] = line;
+        addToIndex(id, line);
+        return id;
+    }
+
+    /**
+     * Replaces the line with the given id.
+     *
+     * @param id
+     * @param line
+     */
+    public void replace(long id, ChatLine line) {
+        if (!contains(id)) {
+            return;
+        }
+        ChatLine previous = lines[index(id)];
+        lines[index(id)] = line;
+        if (previous.user != line.user) {
+            removeFromIndex(id, previous);
+            addToIndex(id, line);
+        } else {
+            searchIndex.put(id, line.getText(), getName(line));
+            if (line.getBanMessageUser() != null) {
+                banMessages.put(line.getBanMessageUser(), id);
+            }
+        }
+    }
+
+    private void removeFirst() {
+        ChatLine line = lines[head];
+        removeFromIndex(firstId, line);
+        searchIndex.removeUpTo(firstId);
+        lines[head] = null;
+        head = (head + 1) % lines.length;
+        firstId++;
+        count--;
+    }
+
+    public void clear() {
+        while (count > 0) {
+            removeFirst();
+        }
+        searchIndex.clear();
+    }
+
+    private void addToIndex(long id, ChatLine line) {
+        searchIndex.put(id, line.getText(), getName(line));
+        if (line.user != null) {
+            ArrayDeque<Long> ids = userLines.get(line.user);
+            if (ids == null) {
+                ids = new ArrayDeque<>();
+                userLines.put(line.user, ids);
+            }
+            if (ids.isEmpty() || ids.peekLast() < id) {
+                ids.add(id);
+            }
+        }
+        User bannedUser = line.getBanMessageUser();
+        if (bannedUser != null) {
+            banMessages.put(bannedUser, id);
+        }
+    }
+
+    private void removeFromIndex(long id, ChatLine line) {
+        if (line.user != null) {
+            ArrayDeque<Long> ids = userLines.get(line.user);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    userLines.remove(line.user);
+                }
+            }
+        }
+        User bannedUser = line.getBanMessageUser();
+        if (bannedUser != null) {
+            Long banMessageId = banMessages.get(bannedUser);
+            if (banMessageId != null && banMessageId == id) {
+                banMessages.remove(bannedUser);
+            }
+        }
+    }
+
+    private static String getName(ChatLine line) {
+        return line.user != null ? line.user.nick : null;
+    }
+
+    /**
+     * Finds the next line matching the query.
+     *
+     * @param query What to search for
+     * @param from The id of the line to start after, or -1 to start at the
+     * newest (when searching older lines) or oldest line
+     * @param older true to search older lines, false to search newer lines
+     * @return The id of the found line, or -1 if none was found
+     */
+    public long search(SearchIndex.Query query, long from, boolean older) {
+        return searchIndex.find(query, from, older);
+    }
+
+    /**
+     * Gets the ids of all lines from the given user, oldest first.
+     *
+     * @param user
+     * @return
+     */
+    public List<Long> getLines(User user) {
+        ArrayDeque<Long> ids = userLines.get(user);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Gets the id of the most recent line from the given user.
+     *
+     * @param user
+     * @return The id, or -1 if there is no line from that user
+     */
+    public long getLastLine(User user) {
+        ArrayDeque<Long> ids = userLines.get(user);
+        if (ids == null) {
+            return -1;
+        }
+        return ids.peekLast();
+    }
+
+    /**
+     * Gets the id of the most recent ban message for the given user.
+     *
+     * @param user
+     * @return The id, or -1 if there is no ban message for that user
+     */
+    public long getBanMessage(User user) {
+        Long id = banMessages.get(user);
+        return id != null ? id : -1;
+    }
+
+}
@@ -0,0 +1,339 @@
+
+package chatty.gui.components;
+
+import chatty.User;
+import chatty.gui.components.ChannelTextPane.Attribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+
+/**
+ * A single line of chat, as shown in a {@link ChatView}. Consists of spans of
+ * text with the same attributes (the same attributes that would be used for
+ * the text in the document).
+ *
+ * <p>
+ * Lines are immutable, so changing a line means creating a new one which
+ * replaces the old one.
+ * </p>
+ *
+ * @author tduva
+ */
+public class ChatLine {
+
+    /**
+     * How many spans at the start of the line are checked for the user the
+     * message is from.
+     */
+    private static final int MAX_USER_SPAN = 10;
+
+    /**
+     * When the line was created.
+     */
+    public final long time;
+
+    /**
+     * The user this line is a message from, or null if it's not a message.
+     */
+    public final User user;
+
+    /**
+     * Whether the message of this line has been deleted or crossed out.
+     */
+    public final boolean deleted;
+
+    private final Span[] spans;
+    private String text;
+
+    public ChatLine(long time, List<Span> spans) {
+        this(time, spans.toArray(new Span[spans.size()]), false);
+    }
+
+    private ChatLine(long time, Span[] spans, boolean deleted) {
+        this.time = time;
+        this.spans = spans;
+        this.deleted = deleted;
+        this.user = findUser(spans);
+    }
+
+    /**
+     * Finds the user of a message, which is the User object in the first span
+     * that is marked as the name of a message.
+     *
+     * @param spans
+     * @return The User, or null if this isn't a message
+     */
+    private static User findUser(Span[] spans) {
+        for (int i = 0; i < spans.length && i < MAX_USER_SPAN; i++) {
+            AttributeSet attributes = spans[i].attributes;
+            if (attributes.getAttribute(Attribute.USER_MESSAGE) == Boolean.TRUE) {
+                return (User)attributes.getAttribute(Attribute.USER);
+            }
+        }
+        return null;
+    }
+
+    public int getSpanCount() {
+        return spans.length;
+    }
+
+    public Span getSpan(int index) {
+        return spans[index];
+    }
+
+    /**
+     * Gets the text of the whole line.
+     *
+     * @return
+     */
+    public String getText() {
+        if (text == null) {
+            StringBuilder b = new StringBuilder();
+            for (Span span : spans) {
+                b.append(span.text);
+            }
+            text = b.toString();
+        }
+        return text;
+    }
+
+    /**
+     * Gets the user this line is a ban message for.
+     *
+     * @return The User, or null if this is not a ban message
+     */
+    public User getBanMessageUser() {
+        if (spans.length > 0) {
+            return (User)spans[0].attributes.getAttribute(Attribute.BAN_MESSAGE);
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new line with the given spans appended.
+     *
+     * @param added
+     * @return
+     */
+    public ChatLine append(List<Span> added) {
+        List<Span> result = new ArrayList<>(Arrays.asList(spans));
+        for (Span span : added) {
+            addSpan(result, span);
+        }
+        return new ChatLine(time, result.toArray(new Span[result.size()]), deleted);
+    }
+
+    /**
+     * Adds the span to the list, combining it with the last one if they have
+     * the same attributes (unless it contains an icon, which would then only
+     * be shown once).
+     *
+     * @param spans
+     * @param span
+     */
+    public static void addSpan(List<Span> spans, Span span) {
+        if (!spans.isEmpty() && !AttributePool.isIcon(span.attributes)) {
+            Span last = spans.get(spans.size() - 1);
+            if (last.attributes.isEqual(span.attributes)) {
+                spans.set(spans.size() - 1, new Span(last.text+span.text, last.attributes));
+                return;
+            }
+        }
+        spans.add(span);
+    }
+
+    /**
+     * Gets the index of the first span of the message, which is right after
+     * the name.
+     *
+     * @return The index, or -1 if this line doesn't contain a message
+     */
+    private int getMessageStart() {
+        int start = 0;
+        for (int i = 0; i < spans.length; i++) {
+            if (spans[i].attributes.isDefined(Attribute.USER)) {
+                start = i + 1;
+            }
+        }
+        if (start > 0 && start < spans.length) {
+            return start;
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a new line with the message replaced by the given text.
+     *
+     * @param replacement The text to replace the message with
+     * @param attributes The attributes of the replacement text
+     * @return The new line, or null if this line doesn't contain a message
+     */
+    public ChatLine deleteMessage(String replacement, AttributeSet attributes) {
+        int start = getMessageStart();
+        if (start == -1) {
+            return null;
+        }
+        Span[] result = Arrays.copyOf(spans, start + 1);
+        result[start] = new Span(replacement, attributes);
+        return new ChatLine(time, result, true);
+    }
+
+    /**
+     * Creates a new line with the given attributes added to all text, and
+     * optionally the message shortened.
+     *
+     * @param deletedAttributes The attributes to add (e.g. strike through)
+     * @param maxLength The maximum number of characters to shorten the
+     * message to. If maxLength <= 0 then it is not shortened.
+     * @param shortenedAttributes The attributes of the text added to show
+     * that the message was shortened
+     * @return The new line, or null if this line doesn't contain a message
+     */
+    public ChatLine strikeThrough(AttributeSet deletedAttributes, int maxLength,
+            AttributeSet shortenedAttributes) {
+        int start = getMessageStart();
+        if (start == -1) {
+            return null;
+        }
+        List<Span> result = new ArrayList<>();
+        int messageLength = 0;
+        boolean shortened = false;
+        for (int i = 0; i < spans.length; i++) {
+            Span span = spans[i];
+            if (i >= start && maxLength > 0) {
+                if (messageLength + span.text.length() > maxLength) {
+                    span = new Span(span.text.substring(0, maxLength - messageLength),
+                            span.attributes);
+                    shortened = true;
+                }
+                messageLength += span.text.length();
+            }
+            if (!span.text.isEmpty()) {
+                SimpleAttributeSet attributes = new SimpleAttributeSet(span.attributes);
+                attributes.addAttributes(deletedAttributes);
+                addSpan(result, new Span(span.text, attributes));
+            }
+            if (shortened) {
+                addSpan(result, new Span("..", shortenedAttributes));
+                break;
+            }
+        }
+        return new ChatLine(time, result.toArray(new Span[result.size()]), true);
+    }
+
+    /**
+     * Creates a new line with the count of a ban message set to the given
+     * number, replacing a previous count if present.
+     *
+     * @param count The count
+     * @param attributes The attributes of the count text
+     * @return The new line
+     */
+    public ChatLine setBanMessageCount(int count, AttributeSet attributes) {
+        return setEnd(Attribute.BAN_MESSAGE_COUNT, " ("+count+")", attributes);
+    }
+
+    /**
+     * Creates a new line with the info about how often the message was
+     * repeated set to the given text, replacing previous info if present.
+     *
+     * @param info The text to add at the end of the line, empty to just
+     * remove the previous info
+     * @param attributes The attributes of the text, containing
+     * {@link Attribute#REPEAT_COUNT}
+     * @return The new line
+     */
+    public ChatLine setRepeatCount(String info, AttributeSet attributes) {
+        return setEnd(Attribute.REPEAT_COUNT, info, attributes);
+    }
+
+    /**
+     * Creates a new line with the spans defining the given key removed and
+     * the given text added at the end.
+     */
+    private ChatLine setEnd(Attribute key, String text, AttributeSet attributes) {
+        List<Span> result = new ArrayList<>();
+        for (Span span : spans) {
+            if (!span.attributes.isDefined(key)) {
+                result.add(span);
+            }
+        }
+        if (!text.isEmpty()) {
+            result.add(new Span(text, attributes));
+        }
+        return new ChatLine(time, result.toArray(new Span[result.size()]), deleted);
+    }
+
+    /**
+     * Gets the count of a ban message.
+     *
+     * @return The count, or 1 if no count was added yet
+     */
+    public int getBanMessageCount() {
+        for (Span span : spans) {
+            Integer count = (Integer)span.attributes.getAttribute(Attribute.BAN_MESSAGE_COUNT);
+            if (count != null) {
+                return count;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Creates a new line with the attributes of some spans changed.
+     *
+     * @param changer Returns the new attributes for a span, or null if it
+     * should stay the same
+     * @return The new line, or this line if nothing was changed
+     */
+    public ChatLine changeAttributes(AttributeChanger changer) {
+        Span[] result = null;
+        for (int i = 0; i < spans.length; i++) {
+            AttributeSet changed = changer.change(spans[i].attributes);
+            if (changed != null) {
+                if (result == null) {
+                    result = Arrays.copyOf(spans, spans.length);
+                }
+                result[i] = new Span(spans[i].text, changed);
+            }
+        }
+        if (result == null) {
+            return this;
+        }
+        return new ChatLine(time, result, deleted);
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    public interface AttributeChanger {
+
+        public AttributeSet change(AttributeSet attributes);
+    }
+
+    /**
+     * A part of a line with the same attributes. The attributes are always
+     * a shared immutable set from the {@link AttributePool}, so the many
+     * lines in the buffer don't each have their own copy.
+     */
+    public static class Span {
+
+        public final String text;
+        public final AttributeSet attributes;
+
+        public Span(String text, AttributeSet attributes) {
+            this.text = text;
+            this.attributes = AttributePool.getDefault().intern(attributes);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+}
@@ -0,0 +1,979 @@
+
+package chatty.gui.components;
+
+import chatty.User;
+import chatty.gui.components.ChatLine.Span;
+import chatty.util.SearchIndex;
+import chatty.util.api.Emoticon;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.AbstractAction;
+import javax.swing.Icon;
+import javax.swing.JComponent;
+import javax.swing.JScrollBar;
+import javax.swing.KeyStroke;
+import javax.swing.UIManager;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.StyleConstants;
+
+/**
+ * Shows chat lines stored in a {@link ChatBuffer}, as an alternative to
+ * showing them in a text pane.
+ *
+ * <p>
+ * Only the lines that are currently visible are layed out and painted, and
+ * the layout of a line is cached until the line or the width changes, so the
+ * cost of adding a line doesn't depend on how many lines are in the buffer.
+ * The scrollbar works with whole lines (the position is the line at the
+ * bottom of the view), so the height of lines that aren't visible doesn't
+ * have to be known.
+ * </p>
+ *
+ * <p>
+ * The text of the lines has the same attributes that would be used in the
+ * document of the text pane, so links, names, emotes, strike through and
+ * colors are taken from those. Text can be selected with the mouse and copied
+ * with Ctrl+C.
+ * </p>
+ *
+ * <p>
+ * This should only be used from the EDT.
+ * </p>
+ *
+ * @author tduva
+ */
+public class ChatView extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Space around the text, in pixels.
+     */
+    private static final int INSET = 3;
+
+    /**
+     * How many line layouts to keep, should be more than can be visible at
+     * once.
+     */
+    private static final int MAX_CACHED_LAYOUTS = 500;
+
+    private final ChatBuffer buffer;
+
+    /**
+     * Text waiting to be added. The first list continues the last line, any
+     * other list is a new line.
+     */
+    private final List<List<Span>> pending = new ArrayList<>();
+
+    private final Map<Long, LineLayout> layouts = new LinkedHashMap<Long, LineLayout>(16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, LineLayout> eldest) {
+            return size() > MAX_CACHED_LAYOUTS;
+        }
+    };
+
+    private final Map<String, Font> fonts = new HashMap<>();
+
+    /**
+     * The lines that were painted the last time, for finding what the mouse
+     * points at.
+     */
+    private final List<PaintedLine> painted = new ArrayList<>();
+
+    private final JScrollBar scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+    private boolean updatingScrollBar;
+
+    /**
+     * Whether the newest line is shown at the bottom (and new lines will be
+     * shown when added).
+     */
+    private boolean following = true;
+
+    /**
+     * The line shown at the bottom, if not following the newest line.
+     */
+    private long anchorId;
+
+    private long lastScrollChange;
+
+    private float lineSpacing;
+
+    private long searchResultId = -1;
+    private Color searchResultColor = Color.YELLOW;
+
+    // Selection, as line id and offset in the text of the line
+    private long selectionStartId = -1;
+    private int selectionStartOffset;
+    private long selectionEndId = -1;
+    private int selectionEndOffset;
+
+    public ChatView(int capacity) {
+        buffer = new ChatBuffer(capacity);
+        setOpaque(true);
+        setFocusable(true);
+        setPreferredSize(new Dimension(0, 0));
+        setMinimumSize(new Dimension(0, 0));
+
+        scrollBar.setUnitIncrement(1);
+        scrollBar.addAdjustmentListener(new AdjustmentListener() {
+
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                if (!updatingScrollBar) {
+                    scrolled(scrollBar.getValue() + scrollBar.getVisibleAmount() - 1);
+                }
+            }
+        });
+
+        MouseAdapter mouseAdapter = new MouseAdapter() {
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                if (e.getButton() == MouseEvent.BUTTON1) {
+                    requestFocusInWindow();
+                    long[] pos = getPosition(e.getPoint());
+                    if (pos != null) {
+                        selectionStartId = pos[0];
+                        selectionStartOffset = (int)pos[1];
+                    } else {
+                        selectionStartId = -1;
+                    }
+                    selectionEndId = -1;
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (selectionStartId == -1) {
+                    return;
+                }
+                // Scroll when dragging outside of the view
+                if (e.getY() < 0) {
+                    scrollBy(-1);
+                } else if (e.getY() > getHeight()) {
+                    scrollBy(1);
+                }
+                long[] pos = getPosition(e.getPoint());
+                if (pos != null) {
+                    selectionEndId = pos[0];
+                    selectionEndOffset = (int)pos[1];
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                scrollBy(e.getUnitsToScroll());
+            }
+        };
+        addMouseListener(mouseAdapter);
+        addMouseMotionListener(mouseAdapter);
+        addMouseWheelListener(mouseAdapter);
+
+        getInputMap().put(KeyStroke.getKeyStroke("control C"), "copy");
+        getActionMap().put("copy", new AbstractAction() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                copySelection();
+            }
+        });
+    }
+
+    /**
+     * The scrollbar for this view, which has to be added next to it.
+     *
+     * @return
+     */
+    public JScrollBar getScrollBar() {
+        return scrollBar;
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity != buffer.getCapacity()) {
+            buffer.setCapacity(capacity);
+            repaint();
+        }
+    }
+
+    /**
+     * Sets the space between rows, as a fraction of the row height.
+     *
+     * @param lineSpacing
+     */
+    public void setLineSpacing(float lineSpacing) {
+        if (lineSpacing != this.lineSpacing) {
+            this.lineSpacing = lineSpacing;
+            invalidateLayouts();
+        }
+    }
+
+    public void setSearchResultColor(Color color) {
+        this.searchResultColor = color;
+    }
+
+    /*
+     * ##############
+     * # Adding text
+     * ##############
+     */
+
+    /**
+     * Adds text to be added to the current line.
+     *
+     * @param text
+     * @param attributes
+     */
+    public void addPendingText(String text, AttributeSet attributes) {
+        if (pending.isEmpty()) {
+            pending.add(new ArrayList<Span>());
+        }
+        ChatLine.addSpan(pending.get(pending.size() - 1),
+                new Span(text, attributes));
+    }
+
+    /**
+     * Starts a new line, any text added afterwards goes into the new line.
+     */
+    public void addPendingLinebreak() {
+        if (pending.isEmpty()) {
+            pending.add(new ArrayList<Span>());
+        }
+        pending.add(new ArrayList<Span>());
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Adds all pending text to the buffer.
+     */
+    public void insertPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < pending.size(); i++) {
+            List<Span> spans = pending.get(i);
+            if (i == 0) {
+                // Continues the last line, or starts the first one
+                if (spans.isEmpty()) {
+                    continue;
+                }
+                if (!buffer.isEmpty()) {
+                    long id = buffer.getLastId();
+                    buffer.replace(id, buffer.get(id).append(spans));
+                    continue;
+                }
+            }
+            buffer.add(new ChatLine(time, spans));
+        }
+        pending.clear();
+        repaint();
+    }
+
+    /*
+     * ####################
+     * # Accessing lines
+     * ####################
+     */
+
+    public ChatLine getLine(long id) {
+        return buffer.get(id);
+    }
+
+    /**
+     * Replaces the line with the given id, if it's still in the buffer.
+     *
+     * @param id
+     * @param line
+     */
+    public void replaceLine(long id, ChatLine line) {
+        if (buffer.contains(id)) {
+            buffer.replace(id, line);
+            repaint();
+        }
+    }
+
+    public List<Long> getLines(User user) {
+        return buffer.getLines(user);
+    }
+
+    public long getLastLine(User user) {
+        return buffer.getLastLine(user);
+    }
+
+    public long getBanMessage(User user) {
+        return buffer.getBanMessage(user);
+    }
+
+    /**
+     * Changes the attributes of all lines.
+     *
+     * @param changer
+     */
+    public void changeAttributes(ChatLine.AttributeChanger changer) {
+        for (long id = buffer.getFirstId(); id <= buffer.getLastId(); id++) {
+            ChatLine line = buffer.get(id);
+            ChatLine changed = line.changeAttributes(changer);
+            if (changed != line) {
+                buffer.replace(id, changed);
+            }
+        }
+        invalidateLayouts();
+    }
+
+    public void clear() {
+        pending.clear();
+        buffer.clear();
+        layouts.clear();
+        searchResultId = -1;
+        selectionStartId = -1;
+        following = true;
+        repaint();
+    }
+
+    /**
+     * Finds the next line matching the query.
+     *
+     * @param query What to search for
+     * @param from The id of the line to start after, or -1 to start at the
+     * newest (when searching older lines) or oldest line
+     * @param older true to search older lines, false to search newer lines
+     * @return The id of the found line, or -1 if none was found
+     */
+    public long search(SearchIndex.Query query, long from, boolean older) {
+        return buffer.search(query, from, older);
+    }
+
+    /**
+     * Sets the line that is shown as search result.
+     *
+     * @param id The id of the line, or -1 to not show any search result
+     */
+    public void setSearchResult(long id) {
+        searchResultId = id;
+        repaint();
+    }
+
+    /**
+     * Removes all layouts, so they are created again the next time they are
+     * needed. This should be done when something that affects the size of
+     * the text or icons changes.
+     */
+    public void invalidateLayouts() {
+        layouts.clear();
+        repaint();
+    }
+
+    /**
+     * Removes the layouts of the lines containing the given emote, for when
+     * the size of its icon changed (e.g. it finished loading). Only repaints
+     * if one of those lines is currently visible.
+     *
+     * @param emote The emote
+     */
+    public void invalidateLayouts(Emoticon emote) {
+        boolean visible = false;
+        Iterator<Map.Entry<Long, LineLayout>> it = layouts.entrySet().iterator();
+        while (it.hasNext()) {
+            LineLayout layout = it.next().getValue();
+            if (containsEmote(layout.line, emote)) {
+                it.remove();
+                for (PaintedLine p : painted) {
+                    if (p.layout == layout) {
+                        visible = true;
+                    }
+                }
+            }
+        }
+        if (visible) {
+            repaint();
+        }
+    }
+
+    private static boolean containsEmote(ChatLine line, Emoticon emote) {
+        for (int i = 0; i < line.getSpanCount(); i++) {
+            if (line.getSpan(i).attributes.getAttribute(ChannelTextPane.Attribute.EMOTICON) == emote) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * ############
+     * # Scrolling
+     * ############
+     */
+
+    /**
+     * Whether the newest line is currently shown at the bottom.
+     *
+     * @return
+     */
+    public boolean isAtEnd() {
+        return following;
+    }
+
+    public void scrollToEnd() {
+        if (!following) {
+            following = true;
+            repaint();
+        }
+    }
+
+    /**
+     * Scrolls so that the line with the given id is shown at the bottom.
+     *
+     * @param id
+     */
+    public void scrollTo(long id) {
+        following = id >= buffer.getLastId();
+        anchorId = id;
+        repaint();
+    }
+
+    /**
+     * When the scroll position was last changed by the user.
+     *
+     * @return
+     */
+    public long getLastScrollChange() {
+        return lastScrollChange;
+    }
+
+    private void scrollBy(int lines) {
+        long current = following ? buffer.getLastId() : anchorId;
+        scrolled((int)(current + lines - buffer.getFirstId()));
+    }
+
+    /**
+     * Changes the scroll position by the user.
+     *
+     * @param bottomIndex The index (not id) of the line to show at the bottom
+     */
+    private void scrolled(int bottomIndex) {
+        lastScrollChange = System.currentTimeMillis();
+        anchorId = buffer.getFirstId() + Math.max(0, bottomIndex);
+        following = anchorId >= buffer.getLastId();
+        repaint();
+    }
+
+    private long getBottomId() {
+        if (following) {
+            return buffer.getLastId();
+        }
+        return Math.max(buffer.getFirstId(), Math.min(anchorId, buffer.getLastId()));
+    }
+
+    private void updateScrollBar(int bottomIndex, int visibleLines) {
+        int extent = Math.max(1, visibleLines);
+        int max = Math.max(buffer.size(), extent);
+        int value = Math.max(0, bottomIndex + 1 - extent);
+        if (scrollBar.getValue() != value || scrollBar.getVisibleAmount() != extent
+                || scrollBar.getMaximum() != max) {
+            updatingScrollBar = true;
+            scrollBar.setValues(value, extent, 0, max);
+            scrollBar.setBlockIncrement(extent);
+            updatingScrollBar = false;
+        }
+    }
+
+    /*
+     * ###########
+     * # Painting
+     * ###########
+     */
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D)g;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        painted.clear();
+        if (buffer.isEmpty()) {
+            updateScrollBar(0, 0);
+            return;
+        }
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        int width = Math.max(1, getWidth() - INSET * 2);
+        long bottomId = getBottomId();
+        long id = bottomId;
+        int y = getHeight() - INSET;
+        int visibleLines = 0;
+        while (id >= buffer.getFirstId() && y > 0) {
+            LineLayout layout = getLayout(id, width);
+            y -= layout.height;
+            if (y < clip.y + clip.height && y + layout.height > clip.y) {
+                paintLine(g, id, layout, INSET, y);
+            }
+            painted.add(new PaintedLine(id, y, layout));
+            id--;
+            // Only count lines that are fully visible
+            if (y >= 0 || visibleLines == 0) {
+                visibleLines++;
+            }
+        }
+        updateScrollBar((int)(bottomId - buffer.getFirstId()), visibleLines);
+    }
+
+    private void paintLine(Graphics g, long id, LineLayout layout, int x, int y) {
+        ChatLine line = layout.line;
+        int selStart = -1;
+        int selEnd = -1;
+        if (hasSelection()) {
+            long[] sel = getSelection();
+            if (id >= sel[0] && id <= sel[2]) {
+                selStart = id == sel[0] ? (int)sel[1] : 0;
+                selEnd = id == sel[2] ? (int)sel[3] : Integer.MAX_VALUE;
+            }
+        }
+        boolean searchResult = id == searchResultId;
+        for (Row row : layout.rows) {
+            int baseline = y + row.y + row.ascent;
+            for (Piece piece : row.pieces) {
+                Span span = line.getSpan(piece.span);
+                AttributeSet attributes = span.attributes;
+                int px = x + piece.x;
+                // Background
+                Color background = null;
+                if (searchResult) {
+                    background = searchResultColor;
+                } else if (attributes.isDefined(StyleConstants.Background)) {
+                    background = StyleConstants.getBackground(attributes);
+                }
+                if (background != null && background.getAlpha() > 0) {
+                    g.setColor(background);
+                    g.fillRect(px, y + row.y, piece.width, row.height);
+                }
+                int lineStart = layout.spanOffsets[piece.span] + piece.start;
+                int lineEnd = layout.spanOffsets[piece.span] + piece.end;
+                if (selStart < lineEnd && selEnd > lineStart) {
+                    int from = Math.max(selStart, lineStart) - lineStart;
+                    int to = Math.min(selEnd, lineEnd) - lineStart;
+                    int fromX = getX(piece, span, from);
+                    int toX = getX(piece, span, to);
+                    g.setColor(getSelectionColor());
+                    g.fillRect(px + fromX, y + row.y, toX - fromX, row.height);
+                }
+                // Content
+                Icon icon = StyleConstants.getIcon(attributes);
+                if (icon != null) {
+                    icon.paintIcon(this, g, px, y + row.y + row.height - icon.getIconHeight());
+                } else {
+                    Font font = getFont(attributes);
+                    g.setFont(font);
+                    g.setColor(StyleConstants.getForeground(attributes));
+                    g.drawString(span.text.substring(piece.start, piece.end), px, baseline);
+                    if (StyleConstants.isUnderline(attributes)) {
+                        g.drawLine(px, baseline + 1, px + piece.width - 1, baseline + 1);
+                    }
+                    if (StyleConstants.isStrikeThrough(attributes)) {
+                        int strikeY = baseline - getFontMetrics(font).getAscent() / 3;
+                        g.drawLine(px, strikeY, px + piece.width - 1, strikeY);
+                    }
+                }
+            }
+        }
+    }
+
+    private Color getSelectionColor() {
+        Color color = UIManager.getColor("TextPane.selectionBackground");
+        if (color == null) {
+            return new Color(184, 207, 229);
+        }
+        return color;
+    }
+
+    /*
+     * #########
+     * # Layout
+     * #########
+     */
+
+    private LineLayout getLayout(long id, int width) {
+        ChatLine line = buffer.get(id);
+        LineLayout layout = layouts.get(id);
+        if (layout == null || layout.line != line || layout.width != width) {
+            layout = layout(line, width);
+            layouts.put(id, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Breaks the line into rows that fit into the given width, wrapping at
+     * spaces where possible.
+     *
+     * @param line
+     * @param width
+     * @return
+     */
+    private LineLayout layout(ChatLine line, int width) {
+        LineLayout layout = new LineLayout(line, width);
+        Row row = new Row();
+        int x = 0;
+        for (int s = 0; s < line.getSpanCount(); s++) {
+            Span span = line.getSpan(s);
+            Icon icon = StyleConstants.getIcon(span.attributes);
+            if (icon != null) {
+                int w = icon.getIconWidth();
+                if (x + w > width && x > 0) {
+                    row = layout.addRow(row, lineSpacing);
+                    x = 0;
+                }
+                row.add(s, 0, span.text.length(), x, w, icon.getIconHeight(), 0);
+                x += w;
+                continue;
+            }
+            FontMetrics fm = getFontMetrics(getFont(span.attributes));
+            String text = span.text;
+            int i = 0;
+            while (i < text.length()) {
+                // A word and the spaces after it
+                int wordEnd = i;
+                while (wordEnd < text.length() && text.charAt(wordEnd) != ' ') {
+                    wordEnd++;
+                }
+                int end = wordEnd;
+                while (end < text.length() && text.charAt(end) == ' ') {
+                    end++;
+                }
+                int wordWidth = fm.stringWidth(text.substring(i, wordEnd));
+                if (x + wordWidth > width && x > 0) {
+                    row = layout.addRow(row, lineSpacing);
+                    x = 0;
+                }
+                if (wordWidth > width) {
+                    // Word doesn't fit into an empty row, so break it
+                    end = i + 1;
+                    while (end < wordEnd && fm.stringWidth(text.substring(i, end + 1)) <= width) {
+                        end++;
+                    }
+                }
+                int w = fm.stringWidth(text.substring(i, end));
+                row.add(s, i, end, x, w, fm.getAscent(), fm.getDescent());
+                x += w;
+                i = end;
+            }
+        }
+        layout.addRow(row, lineSpacing);
+        return layout;
+    }
+
+    private Font getFont(AttributeSet attributes) {
+        String family = StyleConstants.getFontFamily(attributes);
+        int size = StyleConstants.getFontSize(attributes);
+        int style = (StyleConstants.isBold(attributes) ? Font.BOLD : 0)
+                | (StyleConstants.isItalic(attributes) ? Font.ITALIC : 0);
+        String key = family+"-"+size+"-"+style;
+        Font font = fonts.get(key);
+        if (font == null) {
+            font = new Font(family, style, size);
+            fonts.put(key, font);
+        }
+        return font;
+    }
+
+    /**
+     * Gets the x position within the piece of the given character offset in
+     * the piece.
+     *
+     * @param piece
+     * @param span
+     * @param offset
+     * @return
+     */
+    private int getX(Piece piece, Span span, int offset) {
+        if (offset <= 0) {
+            return 0;
+        }
+        if (offset >= piece.end - piece.start) {
+            return piece.width;
+        }
+        if (StyleConstants.getIcon(span.attributes) != null) {
+            return piece.width;
+        }
+        FontMetrics fm = getFontMetrics(getFont(span.attributes));
+        return fm.stringWidth(span.text.substring(piece.start, piece.start + offset));
+    }
+
+    /*
+     * #################
+     * # Mouse position
+     * #################
+     */
+
+    /**
+     * Gets the attributes of the text or icon at the given point.
+     *
+     * @param point
+     * @return The attributes, or null if there is no text at that point
+     */
+    public AttributeSet getAttributesAt(Point point) {
+        for (PaintedLine p : painted) {
+            Row row = p.getRow(point.y);
+            if (row != null) {
+                for (Piece piece : row.pieces) {
+                    int x = INSET + piece.x;
+                    if (point.x >= x && point.x < x + piece.width) {
+                        return p.layout.line.getSpan(piece.span).attributes;
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the line and the offset in the text of the line at the given
+     * point.
+     *
+     * @param point
+     * @return The id of the line and the offset, or null if there is no line
+     */
+    private long[] getPosition(Point point) {
+        if (painted.isEmpty()) {
+            return null;
+        }
+        PaintedLine found = null;
+        for (PaintedLine p : painted) {
+            if (point.y >= p.y) {
+                found = p;
+                break;
+            }
+        }
+        if (found == null) {
+            // Above the first painted line
+            found = painted.get(painted.size() - 1);
+            return new long[]{found.id, 0};
+        }
+        Row row = found.getRow(point.y);
+        LineLayout layout = found.layout;
+        if (row == null) {
+            // Below the line (probably the last line)
+            return new long[]{found.id, layout.line.getText().length()};
+        }
+        int x = point.x - INSET;
+        Piece last = null;
+        for (Piece piece : row.pieces) {
+            if (x < piece.x + piece.width) {
+                Span span = layout.line.getSpan(piece.span);
+                // Find the character boundary closest to the point
+                int offset = 0;
+                int prevX = 0;
+                while (offset < piece.end - piece.start) {
+                    int nextX = getX(piece, span, offset + 1);
+                    if ((prevX + nextX) / 2 > x - piece.x) {
+                        break;
+                    }
+                    prevX = nextX;
+                    offset++;
+                }
+                return new long[]{found.id, layout.spanOffsets[piece.span] + piece.start + offset};
+            }
+            last = piece;
+        }
+        if (last != null) {
+            return new long[]{found.id, layout.spanOffsets[last.span] + last.end};
+        }
+        return new long[]{found.id, 0};
+    }
+
+    /*
+     * ############
+     * # Selection
+     * ############
+     */
+
+    private boolean hasSelection() {
+        return selectionStartId != -1 && selectionEndId != -1
+                && (selectionStartId != selectionEndId
+                || selectionStartOffset != selectionEndOffset);
+    }
+
+    /**
+     * Gets the selection with the start before the end.
+     *
+     * @return Start id, start offset, end id, end offset
+     */
+    private long[] getSelection() {
+        if (selectionStartId < selectionEndId
+                || (selectionStartId == selectionEndId && selectionStartOffset <= selectionEndOffset)) {
+            return new long[]{selectionStartId, selectionStartOffset, selectionEndId, selectionEndOffset};
+        }
+        return new long[]{selectionEndId, selectionEndOffset, selectionStartId, selectionStartOffset};
+    }
+
+    /**
+     * Gets the selected text, with a linebreak between lines.
+     *
+     * @return The text, or null if nothing is selected
+     */
+    public String getSelectedText() {
+        if (!hasSelection()) {
+            return null;
+        }
+        long[] sel = getSelection();
+        StringBuilder b = new StringBuilder();
+        for (long id = Math.max(sel[0], buffer.getFirstId()); id <= sel[2]; id++) {
+            ChatLine line = buffer.get(id);
+            if (line == null) {
+                continue;
+            }
+            String text = line.getText();
+            int start = id == sel[0] ? (int)Math.min(sel[1], text.length()) : 0;
+            int end = id == sel[2] ? (int)Math.min(sel[3], text.length()) : text.length();
+            if (b.length() > 0) {
+                b.append("\n");
+            }
+            b.append(text.substring(start, Math.max(start, end)));
+        }
+        return b.toString();
+    }
+
+    private void copySelection() {
+        String text = getSelectedText();
+        if (text != null) {
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(
+                    new StringSelection(text), null);
+        }
+    }
+
+    /*
+     * ################
+     * # Layout classes
+     * ################
+     */
+
+    /**
+     * The rows a line is broken into for a certain width.
+     */
+    private static class LineLayout {
+
+        private final ChatLine line;
+        private final int width;
+        private final List<Row> rows = new ArrayList<>();
+        private final int[] spanOffsets;
+        private int height;
+
+        LineLayout(ChatLine line, int width) {
+            this.line = line;
+            this.width = width;
+            spanOffsets = new int[line.getSpanCount()];
+            int offset = 0;
+            for (int i = 0; i < spanOffsets.length; i++) {
+                spanOffsets[i] = offset;
+                offset += line.getSpan(i).text.length();
+            }
+        }
+
+        /**
+         * Adds the row and returns a new one.
+         */
+        Row addRow(Row row, float lineSpacing) {
+            row.y = height;
+            rows.add(row);
+            height += row.height + (int)(row.height * lineSpacing);
+            return new Row();
+        }
+    }
+
+    private static class Row {
+
+        private final List<Piece> pieces = new ArrayList<>();
+        private int y;
+        private int ascent;
+        private int height;
+        private int descent;
+
+        void add(int span, int start, int end, int x, int width,
+                int pieceAscent, int pieceDescent) {
+            Piece last = pieces.isEmpty() ? null : pieces.get(pieces.size() - 1);
+            if (last != null && last.span == span && last.end == start) {
+                // Continue the previous piece of the same span
+                pieces.set(pieces.size() - 1, new Piece(span, last.start, end,
+                        last.x, x + width - last.x));
+            } else {
+                pieces.add(new Piece(span, start, end, x, width));
+            }
+            ascent = Math.max(ascent, pieceAscent);
+            descent = Math.max(descent, pieceDescent);
+            height = ascent + descent;
+        }
+    }
+
+    /**
+     * A part of a span within a row.
+     */
+    private static class Piece {
+
+        private final int span;
+        private final int start;
+        private final int end;
+        private final int x;
+        private final int width;
+
+        Piece(int span, int start, int end, int x, int width) {
+            this.span = span;
+            this.start = start;
+            this.end = end;
+            this.x = x;
+            this.width = width;
+        }
+    }
+
+    private static class PaintedLine {
+
+        private final long id;
+        private final int y;
+        private final LineLayout layout;
+
+        PaintedLine(long id, int y, LineLayout layout) {
+            this.id = id;
+            this.y = y;
+            this.layout = layout;
+        }
+
+        Row getRow(int pointY) {
+            for (Row row : layout.rows) {
+                if (pointY >= y + row.y && pointY < y + row.y + row.height) {
+                    return row;
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -570,7 +570,7 @@ public class EmotesDialog extends JDialog {
             setIcon(emote.getIcon(new Emoticon.EmoticonUser() {
 
                 @Override
-                public void iconLoaded() {
+                public void iconLoaded(Emoticon emote) {
                     Emote.this.repaint();
                     //EmotesDialog.this.repaint();
                 }
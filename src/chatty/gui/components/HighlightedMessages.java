@@ -159,7 +159,7 @@ public class HighlightedMessages extends JDialog {
         }
         
         public void clear() {
-            setText("");
+            clearAll();
         }
         
     }
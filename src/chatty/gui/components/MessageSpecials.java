@@ -0,0 +1,185 @@
+
+package chatty.gui.components;
+
+import chatty.User;
+import chatty.util.api.Emoticon;
+import chatty.util.api.EmoticonMatcher;
+import chatty.util.api.Emoticons;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parts of a message that are printed specially, like links and
+ * emoticons, sorted by their position in the message.
+ *
+ * <p>
+ * Finding these doesn't depend on the GUI, so it can be done before the
+ * message is printed, outside of the EDT. This class is immutable and
+ * {@link #find(String, User, Emoticons)} is thread-safe, as long as the
+ * Emoticons are.
+ * </p>
+ *
+ * @author tduva
+ */
+public class MessageSpecials {
+
+    /**
+     * The regex String for finding URLs in messages.
+     */
+    static final String urlRegex =
+        "(?i)\\b(?:(?:(?:https?)://|www\\.)|(?:[A-Z0-9.]+\\.(tv|com|org|net)))[-A-Z0-9+&@#/%=~_|$?!:,.()]*[A-Z0-9+&@#/%=~_|$)]";
+
+    private static final Pattern URL_PATTERN = Pattern.compile(urlRegex);
+
+    private static final Comparator<Special> POSITION_COMPARATOR = new Comparator<Special>() {
+
+        @Override
+        public int compare(Special o1, Special o2) {
+            return Integer.compare(o1.start, o2.start);
+        }
+    };
+
+    /**
+     * A message without any special parts.
+     */
+    public static final MessageSpecials NONE =
+            new MessageSpecials(Collections.<Special>emptyList());
+
+    private final List<Special> specials;
+
+    private MessageSpecials(List<Special> specials) {
+        this.specials = Collections.unmodifiableList(specials);
+    }
+
+    /**
+     * The special parts of the message, sorted by their position.
+     *
+     * @return An unmodifiable list
+     */
+    public List<Special> get() {
+        return specials;
+    }
+
+    /**
+     * Finds the links and emoticons in the given message. Links have
+     * priority over emoticons, so emoticons that overlap with a link are not
+     * used.
+     *
+     * @param text The text of the message
+     * @param user The user who sent the message
+     * @param emoticons The emoticons to look for, can be null to only look
+     * for links
+     * @return
+     */
+    public static MessageSpecials find(String text, User user, Emoticons emoticons) {
+        List<Special> result = new ArrayList<>();
+        boolean[] used = new boolean[text.length()];
+        findLinks(text, result, used);
+        if (emoticons != null) {
+            findEmoticons(text, user, emoticons, result, used);
+        }
+        if (result.isEmpty()) {
+            return NONE;
+        }
+        Collections.sort(result, POSITION_COMPARATOR);
+        return new MessageSpecials(result);
+    }
+
+    private static void findLinks(String text, List<Special> result, boolean[] used) {
+        Matcher m = URL_PATTERN.matcher(text);
+        while (m.find()) {
+            String foundUrl = m.group();
+            if (checkUrl(foundUrl)) {
+                result.add(new Special(m.start(), m.end(), foundUrl, null));
+                Arrays.fill(used, m.start(), m.end(), true);
+            }
+        }
+    }
+
+    private static void findEmoticons(String text, User user, Emoticons emoticons,
+            List<Special> result, boolean[] used) {
+
+        /**
+         * Emoteset based, then global emotes, then channel based (may also
+         * have a emoteset restriction). Matches are sorted in that order, so
+         * the first emote found at a position is the one used.
+         */
+        EmoticonMatcher matcher = emoticons.getMatcher(user.getEmoteSet(),
+                user.getStream());
+        for (EmoticonMatcher.Match match : matcher.find(text)) {
+            int start = match.start;
+            int end = match.end - 1;
+            if (end < start || used[start] || used[end]) {
+                continue;
+            }
+            result.add(new Special(match.start, match.end, null, match.emote));
+            Arrays.fill(used, match.start, match.end, true);
+        }
+    }
+
+    /**
+     * Checks if the Url can be later used as a URI.
+     *
+     * @param uriToCheck
+     * @return
+     */
+    private static boolean checkUrl(String uriToCheck) {
+        try {
+            new URI(uriToCheck);
+        } catch (URISyntaxException ex) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return specials.toString();
+    }
+
+    /**
+     * A link or emoticon in the message.
+     */
+    public static class Special {
+
+        /**
+         * The index of the first character.
+         */
+        public final int start;
+
+        /**
+         * The index after the last character.
+         */
+        public final int end;
+
+        /**
+         * The URL, if this is a link, null otherwise.
+         */
+        public final String url;
+
+        /**
+         * The emoticon, if this is an emoticon, null otherwise.
+         */
+        public final Emoticon emoticon;
+
+        private Special(int start, int end, String url, Emoticon emoticon) {
+            this.start = start;
+            this.end = end;
+            this.url = url;
+            this.emoticon = emoticon;
+        }
+
+        @Override
+        public String toString() {
+            return (url != null ? url : emoticon.code)+"["+start+"-"+end+"]";
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package chatty.gui.components;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+
+/**
+ * Adds a way to refresh the (whole) document.
+ * 
+ * This is currently used to display Icons after they are fully loaded, although
+ * there should be a better way to do this.
+ * 
+ * @author tduva
+ */
+class MyDocument extends DefaultStyledDocument {
+    
+    /**
+     * Text waiting to be inserted, as element specs that can be inserted all
+     * at once.
+     */
+    private final List<ElementSpec> pending = new ArrayList<>();
+    
+    /**
+     * Text that is added to the pending specs once text with different
+     * attributes is added, so text with the same attributes ends up in the
+     * same element (like it would when inserting it directly).
+     */
+    private final StringBuilder pendingText = new StringBuilder();
+    private AttributeSet pendingTextAttributes;
+    
+    /**
+     * Uses the shared attribute sets, so the elements don't each have their
+     * own copy of the attributes.
+     */
+    public MyDocument() {
+        super(AttributePool.getDefault());
+    }
+    
+    /**
+     * Adds text to be inserted at the end of the document.
+     * 
+     * @param text
+     * @param attributes 
+     */
+    public void addPendingText(String text, AttributeSet attributes) {
+        if (pendingTextAttributes == null
+                || !pendingTextAttributes.isEqual(attributes)
+                || AttributePool.isIcon(attributes)) {
+            addPendingContent();
+            // Shared immutable copy, since the given attributes may still be
+            // changed
+            pendingTextAttributes = AttributePool.getDefault().intern(attributes);
+        }
+        pendingText.append(text);
+    }
+    
+    /**
+     * Adds a linebreak to be inserted at the end of the document, which starts
+     * a new paragraph.
+     * 
+     * @param attributes The attributes of the linebreak
+     * @param paragraphAttributes The attributes of the new paragraph
+     */
+    public void addPendingLinebreak(AttributeSet attributes,
+            AttributeSet paragraphAttributes) {
+        addPendingText("\n", attributes);
+        addPendingContent();
+        pending.add(new ElementSpec(null, ElementSpec.EndTagType));
+        pending.add(new ElementSpec(AttributePool.getDefault().intern(paragraphAttributes),
+                ElementSpec.StartTagType));
+    }
+    
+    private void addPendingContent() {
+        if (pendingTextAttributes != null) {
+            char[] chars = pendingText.toString().toCharArray();
+            pending.add(new ElementSpec(pendingTextAttributes,
+                    ElementSpec.ContentType, chars, 0, chars.length));
+            pendingText.setLength(0);
+            pendingTextAttributes = null;
+        }
+    }
+    
+    public boolean hasPending() {
+        return !pending.isEmpty() || pendingTextAttributes != null;
+    }
+    
+    /**
+     * Inserts all pending text at the end of the document, in a single edit.
+     * 
+     * @throws BadLocationException 
+     */
+    public void insertPending() throws BadLocationException {
+        addPendingContent();
+        if (pending.isEmpty()) {
+            return;
+        }
+        // Set directions like DefaultStyledDocument does when inserting text
+        // with linebreaks before the end of the last paragraph
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).getType() == ElementSpec.StartTagType) {
+                pending.get(i).setDirection(ElementSpec.JoinFractureDirection);
+                break;
+            }
+        }
+        int offset = getLength();
+        ElementSpec first = pending.get(0);
+        if (offset > 0 && !AttributePool.isIcon(first.getAttributes())
+                && first.getAttributes().isEqual(
+                getCharacterElement(offset - 1).getAttributes())) {
+            first.setDirection(ElementSpec.JoinPreviousDirection);
+        }
+        ElementSpec[] specs = pending.toArray(new ElementSpec[pending.size()]);
+        pending.clear();
+        insert(offset, specs);
+    }
+    
+    /**
+     * Adds character attributes to several ranges and paragraph attributes to
+     * several paragraphs, in a single edit (so only one event is fired).
+     * 
+     * @param ranges The ranges to change, as start offset and length
+     * @param characterAttributes The attributes to add to the ranges
+     * @param paragraphs The paragraphs to change
+     * @param paragraphAttributes The attributes to add to the paragraphs
+     */
+    public void setAttributes(List<int[]> ranges,
+            AttributeSet characterAttributes,
+            List<Element> paragraphs,
+            AttributeSet paragraphAttributes) {
+        if (ranges.isEmpty() && paragraphs.isEmpty()) {
+            return;
+        }
+        int start = Integer.MAX_VALUE;
+        int end = 0;
+        for (int[] range : ranges) {
+            start = Math.min(start, range[0]);
+            end = Math.max(end, range[0] + range[1]);
+        }
+        for (Element paragraph : paragraphs) {
+            start = Math.min(start, paragraph.getStartOffset());
+            end = Math.max(end, paragraph.getEndOffset());
+        }
+        end = Math.min(end, getLength() + 1);
+        try {
+            writeLock();
+            DefaultDocumentEvent changes = new DefaultDocumentEvent(start,
+                    end - start, DocumentEvent.EventType.CHANGE);
+            for (int[] range : ranges) {
+                // Split elements at the borders of the range, like
+                // setCharacterAttributes() does
+                buffer.change(range[0], range[1], changes);
+                int pos = range[0];
+                int rangeEnd = range[0] + range[1];
+                while (pos < rangeEnd) {
+                    Element run = getCharacterElement(pos);
+                    if (pos == run.getEndOffset()) {
+                        break;
+                    }
+                    MutableAttributeSet attr = (MutableAttributeSet)run.getAttributes();
+                    changes.addEdit(new AttributeUndoableEdit(run, characterAttributes, false));
+                    attr.addAttributes(characterAttributes);
+                    pos = run.getEndOffset();
+                }
+            }
+            for (Element paragraph : paragraphs) {
+                MutableAttributeSet attr = (MutableAttributeSet)paragraph.getAttributes();
+                changes.addEdit(new AttributeUndoableEdit(paragraph, paragraphAttributes, false));
+                attr.addAttributes(paragraphAttributes);
+            }
+            changes.end();
+            fireChangedUpdate(changes);
+        } finally {
+            writeUnlock();
+        }
+    }
+    
+    public void refresh() {
+        refresh(0, getLength());
+    }
+    
+    public void refresh(int offset, int len) {
+        DefaultDocumentEvent changes = new DefaultDocumentEvent(offset,len, DocumentEvent.EventType.CHANGE);
+        Element root = getDefaultRootElement();
+        Element[] removed = new Element[0];
+        Element[] added = new Element[0];
+        changes.addEdit(new ElementEdit(root, 0, removed, added));
+        changes.end();
+        fireChangedUpdate(changes);
+    }
+
+}
@@ -3,7 +3,9 @@ package chatty.gui.components;
 
 import chatty.gui.GuiUtil;
 import chatty.gui.MainGui;
+import chatty.util.SearchIndex;
 import java.awt.Color;
+import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
@@ -14,8 +16,12 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.PatternSyntaxException;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.Timer;
 
@@ -33,7 +39,11 @@ public class SearchDialog extends JDialog {
     
     private final Timer timer;
     private final JTextField searchText = new JTextField(20);
-    private final JButton searchButton = new JButton("Search");
+    private final JButton searchButton = new JButton("Previous");
+    private final JButton nextButton = new JButton("Next");
+    private final JTextField user = new JTextField(10);
+    private final JCheckBox regex = new JCheckBox("Regex");
+    private final JCheckBox allChannels = new JCheckBox("All channels");
     //private final JCheckBox highlightAll = new JCheckBox("Highlight all occurences");
     
     private static final Map<Window, SearchDialog> created = new HashMap<>();
@@ -65,7 +75,27 @@ public class SearchDialog extends JDialog {
         add(searchText, gbc);
         gbc.gridx = 1;
         searchButton.setMargin(GuiUtil.SMALL_BUTTON_INSETS);
+        searchButton.setToolTipText("Search older messages");
         add(searchButton, gbc);
+        gbc.gridx = 2;
+        nextButton.setMargin(GuiUtil.SMALL_BUTTON_INSETS);
+        nextButton.setToolTipText("Search newer messages");
+        add(nextButton, gbc);
+        
+        gbc.gridx = 0;
+        gbc.gridy = 1;
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        options.add(new JLabel("User: "));
+        options.add(user);
+        add(options, gbc);
+        gbc.gridx = 1;
+        gbc.gridwidth = 2;
+        add(regex, gbc);
+        gbc.gridx = 0;
+        gbc.gridy = 2;
+        gbc.gridwidth = 3;
+        allChannels.setToolTipText("Continue in the other tabs of the main window");
+        add(allChannels, gbc);
 
         timer = new Timer(NO_RESULT_COLOR_TIME, new ActionListener() {
 
@@ -79,14 +109,26 @@ public class SearchDialog extends JDialog {
 
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (!g.search(owner, searchText.getText())) {
-                    searchText.setBackground(COLOR_NO_RESULT);
-                    timer.restart();
+                boolean older = e.getSource() != nextButton;
+                searchText.setToolTipText(null);
+                try {
+                    SearchIndex.Query query = new SearchIndex.Query(
+                            searchText.getText(), regex.isSelected(),
+                            user.getText());
+                    if (g.search(owner, query, older, allChannels.isSelected())) {
+                        return;
+                    }
+                } catch (PatternSyntaxException ex) {
+                    searchText.setToolTipText("Invalid regex: "+ex.getDescription());
                 }
+                searchText.setBackground(COLOR_NO_RESULT);
+                timer.restart();
             }
         };
         searchText.addActionListener(listener);
+        user.addActionListener(listener);
         searchButton.addActionListener(listener);
+        nextButton.addActionListener(listener);
 
         addWindowListener(new WindowAdapter() {
             @Override
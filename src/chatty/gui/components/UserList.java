@@ -10,6 +10,7 @@ import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.ArrayList;
+import java.util.Collection;
 import javax.swing.JList;
 
 /**
@@ -61,10 +62,30 @@ public class UserList extends JList<User> {
         data.add(user);
     }
     
+    /**
+     * Adds several users at once, which is faster than adding them one by
+     * one.
+     * 
+     * @param users 
+     */
+    public void addUsers(Collection<User> users) {
+        data.addAll(users);
+    }
+    
     public void removeUser(User user) {
         data.remove(user);
     }
     
+    /**
+     * Removes several users at once, which is faster than removing them one
+     * by one.
+     * 
+     * @param users 
+     */
+    public void removeUsers(Collection<User> users) {
+        data.removeAll(users);
+    }
+    
     public void updateUser(User user) {
         data.remove(user);
         data.add(user);
@@ -73,7 +94,7 @@ public class UserList extends JList<User> {
     }
     
     public void resort() {
-        data.sort();
+        data.sortLater();
     }
     
     public void clearUsers() {
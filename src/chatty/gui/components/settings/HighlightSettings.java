@@ -4,6 +4,9 @@ package chatty.gui.components.settings;
 import chatty.gui.components.LinkLabel;
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.JButton;
 import javax.swing.JPanel;
 
 /**
@@ -25,7 +28,7 @@ public class HighlightSettings extends SettingsPanel {
     
     private static final String INFO_HIGHLIGHTS = INFO+"Example: <code>user:botimuz cs:Bets open</code>";
     
-    public HighlightSettings(SettingsDialog d) {
+    public HighlightSettings(final SettingsDialog d) {
         
         
         JPanel base = addTitledPanel("Highlight Messages", 0);
@@ -84,5 +87,20 @@ public class HighlightSettings extends SettingsPanel {
                 + "<li style='margin-top: 3px;'>Prepend with 're:' to use regular expression.</li>"
                 + "<li style='margin-top: 3px;'>Prepend with 'user:' to specify a username.</li>"
                 + "</ul>", d.getLinkLabelListener()), gbc);
+        
+        JButton statsButton = new JButton("Item Stats..");
+        statsButton.setToolTipText("Show how often each item matched and how "
+                + "long it takes to check it");
+        statsButton.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                d.showRuleStats("highlight");
+            }
+        });
+        gbc = d.makeGbc(0,4,1,1);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(0,10,5,5);
+        base.add(statsButton, gbc);
     }
 }
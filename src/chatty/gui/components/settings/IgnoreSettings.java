@@ -8,6 +8,7 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.HashMap;
+import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -21,7 +22,7 @@ public class IgnoreSettings extends SettingsPanel {
     private static final String INFO_IGNORE = HighlightSettings.INFO
             +"Example: <code>chan:joshimuz re:!bet.*</code>";
     
-    public IgnoreSettings(SettingsDialog d) {
+    public IgnoreSettings(final SettingsDialog d) {
         JPanel base = addTitledPanel("Ignore Messages", 0);
         
         GridBagConstraints gbc;
@@ -99,6 +100,21 @@ public class IgnoreSettings extends SettingsPanel {
                 + "Matching messages works the same as the Highlights system. "
                 + "Click on the Help link on the bottom left for help."
                 , d.getLinkLabelListener()), gbc);
+        
+        JButton statsButton = new JButton("Item Stats..");
+        statsButton.setToolTipText("Show how often each item matched and how "
+                + "long it takes to check it");
+        statsButton.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                d.showRuleStats("ignore");
+            }
+        });
+        gbc = d.makeGbc(0,5,3,1);
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(0,10,5,5);
+        base.add(statsButton, gbc);
     }
     
 }
@@ -108,6 +108,14 @@ public class MessageSettings extends SettingsPanel {
                 gbc = d.makeGbc(2, 2, 2, 1, GridBagConstraints.WEST);
         otherSettingsPanel.add(d.addSimpleBooleanSetting("removeCombiningCharacters", "Filter combining characters",
                 "Tries to filter out combining characters that is used to create vertical text in some languages (may prevent errors)"), gbc);
+        
+        gbc = d.makeGbc(0, 3, 2, 1, GridBagConstraints.WEST);
+        otherSettingsPanel.add(d.addSimpleBooleanSetting("combineRepeated", "Combine repeated messages",
+                "If enabled, messages repeating a recent message (e.g. copypasta) are added as a count to the line of that message"), gbc);
+        
+        gbc = d.makeGbc(2, 3, 2, 1, GridBagConstraints.WEST);
+        otherSettingsPanel.add(d.addSimpleBooleanSetting("combineRepeatedLog", "Log combined messages",
+                "If enabled, repeated messages are still written to the chat log when they are combined"), gbc);
 
         /**
          * Timeout settings
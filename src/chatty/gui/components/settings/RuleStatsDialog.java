@@ -0,0 +1,205 @@
+package chatty.gui.components.settings;
+
+import chatty.gui.GuiUtil;
+import chatty.gui.Highlighter.RuleStats;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.DefaultTableCellRenderer;
+
+/**
+ * Shows how often each highlight/ignore item matched and how long it takes to
+ * check it, sorted by the slowest items first, so items that slow down
+ * receiving messages can be found.
+ *
+ * @author tduva
+ */
+public class RuleStatsDialog {
+
+    private static final Color SLOW_COLOR = new Color(255, 210, 200);
+
+    private static final int AVERAGE_COLUMN = 3;
+
+    private final JDialog dialog;
+    private final JLabel info = new JLabel();
+    private final JButton refreshButton = new JButton("Refresh");
+    private final JButton closeButton = new JButton("Close");
+    private final MyTableModel data = new MyTableModel();
+    private final SettingsDialog settings;
+
+    private String type;
+
+    RuleStatsDialog(Window parent, SettingsDialog settings) {
+        this.settings = settings;
+        dialog = new JDialog(parent);
+        dialog.setModal(true);
+        GuiUtil.installEscapeCloseOperation(dialog);
+        dialog.setLayout(new GridBagLayout());
+
+        GridBagConstraints gbc;
+
+        gbc = GuiUtil.makeGbc(0, 0, 2, 1, GridBagConstraints.WEST);
+        gbc.insets = new Insets(5, 5, 5, 5);
+        dialog.add(info, gbc);
+
+        JTable table = new JTable(data);
+        table.setAutoCreateRowSorter(true);
+        table.getRowSorter().setSortKeys(Arrays.asList(
+                new RowSorter.SortKey(AVERAGE_COLUMN, SortOrder.DESCENDING)));
+        table.setDefaultRenderer(Object.class, new SlowRenderer());
+        table.setDefaultRenderer(Long.class, new SlowRenderer());
+        table.setDefaultRenderer(Double.class, new SlowRenderer());
+        table.getColumnModel().getColumn(0).setPreferredWidth(200);
+        table.getColumnModel().getColumn(5).setPreferredWidth(200);
+
+        gbc = GuiUtil.makeGbc(0, 1, 2, 1);
+        gbc.fill = GridBagConstraints.BOTH;
+        gbc.weightx = 1;
+        gbc.weighty = 1;
+        gbc.insets = new Insets(0, 5, 5, 5);
+        dialog.add(new JScrollPane(table), gbc);
+
+        ActionListener listener = new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (e.getSource() == refreshButton) {
+                    refresh();
+                } else if (e.getSource() == closeButton) {
+                    dialog.setVisible(false);
+                }
+            }
+        };
+        refreshButton.addActionListener(listener);
+        closeButton.addActionListener(listener);
+
+        gbc = GuiUtil.makeGbc(0, 2, 1, 1, GridBagConstraints.WEST);
+        gbc.insets = new Insets(0, 5, 5, 5);
+        dialog.add(refreshButton, gbc);
+
+        gbc = GuiUtil.makeGbc(1, 2, 1, 1, GridBagConstraints.EAST);
+        gbc.insets = new Insets(0, 5, 5, 5);
+        dialog.add(closeButton, gbc);
+
+        dialog.setSize(700, 400);
+    }
+
+    /**
+     * Opens the dialog with the stats of the given type.
+     *
+     * @param type Either "highlight" or "ignore"
+     */
+    public void show(Component owner, String type) {
+        this.type = type;
+        dialog.setTitle(type.equals("ignore") ? "Ignore Rule Stats" : "Highlight Rule Stats");
+        refresh();
+        dialog.setLocationRelativeTo(owner);
+        dialog.setVisible(true);
+    }
+
+    private void refresh() {
+        List<RuleStats> stats = settings.getRuleStats(type);
+        data.setData(stats);
+        int slow = 0;
+        for (RuleStats s : stats) {
+            if (s.isSlow()) {
+                slow++;
+            }
+        }
+        String text = "<html><body style='width:450px;'>Time is measured for "
+                + "some messages, by checking each item on it's own. Only "
+                + "shows items saved in the settings.";
+        if (slow > 0) {
+            text += "<br /><b>"+slow+" item(s) take longer than "
+                    +(RuleStats.SLOW_AVERAGE / 1000)+"\u00b5s on average, "
+                    + "consider simplifying them (e.g. regular expressions "
+                    + "starting with '.*').</b>";
+        }
+        info.setText(text);
+    }
+
+    private static class MyTableModel extends ListTableModel<RuleStats> {
+
+        private static final long serialVersionUID = 1L;
+
+        MyTableModel() {
+            super(new String[]{"Item", "Hits", "Checks", "Avg \u00b5s", "Max \u00b5s", "Last Match"});
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            RuleStats stats = get(rowIndex);
+            switch (columnIndex) {
+                case 0:
+                    return stats.item;
+                case 1:
+                    return stats.getHits();
+                case 2:
+                    return stats.getChecks();
+                case 3:
+                    return stats.getAverageTime() / 1000.0;
+                case 4:
+                    return stats.getMaxTime() / 1000.0;
+                default:
+                    return stats.getLastMatch();
+            }
+        }
+
+        @Override
+        public Class<?> getColumnClass(int columnIndex) {
+            if (columnIndex == 1 || columnIndex == 2) {
+                return Long.class;
+            }
+            if (columnIndex == 3 || columnIndex == 4) {
+                return Double.class;
+            }
+            return String.class;
+        }
+
+    }
+
+    /**
+     * Marks the rows of slow items.
+     */
+    private class SlowRenderer extends DefaultTableCellRenderer {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table,
+                Object value, boolean isSelected, boolean hasFocus, int row,
+                int column) {
+            super.getTableCellRendererComponent(table, value, isSelected,
+                    hasFocus, row, column);
+            if (value instanceof Double) {
+                // Most items take less than a microsecond
+                setText(String.format("%.3f", (Double)value));
+                setHorizontalAlignment(RIGHT);
+            } else if (value instanceof Long) {
+                setHorizontalAlignment(RIGHT);
+            } else {
+                setHorizontalAlignment(LEFT);
+            }
+            if (!isSelected) {
+                RuleStats stats = data.get(table.convertRowIndexToModel(row));
+                setBackground(stats.isSlow() ? SLOW_COLOR : table.getBackground());
+            }
+            return this;
+        }
+    }
+
+}
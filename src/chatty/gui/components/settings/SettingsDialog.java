@@ -1,6 +1,7 @@
 
 package chatty.gui.components.settings;
 
+import chatty.gui.Highlighter.RuleStats;
 import chatty.gui.MainGui;
 import chatty.gui.components.LinkLabel;
 import chatty.gui.components.LinkLabelListener;
@@ -36,6 +37,7 @@ public class SettingsDialog extends JDialog implements ActionListener {
     private final static Logger LOGGER = Logger.getLogger(SettingsDialog.class.getName());
     
     private final Editor editor = new Editor(this);
+    private final RuleStatsDialog ruleStatsDialog = new RuleStatsDialog(this, this);
     
     private final JButton ok = new JButton("");
     private final JButton cancel = new JButton("");
@@ -613,6 +615,14 @@ public class SettingsDialog extends JDialog implements ActionListener {
     protected void clearHistory() {
         owner.clearHistory();
     }
+    
+    protected List<RuleStats> getRuleStats(String type) {
+        return owner.getRuleStats(type);
+    }
+    
+    protected void showRuleStats(String type) {
+        ruleStatsDialog.show(this, type);
+    }
 
     @Override
     public void actionPerformed(ActionEvent e) {
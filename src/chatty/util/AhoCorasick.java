@@ -0,0 +1,174 @@
+package chatty.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Finds all occurences of several terms in a text at once, going through the
+ * text only once, no matter how many terms there are (Aho-Corasick).
+ *
+ * <p>
+ * The terms are put into a tree of their characters, with links from each
+ * node to the node of the longest suffix that is also the start of a term,
+ * which is followed when the next character doesn't continue any term.
+ * </p>
+ *
+ * <p>
+ * This is immutable once created and can be used from several threads.
+ * </p>
+ *
+ * @author tduva
+ */
+public class AhoCorasick {
+
+    /**
+     * Receives the found terms.
+     */
+    public interface Hits {
+
+        /**
+         * Called for each occurence of a term, ordered by the end of the
+         * occurence.
+         *
+         * @param id The index of the term in the list the automaton was
+         * created with
+         * @param start The index of the first character of the occurence
+         * @param end The index after the last character of the occurence
+         * @return true to continue searching, false to stop
+         */
+        public boolean hit(int id, int start, int end);
+    }
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final Node root = new Node();
+    private final int[] lengths;
+
+    /**
+     * Creates a new automaton for the given terms. Empty terms are ignored.
+     *
+     * @param terms The terms, the index of a term in the list is used as id
+     */
+    public AhoCorasick(List<String> terms) {
+        lengths = new int[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            lengths[i] = term.length();
+            if (term.isEmpty()) {
+                continue;
+            }
+            Node node = root;
+            for (int j = 0; j < term.length(); j++) {
+                node = node.getOrAdd(term.charAt(j));
+            }
+            node.ids = add(node.ids, i);
+        }
+        buildLinks();
+    }
+
+    /**
+     * Sets the fail link of every node (breadth-first, so the links of
+     * shorter prefixes are already set) and adds the ids of the terms that
+     * end in a suffix of a node to the node.
+     */
+    private void buildLinks() {
+        Deque<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        for (Node child : root.children) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (int i = 0; i < node.size; i++) {
+                char c = node.keys[i];
+                Node child = node.children[i];
+                Node fail = node.fail;
+                while (fail != root && fail.get(c) == null) {
+                    fail = fail.fail;
+                }
+                Node next = fail.get(c);
+                child.fail = next != null ? next : root;
+                if (child.fail.ids.length > 0) {
+                    int[] ids = Arrays.copyOf(child.ids, child.ids.length + child.fail.ids.length);
+                    System.arraycopy(child.fail.ids, 0, ids, child.ids.length, child.fail.ids.length);
+                    child.ids = ids;
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Finds all occurences of the terms in the given text.
+     *
+     * @param text The text to search in
+     * @param hits Receives the found terms
+     */
+    public void find(String text, Hits hits) {
+        Node node = root;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            Node next = node.get(c);
+            while (next == null && node != root) {
+                node = node.fail;
+                next = node.get(c);
+            }
+            node = next != null ? next : root;
+            for (int id : node.ids) {
+                if (!hits.hit(id, i + 1 - lengths[id], i + 1)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int[] add(int[] ids, int id) {
+        int[] result = Arrays.copyOf(ids, ids.length + 1);
+        result[ids.length] = id;
+        return result;
+    }
+
+    private static class Node {
+
+        /**
+         * The characters of the children, sorted, and the children in the
+         * same order.
+         */
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private int size;
+
+        private Node fail;
+
+        /**
+         * The ids of the terms ending at this node.
+         */
+        private int[] ids = NO_IDS;
+
+        Node get(char c) {
+            int index = Arrays.binarySearch(keys, 0, size, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAdd(char c) {
+            int index = Arrays.binarySearch(keys, 0, size, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            keys = Arrays.copyOf(keys, size + 1);
+            children = Arrays.copyOf(children, size + 1);
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(children, index, children, index + 1, size - index);
+            Node child = new Node();
+            keys[index] = c;
+            children[index] = child;
+            size++;
+            return child;
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+package chatty.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Saves downloaded images (or any other files) in a directory, so they don't
+ * have to be downloaded again every time.
+ *
+ * <p>
+ * Each URL is saved in a file named after the hash of the URL, with another
+ * file containing the URL, the ETag and Last-Modified headers and when it
+ * was last checked. Once a cached file is older than the given time, it is
+ * requested again with those headers, so the server can answer that it
+ * didn't change without sending it again. If the request fails, the cached
+ * file is still used.
+ * </p>
+ *
+ * <p>
+ * This can be used from several threads, as long as the same URL isn't
+ * requested by several threads at the same time.
+ * </p>
+ *
+ * @author tduva
+ */
+public class ImageCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ImageCache.class.getName());
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 10000;
+
+    private final Path directory;
+    private final long checkAfter;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param directory The directory to save the files in, which is created
+     * if necessary
+     * @param checkAfter The time in seconds after which a cached file is
+     * checked for changes
+     */
+    public ImageCache(String directory, long checkAfter) {
+        this.directory = Paths.get(directory);
+        this.checkAfter = checkAfter;
+    }
+
+    /**
+     * Gets the contents of the given URL, from the cache if possible, or else
+     * downloads it and saves it in the cache. This blocks until the file is
+     * read or downloaded, so it shouldn't be used from the EDT.
+     *
+     * @param url The URL
+     * @return The contents of the file
+     * @throws IOException If the file isn't cached and couldn't be downloaded
+     */
+    public byte[] get(String url) throws IOException {
+        String id = hash(url);
+        Path file = directory.resolve(id);
+        Path infoFile = directory.resolve(id+".properties");
+
+        Properties info = loadInfo(infoFile, url);
+        byte[] cached = null;
+        if (info != null) {
+            try {
+                cached = Files.readAllBytes(file);
+            } catch (IOException ex) {
+                LOGGER.warning("Cache: Error reading "+url+" ["+ex+"]");
+            }
+        }
+        if (cached != null && !expired(info)) {
+            return cached;
+        }
+
+        try {
+            URLConnection c = new URL(url).openConnection();
+            c.setConnectTimeout(CONNECT_TIMEOUT);
+            c.setReadTimeout(READ_TIMEOUT);
+            if (cached != null) {
+                setIfPresent(c, "If-None-Match", info.getProperty("etag"));
+                setIfPresent(c, "If-Modified-Since", info.getProperty("lastModified"));
+            }
+            if (cached != null && c instanceof HttpURLConnection
+                    && ((HttpURLConnection)c).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                ((HttpURLConnection)c).disconnect();
+                info.setProperty("checked", String.valueOf(System.currentTimeMillis()));
+                saveInfo(infoFile, info);
+                return cached;
+            }
+            byte[] data;
+            try (InputStream input = c.getInputStream()) {
+                data = read(input);
+            }
+            save(file, data);
+            info = new Properties();
+            info.setProperty("url", url);
+            info.setProperty("checked", String.valueOf(System.currentTimeMillis()));
+            setIfPresent(info, "etag", c.getHeaderField("ETag"));
+            setIfPresent(info, "lastModified", c.getHeaderField("Last-Modified"));
+            saveInfo(infoFile, info);
+            return data;
+        } catch (IOException ex) {
+            if (cached != null) {
+                LOGGER.warning("Cache: Using old "+url+" ["+ex+"]");
+                return cached;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Removes the given URL from the cache, for example because the file
+     * turned out to be invalid.
+     *
+     * @param url The URL
+     */
+    public void remove(String url) {
+        String id = hash(url);
+        try {
+            Files.deleteIfExists(directory.resolve(id+".properties"));
+            Files.deleteIfExists(directory.resolve(id));
+        } catch (IOException ex) {
+            LOGGER.warning("Cache: Error removing "+url+" ["+ex+"]");
+        }
+    }
+
+    private boolean expired(Properties info) {
+        try {
+            long checked = Long.parseLong(info.getProperty("checked"));
+            return System.currentTimeMillis() - checked > checkAfter * 1000;
+        } catch (NumberFormatException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Loads the info for the cached file.
+     *
+     * @param file The file to load from
+     * @param url The URL the info has to be for (in case of a hash collision)
+     * @return The info, or null if there is no valid info for this URL
+     */
+    private Properties loadInfo(Path file, String url) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties info = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            info.load(input);
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.warning("Cache: Error loading info for "+url+" ["+ex+"]");
+            return null;
+        }
+        if (!url.equals(info.getProperty("url"))) {
+            return null;
+        }
+        return info;
+    }
+
+    private void saveInfo(Path file, Properties info) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            info.store(output, null);
+            save(file, output.toByteArray());
+        } catch (IOException ex) {
+            LOGGER.warning("Cache: Error saving info for "+info.getProperty("url")+" ["+ex+"]");
+        }
+    }
+
+    /**
+     * Writes into a temporary file first and then replaces the actual file,
+     * so there is never a half-written file.
+     *
+     * @param file
+     * @param data
+     * @throws IOException
+     */
+    private void save(Path file, byte[] data) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                output.write(data);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            result.write(buffer, 0, read);
+        }
+        return result.toByteArray();
+    }
+
+    private static void setIfPresent(URLConnection c, String key, String value) {
+        if (value != null) {
+            c.setRequestProperty(key, value);
+        }
+    }
+
+    private static void setIfPresent(Properties info, String key, String value) {
+        if (value != null) {
+            info.setProperty(key, value);
+        }
+    }
+
+    /**
+     * The SHA-1 hash of the URL as hex, used as filename.
+     *
+     * @param url
+     * @return
+     */
+    private static String hash(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes(CHARSET));
+            StringBuilder b = new StringBuilder();
+            for (byte part : hash) {
+                b.append(String.format("%02x", part));
+            }
+            return b.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java implementation has to support SHA-1
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
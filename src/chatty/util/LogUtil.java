@@ -1,8 +1,6 @@
 
 package chatty.util;
 
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.logging.Logger;
 
 /**
@@ -30,8 +28,7 @@ public class LogUtil {
      * Log JVM memory information every 15 minutes.
      */
     public static void startMemoryUsageLogging() {
-        Timer t = new Timer(true);
-        t.schedule(new TimerTask() {
+        TimerService.get().schedule(new Runnable() {
 
             @Override
             public void run() {
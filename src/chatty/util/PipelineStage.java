@@ -0,0 +1,458 @@
+
+package chatty.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One stage of a processing pipeline, which takes items from a bounded queue
+ * and handles them in the order they were added.
+ *
+ * Items are handled on a single thread, so the handler doesn't have to be
+ * thread-safe. By default the stage has it's own thread, but a subclass can
+ * run the handler somewhere else (like the Event Dispatch Thread) by
+ * overriding {@link #execute(Runnable)} and {@link #isConsumerThread()}.
+ *
+ * What happens when the queue is full depends on the {@link Overflow} policy.
+ * Only items that the {@link Collapser} says can be dropped are ever dropped
+ * or collapsed, all other items are always added, even if that exceeds the
+ * capacity. Items added from the thread that handles the items are always
+ * added as well, since blocking there would never end.
+ *
+ * @author tduva
+ * @param <T> The type of the items
+ */
+public class PipelineStage<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(PipelineStage.class.getName());
+
+    /**
+     * What to do when an item is added while the queue is full.
+     */
+    public enum Overflow {
+        /**
+         * Wait until there is room in the queue again.
+         */
+        BLOCK,
+        /**
+         * Remove the oldest item that can be dropped.
+         */
+        DROP_OLDEST,
+        /**
+         * Combine the oldest item that can be dropped with a later one, or
+         * drop it if no item can be combined with it.
+         */
+        COLLAPSE
+    }
+
+    /**
+     * Handles the items of a stage.
+     *
+     * @param <T>
+     */
+    public interface Handler<T> {
+
+        /**
+         * Handles a single item, always called from the same thread.
+         *
+         * @param item
+         */
+        public void handle(T item);
+    }
+
+    /**
+     * Decides which items may be dropped or combined when the queue is full.
+     *
+     * @param <T>
+     */
+    public interface Collapser<T> {
+
+        /**
+         * Whether the item may be dropped or combined with other items.
+         *
+         * @param item
+         * @return
+         */
+        public boolean isDroppable(T item);
+
+        /**
+         * Combines two droppable items into one that replaces both.
+         *
+         * @param older The item that was added first
+         * @param newer The item that was added later
+         * @return The combined item, or null if these items can't be combined
+         */
+        public T collapse(T older, T newer);
+
+        /**
+         * Called when a droppable item was removed from the queue without
+         * being combined with another item. This is called on the thread
+         * that added an item while holding the lock of the queue, so it
+         * should return quickly.
+         *
+         * @param item The item that was dropped
+         */
+        public void dropped(T item);
+    }
+
+    private final String name;
+    private final int capacity;
+    private final int batchSize;
+    private final Handler<T> handler;
+
+    private volatile Overflow overflow;
+    private volatile Collapser<T> collapser;
+
+    /**
+     * The queued items, also used as the lock for the metrics.
+     */
+    private final ArrayDeque<Entry<T>> queue = new ArrayDeque<>();
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private final Runnable drainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private ExecutorService executor;
+    private volatile Thread consumer;
+
+    // Metrics, guarded by the queue
+    private long added;
+    private long handled;
+    private long dropped;
+    private long collapsed;
+    private long blocked;
+    private long blockedTime;
+    private int maxSize;
+    private long waitTime;
+    private long maxWaitTime;
+    private long handleTime;
+
+    /**
+     * Creates a new stage.
+     *
+     * @param name The name, used for the thread and the metrics
+     * @param capacity How many items can be queued before the overflow policy
+     * is applied
+     * @param batchSize How many items are handled at most before other items
+     * on the same thread get a chance to run
+     * @param overflow The initial overflow policy
+     * @param handler The handler of the items
+     */
+    public PipelineStage(String name, int capacity, int batchSize,
+            Overflow overflow, Handler<T> handler) {
+        this.name = name;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.overflow = overflow;
+        this.handler = handler;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setOverflow(Overflow overflow) {
+        this.overflow = overflow;
+    }
+
+    public Overflow getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Sets the overflow policy by name ("block", "drop" or "collapse").
+     * Invalid values are just ignored.
+     *
+     * @param overflow
+     */
+    public void setOverflow(String overflow) {
+        switch (overflow) {
+            case "block":
+                setOverflow(Overflow.BLOCK);
+                break;
+            case "drop":
+                setOverflow(Overflow.DROP_OLDEST);
+                break;
+            case "collapse":
+                setOverflow(Overflow.COLLAPSE);
+                break;
+        }
+    }
+
+    public void setCollapser(Collapser<T> collapser) {
+        this.collapser = collapser;
+    }
+
+    /**
+     * Adds an item to be handled, applying the overflow policy if the queue
+     * is full.
+     *
+     * @param item The item to add
+     */
+    public void offer(T item) {
+        offer(item, false);
+    }
+
+    /**
+     * Adds an item to be handled.
+     *
+     * @param item The item to add
+     * @param force If true, the item is always added right away, regardless
+     * of the overflow policy
+     */
+    public void offer(T item, boolean force) {
+        synchronized(queue) {
+            if (!force && queue.size() >= capacity && !isConsumerThread()) {
+                makeRoom(item);
+            }
+            queue.add(new Entry<>(item, System.nanoTime()));
+            added++;
+            if (queue.size() > maxSize) {
+                maxSize = queue.size();
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Applies the overflow policy, called when the queue is full.
+     *
+     * @param item The item that is about to be added
+     */
+    private void makeRoom(T item) {
+        Overflow currentOverflow = overflow;
+        Collapser<T> currentCollapser = collapser;
+        if (currentOverflow == Overflow.BLOCK) {
+            waitForRoom();
+        } else if (currentCollapser != null) {
+            if (currentOverflow == Overflow.COLLAPSE
+                    && collapseOldest(currentCollapser)) {
+                collapsed++;
+            } else if (dropOldest(currentCollapser)) {
+                dropped++;
+            }
+        }
+    }
+
+    private void waitForRoom() {
+        long start = System.nanoTime();
+        blocked++;
+        try {
+            while (queue.size() >= capacity && overflow == Overflow.BLOCK) {
+                queue.wait(1000);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        blockedTime += System.nanoTime() - start;
+    }
+
+    private boolean dropOldest(Collapser<T> collapser) {
+        Iterator<Entry<T>> it = queue.iterator();
+        while (it.hasNext()) {
+            T item = it.next().item;
+            if (collapser.isDroppable(item)) {
+                it.remove();
+                collapser.dropped(item);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Combines the oldest droppable item with the first later droppable item
+     * that it can be combined with.
+     *
+     * @param collapser
+     * @return true if two items were combined
+     */
+    private boolean collapseOldest(Collapser<T> collapser) {
+        Entry<T> oldest = null;
+        Iterator<Entry<T>> it = queue.iterator();
+        while (it.hasNext()) {
+            Entry<T> entry = it.next();
+            if (!collapser.isDroppable(entry.item)) {
+                continue;
+            }
+            if (oldest == null) {
+                oldest = entry;
+            } else {
+                T result = collapser.collapse(oldest.item, entry.item);
+                if (result != null) {
+                    entry.item = result;
+                    entry.time = oldest.time;
+                    queue.remove(oldest);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the current thread is the one that handles the items.
+     *
+     * @return
+     */
+    protected boolean isConsumerThread() {
+        return Thread.currentThread() == consumer;
+    }
+
+    /**
+     * Runs the given task on the thread that handles the items.
+     *
+     * @param task
+     */
+    protected void execute(Runnable task) {
+        synchronized(this) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        executor.execute(task);
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            execute(drainTask);
+        }
+    }
+
+    /**
+     * Handles up to one batch of items and schedules itself again if there
+     * are still items left.
+     */
+    private void drain() {
+        consumer = Thread.currentThread();
+        drainScheduled.set(false);
+        List<Entry<T>> batch = new ArrayList<>();
+        synchronized(queue) {
+            Entry<T> entry;
+            while (batch.size() < batchSize && (entry = queue.poll()) != null) {
+                batch.add(entry);
+            }
+            queue.notifyAll();
+        }
+        long start = System.nanoTime();
+        long batchWaitTime = 0;
+        long batchMaxWaitTime = 0;
+        for (Entry<T> entry : batch) {
+            long wait = start - entry.time;
+            batchWaitTime += wait;
+            batchMaxWaitTime = Math.max(batchMaxWaitTime, wait);
+            try {
+                handler.handle(entry.item);
+            } catch (RuntimeException ex) {
+                // Shouldn't stop the other items from being handled
+                LOGGER.log(Level.SEVERE, "Error handling item in "+name, ex);
+            }
+        }
+        long batchHandleTime = System.nanoTime() - start;
+        boolean more;
+        synchronized(queue) {
+            handled += batch.size();
+            waitTime += batchWaitTime;
+            maxWaitTime = Math.max(maxWaitTime, batchMaxWaitTime);
+            handleTime += batchHandleTime;
+            more = !queue.isEmpty();
+        }
+        if (more) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * The number of items currently waiting to be handled.
+     *
+     * @return
+     */
+    public int getSize() {
+        synchronized(queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * How long the oldest item that is still waiting to be handled has been
+     * waiting.
+     *
+     * @return The time in milliseconds, 0 if no item is waiting
+     */
+    public long getOldestWaitTime() {
+        synchronized(queue) {
+            Entry<T> oldest = queue.peek();
+            if (oldest == null) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.time);
+        }
+    }
+
+    /**
+     * The number of items that have been dropped or combined with other
+     * items because the queue was full.
+     *
+     * @return
+     */
+    public long getLostCount() {
+        synchronized(queue) {
+            return dropped + collapsed;
+        }
+    }
+
+    /**
+     * Gets the metrics of this stage as a single line of text.
+     *
+     * @return
+     */
+    public String getStats() {
+        synchronized(queue) {
+            return String.format("%s: %d/%d queued (max %d), %d added, "
+                    + "%d handled (avg %.3fms), %d dropped, %d collapsed, "
+                    + "blocked %d times (%dms), wait avg %dms max %dms [%s]",
+                    name, queue.size(), capacity, maxSize, added,
+                    handled, handled > 0 ? handleTime / 1000000.0 / handled : 0,
+                    dropped, collapsed, blocked,
+                    TimeUnit.NANOSECONDS.toMillis(blockedTime),
+                    handled > 0 ? TimeUnit.NANOSECONDS.toMillis(waitTime / handled) : 0,
+                    TimeUnit.NANOSECONDS.toMillis(maxWaitTime),
+                    overflow.toString().toLowerCase());
+        }
+    }
+
+    private static class Entry<T> {
+
+        private T item;
+        private long time;
+
+        Entry(T item, long time) {
+            this.item = item;
+            this.time = time;
+        }
+    }
+
+}
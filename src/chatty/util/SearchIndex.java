@@ -0,0 +1,294 @@
+package chatty.util;
+
+import chatty.Helper;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An index of the lines of a chat buffer, to find lines containing a text
+ * without going through the text of every line.
+ *
+ * Each line has an id, which must increase with every new line. For every
+ * sequence of three characters (trigram) the ids of the lines containing it
+ * are stored, so searching for a text only has to check the lines that
+ * contain all of the text's trigrams (starting with the trigram that the
+ * least lines contain). Shorter texts, regular expressions and user-only
+ * searches go through the stored lowercase text of the lines instead, which
+ * is still faster than getting the text from the document.
+ *
+ * Lines are removed from the start (when the buffer is trimmed), which only
+ * removes the line itself. The ids in the trigram lists are removed once
+ * enough lines were removed, by building them again. Changed lines keep their
+ * old trigrams as well until then, so all results are checked against the
+ * current text of the line.
+ *
+ * This is not thread-safe.
+ *
+ * @author tduva
+ */
+public class SearchIndex {
+
+    /**
+     * How many lines have to be removed at least before the trigram lists
+     * are built again.
+     */
+    private static final int MIN_REMOVED_FOR_REBUILD = 1000;
+
+    private final TreeMap<Long, Line> lines = new TreeMap<>();
+    private final Map<Long, Postings> trigrams = new HashMap<>();
+
+    private int removedSinceRebuild;
+
+    /**
+     * Adds a line or changes the text of an already added line.
+     *
+     * @param id The id of the line, new lines must have a higher id than all
+     * lines already in the index
+     * @param text The text of the line
+     * @param user The name of the user the line is from, can be null
+     */
+    public void put(long id, String text, String user) {
+        Line line = new Line(Helper.toLowerCase(text), Helper.toLowerCase(user));
+        lines.put(id, line);
+        addTrigrams(id, line.text);
+    }
+
+    /**
+     * Removes all lines up to and including the given id.
+     *
+     * @param id
+     */
+    public void removeUpTo(long id) {
+        NavigableMap<Long, Line> removed = lines.headMap(id, true);
+        removedSinceRebuild += removed.size();
+        removed.clear();
+        if (removedSinceRebuild > MIN_REMOVED_FOR_REBUILD
+                && removedSinceRebuild > lines.size()) {
+            rebuild();
+        }
+    }
+
+    public void clear() {
+        lines.clear();
+        trigrams.clear();
+        removedSinceRebuild = 0;
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    /**
+     * Builds the trigram lists again from the current lines, so they don't
+     * contain any removed lines or old text anymore.
+     */
+    private void rebuild() {
+        trigrams.clear();
+        for (Map.Entry<Long, Line> entry : lines.entrySet()) {
+            addTrigrams(entry.getKey(), entry.getValue().text);
+        }
+        removedSinceRebuild = 0;
+    }
+
+    private void addTrigrams(long id, String text) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            long key = trigram(text, i);
+            Postings postings = trigrams.get(key);
+            if (postings == null) {
+                postings = new Postings();
+                trigrams.put(key, postings);
+            }
+            postings.add(id);
+        }
+    }
+
+    private static long trigram(String text, int index) {
+        return ((long)text.charAt(index) << 32)
+                | ((long)text.charAt(index + 1) << 16)
+                | text.charAt(index + 2);
+    }
+
+    /**
+     * Finds the next line matching the query.
+     *
+     * @param query What to search for
+     * @param from The id of the line to start after, or -1 to start at the
+     * newest (when searching older lines) or oldest line
+     * @param older true to search older lines, false to search newer lines
+     * @return The id of the found line, or -1 if none was found
+     */
+    public long find(Query query, long from, boolean older) {
+        if (query.isEmpty()) {
+            return -1;
+        }
+        if (query.text != null && query.text.length() >= 3) {
+            return findByTrigrams(query, from, older);
+        }
+        NavigableMap<Long, Line> range = lines;
+        if (from != -1) {
+            range = older ? lines.headMap(from, false) : lines.tailMap(from, false);
+        }
+        if (older) {
+            range = range.descendingMap();
+        }
+        for (Map.Entry<Long, Line> entry : range.entrySet()) {
+            if (query.matches(entry.getValue())) {
+                return entry.getKey();
+            }
+        }
+        return -1;
+    }
+
+    private long findByTrigrams(Query query, long from, boolean older) {
+        // Only the lines with the least common trigram have to be checked
+        Postings candidates = null;
+        for (int i = 0; i + 3 <= query.text.length(); i++) {
+            Postings postings = trigrams.get(trigram(query.text, i));
+            if (postings == null) {
+                return -1;
+            }
+            if (candidates == null || postings.size < candidates.size) {
+                candidates = postings;
+            }
+        }
+        if (older) {
+            int start = from == -1 ? candidates.size - 1 : candidates.indexBefore(from);
+            for (int i = start; i >= 0; i--) {
+                if (matches(query, candidates.ids[i])) {
+                    return candidates.ids[i];
+                }
+            }
+        } else {
+            int start = from == -1 ? 0 : candidates.indexBefore(from + 1) + 1;
+            for (int i = start; i < candidates.size; i++) {
+                if (matches(query, candidates.ids[i])) {
+                    return candidates.ids[i];
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(Query query, long id) {
+        Line line = lines.get(id);
+        return line != null && query.matches(line);
+    }
+
+    /**
+     * What to search for.
+     */
+    public static class Query {
+
+        private final String text;
+        private final Pattern pattern;
+        private final String user;
+
+        /**
+         * Creates a new query. A line has to match both the text and the user
+         * (if given).
+         *
+         * @param text The text to search for (case-insensitive), can be empty
+         * @param regex Whether the text is a regular expression
+         * @param user The name of the user the line has to be from, can be
+         * empty
+         * @throws PatternSyntaxException If the regular expression is invalid
+         */
+        public Query(String text, boolean regex, String user) {
+            if (text == null || text.isEmpty()) {
+                this.text = null;
+                this.pattern = null;
+            } else if (regex) {
+                this.text = null;
+                this.pattern = Pattern.compile(text,
+                        Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            } else {
+                this.text = Helper.toLowerCase(text);
+                this.pattern = null;
+            }
+            if (user == null || user.trim().isEmpty()) {
+                this.user = null;
+            } else {
+                this.user = Helper.toLowerCase(user.trim());
+            }
+        }
+
+        public boolean isEmpty() {
+            return text == null && pattern == null && user == null;
+        }
+
+        private boolean matches(Line line) {
+            if (user != null && !user.equals(line.user)) {
+                return false;
+            }
+            if (text != null) {
+                return line.text.contains(text);
+            }
+            if (pattern != null) {
+                return pattern.matcher(line.text).find();
+            }
+            return true;
+        }
+    }
+
+    private static class Line {
+
+        private final String text;
+        private final String user;
+
+        Line(String text, String user) {
+            this.text = text;
+            this.user = user;
+        }
+    }
+
+    /**
+     * The ids of the lines containing a trigram, sorted.
+     */
+    private static class Postings {
+
+        private long[] ids = new long[4];
+        private int size;
+
+        void add(long id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                // Changed line, which may already be in the list
+                int index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0) {
+                    return;
+                }
+                insert(-index - 1, id);
+                return;
+            }
+            insert(size, id);
+        }
+
+        private void insert(int index, long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        /**
+         * The index of the last id lower than the given id.
+         *
+         * @param id
+         * @return The index, or -1 if there is none
+         */
+        int indexBefore(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index - 1;
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+
+package chatty.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A timer shared by the whole application, so that delayed or repeated tasks
+ * don't each need their own thread.
+ *
+ * Scheduled tasks are kept in a hashed timing wheel: a ring of buckets, each
+ * covering one tick, that a single thread advances once every tick. Adding
+ * and canceling a task doesn't depend on how many tasks are scheduled. Tasks
+ * are run with a precision of one tick.
+ *
+ * Expired tasks are run on a small fixed number of worker threads, so a task
+ * that takes a bit longer (like resolving a host when reconnecting) doesn't
+ * delay all other tasks. Tasks should still be short, anything that takes
+ * longer should be started on a separate thread from the task.
+ *
+ * @author tduva
+ */
+public class TimerService {
+
+    private static final Logger LOGGER = Logger.getLogger(TimerService.class.getName());
+
+    /**
+     * The length of one tick of the wheel (in milliseconds).
+     */
+    private static final int TICK = 50;
+
+    /**
+     * The number of buckets in the wheel (must be a power of two).
+     */
+    private static final int WHEEL_SIZE = 256;
+
+    /**
+     * The number of threads that run expired tasks.
+     */
+    private static final int WORKER_THREADS = 2;
+
+    private static TimerService instance;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Handle>[] wheel = new ArrayDeque[WHEEL_SIZE];
+
+    /**
+     * Tasks that were added, but not yet put into the wheel by the wheel
+     * thread.
+     */
+    private final Queue<Handle> added = new ConcurrentLinkedQueue<>();
+
+    private final ExecutorService workers;
+
+    /**
+     * The time the wheel was started, which all ticks are relative to.
+     */
+    private final long startTime;
+
+    /**
+     * The number of ticks done so far, only accessed by the wheel thread.
+     */
+    private long tick;
+
+    /**
+     * Gets the shared timer, starting its threads if necessary.
+     *
+     * @return The instance
+     */
+    public static synchronized TimerService get() {
+        if (instance == null) {
+            instance = new TimerService();
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    instance.run();
+                }
+            }, "TimerService");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return instance;
+    }
+
+    private TimerService() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        final AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TimerService-"+count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Runs the task once after the given delay.
+     *
+     * @param task The task to run
+     * @param delay The delay in milliseconds
+     * @return The handle that can be used to cancel the task
+     */
+    public Handle schedule(Runnable task, long delay) {
+        return schedule(task, delay, 0);
+    }
+
+    /**
+     * Runs the task repeatedly, first after the given delay and then with the
+     * given delay between the end of one run and the start of the next.
+     *
+     * @param task The task to run
+     * @param delay The delay before the first run in milliseconds
+     * @param period The delay between runs in milliseconds, 0 to only run
+     * once
+     * @return The handle that can be used to cancel the task
+     */
+    public Handle schedule(Runnable task, long delay, long period) {
+        Handle handle = new Handle(task, period);
+        add(handle, delay);
+        return handle;
+    }
+
+    private void add(Handle handle, long delay) {
+        handle.deadline = System.nanoTime() - startTime
+                + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+        added.add(handle);
+    }
+
+    /**
+     * The wheel thread, which advances the wheel once every tick and submits
+     * the expired tasks to the workers.
+     */
+    private void run() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK);
+        while (true) {
+            long sleep = tick * tickNanos - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+                continue;
+            }
+            transferAdded(tickNanos);
+            expire(wheel[(int)(tick & (WHEEL_SIZE - 1))]);
+            tick++;
+        }
+    }
+
+    /**
+     * Puts the added tasks into the bucket of the tick they expire in, which
+     * may be several rounds of the wheel away.
+     *
+     * @param tickNanos The length of a tick in nanoseconds
+     */
+    private void transferAdded(long tickNanos) {
+        Handle handle;
+        while ((handle = added.poll()) != null) {
+            if (handle.isCanceled()) {
+                continue;
+            }
+            long expireTick = Math.max(tick, (handle.deadline + tickNanos - 1) / tickNanos);
+            handle.rounds = (expireTick - tick) / WHEEL_SIZE;
+            wheel[(int)(expireTick & (WHEEL_SIZE - 1))].add(handle);
+        }
+    }
+
+    private void expire(ArrayDeque<Handle> bucket) {
+        Iterator<Handle> it = bucket.iterator();
+        while (it.hasNext()) {
+            final Handle handle = it.next();
+            if (handle.isCanceled()) {
+                it.remove();
+            } else if (handle.rounds > 0) {
+                handle.rounds--;
+            } else {
+                it.remove();
+                workers.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        runTask(handle);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Runs the task and adds it again if it is repeated. Any exception is
+     * caught, since it would otherwise prevent a repeated task from running
+     * again.
+     *
+     * @param handle
+     */
+    private void runTask(Handle handle) {
+        if (handle.isCanceled()) {
+            return;
+        }
+        try {
+            handle.task.run();
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Error running timer task", ex);
+        }
+        if (handle.period > 0 && !handle.isCanceled()) {
+            add(handle, handle.period);
+        }
+    }
+
+    /**
+     * A scheduled task, which can be canceled.
+     */
+    public static class Handle {
+
+        private final Runnable task;
+        private final long period;
+
+        private volatile boolean canceled;
+
+        /**
+         * When the task expires, in nanoseconds relative to the start of the
+         * wheel.
+         */
+        private volatile long deadline;
+
+        /**
+         * How many more rounds of the wheel until the task expires, only
+         * accessed by the wheel thread.
+         */
+        private long rounds;
+
+        private Handle(Runnable task, long period) {
+            this.task = task;
+            this.period = period;
+        }
+
+        /**
+         * Cancels the task, so it won't run again. A run that is already in
+         * progress will still finish.
+         */
+        public void cancel() {
+            canceled = true;
+        }
+
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+
+package chatty.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that allows a number of events in a time window, without
+ * locking. Instead of storing the tokens, it stores the time at which the
+ * bucket would be full again, so taking a token is a single compare-and-set.
+ *
+ * The bucket is sized so that it never allows more than the given number of
+ * events in any sliding window of the given length: part of the events are
+ * available as a burst, the rest is refilled over the window.
+ *
+ * @author tduva
+ */
+public class TokenBucket {
+
+    /**
+     * The time (in milliseconds) until which the currently taken tokens are
+     * refilled, or any time in the past if the bucket is full.
+     */
+    private final AtomicLong fullAt = new AtomicLong();
+
+    private volatile boolean enabled;
+    private volatile long interval;
+    private volatile long burst;
+
+    /**
+     * Creates a new bucket that allows the given number of events in the given
+     * time window.
+     *
+     * @param lines The number of events
+     * @param seconds The time window in seconds
+     * @see setRate(int, int)
+     */
+    public TokenBucket(int lines, int seconds) {
+        setRate(lines, seconds);
+    }
+
+    /**
+     * Changes the number of events allowed in the time window. If either
+     * lines or seconds is 0, then the bucket is disabled and allows any
+     * number of events.
+     *
+     * @param lines The number of events
+     * @param seconds The time window in seconds
+     */
+    public final void setRate(int lines, int seconds) {
+        enabled = lines > 0 && seconds > 0;
+        if (!enabled) {
+            return;
+        }
+        long window = seconds*1000L;
+        long newBurst = Math.max(1, lines / 3);
+        long refilled = lines - newBurst;
+        interval = refilled > 0 ? (window + refilled - 1) / refilled : window + 1;
+        burst = newBurst;
+        fullAt.set(0);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return true if a token was taken, false otherwise
+     */
+    public boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long currentInterval = interval;
+        long limit = now + burst * currentInterval;
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + currentInterval;
+            if (next > limit) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The number of tokens currently available.
+     *
+     * @return The number of tokens, or 1 if the bucket is disabled
+     */
+    public int getAvailable() {
+        if (!enabled) {
+            return 1;
+        }
+        long now = System.currentTimeMillis();
+        long used = (Math.max(fullAt.get(), now) - now + interval - 1) / interval;
+        return (int)Math.max(0, burst - used);
+    }
+
+    /**
+     * How long until the next token becomes available.
+     *
+     * @return The time in milliseconds, 0 if a token is available now
+     */
+    public long getDelay() {
+        if (!enabled) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long next = Math.max(fullAt.get(), now) + interval;
+        return Math.max(0, next - (now + burst * interval));
+    }
+
+}
@@ -7,41 +7,25 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.MediaTracker;
 import java.awt.RenderingHints;
-import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
-import java.awt.image.RenderedImage;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 import java.util.WeakHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
-import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
-import javax.swing.SwingWorker;
 
 /**
  * A single emoticon, that contains a pattern, an URL to the image and
  * a width/height.
  * 
  * It also includes a facility to load the image in a seperate thread once
- * it is needed.
+ * it is needed (see {@link EmoticonImages}).
  * 
  * @author tduva
  */
@@ -76,6 +60,11 @@ public class Emoticon {
      */
     private static final int LOADING_ATTEMPT_DELAY = 30*1000;
     
+    /**
+     * Loads and caches the images for all emotes.
+     */
+    private static final EmoticonImages IMAGES = new EmoticonImages();
+    
     public final Type type;
     public final String code;
     public final int emoteSet;
@@ -246,7 +235,10 @@ public class Emoticon {
     
     /**
      * Requests an ImageIcon to be loaded, returns the default icon at first,
-     * but starts a SwingWorker to get the actual image.
+     * but starts loading the actual image (unless it is already loaded, then
+     * the icon contains the image right away).
+     * 
+     * Should only be used on the EDT.
      * 
      * @param user
      * @return 
@@ -260,10 +252,22 @@ public class Emoticon {
             if (loadImage()) {
                 LOGGER.warning("Trying to load " + code + " again (" + url + ")");
             }
+        } else if (!loading) {
+            IMAGES.touch(url);
         }
         return icon;
     }
     
+    /**
+     * Whether the image is currently being loaded, so the icon will change
+     * once it is done.
+     * 
+     * @return 
+     */
+    public boolean isLoading() {
+        return loading;
+    }
+    
     private void addUser(EmoticonUser user) {
         if (users == null) {
             users = Collections.newSetFromMap(
@@ -285,7 +289,12 @@ public class Emoticon {
             loadingError = false;
             loadingAttempts++;
             lastLoadingAttempt = System.currentTimeMillis();
-            (new IconLoader()).execute();
+            Image image = IMAGES.request(this,
+                    loadingAttempts > TRY_ALTERNATE_AFTER_ATTEMPTS);
+            if (image != null) {
+                icon.setImage(image);
+                loading = false;
+            }
             return true;
         }
         return false;
@@ -323,125 +332,36 @@ public class Emoticon {
     }
     
     /**
-     * A Worker class to load the Icon. Not doing this in it's own thread
-     * can lead to lag when a lot of new icons are being loaded.
+     * The image finished loading (or failed to load), replace the default
+     * icon with the actual loaded image and tell the users that it's loaded.
+     * 
+     * @param image The loaded image, or null if an error occured
      */
-    private class IconLoader extends SwingWorker<ImageIcon,Object> {
-
-        @Override
-        protected ImageIcon doInBackground() throws Exception {
-            ImageIcon loadedIcon = null;
-            
-//            if (true) {
-//                try (InputStream in = new BufferedInputStream(new URL(url).openStream())) {
-//                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-//                    byte[] buffer = new byte[1024];
-//                    while (in.read(buffer) != -1) {
-//                        bytes.write(buffer);
-//                    }
-//                    byte[] response = bytes.toByteArray();
-//                    System.out.println(response);
-//                    loadedIcon = new ImageIcon(response);
-//                    
-//                    try (FileOutputStream fos = new FileOutputStream(
-//                            Chatty.getUserDataDirectory()+File.separator+"emotecache"+File.separator+Helper.md5(url))) {
-//                        fos.write(response);
-//                    } catch (IOException ex) {
-//                        LOGGER.warning(ex.toString());
-//                    }
-//                    
-//                } catch (IOException ex) {
-//                    LOGGER.warning(ex.toString());
-//                }
-//            }
-            
-            if (loadingAttempts <= TRY_ALTERNATE_AFTER_ATTEMPTS) {
-                /**
-                 * Primary method, which should be used if no error occurs. For
-                 * some reason this way loads some images (e.g. Kappa) with more
-                 * contrast. And it overall seems to work well, so changing the
-                 * method completely may not be wise.
-                 */
-                try {
-                    // Use createImage() instead of just using "new ImageIcon()"
-                    // so it doesn't try to load a higher resolution image for
-                    // Retina displays (the Twitch CDN returns a 404 image)
-                    loadedIcon = new ImageIcon(Toolkit.getDefaultToolkit().createImage(new URL(url)));
-                    
-//                    Image img = loadedIcon.getImage();
-//                    BufferedImage bi = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_4BYTE_ABGR);
-//
-//                    Graphics2D g2 = bi.createGraphics();
-//                    g2.drawImage(img, 0, 0, null);
-//                    g2.dispose();
-//                    ImageIO.write(bi, "png",
-//                            new File(Chatty.getUserDataDirectory()+File.separator+"emotecache"+File.separator+Helper.md5(url)));
-                } catch (MalformedURLException ex) {
-                    LOGGER.warning("Invalid url for " + code + ": " + url);
-                    return null;
-                }
-            } else {
-                /**
-                 * Secondary method, with slightly better error messages (well,
-                 * any at all). Not quite sure if there is any way this may work
-                 * while the other one doesn't, but at least it should give a
-                 * better error response. Still, just in case, this also creates
-                 * an ImageIcon if successfull (of course it might just happen
-                 * to attempt this when the server is reachable again).
-                 */
-                try {
-                    // Using URLConnection because just ImageIO.read(URL) didn't
-                    // seem to give very useful error messages
-                    URLConnection c = new URL(url).openConnection();
-                    c.setReadTimeout(10 * 1000);
-                    c.setConnectTimeout(10 * 1000);
-                    
-                    // Try-with-resources on the input stream should also close
-                    // the connection
-                    try (InputStream input = c.getInputStream()) {
-                        Image image = ImageIO.read(input);
-                        if (image != null) {
-                            loadedIcon = new ImageIcon(image);
-                            LOGGER.warning("Loaded emoticon " + code + " via alternate way.");
-                        }
-                    }
-                } catch (IOException ex) {
-                    LOGGER.warning("Error loading emoticon " + code + " (" + url + "): " + ex);
-                }
-            }
-            return loadedIcon;
+    void imageLoaded(Image image) {
+        loading = false;
+        if (icon == null) {
+            return;
         }
-        
-        /**
-         * The image should be done loading, replace the defaulticon with the
-         * actual loaded icon and tell the user that it's loaded.
-         */
-        @Override
-        protected void done() {
-            try {
-                ImageIcon loadedIcon = get();
-                if (loadedIcon == null
-                        || loadedIcon.getImageLoadStatus() == MediaTracker.ERRORED) {
-                    /**
-                     * Only doing this on ERRORED, waiting for COMPLETE would
-                     * not allow animated GIFs to load
-                     */
-                    icon.setImage(getDefaultImage(true));
-                    loadingError = true;
-                    if (loadedIcon != null) {
-                        loadedIcon.getImage().flush();
-                    }
-                } else {
-                    icon.setImage(loadedIcon.getImage());
-                }
-                for (EmoticonUser user : users) {
-                    user.iconLoaded();
-                }
-                loading = false;
-                //users.clear();
-            } catch (InterruptedException | ExecutionException ex) {
-                LOGGER.log(Level.SEVERE, null, ex);
-            }
+        if (image == null) {
+            icon.setImage(getDefaultImage(true));
+            loadingError = true;
+        } else {
+            icon.setImage(image);
+        }
+        for (EmoticonUser user : users) {
+            user.iconLoaded(Emoticon.this);
+        }
+    }
+    
+    /**
+     * The loaded image was removed from the cache, so the next time the icon
+     * is requested, a new icon is created and the image loaded again. Icons
+     * already in use keep the image until they are not used anymore.
+     */
+    void imageRemoved() {
+        if (!loading) {
+            icon = null;
+            loadingAttempts = 0;
         }
     }
     
@@ -501,6 +421,12 @@ public class Emoticon {
 
     public static interface EmoticonUser {
 
-        void iconLoaded();
+        /**
+         * Called on the EDT when the image of the emote finished loading (or
+         * failed to load).
+         * 
+         * @param emote The emote whose image was loaded
+         */
+        void iconLoaded(Emoticon emote);
     }
 }
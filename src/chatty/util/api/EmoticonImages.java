@@ -0,0 +1,255 @@
+package chatty.util.api;
+
+import chatty.Chatty;
+import chatty.util.ImageCache;
+import java.awt.Image;
+import java.awt.MediaTracker;
+import java.awt.Toolkit;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+/**
+ * Loads the images of emotes on a fixed number of threads, using a cache on
+ * disk so images don't have to be downloaded again every time.
+ *
+ * <p>
+ * Emotes requesting an image that is already being loaded (e.g. the same
+ * emote in several emotesets) wait for the same request. Loaded images are
+ * kept in a cache limited by the number of pixels. Images that haven't been
+ * used recently are removed once the cache is full, and the emotes using
+ * them have to load them again (from the disk cache) when they are used
+ * again, so images of emotes that aren't used anymore don't stay in memory.
+ * </p>
+ *
+ * <p>
+ * Except for the actual loading, this should only be used on the EDT.
+ * </p>
+ *
+ * @author tduva
+ */
+class EmoticonImages {
+
+    private static final Logger LOGGER = Logger.getLogger(EmoticonImages.class.getName());
+
+    private static final int LOADER_THREADS = 4;
+
+    /**
+     * How many pixels of loaded images to keep at most (a pixel takes about 4
+     * bytes, so this is about 16MB). Only the first frame of animated images
+     * is counted.
+     */
+    private static final long MAX_PIXELS = 4*1000*1000;
+
+    /**
+     * After how many seconds to check if an image in the disk cache changed.
+     */
+    private static final long CHECK_CACHED_AFTER = 60*60*24*7;
+
+    private final ImageCache diskCache = new ImageCache(
+            Chatty.getUserDataDirectory()+"emotecache", CHECK_CACHED_AFTER);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            LOADER_THREADS, new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EmoteLoader-"+count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * The emotes waiting for an image, by URL.
+     */
+    private final Map<String, List<Emoticon>> requested = new HashMap<>();
+
+    /**
+     * The loaded images by URL, the least recently used first.
+     */
+    private final LinkedHashMap<String, Loaded> loaded = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long pixels;
+
+    /**
+     * Gets the image for the given emote. If it is already loaded it is
+     * returned directly, otherwise it is loaded and
+     * {@link Emoticon#imageLoaded(Image)} is called on the EDT once done.
+     *
+     * @param emote The emote to get the image for
+     * @param alternate Whether to use the alternate way of reading the image
+     * @return The image, or null if it has to be loaded first
+     */
+    public Image request(Emoticon emote, boolean alternate) {
+        final String url = emote.url;
+        Loaded image = loaded.get(url);
+        if (image != null) {
+            image.addEmote(emote);
+            return image.image;
+        }
+        List<Emoticon> waiting = requested.get(url);
+        if (waiting != null) {
+            waiting.add(emote);
+            return null;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(emote);
+        requested.put(url, waiting);
+        final String code = emote.code;
+        final boolean useAlternate = alternate;
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final Image image = load(url, code, useAlternate);
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        done(url, image);
+                    }
+                });
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Marks the image of the given URL as recently used.
+     *
+     * @param url The URL of the image
+     */
+    public void touch(String url) {
+        loaded.get(url);
+    }
+
+    private void done(String url, Image image) {
+        List<Emoticon> emotes = requested.remove(url);
+        if (image != null) {
+            Loaded entry = new Loaded(image, emotes);
+            loaded.put(url, entry);
+            pixels += entry.pixels;
+            removeOld();
+        }
+        for (Emoticon emote : emotes) {
+            emote.imageLoaded(image);
+        }
+    }
+
+    /**
+     * Removes the least recently used images until the cache is small
+     * enough, but keeps at least the most recently used one.
+     */
+    private void removeOld() {
+        Iterator<Loaded> it = loaded.values().iterator();
+        while (pixels > MAX_PIXELS && loaded.size() > 1) {
+            Loaded entry = it.next();
+            it.remove();
+            pixels -= entry.pixels;
+            for (Emoticon emote : entry.emotes) {
+                emote.imageRemoved();
+            }
+        }
+    }
+
+    /**
+     * Loads the image, this is run on one of the loader threads.
+     *
+     * @param url The URL of the image
+     * @param code The emote code, for debug messages
+     * @param alternate Whether to use the alternate way of reading the image
+     * @return The image, or null if an error occured
+     */
+    private Image load(String url, String code, boolean alternate) {
+        if (url == null) {
+            LOGGER.warning("Invalid url for " + code);
+            return null;
+        }
+        byte[] data;
+        try {
+            data = diskCache.get(url);
+        } catch (IOException ex) {
+            LOGGER.warning("Error loading emoticon " + code + " (" + url + "): " + ex);
+            return null;
+        }
+        Image image = null;
+        if (!alternate) {
+            /**
+             * Primary method, which should be used if no error occurs. For
+             * some reason this way loads some images (e.g. Kappa) with more
+             * contrast, and it supports animated GIFs.
+             */
+            ImageIcon icon = new ImageIcon(Toolkit.getDefaultToolkit().createImage(data));
+            /**
+             * Only checking for ERRORED, waiting for COMPLETE would not allow
+             * animated GIFs to load
+             */
+            if (icon.getImageLoadStatus() == MediaTracker.ERRORED) {
+                icon.getImage().flush();
+            } else {
+                image = icon.getImage();
+            }
+        } else {
+            /**
+             * Secondary method, with slightly better error messages (well,
+             * any at all).
+             */
+            try {
+                image = ImageIO.read(new ByteArrayInputStream(data));
+                if (image != null) {
+                    LOGGER.warning("Loaded emoticon " + code + " via alternate way.");
+                }
+            } catch (IOException ex) {
+                LOGGER.warning("Error reading emoticon " + code + " (" + url + "): " + ex);
+            }
+        }
+        if (image == null) {
+            // Don't keep an invalid file in the cache
+            diskCache.remove(url);
+        }
+        return image;
+    }
+
+    /**
+     * A loaded image and the emotes using it.
+     */
+    private static class Loaded {
+
+        private final Image image;
+        private final List<Emoticon> emotes;
+        private final long pixels;
+
+        Loaded(Image image, List<Emoticon> emotes) {
+            this.image = image;
+            this.emotes = emotes;
+            this.pixels = Math.max(1, image.getWidth(null))
+                    * (long)Math.max(1, image.getHeight(null));
+        }
+
+        void addEmote(Emoticon emote) {
+            for (Emoticon added : emotes) {
+                if (added == emote) {
+                    return;
+                }
+            }
+            emotes.add(emote);
+        }
+    }
+
+}
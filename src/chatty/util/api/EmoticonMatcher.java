@@ -0,0 +1,277 @@
+
+package chatty.util.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Finds emoticons in a text, for a certain combination of emotesets and
+ * channel.
+ *
+ * <p>
+ * Most emote codes only consist of word characters and only match at word
+ * boundaries, so instead of checking every single emote against the text, the
+ * text is split into words which are then looked up by their code. Only the
+ * emotes that are actual regular expressions (like the Twitch smileys) are
+ * combined into one pattern that is used to find the positions where any of
+ * them may match.
+ * </p>
+ *
+ * <p>
+ * Instances are created by {@link Emoticons#getMatcher(Set, String)}. They
+ * don't change after being created, so they can be used by several threads
+ * at the same time.
+ * </p>
+ *
+ * @author tduva
+ */
+public class EmoticonMatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(EmoticonMatcher.class.getName());
+
+    private static final Pattern WORD_CODE = Pattern.compile("\\w+");
+
+    private static final Comparator<Match> PRIORITY_COMPARATOR = new Comparator<Match>() {
+
+        @Override
+        public int compare(Match o1, Match o2) {
+            if (o1.priority != o2.priority) {
+                return o1.priority < o2.priority ? -1 : 1;
+            }
+            return Integer.compare(o1.start, o2.start);
+        }
+    };
+
+    private final List<Index> indexes;
+    private final Set<Integer> emotesets;
+
+    /**
+     * All regex emotes of the indexes, to find the positions where any of
+     * them may match, or null if there are no regex emotes.
+     */
+    private final Pattern combined;
+
+    /**
+     * Creates a new matcher.
+     *
+     * @param indexes The emotes to find, the ones found in earlier indexes
+     * have priority if they overlap
+     * @param emotesets The emotesets, which emotes with an emoteset have to
+     * be in
+     */
+    EmoticonMatcher(List<Index> indexes, Set<Integer> emotesets) {
+        this.indexes = indexes;
+        this.emotesets = emotesets;
+        StringBuilder b = new StringBuilder();
+        for (Index index : indexes) {
+            for (Emoticon emote : index.regexEmotes.keySet()) {
+                if (b.length() > 0) {
+                    b.append("|");
+                }
+                b.append("(?:").append(emote.code).append(")");
+            }
+        }
+        if (b.length() > 0) {
+            combined = Pattern.compile(b.toString());
+        } else {
+            combined = null;
+        }
+    }
+
+    /**
+     * Finds all emotes in the given text.
+     *
+     * <p>
+     * The matches may overlap. They are sorted so that the emotes that should
+     * be used are first, so any match that overlaps with one that was used
+     * before should be skipped.
+     * </p>
+     *
+     * @param text The text to search in
+     * @return The list of matches, may be empty
+     */
+    public List<Match> find(String text) {
+        List<Match> result = new ArrayList<>();
+        findWords(text, result);
+        if (combined != null) {
+            findRegex(text, result);
+        }
+        Collections.sort(result, PRIORITY_COMPARATOR);
+        return result;
+    }
+
+    /**
+     * Looks up all words in the text in the indexes.
+     *
+     * @param text
+     * @param result
+     */
+    private void findWords(String text, List<Match> result) {
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && isWordChar(text.charAt(i))) {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1) {
+                String word = text.substring(start, i);
+                for (int p = 0; p < indexes.size(); p++) {
+                    List<Emoticon> found = indexes.get(p).words.get(word);
+                    if (found != null) {
+                        for (Emoticon emote : found) {
+                            if (matchesEmotesets(emote)) {
+                                result.add(new Match(start, i, emote, p));
+                            }
+                        }
+                    }
+                }
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Uses the combined pattern to find positions where any regex emote
+     * matches, and then checks which ones match at that position.
+     *
+     * @param text
+     * @param result
+     */
+    private void findRegex(String text, List<Match> result) {
+        Matcher positions = combined.matcher(text);
+        positions.useTransparentBounds(true);
+        positions.useAnchoringBounds(false);
+        while (positions.find()) {
+            int start = positions.start();
+            for (int p = 0; p < indexes.size(); p++) {
+                for (Map.Entry<Emoticon, Pattern> entry : indexes.get(p).regexEmotes.entrySet()) {
+                    Emoticon emote = entry.getKey();
+                    if (!matchesEmotesets(emote)) {
+                        continue;
+                    }
+                    Matcher m = entry.getValue().matcher(text);
+                    m.region(start, text.length());
+                    m.useTransparentBounds(true);
+                    m.useAnchoringBounds(false);
+                    if (m.lookingAt()) {
+                        result.add(new Match(start, m.end(), emote, p));
+                    }
+                }
+            }
+            // Continue right after the start, since other emotes may match
+            // within this match
+            if (start + 1 >= text.length()) {
+                break;
+            }
+            positions.region(start + 1, text.length());
+        }
+    }
+
+    private boolean matchesEmotesets(Emoticon emote) {
+        return emote.emoteSet == Emoticon.SET_UNDEFINED
+                || emotesets.contains(emote.emoteSet);
+    }
+
+    /**
+     * Whether the given character is part of a word, the same way the regex
+     * word boundary checks it.
+     *
+     * @param c
+     * @return
+     */
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * An emote found in the text.
+     */
+    public static class Match {
+
+        /**
+         * The index of the first character of the match.
+         */
+        public final int start;
+
+        /**
+         * The index after the last character of the match.
+         */
+        public final int end;
+
+        public final Emoticon emote;
+
+        private final int priority;
+
+        private Match(int start, int end, Emoticon emote, int priority) {
+            this.start = start;
+            this.end = end;
+            this.emote = emote;
+            this.priority = priority;
+        }
+
+        @Override
+        public String toString() {
+            return emote.code+"["+start+"-"+end+"]";
+        }
+    }
+
+    /**
+     * The emotes of a single set (like an emoteset or the emotes of a
+     * channel), with the emotes that only match whole words indexed by their
+     * code.
+     */
+    static class Index {
+
+        private final Map<String, List<Emoticon>> words = new HashMap<>();
+        private final Map<Emoticon, Pattern> regexEmotes = new LinkedHashMap<>();
+
+        /**
+         * Creates a new index.
+         *
+         * @param emotes The emotes to add
+         * @param ignoredEmotes The codes of emotes that should not be added
+         */
+        Index(Collection<Emoticon> emotes, Set<String> ignoredEmotes) {
+            for (Emoticon emote : emotes) {
+                if (ignoredEmotes.contains(emote.code)) {
+                    continue;
+                }
+                if (WORD_CODE.matcher(emote.code).matches()) {
+                    List<Emoticon> list = words.get(emote.code);
+                    if (list == null) {
+                        list = new ArrayList<>(1);
+                        words.put(emote.code, list);
+                    }
+                    list.add(emote);
+                } else {
+                    Pattern pattern = compile(emote.code);
+                    if (pattern != null) {
+                        regexEmotes.put(emote, pattern);
+                    }
+                }
+            }
+        }
+
+        private static Pattern compile(String code) {
+            try {
+                return Pattern.compile(code);
+            } catch (PatternSyntaxException ex) {
+                LOGGER.warning("Error compiling pattern for '" + code + "' [" + ex.getLocalizedMessage() + "]");
+                return null;
+            }
+        }
+    }
+
+}
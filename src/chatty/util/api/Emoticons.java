@@ -8,6 +8,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -83,6 +84,34 @@ public class Emoticons {
     
     private boolean loadedFavoritesFromSettings;
     
+    /**
+     * How many matchers for different emoteset/channel combinations to keep.
+     */
+    private static final int MAX_CACHED_MATCHERS = 100;
+    
+    /**
+     * Indexes of the emotes of a single emoteset (or null for the global
+     * emotes), built when they are first needed.
+     */
+    private final Map<Integer, EmoticonMatcher.Index> emotesetIndexes = new HashMap<>();
+    
+    /**
+     * Indexes of the emotes of a single channel.
+     */
+    private final Map<String, EmoticonMatcher.Index> streamIndexes = new HashMap<>();
+    
+    /**
+     * Matchers by emoteset/channel combination, the least recently used one
+     * is removed when there are too many.
+     */
+    private final Map<String, EmoticonMatcher> matchers = new LinkedHashMap<String, EmoticonMatcher>(16, 0.75f, true) {
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, EmoticonMatcher> eldest) {
+            return size() > MAX_CACHED_MATCHERS;
+        }
+    };
+    
     /**
      * Adds the given emoticons and sorts them into different maps, depending
      * on their restrictions.
@@ -98,12 +127,14 @@ public class Emoticons {
      * </ul>
      * 
      * <p>
-     * This is not thread-safe, so it should only be called from the EDT.
+     * This should only be called from the EDT. It is synchronized with
+     * {@link #getMatcher(Set, String)} though, so emotes can be looked for
+     * in other threads.
      * </p>
      * 
      * @param newEmoticons 
      */
-    public void addEmoticons(Set<Emoticon> newEmoticons) {
+    public synchronized void addEmoticons(Set<Emoticon> newEmoticons) {
         for (Emoticon emote : newEmoticons) {
             Set<String> channelRestrictions = emote.getStreamRestrictions();
             if (channelRestrictions != null) {
@@ -129,6 +160,76 @@ public class Emoticons {
                 +streamEmoticons.size()+" channels with exclusive emotes ("
                 +getEmoticons().size()+" global emotes).");
         findFavorites();
+        clearMatchers();
+    }
+    
+    /**
+     * Gets a matcher to find the emotes usable with the given emotesets in the
+     * given channel. Emotes of the emotesets have priority over global emotes,
+     * which have priority over channel emotes.
+     * 
+     * <p>
+     * The matcher is cached, until emotes are added or the ignored emotes are
+     * changed, so it shouldn't be kept for longer than using it once.
+     * </p>
+     * 
+     * <p>
+     * This is thread-safe, so emotes can be looked for outside of the EDT.
+     * </p>
+     * 
+     * @param emotesets The emotesets (e.g. of the user that sent the message)
+     * @param stream The name of the channel, may be null
+     * @return The matcher
+     */
+    public synchronized EmoticonMatcher getMatcher(Set<Integer> emotesets, String stream) {
+        StringBuilder b = new StringBuilder();
+        for (Integer emoteset : emotesets) {
+            b.append(emoteset).append(",");
+        }
+        b.append("#").append(stream);
+        String key = b.toString();
+        EmoticonMatcher matcher = matchers.get(key);
+        if (matcher == null) {
+            List<EmoticonMatcher.Index> indexes = new ArrayList<>();
+            for (Integer emoteset : emotesets) {
+                indexes.add(getEmotesetIndex(emoteset));
+            }
+            indexes.add(getEmotesetIndex(null));
+            indexes.add(getStreamIndex(stream));
+            matcher = new EmoticonMatcher(indexes, new HashSet<>(emotesets));
+            matchers.put(key, matcher);
+        }
+        return matcher;
+    }
+    
+    private EmoticonMatcher.Index getEmotesetIndex(Integer emoteset) {
+        EmoticonMatcher.Index index = emotesetIndexes.get(emoteset);
+        if (index == null) {
+            HashSet<Emoticon> emotes = emoticons.get(emoteset);
+            index = new EmoticonMatcher.Index(emotes != null ? emotes : EMPTY_SET,
+                    ignoredEmotes);
+            emotesetIndexes.put(emoteset, index);
+        }
+        return index;
+    }
+    
+    private EmoticonMatcher.Index getStreamIndex(String stream) {
+        EmoticonMatcher.Index index = streamIndexes.get(stream);
+        if (index == null) {
+            index = new EmoticonMatcher.Index(getEmoticons(stream), ignoredEmotes);
+            streamIndexes.put(stream, index);
+        }
+        return index;
+    }
+    
+    /**
+     * Removes all cached matchers, so they are created again with the current
+     * emotes when they are needed.
+     */
+    private void clearMatchers() {
+        matchers.clear();
+        emotesetIndexes.clear();
+        streamIndexes.clear();
     }
 
     /**
@@ -238,9 +339,10 @@ public class Emoticons {
      * 
      * @param ignoredEmotes A Collection of emote codes to ignore
      */
-    public void setIgnoredEmotes(Collection<String> ignoredEmotes) {
+    public synchronized void setIgnoredEmotes(Collection<String> ignoredEmotes) {
         this.ignoredEmotes.clear();
         this.ignoredEmotes.addAll(ignoredEmotes);
+        clearMatchers();
     }
     
     /**
@@ -257,8 +359,9 @@ public class Emoticons {
      * 
      * @param emoteCode The emote code to add
      */
-    public void addIgnoredEmote(String emoteCode) {
+    public synchronized void addIgnoredEmote(String emoteCode) {
         ignoredEmotes.add(emoteCode);
+        clearMatchers();
     }
     
     /**
@@ -268,7 +371,7 @@ public class Emoticons {
      * @param emote The Emoticon to check
      * @return true if the emote is ignored, false otherwise
      */
-    public boolean isEmoteIgnored(Emoticon emote) {
+    public synchronized boolean isEmoteIgnored(Emoticon emote) {
         return ignoredEmotes.contains(emote.code);
     }
     
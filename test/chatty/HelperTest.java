@@ -68,4 +68,16 @@ public class HelperTest {
         assertEquals(Helper.removeDuplicateWhitespace("       "), " ");
         assertEquals(Helper.removeDuplicateWhitespace(" a  b  "), " a b ");
     }
+    
+    @Test
+    public void removeLinebreaksTest() {
+        assertNull(Helper.removeLinebreaks(null));
+        assertEquals(Helper.removeLinebreaks(""), "");
+        assertEquals(Helper.removeLinebreaks("abc"), "abc");
+        assertEquals(Helper.removeLinebreaks("a\r\nb"), "a b");
+        assertEquals(Helper.removeLinebreaks("a\nb\n"), "a b ");
+        assertEquals(Helper.removeLinebreaks("a\rb"), "a b");
+        assertEquals(Helper.removeLinebreaks("\n\n"), "  ");
+        assertEquals(Helper.removeLinebreaks("\r\n\r"), "  ");
+    }
 }
@@ -0,0 +1,166 @@
+package chatty;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link IrcMessage} parses lines the same way the previous
+ * String based parsing did, using the lines from {@link IrcTest}.
+ *
+ * @author tduva
+ */
+public class IrcMessageTest {
+
+    private static final String[] LINES = new String[]{
+        // MODE
+        ":jtv MODE #lotsofs +o da00",
+        ":jtv MODE #lotsofs +o",
+        "jtv MODE #lotsofs +o da00",
+        "MODE #lotsofs +o da00",
+        ": MODE #lotsofs +o da00",
+        // PRIVMSG
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :EMOTESET tduva [130,793,33]",
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :",
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs",
+        ":jtv!jtvjtv.tmi.twitch.tv PRIVMSG #lotsofs :",
+        ":jtv!jtvjtv.tmi.twitch.tv PRIVMSG #lotsofs :test",
+        ":jtv!jtv@jtv.tmi.twitch.tv #lotsofs :test",
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :"+(char)1+"ACTION action",
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :"+(char)1+"ACTION",
+        ":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG  :tduvatest is now hosting you for 0 viewers. [0]",
+        ":a!b@c PRIVMSG #chan :text with: colon",
+        // Short stuff
+        "",
+        " ",
+        // JOIN/PART
+        ":tduva!tduva@tduva.tmi.twitch.tv JOIN #lotsofs",
+        "tduva!tduva@tduva.tmi.twitch.tv JOIN #lotsofs",
+        ":tduva!tduva@tduva.tmi.twitch.tv JOIN",
+        ":tduvatduva@tduva.tmi.twitch.tv JOIN",
+        ":tduva!tduva@tduva.tmi.twitch.tv PART #lotsofs",
+        // PING
+        "PING :tmi.twitch.tv",
+        "PING :",
+        "PING",
+        // NAMES
+        ":tduva.tmi.twitch.tv 353 tduva = #lotsofs :krazyrasmus deenglow r4m80 adoms",
+        ":tduva.tmi.twitch.tv 353 tduva #lotsofs :krazyrasmus deenglow r4m80 adoms",
+        ":tduva.tmi.twitch.tv 353 tduva = #lotsofs :     ",
+        ":tduva.tmi.twitch.tv 353 tduva = #lotsofs",
+        ":tduva.tmi.twitch.tv 353 tduva #lotsofs :",
+        ":tduva.tmi.twitch.tv 353 tduva #lotsofs",
+        ":tduva.tmi.twitch.tv 366 tduva #lotsofs :End of /NAMES list",
+        ":tduva.tmi.twitch.tv 366 tduva :End of /NAMES list",
+        ":tduva.tmi.twitch.tv 366 tduva #lotsofs :",
+        ":tduva.tmi.twitch.tv 366 tduva #lotsofs",
+        // Other
+        ":tmi.twitch.tv 004 tduva :-",
+        ":tmi.twitch.tv NOTICE * :Login unsuccessful",
+        ":a MODE  #double  +o  name",
+        "\tPING\t:x"
+    };
+
+    private static final Pattern SPACE_PATTERN = Pattern.compile(" ");
+
+    @Test
+    public void sameAsPreviousParsing() {
+        IrcMessage message = new IrcMessage();
+        for (String line : LINES) {
+            String[] expected = parseOld(line);
+            if (expected == null) {
+                assertFalse(line, message.parse(line));
+                continue;
+            }
+            assertTrue(line, message.parse(line));
+            assertEquals(line, expected[0], message.getPrefix());
+            assertEquals(line, expected[1], message.getCommand());
+            assertEquals(line, expected[2], message.getTrailing());
+            String[] params = Arrays.copyOfRange(expected, 3, expected.length);
+            assertArrayEquals(line, params, message.getParameters());
+            assertEquals(line, params.length, message.getParameterCount());
+            assertEquals(line, expected[2].isEmpty(), message.isTrailingEmpty());
+        }
+    }
+
+    @Test
+    public void shortPrefix() {
+        IrcMessage message = new IrcMessage();
+        assertFalse(message.parse(":"));
+        assertFalse(message.parse(":jtv"));
+    }
+
+    @Test
+    public void commandsAndHelpers() {
+        IrcMessage message = new IrcMessage();
+        message.parse(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :"+(char)1+"ACTION action");
+        assertEquals(IrcMessage.Command.PRIVMSG, message.getCommandType());
+        assertEquals("jtv", message.getNick());
+        assertTrue(message.parameterStartsWith(0, "#"));
+        assertTrue(message.parameterEquals(0, "#lotsofs"));
+        assertFalse(message.parameterEquals(0, "#lotsof"));
+        assertTrue(message.trailingStartsWith("ACTION", 1));
+        assertEquals("action", message.getTrailing(7).trim());
+
+        message.parse(":tduva.tmi.twitch.tv 353 tduva = #lotsofs :a b");
+        assertEquals(IrcMessage.Command.RPL_NAMREPLY, message.getCommandType());
+        assertEquals("tduva.tmi.twitch.tv", message.getNick());
+
+        message.parse("PRIVMSGX #abc :a");
+        assertEquals(IrcMessage.Command.OTHER, message.getCommandType());
+        message.parse("PING");
+        assertEquals(IrcMessage.Command.PING, message.getCommandType());
+        assertEquals("", message.getNick());
+
+        try {
+            message.getParameter(0);
+            fail("Expected exception");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void manyParameters() {
+        IrcMessage message = new IrcMessage();
+        StringBuilder b = new StringBuilder("CMD");
+        for (int i = 0; i < 40; i++) {
+            b.append(" p").append(i);
+        }
+        message.parse(b.toString());
+        assertEquals(40, message.getParameterCount());
+        assertEquals("p39", message.getParameter(39));
+    }
+
+    /**
+     * The parsing as it was done before, returning prefix, command, trailing
+     * and then the parameters, or null if the line couldn't be parsed.
+     */
+    private static String[] parseOld(String data) {
+        String prefix = "";
+        String trailing = "";
+        int endOfPrefix = 0;
+        if (data.startsWith(":")) {
+            endOfPrefix = data.indexOf(" ");
+            if (endOfPrefix == -1) {
+                return null;
+            }
+            prefix = data.substring(1, endOfPrefix);
+        }
+        int endOfCommand = data.indexOf(":", endOfPrefix);
+        if (endOfCommand == -1) {
+            endOfCommand = data.length();
+        } else {
+            trailing = data.substring(endOfCommand + 1, data.length());
+        }
+        String commandAndParameter = data.substring(endOfPrefix, endOfCommand).trim();
+        String[] parts = SPACE_PATTERN.split(commandAndParameter);
+        String[] result = new String[parts.length + 2];
+        result[0] = prefix;
+        result[1] = parts[0];
+        result[2] = trailing;
+        System.arraycopy(parts, 1, result, 3, parts.length - 1);
+        return result;
+    }
+}
@@ -15,6 +15,7 @@ import static org.junit.Assert.*;
 public class IrcTest {
     
     Irc irc;
+    String lastMessage;
     
     public IrcTest() {
     }
@@ -39,6 +40,7 @@ public class IrcTest {
             @Override
             void onChannelMessage (String channel, String nick, String from, String text) {
                 System.out.println("Channel Message: "+channel+" "+nick+" "+from+" "+text);
+                lastMessage = channel+" "+nick+" "+text;
             }
             
             @Override
@@ -58,6 +60,15 @@ public class IrcTest {
     // @Test
     // public void hello() {}
     
+    /**
+     * The line should have been handled once it returns.
+     */
+    @Test
+    public void receivedNow() {
+        irc.receivedNow(":abc!abc@abc.tmi.twitch.tv PRIVMSG #lotsofs :hello world");
+        assertEquals("#lotsofs abc hello world", lastMessage);
+    }
+    
     /**
      * This doesn't test if the messages are parsed correctly, but at least if
      * an unhandled exception occurs, which would stop the connection thread
@@ -67,64 +78,64 @@ public class IrcTest {
     public void received() {
         // MODE
         try {
-            irc.received(":jtv MODE #lotsofs +o da00");
-            irc.received(":jtv MODE #lotsofs +o");
-            irc.received("jtv MODE #lotsofs +o da00");
-            irc.received("MODE #lotsofs +o da00");
-            irc.received(": MODE #lotsofs +o da00");
+            irc.receivedNow(":jtv MODE #lotsofs +o da00");
+            irc.receivedNow(":jtv MODE #lotsofs +o");
+            irc.receivedNow("jtv MODE #lotsofs +o da00");
+            irc.receivedNow("MODE #lotsofs +o da00");
+            irc.receivedNow(": MODE #lotsofs +o da00");
         } catch (Exception ex) {
             fail("Exception: "+ex.toString());
         }
         // PRIVMSG
         try {
-            irc.received(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :EMOTESET tduva [130,793,33]");
-            irc.received(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :");
-            irc.received(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs");
-            irc.received(":jtv!jtvjtv.tmi.twitch.tv PRIVMSG #lotsofs :");
-            irc.received(":jtv!jtvjtv.tmi.twitch.tv PRIVMSG #lotsofs :test");
-            irc.received(":jtv!jtv@jtv.tmi.twitch.tv #lotsofs :test");
-            irc.received(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :"+(char)1+"ACTION action");
-            irc.received(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :"+(char)1+"ACTION");
+            irc.receivedNow(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :EMOTESET tduva [130,793,33]");
+            irc.receivedNow(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :");
+            irc.receivedNow(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs");
+            irc.receivedNow(":jtv!jtvjtv.tmi.twitch.tv PRIVMSG #lotsofs :");
+            irc.receivedNow(":jtv!jtvjtv.tmi.twitch.tv PRIVMSG #lotsofs :test");
+            irc.receivedNow(":jtv!jtv@jtv.tmi.twitch.tv #lotsofs :test");
+            irc.receivedNow(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :"+(char)1+"ACTION action");
+            irc.receivedNow(":jtv!jtv@jtv.tmi.twitch.tv PRIVMSG #lotsofs :"+(char)1+"ACTION");
         } catch (Exception ex) {
             fail("Exception: "+ex.toString());
         }
         // Short stuff
         try {
-            irc.received(":");
-            irc.received("");
-            irc.received(" ");
+            irc.receivedNow(":");
+            irc.receivedNow("");
+            irc.receivedNow(" ");
         } catch (Exception ex) {
             fail("Exception: "+ex.toString());
         }
         // JOIN/PART
         try {
-            irc.received(":tduva!tduva@tduva.tmi.twitch.tv JOIN #lotsofs");
-            irc.received("tduva!tduva@tduva.tmi.twitch.tv JOIN #lotsofs");
-            irc.received(":tduva!tduva@tduva.tmi.twitch.tv JOIN");
-            irc.received(":tduvatduva@tduva.tmi.twitch.tv JOIN");
+            irc.receivedNow(":tduva!tduva@tduva.tmi.twitch.tv JOIN #lotsofs");
+            irc.receivedNow("tduva!tduva@tduva.tmi.twitch.tv JOIN #lotsofs");
+            irc.receivedNow(":tduva!tduva@tduva.tmi.twitch.tv JOIN");
+            irc.receivedNow(":tduvatduva@tduva.tmi.twitch.tv JOIN");
         } catch (Exception ex) {
             fail("Exception: "+ex.toString());
         }
         // PING
         try {
-            irc.received("PING :tmi.twitch.tv");
-            irc.received("PING :");
-            irc.received("PING");
+            irc.receivedNow("PING :tmi.twitch.tv");
+            irc.receivedNow("PING :");
+            irc.receivedNow("PING");
         } catch (Exception ex) {
             fail("Exception: "+ex.toString());
         }
         // NAMES
         try {
-            irc.received(":tduva.tmi.twitch.tv 353 tduva = #lotsofs :krazyrasmus deenglow r4m80 adoms");
-            irc.received(":tduva.tmi.twitch.tv 353 tduva #lotsofs :krazyrasmus deenglow r4m80 adoms");
-            irc.received(":tduva.tmi.twitch.tv 353 tduva = #lotsofs :     ");
-            irc.received(":tduva.tmi.twitch.tv 353 tduva = #lotsofs");
-            irc.received(":tduva.tmi.twitch.tv 353 tduva #lotsofs :");
-            irc.received(":tduva.tmi.twitch.tv 353 tduva #lotsofs");
-            irc.received(":tduva.tmi.twitch.tv 366 tduva #lotsofs :End of /NAMES list");
-            irc.received(":tduva.tmi.twitch.tv 366 tduva :End of /NAMES list");
-            irc.received(":tduva.tmi.twitch.tv 366 tduva #lotsofs :");
-            irc.received(":tduva.tmi.twitch.tv 366 tduva #lotsofs");
+            irc.receivedNow(":tduva.tmi.twitch.tv 353 tduva = #lotsofs :krazyrasmus deenglow r4m80 adoms");
+            irc.receivedNow(":tduva.tmi.twitch.tv 353 tduva #lotsofs :krazyrasmus deenglow r4m80 adoms");
+            irc.receivedNow(":tduva.tmi.twitch.tv 353 tduva = #lotsofs :     ");
+            irc.receivedNow(":tduva.tmi.twitch.tv 353 tduva = #lotsofs");
+            irc.receivedNow(":tduva.tmi.twitch.tv 353 tduva #lotsofs :");
+            irc.receivedNow(":tduva.tmi.twitch.tv 353 tduva #lotsofs");
+            irc.receivedNow(":tduva.tmi.twitch.tv 366 tduva #lotsofs :End of /NAMES list");
+            irc.receivedNow(":tduva.tmi.twitch.tv 366 tduva :End of /NAMES list");
+            irc.receivedNow(":tduva.tmi.twitch.tv 366 tduva #lotsofs :");
+            irc.receivedNow(":tduva.tmi.twitch.tv 366 tduva #lotsofs");
         } catch (Exception ex) {
             fail("Exception: "+ex.toString());
         }
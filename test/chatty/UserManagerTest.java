@@ -0,0 +1,77 @@
+package chatty;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class UserManagerTest {
+
+    @Test
+    public void testUsersByName() {
+        UserManager users = new UserManager();
+        User a = users.getUser("#a", "Name");
+        User b = users.getUser("#b", "name");
+        users.getUser("#b", "other");
+        assertSame(a, users.getUser("#a", "NAME"));
+        assertSame(a, users.getUserIfExists("#a", "name"));
+        assertNull(users.getUserIfExists("#c", "name"));
+
+        assertEquals(2, users.getUsersByName("Name").size());
+        assertSame(b, users.getChannelsAndUsersByUserName("name").get("#b"));
+        assertEquals(2, users.getUsersByChannel("#b").size());
+
+        users.clear("#b");
+        assertEquals(1, users.getUsersByName("name").size());
+        assertTrue(users.getUsersByName("other").isEmpty());
+        assertTrue(users.getUsersByChannel("#b").isEmpty());
+        assertNotSame(b, users.getUser("#b", "name"));
+
+        users.clear();
+        assertTrue(users.getUsersByName("name").isEmpty());
+    }
+
+    @Test
+    public void testColor() {
+        UserManager users = new UserManager();
+        User a = users.getUser("#a", "name");
+        users.setColorForUsername("Name", "#FF0000");
+        User b = users.getUser("#b", "name");
+        assertEquals(a.getColor(), b.getColor());
+    }
+
+    @Test
+    public void testConcurrentCreate() throws InterruptedException {
+        final UserManager users = new UserManager();
+        final Set<User> created = new HashSet<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        User user = users.getUser("#test", "user"+(j % 100));
+                        synchronized(created) {
+                            created.add(user);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, created.size());
+        assertEquals(100, users.getUsersByChannel("#test").size());
+    }
+
+}
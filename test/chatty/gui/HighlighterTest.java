@@ -0,0 +1,110 @@
+package chatty.gui;
+
+import chatty.User;
+import chatty.gui.Highlighter.HighlightItem;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class HighlighterTest {
+
+    private static final List<String> ITEMS = Arrays.asList(
+            "user:abc",
+            "chan:#other test",
+            "cs:Kappa",
+            "w:hello",
+            "wcs:Bye",
+            "w:fo+",
+            "re:.*\\d{3}.*",
+            "re:(a)\\1.*",
+            "re:x.*",
+            "user:def re:y.*",
+            "color:red abc",
+            "!chan:#test bla",
+            "test",
+            "",
+            "  ");
+
+    private static final List<String> MESSAGES = Arrays.asList(
+            "test", "Test message", "kappa", "Kappa", "hello world",
+            "HELLO", "helloworld", "say hello.", "bye", "Bye!", "Byebye",
+            "foo", "fooo bar", "f", "123", "12", "aab", "xyz", "yz", "abc",
+            "some abc text", "bla", "ab", "", "\u00e4hello", "hello\u00e4",
+            "hello\nworld");
+
+    @Test
+    public void testSameAsInOrder() {
+        List<HighlightItem> items = new ArrayList<>();
+        for (String item : ITEMS) {
+            if (!item.isEmpty()) {
+                items.add(new HighlightItem(item));
+            }
+        }
+        Highlighter.Items compiled = new Highlighter.Items(items);
+        List<User> users = Arrays.asList(
+                new User("abc", "#test"),
+                new User("def", "#test"),
+                new User("ghi", "#other"));
+        for (User user : users) {
+            for (String message : MESSAGES) {
+                HighlightItem expected = null;
+                for (HighlightItem item : items) {
+                    if (item.matches(user, user.nick, message, message.toLowerCase())) {
+                        expected = item;
+                        break;
+                    }
+                }
+                assertSame(user.nick+": "+message, expected,
+                        compiled.findFirst(user, message));
+            }
+        }
+    }
+
+    @Test
+    public void testUsername() {
+        Highlighter highlighter = new Highlighter();
+        highlighter.setUsername("Name");
+        highlighter.setHighlightUsername(true);
+        User user = new User("abc", "#test");
+        assertTrue(highlighter.findMatch(user, "hi name!").matched);
+        assertTrue(highlighter.findMatch(user, "NAME").matched);
+        assertFalse(highlighter.findMatch(user, "names").matched);
+        assertFalse(highlighter.findMatch(user, "name\nabc").matched);
+
+        highlighter.update(Arrays.asList("color:red test", "cs:Test"));
+        assertEquals(Color.RED, highlighter.findMatch(user, "Test").color);
+        assertTrue(highlighter.findMatch(user, "Test").matched);
+        assertFalse(highlighter.findMatch(user, "abc").matched);
+    }
+
+    @Test
+    public void testStats() {
+        Highlighter highlighter = new Highlighter();
+        highlighter.update(Arrays.asList("abc", "def"));
+        User user = new User("abc", "#test");
+        highlighter.check(user, "abc def");
+        highlighter.check(user, "def");
+        highlighter.check(user, "xyz");
+        // Only counted once actually checked
+        highlighter.findMatch(user, "abc");
+        List<Highlighter.RuleStats> stats = highlighter.getStats();
+        assertEquals(1, stats.get(0).getHits());
+        assertEquals("abc def", stats.get(0).getLastMatch());
+        assertEquals(1, stats.get(1).getHits());
+
+        // Kept for unchanged items
+        highlighter.update(Arrays.asList("def", "ghi"));
+        stats = highlighter.getStats();
+        assertEquals("def", stats.get(0).item);
+        assertEquals(1, stats.get(0).getHits());
+        assertEquals(0, stats.get(1).getHits());
+    }
+
+}
@@ -0,0 +1,42 @@
+package chatty.gui;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class LoadSheddingTest {
+
+    @Test
+    public void testLevels() {
+        LoadShedding load = new LoadShedding();
+        assertFalse(load.check(100));
+        assertEquals(LoadShedding.NONE, load.getLevel());
+
+        // Goes up one step per check
+        assertTrue(load.check(3000));
+        assertFalse(load.showEmotes());
+        assertTrue(load.showUsericons());
+        load.check(3000);
+        load.check(3000);
+        assertFalse(load.showJoinsParts());
+        load.check(3000);
+        assertFalse(load.check(3000));
+        assertEquals(LoadShedding.SAMPLE_MESSAGES, load.getLevel());
+
+        // Goes down only after the lag was low for a while
+        for (int i = 0; i < 9; i++) {
+            assertFalse(load.check(0));
+        }
+        assertTrue(load.check(0));
+        assertEquals(LoadShedding.NO_JOINS_PARTS, load.getLevel());
+        assertTrue(load.keepMessage());
+
+        load.setEnabled(false);
+        assertEquals(LoadShedding.NONE, load.getLevel());
+        assertFalse(load.check(3000));
+    }
+
+}
@@ -0,0 +1,39 @@
+package chatty.gui;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class RepeatedMessagesTest {
+
+    @Test
+    public void testNormalize() {
+        assertEquals("abc def", RepeatedMessages.normalize(" ABC  def\t"));
+        assertEquals(RepeatedMessages.normalize("Kappa Kappa"),
+                RepeatedMessages.normalize("kappa   KAPPA"));
+    }
+
+    @Test
+    public void testCheck() {
+        RepeatedMessages repeated = new RepeatedMessages();
+        assertFalse(repeated.isEnabled());
+        assertFalse(repeated.check("#test", "abc"));
+        assertFalse(repeated.check("#test", "abc"));
+
+        repeated.setTime(30);
+        assertTrue(repeated.isEnabled());
+        assertFalse(repeated.check("#test", "abc"));
+        assertTrue(repeated.check("#test", "abc"));
+        assertFalse(repeated.check("#other", "abc"));
+        assertFalse(repeated.check("#test", "def"));
+        assertTrue(repeated.check("#test", "abc"));
+
+        repeated.setTime(0);
+        repeated.setTime(30);
+        assertFalse(repeated.check("#test", "abc"));
+    }
+
+}
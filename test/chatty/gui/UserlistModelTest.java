@@ -0,0 +1,109 @@
+package chatty.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class UserlistModelTest {
+
+    private static class Item implements Comparable<Item> {
+
+        private int rank;
+        private final String name;
+
+        Item(int rank, String name) {
+            this.rank = rank;
+            this.name = name;
+        }
+
+        @Override
+        public int compareTo(Item o) {
+            if (rank != o.rank) {
+                return Integer.compare(rank, o.rank);
+            }
+            return name.compareTo(o.name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class EventCounter implements ListDataListener {
+
+        private int events;
+
+        @Override
+        public void intervalAdded(ListDataEvent e) {
+            events++;
+        }
+
+        @Override
+        public void intervalRemoved(ListDataEvent e) {
+            events++;
+        }
+
+        @Override
+        public void contentsChanged(ListDataEvent e) {
+            events++;
+        }
+    }
+
+    @Test
+    public void testBatch() {
+        UserlistModel<Item> model = new UserlistModel<>();
+        EventCounter counter = new EventCounter();
+        model.addListDataListener(counter);
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(new Item(0, "user"+(1000 - i)));
+        }
+        model.addAll(items);
+        assertEquals(1, counter.events);
+        assertEquals(1000, model.getSize());
+        assertEquals("user1", model.getElementAt(0).toString());
+
+        // Already added
+        model.addAll(items.subList(0, 10));
+        assertEquals(1000, model.getSize());
+        assertEquals(1, counter.events);
+
+        model.removeAll(items.subList(0, 500));
+        assertEquals(500, model.getSize());
+        assertEquals(3, counter.events);
+        assertEquals("user1", model.getElementAt(0).toString());
+        assertFalse(model.getData().contains(items.get(0)));
+    }
+
+    @Test
+    public void testChangedItem() {
+        UserlistModel<Item> model = new UserlistModel<>();
+        Item a = new Item(1, "a");
+        Item b = new Item(1, "b");
+        Item c = new Item(1, "c");
+        model.addAll(Arrays.asList(a, b, c));
+
+        // Changed in a way that affects sorting, but can still be removed
+        b.rank = 0;
+        model.remove(b);
+        assertEquals(2, model.getSize());
+        model.remove(b);
+        assertEquals(2, model.getSize());
+
+        model.add(b);
+        assertSame(b, model.getElementAt(0));
+        a.rank = 2;
+        model.sort();
+        assertSame(a, model.getElementAt(2));
+    }
+
+}
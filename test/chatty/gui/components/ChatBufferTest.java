@@ -0,0 +1,98 @@
+package chatty.gui.components;
+
+import chatty.User;
+import chatty.gui.components.ChannelTextPane.Attribute;
+import chatty.gui.components.ChatLine.Span;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.ImageIcon;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class ChatBufferTest {
+
+    private static ChatLine message(User user, String text) {
+        SimpleAttributeSet name = new SimpleAttributeSet();
+        name.addAttribute(Attribute.USER, user);
+        name.addAttribute(Attribute.USER_MESSAGE, Boolean.TRUE);
+        List<Span> spans = new ArrayList<>();
+        spans.add(new Span(user.getNick()+": ", name));
+        spans.add(new Span(text, new SimpleAttributeSet()));
+        return new ChatLine(0, spans);
+    }
+
+    private static ChatLine info(String text) {
+        return new ChatLine(0, Arrays.asList(new Span(text, new SimpleAttributeSet())));
+    }
+
+    @Test
+    public void testEviction() {
+        ChatBuffer buffer = new ChatBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, buffer.add(info("line"+i)));
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(2, buffer.getFirstId());
+        assertEquals(4, buffer.getLastId());
+        assertNull(buffer.get(1));
+        assertEquals("line2", buffer.get(2).getText());
+
+        buffer.setCapacity(2);
+        assertEquals(2, buffer.size());
+        assertEquals("line3", buffer.get(3).getText());
+        buffer.add(info("line5"));
+        assertEquals("line4", buffer.get(4).getText());
+        assertEquals("line5", buffer.get(5).getText());
+        assertFalse(buffer.contains(3));
+    }
+
+    @Test
+    public void testSharedAttributes() {
+        SimpleAttributeSet emote = new SimpleAttributeSet();
+        StyleConstants.setIcon(emote, new ImageIcon(new BufferedImage(1, 1,
+                BufferedImage.TYPE_INT_ARGB)));
+        List<Span> spans = new ArrayList<>();
+        ChatLine.addSpan(spans, new Span("a", new SimpleAttributeSet()));
+        ChatLine.addSpan(spans, new Span("b", new SimpleAttributeSet()));
+        ChatLine.addSpan(spans, new Span("E", emote));
+        ChatLine.addSpan(spans, new Span("E", new SimpleAttributeSet(emote)));
+        assertEquals(3, spans.size());
+        assertEquals("ab", spans.get(0).text);
+        assertSame(spans.get(1).attributes, spans.get(2).attributes);
+    }
+
+    @Test
+    public void testUserIndex() {
+        User a = new User("a", "#test");
+        User b = new User("b", "#test");
+        ChatBuffer buffer = new ChatBuffer(3);
+        buffer.add(message(a, "first"));
+        buffer.add(message(b, "second"));
+        buffer.add(message(a, "third"));
+        assertEquals(Arrays.asList(0L, 2L), buffer.getLines(a));
+        assertEquals(2, buffer.getLastLine(a));
+
+        buffer.add(info("info"));
+        assertEquals(Arrays.asList(2L), buffer.getLines(a));
+        buffer.add(info("info"));
+        assertEquals(-1, buffer.getLastLine(b));
+
+        ChatLine deleted = buffer.get(2).deleteMessage("<deleted>", new SimpleAttributeSet());
+        buffer.replace(2, deleted);
+        assertEquals("a: <deleted>", buffer.get(2).getText());
+        assertTrue(buffer.get(2).deleted);
+        assertEquals(Arrays.asList(2L), buffer.getLines(a));
+
+        buffer.clear();
+        assertTrue(buffer.getLines(a).isEmpty());
+    }
+
+}
@@ -0,0 +1,39 @@
+package chatty.gui.components;
+
+import chatty.User;
+import chatty.util.api.Emoticon;
+import chatty.util.api.Emoticons;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class MessageSpecialsTest {
+
+    private static Emoticons createEmoticons() {
+        Set<Emoticon> emotes = new HashSet<>();
+        emotes.add(new Emoticon.Builder(Emoticon.Type.TWITCH, "Kappa",
+                "http://example.com/Kappa", 20, 20).build());
+        emotes.add(new Emoticon.Builder(Emoticon.Type.TWITCH, "com",
+                "http://example.com/com", 20, 20).build());
+        Emoticons emoticons = new Emoticons();
+        emoticons.addEmoticons(emotes);
+        return emoticons;
+    }
+
+    @Test
+    public void testFind() {
+        Emoticons emoticons = createEmoticons();
+        User user = new User("abc", "#test");
+        assertSame(MessageSpecials.NONE, MessageSpecials.find("hello", user, emoticons));
+        assertEquals("[Kappa[0-5], www.example.com/Kappa[6-27], Kappa[28-33]]",
+                MessageSpecials.find("Kappa www.example.com/Kappa Kappa", user, emoticons).toString());
+        assertEquals("[http://example.com[4-22]]",
+                MessageSpecials.find("abc http://example.com Kappa", user, null).toString());
+    }
+
+}
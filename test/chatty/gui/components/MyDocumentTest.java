@@ -0,0 +1,185 @@
+package chatty.gui.components;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.ImageIcon;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that inserting text in batches results in the same document as
+ * inserting each piece of text on it's own (like it was done before).
+ *
+ * @author tduva
+ */
+public class MyDocumentTest {
+
+    /**
+     * Added to every icon when inserting directly, like the unique attribute
+     * every emote used to have, so icons in a row don't end up in the same
+     * element. Removed before comparing.
+     */
+    private static final String ICON_ID = "iconId";
+
+    private static final AttributeSet PARAGRAPH = paragraph();
+    private static final AttributeSet TIMESTAMP = color(0x888888);
+    private static final AttributeSet NAME = color(0x0000FF);
+    private static final AttributeSet TEXT = color(0x000000);
+    private static final AttributeSet INFO = color(0xFF0000);
+    private static final AttributeSet EMOTE = icon();
+    private static final AttributeSet OTHER_EMOTE = icon();
+
+    /**
+     * A piece of text and whether it starts a new line.
+     */
+    private static class Segment {
+
+        private final String text;
+        private final AttributeSet attributes;
+        private final boolean newline;
+
+        Segment(String text, AttributeSet attributes, boolean newline) {
+            this.text = text;
+            this.attributes = attributes;
+            this.newline = newline;
+        }
+    }
+
+    @Test
+    public void testSameStructure() throws BadLocationException {
+        List<List<Segment>> batches = new ArrayList<>();
+        // The first line doesn't start with a linebreak
+        batches.add(Arrays.asList(
+                new Segment("[12:00] ", TIMESTAMP, false),
+                new Segment("abc", NAME, false),
+                new Segment(": ", TEXT, false),
+                new Segment("hello ", TEXT, false),
+                new Segment("Kappa", EMOTE, false),
+                new Segment("Kappa", EMOTE, false),
+                new Segment(" ", TEXT, false),
+                new Segment("Kappa", EMOTE, false),
+                new Segment("FrankerZ", OTHER_EMOTE, false),
+                new Segment(" world", TEXT, false),
+                new Segment("[12:00] ", INFO, true),
+                new Segment("info", INFO, false)));
+        // Starts with the same attributes as the end of the previous batch
+        batches.add(Arrays.asList(
+                new Segment("[12:01] ", INFO, true),
+                new Segment("more info", INFO, false),
+                new Segment("[12:01] ", TIMESTAMP, true),
+                new Segment("abc", NAME, false),
+                new Segment(": ", TEXT, false),
+                new Segment("Kappa", EMOTE, false),
+                new Segment("Kappa", EMOTE, false)));
+        // Starts with an icon right after the same icon
+        batches.add(Arrays.asList(
+                new Segment("Kappa", EMOTE, false),
+                new Segment(" text", TEXT, false)));
+        batches.add(Arrays.asList(
+                new Segment(" more text", TEXT, false)));
+
+        MyDocument direct = new MyDocument();
+        int iconId = 0;
+        for (List<Segment> batch : batches) {
+            for (Segment segment : batch) {
+                AttributeSet attributes = segment.attributes;
+                if (AttributePool.isIcon(attributes)) {
+                    SimpleAttributeSet unique = new SimpleAttributeSet(attributes);
+                    unique.addAttribute(ICON_ID, iconId++);
+                    attributes = unique;
+                }
+                direct.insertString(direct.getLength(),
+                        (segment.newline ? "\n" : "")+segment.text, attributes);
+                direct.setParagraphAttributes(direct.getLength(), 1, PARAGRAPH, true);
+            }
+        }
+
+        MyDocument batched = new MyDocument();
+        for (List<Segment> batch : batches) {
+            batched.setParagraphAttributes(batched.getLength(), 1, PARAGRAPH, true);
+            for (Segment segment : batch) {
+                if (segment.newline) {
+                    batched.addPendingLinebreak(segment.attributes, PARAGRAPH);
+                }
+                batched.addPendingText(segment.text, segment.attributes);
+            }
+            assertTrue(batched.hasPending());
+            batched.insertPending();
+            assertFalse(batched.hasPending());
+            batched.setParagraphAttributes(batched.getLength(), 1, PARAGRAPH, true);
+        }
+
+        assertEquals(direct.getText(0, direct.getLength()),
+                batched.getText(0, batched.getLength()));
+        assertEquals(describe(direct), describe(batched));
+        // Just to make sure the icons weren't combined in both
+        assertEquals(7, countIcons(batched));
+    }
+
+    /**
+     * Lists the paragraphs and their leaf elements with their offsets and
+     * attributes.
+     */
+    private static List<String> describe(MyDocument doc) {
+        List<String> result = new ArrayList<>();
+        Element root = doc.getDefaultRootElement();
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element paragraph = root.getElement(i);
+            result.add("P"+i+" "+attributes(paragraph));
+            for (int j = 0; j < paragraph.getElementCount(); j++) {
+                Element leaf = paragraph.getElement(j);
+                result.add("  "+leaf.getStartOffset()+"-"+leaf.getEndOffset()
+                        +" "+attributes(leaf));
+            }
+        }
+        return result;
+    }
+
+    private static SimpleAttributeSet attributes(Element element) {
+        SimpleAttributeSet result = new SimpleAttributeSet(element.getAttributes());
+        result.removeAttribute(ICON_ID);
+        return result;
+    }
+
+    private static int countIcons(MyDocument doc) {
+        int count = 0;
+        Element root = doc.getDefaultRootElement();
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element paragraph = root.getElement(i);
+            for (int j = 0; j < paragraph.getElementCount(); j++) {
+                if (AttributePool.isIcon(paragraph.getElement(j).getAttributes())) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static AttributeSet color(int rgb) {
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        StyleConstants.setForeground(attributes, new java.awt.Color(rgb));
+        return attributes;
+    }
+
+    private static AttributeSet icon() {
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        StyleConstants.setIcon(attributes, new ImageIcon(
+                new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)));
+        return attributes;
+    }
+
+    private static AttributeSet paragraph() {
+        SimpleAttributeSet attributes = new SimpleAttributeSet();
+        StyleConstants.setSpaceAbove(attributes, 2);
+        StyleConstants.setLeftIndent(attributes, 4);
+        return attributes;
+    }
+
+}
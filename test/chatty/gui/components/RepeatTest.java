@@ -0,0 +1,58 @@
+package chatty.gui.components;
+
+import chatty.User;
+import chatty.gui.components.ChannelTextPane.Repeat;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class RepeatTest {
+
+    @Test
+    public void testInfo() {
+        User author = new User("author", "#test");
+        Repeat repeat = new Repeat(author, "copypasta");
+        assertEquals("", repeat.getInfo());
+        repeat.add(author);
+        assertEquals(" \u00D72", repeat.getInfo());
+        for (int i = 0; i < 5; i++) {
+            repeat.add(new User("user"+i, "#test"));
+        }
+        assertEquals(" \u00D77 (user0, user1, user2 and 2 others)", repeat.getInfo());
+    }
+
+    @Test
+    public void testBanned() {
+        User author = new User("author", "#test");
+        User spammer = new User("spammer", "#test");
+        User other = new User("other", "#test");
+        Repeat repeat = new Repeat(author, "copypasta");
+        repeat.add(spammer);
+        repeat.add(other);
+        repeat.add(spammer);
+        repeat.add(spammer);
+        assertEquals(5, repeat.getCount());
+        assertEquals(3, repeat.getCount(spammer));
+        assertEquals(" \u00D75 (spammer, other)", repeat.getInfo());
+
+        // Banned user is removed with all their repeats
+        assertTrue(repeat.remove(spammer));
+        assertEquals(2, repeat.getCount());
+        assertEquals(0, repeat.getCount(spammer));
+        assertEquals(" \u00D72 (other)", repeat.getInfo());
+        assertFalse(repeat.remove(spammer));
+
+        // Not repeated anymore
+        assertTrue(repeat.remove(other));
+        assertEquals(1, repeat.getCount());
+        assertEquals("", repeat.getInfo());
+        assertTrue(repeat.getUsers().isEmpty());
+
+        // The author isn't counted as repeating user
+        assertFalse(repeat.remove(author));
+    }
+
+}
@@ -0,0 +1,47 @@
+package chatty.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class ImageCacheTest {
+
+    @Test
+    public void testCache() throws IOException {
+        Path dir = Files.createTempDirectory("imagecache");
+        Path source = dir.resolve("source.png");
+        Files.write(source, new byte[]{1, 2, 3});
+        String url = source.toUri().toString();
+
+        ImageCache cache = new ImageCache(dir.resolve("cache").toString(), 60);
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(url));
+
+        // Still cached after the source is gone
+        Files.delete(source);
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get(url));
+
+        // Expired, but the cached file is still used when it can't be loaded
+        ImageCache expired = new ImageCache(dir.resolve("cache").toString(), -1);
+        assertArrayEquals(new byte[]{1, 2, 3}, expired.get(url));
+
+        // Loaded again when expired
+        Files.write(source, new byte[]{4});
+        assertArrayEquals(new byte[]{4}, expired.get(url));
+
+        cache.remove(url);
+        Files.delete(source);
+        try {
+            cache.get(url);
+            fail("Removed from cache");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+}
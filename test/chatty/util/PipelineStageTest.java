@@ -0,0 +1,127 @@
+package chatty.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class PipelineStageTest {
+
+    /**
+     * Items starting with "!" can't be dropped, all others can be combined.
+     */
+    private static class TestCollapser implements PipelineStage.Collapser<String> {
+
+        private final List<String> dropped = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public boolean isDroppable(String item) {
+            return !item.startsWith("!");
+        }
+
+        @Override
+        public String collapse(String older, String newer) {
+            return older+"+"+newer;
+        }
+
+        @Override
+        public void dropped(String item) {
+            dropped.add(item);
+        }
+    }
+
+    @Test
+    public void testOrder() throws InterruptedException {
+        Recorder recorder = new Recorder(100);
+        PipelineStage<String> stage = new PipelineStage<>("Test", 10, 5,
+                PipelineStage.Overflow.BLOCK, recorder);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            stage.offer(String.valueOf(i));
+            expected.add(String.valueOf(i));
+        }
+        assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, recorder.handled);
+        assertEquals(0, stage.getLostCount());
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        Recorder recorder = new Recorder(4);
+        PipelineStage<String> stage = new PipelineStage<>("Test", 3, 10,
+                PipelineStage.Overflow.DROP_OLDEST, recorder);
+        TestCollapser collapser = new TestCollapser();
+        stage.setCollapser(collapser);
+        fill(stage, recorder);
+        stage.offer("!keep");
+        stage.offer("d");
+        recorder.gate.countDown();
+        assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "c", "!keep", "d"), recorder.handled);
+        assertEquals(Arrays.asList("a", "b"), collapser.dropped);
+        assertEquals(2, stage.getLostCount());
+    }
+
+    @Test
+    public void testCollapse() throws InterruptedException {
+        Recorder recorder = new Recorder(4);
+        PipelineStage<String> stage = new PipelineStage<>("Test", 3, 10,
+                PipelineStage.Overflow.COLLAPSE, recorder);
+        TestCollapser collapser = new TestCollapser();
+        stage.setCollapser(collapser);
+        fill(stage, recorder);
+        stage.offer("d");
+        recorder.gate.countDown();
+        assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "a+b", "c", "d"), recorder.handled);
+        assertTrue(collapser.dropped.isEmpty());
+        assertEquals(1, stage.getLostCount());
+    }
+
+    /**
+     * Adds an item that keeps the handler waiting, and then fills the queue.
+     */
+    private static void fill(PipelineStage<String> stage, Recorder recorder)
+            throws InterruptedException {
+        stage.offer("first");
+        assertTrue(recorder.started.await(5, TimeUnit.SECONDS));
+        stage.offer("a");
+        stage.offer("b");
+        stage.offer("c");
+    }
+
+    private static class Recorder implements PipelineStage.Handler<String> {
+
+        private final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final CountDownLatch done;
+
+        Recorder(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        @Override
+        public void handle(String item) {
+            if (item.equals("first")) {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            handled.add(item);
+            done.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package chatty.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class SearchIndexTest {
+
+    private static SearchIndex.Query query(String text) {
+        return new SearchIndex.Query(text, false, null);
+    }
+
+    @Test
+    public void testFind() {
+        SearchIndex index = new SearchIndex();
+        index.put(0, "[12:00] abc: Hello World", "abc");
+        index.put(1, "[12:01] def: hello there", "def");
+        index.put(2, "[12:02] abc: something else", "abc");
+        index.put(3, "[12:03] def: HELLO again", "def");
+
+        assertEquals(3, index.find(query("hello"), -1, true));
+        assertEquals(1, index.find(query("hello"), 3, true));
+        assertEquals(0, index.find(query("hello"), 1, true));
+        assertEquals(-1, index.find(query("hello"), 0, true));
+        assertEquals(0, index.find(query("hello"), -1, false));
+        assertEquals(1, index.find(query("hello"), 0, false));
+        assertEquals(-1, index.find(query("nothing"), -1, true));
+
+        // Short text, user and regex
+        assertEquals(2, index.find(query("e"), 3, true));
+        assertEquals(2, index.find(new SearchIndex.Query("", false, "ABC"), -1, true));
+        assertEquals(0, index.find(new SearchIndex.Query("hello", false, "abc"), -1, true));
+        assertEquals(3, index.find(new SearchIndex.Query("hel+o a", true, null), -1, true));
+        assertEquals(-1, index.find(new SearchIndex.Query("", false, ""), -1, true));
+    }
+
+    @Test
+    public void testChange() {
+        SearchIndex index = new SearchIndex();
+        index.put(0, "abc: first message", "abc");
+        index.put(1, "abc: second message", "abc");
+        index.put(0, "abc: <message deleted>", "abc");
+        assertEquals(1, index.find(query("message"), -1, true));
+        assertEquals(0, index.find(query("message"), 1, true));
+        assertEquals(-1, index.find(query("first"), -1, true));
+        assertEquals(0, index.find(query("deleted"), -1, true));
+
+        index.removeUpTo(0);
+        assertEquals(1, index.size());
+        assertEquals(-1, index.find(query("message"), 1, true));
+    }
+
+    @Test
+    public void testRebuild() {
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < 5000; i++) {
+            index.put(i, "line "+i, null);
+            if (i >= 500) {
+                index.removeUpTo(i - 500);
+            }
+        }
+        assertEquals(500, index.size());
+        assertEquals(4999, index.find(query("line"), -1, true));
+        assertEquals(4500, index.find(query("line"), -1, false));
+        assertEquals(4510, index.find(query("line 4510"), -1, true));
+        assertEquals(-1, index.find(query("line 4499"), -1, true));
+    }
+
+}
@@ -0,0 +1,41 @@
+
+package chatty.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void testBurst() {
+        // 18 lines in 30 seconds allows 6 right away, then one every 2.5s
+        TokenBucket bucket = new TokenBucket(18, 30);
+        assertEquals(6, bucket.getAvailable());
+        for (int i = 0; i < 6; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+        assertEquals(0, bucket.getAvailable());
+        assertTrue(bucket.getDelay() > 0);
+        assertTrue(bucket.getDelay() <= 2500);
+    }
+
+    @Test
+    public void testDisabled() {
+        TokenBucket bucket = new TokenBucket(0, 30);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertEquals(0, bucket.getDelay());
+
+        // Changing the rate resets the bucket
+        bucket.setRate(3, 30);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+}
@@ -0,0 +1,68 @@
+package chatty.util.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author tduva
+ */
+public class EmoticonMatcherTest {
+
+    private static Emoticon emote(String code, int emoteset, String stream) {
+        Emoticon.Builder b = new Emoticon.Builder(Emoticon.Type.TWITCH, code,
+                "http://example.com/"+code, 20, 20);
+        b.setEmoteset(emoteset);
+        b.addStreamRestriction(stream);
+        return b.build();
+    }
+
+    private static Emoticons createEmoticons() {
+        Set<Emoticon> emotes = new HashSet<>();
+        emotes.add(emote("Kappa", Emoticon.SET_UNDEFINED, null));
+        emotes.add(emote("\\:-?\\)", Emoticon.SET_UNDEFINED, null));
+        emotes.add(emote("<3", Emoticon.SET_UNDEFINED, null));
+        emotes.add(emote("subEmote", 123, null));
+        emotes.add(emote("ffzEmote", Emoticon.SET_UNDEFINED, "abc"));
+        Emoticons emoticons = new Emoticons();
+        emoticons.addEmoticons(emotes);
+        return emoticons;
+    }
+
+    @Test
+    public void testWords() {
+        Emoticons emoticons = createEmoticons();
+        EmoticonMatcher matcher = emoticons.getMatcher(Collections.<Integer>emptySet(), "abc");
+        assertEquals("[Kappa[0-5], Kappa[13-18], ffzEmote[19-27]]",
+                matcher.find("Kappa KappaX Kappa ffzEmote subEmote Kappa\u00e9").toString());
+        assertEquals("[]", emoticons.getMatcher(Collections.<Integer>emptySet(), "other")
+                .find("ffzEmote").toString());
+        assertEquals("[subEmote[0-8]]", emoticons.getMatcher(
+                new HashSet<>(Arrays.asList(123)), null).find("subEmote").toString());
+    }
+
+    @Test
+    public void testRegex() {
+        Emoticons emoticons = createEmoticons();
+        EmoticonMatcher matcher = emoticons.getMatcher(Collections.<Integer>emptySet(), null);
+        List<EmoticonMatcher.Match> found = matcher.find("a:) :-)<3 Kappa");
+        assertEquals("[\\:-?\\)[1-3], \\:-?\\)[4-7], <3[7-9], Kappa[10-15]]",
+                found.toString());
+    }
+
+    @Test
+    public void testIgnored() {
+        Emoticons emoticons = createEmoticons();
+        assertEquals(1, emoticons.getMatcher(Collections.<Integer>emptySet(), null)
+                .find("Kappa").size());
+        emoticons.addIgnoredEmote("Kappa");
+        assertEquals(0, emoticons.getMatcher(Collections.<Integer>emptySet(), null)
+                .find("Kappa").size());
+    }
+
+}